@@ -4,6 +4,8 @@ import com.google.appengine.api.taskqueue.DeferredTask;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.getsentry.raven.connection.Connection;
+import com.getsentry.raven.connection.EventDeliveries;
+import com.getsentry.raven.connection.FlushableConnection;
 import com.getsentry.raven.environment.RavenEnvironment;
 import com.getsentry.raven.event.Event;
 import org.slf4j.Logger;
@@ -30,7 +32,7 @@ import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withPayload
  * The register works based on identifier defined by the user. There is no ID conflict handling, the user is expected
  * to manage the uniqueness of those ID.
  */
-public class AppEngineAsyncConnection implements Connection {
+public class AppEngineAsyncConnection implements FlushableConnection {
     private static final Logger logger = LoggerFactory.getLogger(AppEngineAsyncConnection.class);
     private static final Map<String, AppEngineAsyncConnection> APP_ENGINE_ASYNC_CONNECTIONS = new HashMap<>();
     /**
@@ -71,8 +73,23 @@ public class AppEngineAsyncConnection implements Connection {
      */
     @Override
     public void send(Event event) {
-        if (!closed)
-            queue.add(withPayload(new EventSubmitter(id, event)));
+        if (closed) {
+            EventDeliveries.dropped(event, "The App Engine async connection has been closed.");
+            return;
+        }
+        queue.add(withPayload(new EventSubmitter(id, event)));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The events are added to the task queue by {@link #send(Event)} itself, the tasks are then run by App Engine
+     * whether or not the current request is over. Only the actual connection is flushed.
+     */
+    @Override
+    public boolean flush(long timeout) {
+        return !(actualConnection instanceof FlushableConnection)
+                || ((FlushableConnection) actualConnection).flush(timeout);
     }
 
     /**
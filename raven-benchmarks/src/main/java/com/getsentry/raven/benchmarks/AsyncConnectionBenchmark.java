@@ -0,0 +1,90 @@
+package com.getsentry.raven.benchmarks;
+
+import com.getsentry.raven.connection.AsyncConnection;
+import com.getsentry.raven.connection.Connection;
+import com.getsentry.raven.connection.RingBufferAsyncConnection;
+import com.getsentry.raven.connection.WaitStrategy;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the cost of handing events over to the async connections, for the threads sending them.
+ * <p>
+ * Run with several numbers of producer threads, for instance
+ * {@code java -jar raven-benchmarks/target/benchmarks.jar AsyncConnectionBenchmark -t 8} then 16, 32 and 64.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncConnectionBenchmark {
+    private static final int QUEUE_SIZE = 8192;
+    private static final int CONSUMER_THREADS = 4;
+
+    /**
+     * Queue of the async connection: {@code executor} for {@link AsyncConnection}, or the wait strategy of a
+     * {@link RingBufferAsyncConnection}.
+     */
+    @Param({"executor", "spin", "yield", "park"})
+    public String queue;
+    private final AtomicLong sentEvents = new AtomicLong();
+    private Connection connection;
+    private Event event;
+
+    @Setup
+    public void setUp() {
+        event = new EventBuilder().withMessage("Benchmark").withServerName("benchmark").build();
+        Connection countingConnection = new Connection() {
+            @Override
+            public void send(Event sentEvent) {
+                sentEvents.incrementAndGet();
+            }
+
+
+            @Override
+            public void close() {
+            }
+        };
+
+        if ("executor".equals(queue)) {
+            ExecutorService executorService = new ThreadPoolExecutor(CONSUMER_THREADS, CONSUMER_THREADS,
+                    0L, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(QUEUE_SIZE), new DaemonThreadFactory(),
+                    new AsyncConnection.DiscardOldestEventPolicy());
+            connection = new AsyncConnection(countingConnection, executorService, false);
+        } else {
+            connection = new RingBufferAsyncConnection(countingConnection, QUEUE_SIZE, CONSUMER_THREADS,
+                    WaitStrategy.valueOf(queue.toUpperCase(Locale.ROOT)), new DaemonThreadFactory(), false);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        connection.close();
+    }
+
+    @Benchmark
+    public void send() {
+        connection.send(event);
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "benchmark-consumer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.getsentry.raven.http2.connection;
+
+import com.getsentry.raven.connection.AbstractConnection;
+import com.getsentry.raven.connection.ConnectionException;
+import com.getsentry.raven.connection.EventPayload;
+import com.getsentry.raven.connection.PayloadConnection;
+import com.getsentry.raven.connection.RateLimiter;
+import com.getsentry.raven.connection.TooManyRequestsException;
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.marshaller.Marshaller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Connection to a Sentry server over HTTP/2, with the {@link HttpClient} of Java 11.
+ * <p>
+ * The concurrent submissions are multiplexed as streams of a single connection per host, and the thread sending an
+ * event doesn't wait for the response of Sentry: the request is sent with {@link HttpClient#sendAsync}, and its
+ * outcome is reported to {@link com.getsentry.raven.connection.EventDeliveries} once the response has been received.
+ * As with {@link com.getsentry.raven.connection.nio.NioHttpConnection}, the failed submissions are only logged; the
+ * circuit is opened when no more submissions can be started, see {@link #setMaxConcurrentRequests(int)}.
+ * <p>
+ * Servers which don't support HTTP/2 are sent HTTP/1.1 requests by the same client.
+ */
+public class Http2Connection extends AbstractConnection implements PayloadConnection {
+    private static final Logger logger = LoggerFactory.getLogger(Http2Connection.class);
+    /**
+     * HTTP Header for the user agent.
+     */
+    private static final String USER_AGENT = "User-Agent";
+    /**
+     * HTTP Header for the authentication to Sentry.
+     */
+    private static final String SENTRY_AUTH = "X-Sentry-Auth";
+    /**
+     * HTTP Header for the encoding of the content.
+     */
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    /**
+     * Default timeout (in ms) of the connection to Sentry, and of the wait for a submission to start.
+     */
+    private static final int DEFAULT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Default timeout (in ms) of a request, until the response of Sentry has been received.
+     */
+    private static final int DEFAULT_READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(5);
+    /**
+     * Default maximum number of requests sent at the same time, under the usual limit of concurrent streams.
+     */
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 100;
+    /**
+     * Maximum time (in ms) given to the pending requests when the connection is closed.
+     */
+    private static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_MULTIPLE_CHOICES = 300;
+    private static final AtomicInteger CLIENT_COUNTER = new AtomicInteger();
+    /**
+     * URI of the Sentry endpoint.
+     */
+    private final URI sentryUri;
+    /**
+     * Threads completing the requests, stopped when the connection is closed.
+     */
+    private final ExecutorService executor;
+    private final Object pendingLock = new Object();
+    /**
+     * Marshaller used to transform the {@link Event} into the body of the requests.
+     */
+    private Marshaller marshaller;
+    private int timeout = DEFAULT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    private volatile Semaphore requestPermits = new Semaphore(DEFAULT_MAX_CONCURRENT_REQUESTS, true);
+    /**
+     * Client sending the requests, created on the first submission.
+     */
+    private volatile HttpClient httpClient;
+    /**
+     * Number of requests waiting for their response, guarded by {@link #pendingLock}.
+     */
+    private int pendingRequests;
+
+    /**
+     * Creates an HTTP/2 connection to a Sentry server.
+     *
+     * @param sentryUrl URL to the Sentry API, see
+     *                  {@link com.getsentry.raven.connection.HttpConnection#getSentryApiUrl(URI, String)}.
+     * @param publicKey public key of the current project.
+     * @param secretKey private key of the current project.
+     */
+    public Http2Connection(URL sentryUrl, String publicKey, String secretKey) {
+        super(publicKey, secretKey);
+        try {
+            this.sentryUri = sentryUrl.toURI();
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Couldn't use the URL of the Sentry API '" + sentryUrl + "'.", e);
+        }
+        final int clientNumber = CLIENT_COUNTER.incrementAndGet();
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadCounter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "raven-http2-" + clientNumber + "-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private HttpClient getHttpClient() {
+        HttpClient client = httpClient;
+        if (client == null) {
+            synchronized (this) {
+                client = httpClient;
+                if (client == null) {
+                    client = HttpClient.newBuilder()
+                            .version(HttpClient.Version.HTTP_2)
+                            .connectTimeout(Duration.ofMillis(timeout))
+                            .executor(executor)
+                            .build();
+                    httpClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    @Override
+    protected void doSend(Event event) throws ConnectionException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        marshaller.marshall(event, content);
+        doSendPayload(new EventPayload(event.getId(), content.toByteArray(), marshaller.getContentEncoding()));
+    }
+
+    @Override
+    public void send(EventPayload payload) {
+        sendPayload(payload);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The request is started once a permit is acquired, and the method returns without waiting for the response.
+     */
+    @Override
+    protected void doSendPayload(final EventPayload payload) throws ConnectionException {
+        final Semaphore permits = requestPermits;
+        try {
+            if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+                throw new ConnectionException("Too many requests are waiting for the response of the sentry server.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException("Interrupted while waiting to send a request to the sentry server.", e);
+        }
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(sentryUri)
+                .timeout(Duration.ofMillis(readTimeout))
+                .header(USER_AGENT, RavenEnvironment.NAME)
+                .header(SENTRY_AUTH, getAuthHeader())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(toByteArray(payload)));
+        if (payload.getContentEncoding() != null)
+            request.header(CONTENT_ENCODING, payload.getContentEncoding());
+
+        synchronized (pendingLock) {
+            pendingRequests++;
+        }
+        try {
+            getHttpClient().sendAsync(request.build(), HttpResponse.BodyHandlers.ofString())
+                    .whenComplete(new BiConsumer<HttpResponse<String>, Throwable>() {
+                        @Override
+                        public void accept(HttpResponse<String> response, Throwable failure) {
+                            try {
+                                complete(payload, response, failure);
+                            } finally {
+                                permits.release();
+                                requestCompleted();
+                            }
+                        }
+                    });
+        } catch (RuntimeException e) {
+            permits.release();
+            requestCompleted();
+            throw e;
+        }
+    }
+
+    private static byte[] toByteArray(EventPayload payload) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(payload.getSize());
+        try {
+            payload.writeTo(content);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't copy the content of the event " + payload.getEventId(), e);
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Reports the outcome of a request once its response has been received, or once it failed.
+     *
+     * @param payload  marshalled event sent by the request.
+     * @param response response of Sentry, null if the request failed.
+     * @param failure  exception which occurred while sending the request, null if a response has been received.
+     */
+    private void complete(EventPayload payload, HttpResponse<String> response, Throwable failure) {
+        if (failure != null) {
+            logger.warn("An exception occurred while sending the event {} to the sentry server.",
+                    payload.getEventId(), failure);
+            reportFailure(payload, new ConnectionException("The request to the sentry server failed.", failure));
+        } else if (response.statusCode() >= HTTP_OK && response.statusCode() < HTTP_MULTIPLE_CHOICES) {
+            reportDelivery(payload);
+        } else {
+            String errorMessage = response.body();
+            if (errorMessage == null || errorMessage.isEmpty())
+                errorMessage = "The sentry server answered with the status " + response.statusCode() + ".";
+            if (response.statusCode() == RateLimiter.TOO_MANY_REQUESTS) {
+                long retryAfter = RateLimiter.parseRetryAfter(
+                        response.headers().firstValue(RateLimiter.RETRY_AFTER_HEADER).orElse(null),
+                        response.headers().firstValue(RateLimiter.SENTRY_RATE_LIMITS_HEADER).orElse(null));
+                logger.warn("The sentry server asked to stop sending events for {}ms.", retryAfter);
+                getRateLimiter().limitFor(retryAfter);
+                reportFailure(payload, new TooManyRequestsException(errorMessage, null, retryAfter));
+                return;
+            }
+            logger.warn("The event {} was refused by the sentry server: {}", payload.getEventId(), errorMessage);
+            reportFailure(payload, new ConnectionException(errorMessage));
+        }
+    }
+
+    private void requestCompleted() {
+        synchronized (pendingLock) {
+            pendingRequests--;
+            if (pendingRequests == 0)
+                pendingLock.notifyAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Waits for the responses of the requests started so far.
+     */
+    @Override
+    public boolean flush(long flushTimeout) {
+        long deadline = System.currentTimeMillis() + flushTimeout;
+        synchronized (pendingLock) {
+            try {
+                while (pendingRequests > 0) {
+                    long remainingTime = deadline - System.currentTimeMillis();
+                    if (remainingTime <= 0)
+                        return false;
+                    pendingLock.wait(remainingTime);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the timeout (in ms) of the connection to Sentry, which is also the maximum time waited for a permit to send
+     * a request.
+     *
+     * @param timeout timeout of the connection.
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets the timeout (in ms) of a request, until the response of Sentry has been received.
+     *
+     * @param readTimeout timeout of a request.
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public void setMarshaller(Marshaller marshaller) {
+        this.marshaller = marshaller;
+    }
+
+    /**
+     * Sets the maximum number of requests sent at the same time to the Sentry server, as streams of the same
+     * connection.
+     * <p>
+     * Senders wait for a request to end once the maximum is reached, and fail with a {@link ConnectionException} if
+     * it takes more than the connection timeout.
+     *
+     * @param maxConcurrentRequests maximum number of concurrent requests.
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests <= 0)
+            throw new IllegalArgumentException("The maximum number of requests must be positive, got "
+                    + maxConcurrentRequests);
+        this.requestPermits = new Semaphore(maxConcurrentRequests, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The pending requests are given some time to complete, then the threads of the client are stopped.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!flush(SHUTDOWN_TIMEOUT))
+            logger.warn("Some requests to the sentry server didn't complete before the connection was closed.");
+        executor.shutdownNow();
+    }
+}
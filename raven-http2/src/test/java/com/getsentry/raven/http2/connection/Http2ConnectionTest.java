@@ -0,0 +1,95 @@
+package com.getsentry.raven.http2.connection;
+
+import com.getsentry.raven.connection.DeliveryFuture;
+import com.getsentry.raven.connection.EventDeliveries;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.marshaller.json.JsonMarshaller;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class Http2ConnectionTest {
+    private static final long DELIVERY_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private HttpServer server;
+    private List<String> authHeaders;
+    private volatile int responseStatus;
+    private Http2Connection http2Connection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        authHeaders = new CopyOnWriteArrayList<>();
+        responseStatus = 200;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                authHeaders.add(exchange.getRequestHeaders().getFirst("X-Sentry-Auth"));
+                exchange.getRequestBody().readAllBytes();
+                if (responseStatus == 429)
+                    exchange.getResponseHeaders().add("Retry-After", "60");
+                exchange.sendResponseHeaders(responseStatus, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        URL sentryUrl = new URL("http", "localhost", server.getAddress().getPort(), "/api/1/store/");
+        http2Connection = new Http2Connection(sentryUrl, "public", "secret");
+        http2Connection.setMarshaller(new JsonMarshaller());
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        http2Connection.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testEventDeliveredOnceAccepted() throws Exception {
+        Event event = new EventBuilder().build();
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        http2Connection.send(event);
+
+        assertThat(deliveryFuture.get(DELIVERY_TIMEOUT, TimeUnit.MILLISECONDS), is(event.getId()));
+        assertThat(authHeaders, contains(containsString("sentry_key=public")));
+    }
+
+    @Test
+    public void testFlushWaitsForTheResponses() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            http2Connection.send(new EventBuilder().build());
+        }
+
+        assertThat(http2Connection.flush(DELIVERY_TIMEOUT), is(true));
+        assertThat(authHeaders, hasSize(10));
+    }
+
+    @Test
+    public void testRateLimitAppliedOnTooManyRequests() throws Exception {
+        responseStatus = 429;
+        Event event = new EventBuilder().build();
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        http2Connection.send(event);
+        http2Connection.flush(DELIVERY_TIMEOUT);
+
+        assertThat(deliveryFuture.isDone(), is(true));
+        assertThat(deliveryFuture.isDelivered(), is(false));
+        assertThat(http2Connection.getRateLimiter().tryAcquire(1), is(0));
+    }
+}
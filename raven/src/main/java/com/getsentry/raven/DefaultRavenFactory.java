@@ -1,17 +1,31 @@
 package com.getsentry.raven;
 
 import com.getsentry.raven.connection.*;
+import com.getsentry.raven.connection.nio.NioHttpConnection;
 import com.getsentry.raven.dsn.Dsn;
+import com.getsentry.raven.event.Event;
 import com.getsentry.raven.event.helper.HttpEventBuilderHelper;
 import com.getsentry.raven.event.interfaces.*;
 import com.getsentry.raven.marshaller.Marshaller;
 import com.getsentry.raven.marshaller.json.*;
+import com.getsentry.raven.spool.EventSpool;
+import com.getsentry.raven.util.RotatingFileOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -26,14 +40,97 @@ public class DefaultRavenFactory extends RavenFactory {
      * Protocol setting to disable security checks over an SSL connection.
      */
     public static final String NAIVE_PROTOCOL = "naive";
+    /**
+     * Protocol setting to send events over HTTP(S) with non-blocking sockets.
+     */
+    public static final String NIO_PROTOCOL = "nio";
+    /**
+     * Protocol setting to write the events as newline delimited JSON with the {@code out} protocol.
+     */
+    public static final String NDJSON_PROTOCOL = "ndjson";
     /**
      * Option specific to raven-java, allowing to enable/disable the compression of requests to the Sentry Server.
      */
     public static final String COMPRESSION_OPTION = "raven.compression";
+    /**
+     * Option for the level of the compression of requests, from 0 (none) to 9 (best).
+     */
+    public static final String COMPRESSION_LEVEL_OPTION = "raven.compression.level";
+    /**
+     * Option for the minimum size (in bytes) of a request to compress it, smaller requests are sent uncompressed.
+     */
+    public static final String COMPRESSION_THRESHOLD_OPTION = "raven.compression.threshold";
+    /**
+     * Option for the format of the compressed requests: {@code base64} (default), or the binary {@code gzip} and
+     * {@code deflate} formats sent with a {@code Content-Encoding} header.
+     */
+    public static final String COMPRESSION_ENCODING_OPTION = "raven.compression.encoding";
     /**
      * Option specific to raven-java, allowing to set a timeout (in ms) for a request to the Sentry server.
      */
     public static final String TIMEOUT_OPTION = "raven.timeout";
+    /**
+     * Option for the timeout (in ms) when reading the response of the Sentry server.
+     */
+    public static final String READ_TIMEOUT_OPTION = "raven.http.readtimeout";
+    /**
+     * Option for the deadline (in ms) of an HTTP request, from the wait for a permit to the end of the response.
+     */
+    public static final String DEADLINE_OPTION = "raven.http.deadline";
+    /**
+     * Option for the maximum number of HTTP requests sent at the same time to the Sentry server.
+     */
+    public static final String MAX_CONCURRENCY_OPTION = "raven.http.maxconcurrency";
+    /**
+     * Option to adapt the number of HTTP requests sent at the same time to the latency and failures of the Sentry
+     * server, up to {@link #MAX_CONCURRENCY_OPTION}.
+     */
+    public static final String ADAPTIVE_CONCURRENCY_OPTION = "raven.http.adaptiveconcurrency";
+    /**
+     * Option for the lowest number of HTTP requests sent at the same time allowed by the adaptive limit.
+     */
+    public static final String MIN_CONCURRENCY_OPTION = "raven.http.minconcurrency";
+    /**
+     * Option to reject right away the HTTP requests over the concurrency limit, instead of waiting for one to end.
+     */
+    public static final String SHED_LOAD_OPTION = "raven.http.shedload";
+    /**
+     * Default highest number of HTTP requests sent at the same time allowed by the adaptive limit.
+     */
+    public static final int DEFAULT_MAX_ADAPTIVE_CONCURRENCY = 64;
+    /**
+     * Number of HTTP requests sent at the same time initially allowed by the adaptive limit.
+     */
+    public static final int DEFAULT_INITIAL_ADAPTIVE_CONCURRENCY = 4;
+    /**
+     * Option for the DSNs of other Sentry projects receiving a copy of every event, separated by commas.
+     */
+    public static final String MIRROR_OPTION = "raven.mirror";
+    /**
+     * Option for the rules routing the events to other Sentry projects, as {@code rule|dsn} separated by commas, the
+     * rule being {@code tag:name=value}, {@code logger:prefix} or {@code level:threshold}.
+     */
+    public static final String ROUTES_OPTION = "raven.routes";
+    /**
+     * Option for the maximum number of sockets kept open to the Sentry server, with the non-blocking HTTP connection.
+     */
+    public static final String MAX_CONNECTIONS_OPTION = "raven.http.maxconnections";
+    /**
+     * Option for the maximum time (in ms) an idle socket is kept open, with the non-blocking HTTP connection.
+     */
+    public static final String IDLE_TIMEOUT_OPTION = "raven.http.idletimeout";
+    /**
+     * Option to warm the HTTP connection up when it's created: resolve the host and complete a first TLS handshake.
+     */
+    public static final String WARM_UP_OPTION = "raven.http.warmup";
+    /**
+     * Option for other endpoints of the Sentry server sharing the events, as {@code host[:port]} separated by commas.
+     */
+    public static final String ENDPOINTS_OPTION = "raven.http.endpoints";
+    /**
+     * Option for the number of selector threads of the non-blocking HTTP connection.
+     */
+    public static final String NIO_THREADS_OPTION = "raven.nio.threads";
     /**
      * Option to send events asynchronously.
      */
@@ -54,12 +151,179 @@ public class DefaultRavenFactory extends RavenFactory {
      * Option for the maximum size of the queue.
      */
     public static final String QUEUE_SIZE_OPTION = "raven.async.queuesize";
+    /**
+     * Option to marshal the events when they're queued by the async connection, so only their payload is kept in the
+     * queue.
+     */
+    public static final String ASYNC_MARSHAL_OPTION = "raven.async.marshal";
+    /**
+     * Option for the time (in ms) given to the queued events to be sent when the async connection is closed.
+     */
+    public static final String SHUTDOWN_TIMEOUT_OPTION = "raven.async.shutdowntimeout";
+    /**
+     * Option for the directory where the events left when the async connection is closed are written, to be sent by
+     * the next connection, they are dropped unless it is set.
+     */
+    public static final String SPILL_DIR_OPTION = "raven.async.spilldir";
+    /**
+     * Option to queue the events of the async connection in a lock-free ring buffer instead of an executor.
+     */
+    public static final String RING_BUFFER_OPTION = "raven.async.ringbuffer";
+    /**
+     * Option for the strategy followed by the threads of the ring buffer while there are no events to send.
+     */
+    public static final String WAIT_STRATEGY_OPTION = "raven.async.waitstrategy";
+    /**
+     * Option to send the events of the async connection with the pool of threads shared by every Raven instance of the
+     * JVM, the pool size and the thread priority being the ones of the first connection using it.
+     */
+    public static final String SHARED_POOL_OPTION = "raven.async.shared";
+    /**
+     * Default number of events in the ring buffer of the async connection.
+     */
+    public static final int DEFAULT_RING_BUFFER_SIZE = 8192;
+    /**
+     * Option to queue the events of the async connection by level, the most severe events being sent first and kept
+     * the longest when the queue is full.
+     */
+    public static final String LEVEL_QUEUE_OPTION = "raven.async.levelqueue";
+    /**
+     * Option for the number of places of the level aware queue only available to errors and fatal events.
+     */
+    public static final String RESERVED_QUEUE_SIZE_OPTION = "raven.async.reservedsize";
+    /**
+     * Option for the maximum time (in ms) an event waits in the level aware queue, there is no limit unless it is set.
+     */
+    public static final String QUEUE_TTL_OPTION = "raven.async.ttl";
+    /**
+     * Default number of events in the level aware queue.
+     */
+    public static final int DEFAULT_LEVEL_QUEUE_SIZE = 1000;
+    /**
+     * Default percentage of the level aware queue reserved to errors and fatal events.
+     */
+    public static final int DEFAULT_RESERVED_QUEUE_PERCENTAGE = 10;
+    /**
+     * Option for the maximum number of events sent in a single batch, batching is disabled unless it is set.
+     */
+    public static final String BATCH_SIZE_OPTION = "raven.batch.size";
+    /**
+     * Option for the maximum time (in ms) an event waits for its batch to be full.
+     */
+    public static final String BATCH_LINGER_OPTION = "raven.batch.linger";
+    /**
+     * Option for the maximum size (in bytes) of the serialised events sent in a single request, before compression.
+     */
+    public static final String BATCH_MAX_BYTES_OPTION = "raven.batch.maxbytes";
+    /**
+     * Default maximum time (in ms) an event waits for its batch to be full.
+     */
+    public static final long DEFAULT_BATCH_LINGER = 500;
+    /**
+     * Option for the maximum number of events sent per second to the Sentry server, there is no limit unless it is set.
+     */
+    public static final String RATE_LIMIT_OPTION = "raven.ratelimit";
+    /**
+     * Option for the maximum number of events sent at once to the Sentry server, within the rate limit.
+     */
+    public static final String RATE_LIMIT_BURST_OPTION = "raven.ratelimit.burst";
+    /**
+     * Option for the directory where the events which couldn't be sent are spooled, spooling is disabled unless it is
+     * set.
+     */
+    public static final String SPOOL_DIR_OPTION = "raven.spool.dir";
+    /**
+     * Option for the size (in bytes) of each file of the spool.
+     */
+    public static final String SPOOL_SEGMENT_SIZE_OPTION = "raven.spool.segmentsize";
+    /**
+     * Option for the maximum number of files of the spool.
+     */
+    public static final String SPOOL_MAX_SEGMENTS_OPTION = "raven.spool.maxsegments";
+    /**
+     * Option to append every event to the spool before sending it, and sync the spool to the disk on each change.
+     */
+    public static final String SPOOL_WRITE_AHEAD_OPTION = "raven.spool.writeahead";
+    /**
+     * Default size (in bytes) of each file of the spool.
+     */
+    public static final int DEFAULT_SPOOL_SEGMENT_SIZE = 4 * 1024 * 1024;
+    /**
+     * Default maximum number of files of the spool.
+     */
+    public static final int DEFAULT_SPOOL_MAX_SEGMENTS = 16;
+    /**
+     * Option for the maximum number of times an event which couldn't be sent is sent again, retries are disabled
+     * unless it is set.
+     */
+    public static final String RETRY_MAX_OPTION = "raven.retry.max";
+    /**
+     * Option for the minimum delay (in ms) before sending an event again.
+     */
+    public static final String RETRY_BASE_DELAY_OPTION = "raven.retry.basedelay";
+    /**
+     * Option for the maximum delay (in ms) before sending an event again.
+     */
+    public static final String RETRY_MAX_DELAY_OPTION = "raven.retry.maxdelay";
+    /**
+     * Option for the maximum number of events waiting to be sent again.
+     */
+    public static final String RETRY_QUEUE_SIZE_OPTION = "raven.retry.queuesize";
+    /**
+     * Option for the maximum size (in bytes) of the serialised events waiting to be sent again.
+     */
+    public static final String RETRY_MAX_BYTES_OPTION = "raven.retry.maxbytes";
+    /**
+     * Default minimum delay (in ms) before sending an event again.
+     */
+    public static final long DEFAULT_RETRY_BASE_DELAY = 100;
+    /**
+     * Default maximum delay (in ms) before sending an event again.
+     */
+    public static final long DEFAULT_RETRY_MAX_DELAY = TimeUnit.SECONDS.toMillis(30);
+    /**
+     * Default maximum number of events waiting to be sent again.
+     */
+    public static final int DEFAULT_RETRY_QUEUE_SIZE = 1000;
+    /**
+     * Default maximum size (in bytes) of the serialised events waiting to be sent again.
+     */
+    public static final long DEFAULT_RETRY_MAX_BYTES = 10 * 1024 * 1024;
+    /**
+     * Option for the file in which the NDJSON events are written instead of stdout.
+     */
+    public static final String NDJSON_FILE_OPTION = "raven.ndjson.file";
+    /**
+     * Option for the size (in bytes) over which the NDJSON file is rotated.
+     */
+    public static final String NDJSON_MAX_FILE_SIZE_OPTION = "raven.ndjson.maxfilesize";
+    /**
+     * Option for the number of rotated NDJSON files kept.
+     */
+    public static final String NDJSON_MAX_FILES_OPTION = "raven.ndjson.maxfiles";
+    /**
+     * Option for the size (in bytes) of the buffer over which the NDJSON events are written.
+     */
+    public static final String NDJSON_BUFFER_SIZE_OPTION = "raven.ndjson.buffersize";
+    /**
+     * Option for the maximum time (in ms) an NDJSON event waits in the buffer.
+     */
+    public static final String NDJSON_FLUSH_INTERVAL_OPTION = "raven.ndjson.flushinterval";
+    /**
+     * Default size (in bytes) over which the NDJSON file is rotated.
+     */
+    public static final long DEFAULT_NDJSON_MAX_FILE_SIZE = 100 * 1024 * 1024;
+    /**
+     * Default number of rotated NDJSON files kept.
+     */
+    public static final int DEFAULT_NDJSON_MAX_FILES = 5;
     /**
      * Option to hide common stackframes with enclosing exceptions.
      */
     public static final String HIDE_COMMON_FRAMES_OPTION = "raven.stacktrace.hidecommon";
     private static final Logger logger = LoggerFactory.getLogger(DefaultRavenFactory.class);
     private static final String FALSE = Boolean.FALSE.toString();
+    private static final int PERCENT = 100;
 
     @Override
     public Raven createRavenInstance(Dsn dsn) {
@@ -86,14 +350,29 @@ public class DefaultRavenFactory extends RavenFactory {
      */
     protected Connection createConnection(Dsn dsn) {
         String protocol = dsn.getProtocol();
+        for (String protocolSetting : dsn.getProtocolSettings()) {
+            if (!getSupportedProtocolSettings().contains(protocolSetting))
+                logger.warn("The protocol setting '{}' isn't supported by {}, it is ignored.", protocolSetting,
+                        getClass().getName());
+        }
+
         Connection connection;
+        boolean httpProtocol = protocol.equalsIgnoreCase("http") || protocol.equalsIgnoreCase("https");
 
-        if (protocol.equalsIgnoreCase("http") || protocol.equalsIgnoreCase("https")) {
+        if (httpProtocol && dsn.getProtocolSettings().contains(NIO_PROTOCOL)) {
+            logger.info("Using a non-blocking HTTP connection to Sentry.");
+            connection = createNioHttpConnection(dsn);
+        } else if (httpProtocol) {
             logger.info("Using an HTTP connection to Sentry.");
             connection = createHttpConnection(dsn);
         } else if (protocol.equalsIgnoreCase("out")) {
-            logger.info("Using StdOut to send events.");
-            connection = createStdOutConnection(dsn);
+            if (dsn.getProtocolSettings().contains(NDJSON_PROTOCOL)) {
+                logger.info("Using NDJSON to send events.");
+                connection = createNdjsonConnection(dsn);
+            } else {
+                logger.info("Using StdOut to send events.");
+                connection = createStdOutConnection(dsn);
+            }
         } else if (protocol.equalsIgnoreCase("noop")) {
             logger.info("Using noop to send events.");
             connection = new NoopConnection();
@@ -101,14 +380,290 @@ public class DefaultRavenFactory extends RavenFactory {
             throw new IllegalStateException("Couldn't create a connection for the protocol '" + protocol + "'");
         }
 
+        // Limit the rate of the events only if the rate is set.
+        if (dsn.getOptions().containsKey(RATE_LIMIT_OPTION)) {
+            setRateLimit(dsn, connection);
+        }
+
+        // Send the events to other Sentry projects only if they are set.
+        if (dsn.getOptions().containsKey(MIRROR_OPTION)) {
+            connection = createFanOutConnection(dsn, connection);
+        }
+
+        // Send the failed events again only if the number of retries is set.
+        if (dsn.getOptions().containsKey(RETRY_MAX_OPTION)) {
+            connection = createRetryingConnection(dsn, connection);
+        }
+
+        // Enable spooling only if the spool directory is set.
+        if (dsn.getOptions().containsKey(SPOOL_DIR_OPTION)) {
+            connection = createSpoolConnection(dsn, connection);
+        }
+
+        // Enable batching only if the batch size is set.
+        if (dsn.getOptions().containsKey(BATCH_SIZE_OPTION)) {
+            connection = createBatchingConnection(dsn, connection);
+        }
+
         // Enable async unless its value is 'false'.
         if (!FALSE.equalsIgnoreCase(dsn.getOptions().get(ASYNC_OPTION))) {
             connection = createAsyncConnection(dsn, connection);
         }
 
+        // Route the events to other Sentry projects only if routes are set.
+        if (dsn.getOptions().containsKey(ROUTES_OPTION)) {
+            connection = createRoutingConnection(dsn, connection);
+        }
+
         return connection;
     }
 
+    /**
+     * Gets the protocol settings (such as {@value #NAIVE_PROTOCOL} in {@code naive+https://...}) supported by this
+     * factory, the other settings of a DSN are ignored with a warning.
+     * <p>
+     * Factories supporting other settings override this method, so they're picked first for the DSNs using them
+     * (see {@link #supportsProtocolSettings(Dsn)}).
+     *
+     * @return the supported protocol settings.
+     */
+    protected Collection<String> getSupportedProtocolSettings() {
+        return Arrays.asList(NAIVE_PROTOCOL, NIO_PROTOCOL, NDJSON_PROTOCOL);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The supported settings are given by {@link #getSupportedProtocolSettings()}.
+     */
+    @Override
+    protected boolean supportsProtocolSettings(Dsn dsn) {
+        return getSupportedProtocolSettings().containsAll(dsn.getProtocolSettings());
+    }
+
+    /**
+     * Encapsulates an already existing connection in a {@link FanOutConnection} sending the events to the mirrors set
+     * in the Sentry DSN as well.
+     * <p>
+     * Each mirror gets an HTTP connection set up with the options of its own DSN, the outcome of the events being
+     * reported by the given connection only.
+     *
+     * @param dsn        Data Source Name of the main Sentry server.
+     * @param connection Connection to the main Sentry server.
+     * @return the fan-out connection, or the given connection if it can't send marshalled events.
+     */
+    protected Connection createFanOutConnection(Dsn dsn, Connection connection) {
+        if (!(connection instanceof PayloadConnection)) {
+            logger.warn("The connection '{}' can't send marshalled events, mirroring is disabled.", connection);
+            return connection;
+        }
+
+        List<PayloadConnection> destinations = new ArrayList<>();
+        destinations.add((PayloadConnection) connection);
+        for (String mirror : dsn.getOptions().get(MIRROR_OPTION).split(",")) {
+            Dsn mirrorDsn = new Dsn(mirror.trim());
+            Connection mirrorConnection = createHttpConnection(mirrorDsn);
+            if (!(mirrorConnection instanceof PayloadConnection && mirrorConnection instanceof AbstractConnection)) {
+                logger.warn("The connection '{}' can't send marshalled events, it isn't mirrored.", mirrorConnection);
+                continue;
+            }
+            if (mirrorDsn.getOptions().containsKey(RATE_LIMIT_OPTION))
+                setRateLimit(mirrorDsn, mirrorConnection);
+            ((AbstractConnection) mirrorConnection).setReportingDeliveries(false);
+            destinations.add((PayloadConnection) mirrorConnection);
+        }
+
+        return new FanOutConnection(createMarshaller(dsn), destinations);
+    }
+
+    /**
+     * Encapsulates an already existing connection in a {@link RoutingConnection} sending the events matching the routes
+     * set in the Sentry DSN to other projects.
+     * <p>
+     * The routes to the same DSN share a destination. Each destination gets an HTTP connection set up with the options
+     * of its own DSN, sending its events with its own lane of the {@link SharedSenderPool}.
+     *
+     * @param dsn        Data Source Name of the default Sentry project.
+     * @param connection Connection receiving the events matching no route.
+     * @return the routing connection.
+     */
+    protected Connection createRoutingConnection(Dsn dsn, Connection connection) {
+        RoutingConnection routingConnection = new RoutingConnection(connection);
+        Map<String, Connection> destinations = new HashMap<>();
+        for (String route : dsn.getOptions().get(ROUTES_OPTION).split(",")) {
+            int separator = route.indexOf('|');
+            if (separator < 0)
+                throw new IllegalArgumentException("The route '" + route + "' isn't formatted as 'rule|dsn'.");
+            String destinationDsn = route.substring(separator + 1).trim();
+            Connection destination = destinations.get(destinationDsn);
+            if (destination == null) {
+                destination = createRouteDestination(new Dsn(destinationDsn));
+                destinations.put(destinationDsn, destination);
+            }
+            addRoute(routingConnection, route.substring(0, separator).trim(), destination);
+        }
+        return routingConnection;
+    }
+
+    /**
+     * Creates the connection to a Sentry project receiving the events of some routes.
+     *
+     * @param dsn Data Source Name of the Sentry project.
+     * @return an asynchronous connection to the project, sending its events with the {@link SharedSenderPool}.
+     */
+    protected Connection createRouteDestination(Dsn dsn) {
+        Connection connection = createHttpConnection(dsn);
+        if (dsn.getOptions().containsKey(RATE_LIMIT_OPTION))
+            setRateLimit(dsn, connection);
+        return createSharedAsyncConnection(dsn, connection);
+    }
+
+    /**
+     * Adds a route to a {@link RoutingConnection}.
+     *
+     * @param routingConnection connection routing the events.
+     * @param rule              rule of the route, {@code tag:name=value}, {@code logger:prefix} or
+     *                          {@code level:threshold}.
+     * @param destination       connection receiving the events matching the rule.
+     */
+    private static void addRoute(RoutingConnection routingConnection, String rule, Connection destination) {
+        int typeSeparator = rule.indexOf(':');
+        String type = typeSeparator > 0 ? rule.substring(0, typeSeparator) : rule;
+        String criterion = rule.substring(typeSeparator + 1);
+        int tagSeparator = criterion.indexOf('=');
+        if ("tag".equalsIgnoreCase(type) && tagSeparator > 0) {
+            routingConnection.addTagRoute(criterion.substring(0, tagSeparator), criterion.substring(tagSeparator + 1),
+                    destination);
+        } else if ("logger".equalsIgnoreCase(type)) {
+            routingConnection.addLoggerRoute(criterion, destination);
+        } else if ("level".equalsIgnoreCase(type)) {
+            routingConnection.addLevelRoute(Event.Level.valueOf(criterion.toUpperCase(Locale.ROOT)), destination);
+        } else {
+            throw new IllegalArgumentException("The rule '" + rule + "' isn't 'tag:name=value', 'logger:prefix' or "
+                    + "'level:threshold'.");
+        }
+    }
+
+    /**
+     * Encapsulates an already existing connection in a {@link RetryingConnection} and get the retry options from the
+     * Sentry DSN.
+     * <p>
+     * Retries aren't available with mirroring ({@link #MIRROR_OPTION}): the {@link FanOutConnection} sending the events
+     * to the mirrors doesn't report the failures of its destinations, so the retries are disabled.
+     *
+     * @param dsn        Data Source Name of the Sentry server.
+     * @param connection Connection to encapsulate in a {@link RetryingConnection}.
+     * @return the retrying connection, or the given connection if its failures can't be detected.
+     */
+    protected Connection createRetryingConnection(Dsn dsn, Connection connection) {
+        if (connection instanceof FanOutConnection) {
+            logger.warn("The failures of the mirrored events can't be detected, retries are disabled.");
+            return connection;
+        }
+        if (!(connection instanceof AbstractConnection)) {
+            logger.warn("The failures of the connection '{}' can't be detected, retries are disabled.", connection);
+            return connection;
+        }
+        if (dsn.getOptions().containsKey(SPOOL_DIR_OPTION)) {
+            logger.warn("The failed events are already sent again from the spool, retries are disabled.");
+            return connection;
+        }
+
+        int maxRetries = Integer.parseInt(dsn.getOptions().get(RETRY_MAX_OPTION));
+
+        long baseDelay;
+        if (dsn.getOptions().containsKey(RETRY_BASE_DELAY_OPTION)) {
+            baseDelay = Long.parseLong(dsn.getOptions().get(RETRY_BASE_DELAY_OPTION));
+        } else {
+            baseDelay = DEFAULT_RETRY_BASE_DELAY;
+        }
+
+        long maxDelay;
+        if (dsn.getOptions().containsKey(RETRY_MAX_DELAY_OPTION)) {
+            maxDelay = Long.parseLong(dsn.getOptions().get(RETRY_MAX_DELAY_OPTION));
+        } else {
+            maxDelay = DEFAULT_RETRY_MAX_DELAY;
+        }
+
+        int maxQueuedEvents;
+        if (dsn.getOptions().containsKey(RETRY_QUEUE_SIZE_OPTION)) {
+            maxQueuedEvents = Integer.parseInt(dsn.getOptions().get(RETRY_QUEUE_SIZE_OPTION));
+        } else {
+            maxQueuedEvents = DEFAULT_RETRY_QUEUE_SIZE;
+        }
+
+        long maxQueuedBytes;
+        if (dsn.getOptions().containsKey(RETRY_MAX_BYTES_OPTION)) {
+            maxQueuedBytes = Long.parseLong(dsn.getOptions().get(RETRY_MAX_BYTES_OPTION));
+        } else {
+            maxQueuedBytes = DEFAULT_RETRY_MAX_BYTES;
+        }
+
+        return new RetryingConnection(connection, maxRetries, baseDelay, maxDelay,
+                maxQueuedEvents, maxQueuedBytes);
+    }
+
+    /**
+     * Limits the rate of the events sent by a connection, with the rate limit options from the Sentry DSN.
+     *
+     * @param dsn        Data Source Name of the Sentry server.
+     * @param connection Connection sending the events to the server.
+     */
+    protected void setRateLimit(Dsn dsn, Connection connection) {
+        if (!(connection instanceof AbstractConnection)) {
+            logger.warn("The rate of the connection '{}' can't be limited.", connection);
+            return;
+        }
+
+        double rate = Double.parseDouble(dsn.getOptions().get(RATE_LIMIT_OPTION));
+
+        int burst;
+        if (dsn.getOptions().containsKey(RATE_LIMIT_BURST_OPTION)) {
+            burst = Integer.parseInt(dsn.getOptions().get(RATE_LIMIT_BURST_OPTION));
+        } else {
+            burst = Math.max(1, (int) Math.ceil(rate));
+        }
+
+        ((AbstractConnection) connection).getRateLimiter().setRate(rate, burst);
+    }
+
+    /**
+     * Encapsulates an already existing connection in a {@link SpoolConnection} and get the spool options from the
+     * Sentry DSN.
+     *
+     * @param dsn        Data Source Name of the Sentry server.
+     * @param connection Connection to encapsulate in a {@link SpoolConnection}.
+     * @return the spool connection, or the given connection if the spool couldn't be opened.
+     */
+    protected Connection createSpoolConnection(Dsn dsn, Connection connection) {
+        File directory = new File(dsn.getOptions().get(SPOOL_DIR_OPTION));
+
+        int segmentSize;
+        if (dsn.getOptions().containsKey(SPOOL_SEGMENT_SIZE_OPTION)) {
+            segmentSize = Integer.parseInt(dsn.getOptions().get(SPOOL_SEGMENT_SIZE_OPTION));
+        } else {
+            segmentSize = DEFAULT_SPOOL_SEGMENT_SIZE;
+        }
+
+        int maxSegments;
+        if (dsn.getOptions().containsKey(SPOOL_MAX_SEGMENTS_OPTION)) {
+            maxSegments = Integer.parseInt(dsn.getOptions().get(SPOOL_MAX_SEGMENTS_OPTION));
+        } else {
+            maxSegments = DEFAULT_SPOOL_MAX_SEGMENTS;
+        }
+
+        boolean writeAhead = Boolean.parseBoolean(dsn.getOptions().get(SPOOL_WRITE_AHEAD_OPTION));
+
+        EventSpool spool;
+        try {
+            spool = new EventSpool(directory, segmentSize, maxSegments, writeAhead);
+        } catch (IOException e) {
+            logger.error("Couldn't open the spool in '{}', spooling is disabled.", directory, e);
+            return connection;
+        }
+        return new SpoolConnection(connection, spool, writeAhead);
+    }
+
     /**
      * Encapsulates an already existing connection in an {@link AsyncConnection} and get the async options from the
      * Sentry DSN.
@@ -118,6 +673,12 @@ public class DefaultRavenFactory extends RavenFactory {
      * @return the asynchronous connection.
      */
     protected Connection createAsyncConnection(Dsn dsn, Connection connection) {
+        if (Boolean.parseBoolean(dsn.getOptions().get(RING_BUFFER_OPTION)))
+            return createRingBufferAsyncConnection(dsn, connection);
+        // The routed events go through the shared pool as well, so every project shares its threads
+        if (Boolean.parseBoolean(dsn.getOptions().get(SHARED_POOL_OPTION))
+                || dsn.getOptions().containsKey(ROUTES_OPTION))
+            return createSharedAsyncConnection(dsn, connection);
 
         int maxThreads;
         if (dsn.getOptions().containsKey(MAX_THREADS_OPTION)) {
@@ -133,30 +694,296 @@ public class DefaultRavenFactory extends RavenFactory {
             priority = Thread.MIN_PRIORITY;
         }
 
-        BlockingDeque<Runnable> queue;
+        ExecutorService executorService;
+        if (Boolean.parseBoolean(dsn.getOptions().get(LEVEL_QUEUE_OPTION))) {
+            // The queue itself drops the least severe events, DiscardOldestEventPolicy would drop the most severe one.
+            executorService = new ThreadPoolExecutor(
+                    maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS, createLevelAwareEventQueue(dsn),
+                    new DaemonThreadFactory(priority), new AsyncConnection.DiscardEventPolicy());
+        } else {
+            BlockingDeque<Runnable> queue;
+            if (dsn.getOptions().containsKey(QUEUE_SIZE_OPTION)) {
+                queue = new LinkedBlockingDeque<>(Integer.parseInt(dsn.getOptions().get(QUEUE_SIZE_OPTION)));
+            } else {
+                queue = new LinkedBlockingDeque<>();
+            }
+            executorService = new ThreadPoolExecutor(
+                    maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS, queue,
+                    new DaemonThreadFactory(priority), new AsyncConnection.DiscardOldestEventPolicy());
+        }
+
+        boolean gracefulShutdown = !FALSE.equalsIgnoreCase(dsn.getOptions().get(GRACEFUL_SHUTDOWN_OPTION));
+
+        AsyncConnection asyncConnection = new AsyncConnection(connection, executorService, gracefulShutdown);
+        setAsyncMarshaller(dsn, asyncConnection, connection);
+        setShutdownOptions(dsn, asyncConnection);
+        return asyncConnection;
+    }
+
+    /**
+     * Sets the shutdown timeout and the spill of an {@link AsyncConnection} from the options of the Sentry DSN.
+     *
+     * @param dsn             Data Source Name of the Sentry server.
+     * @param asyncConnection async connection queueing the events.
+     */
+    protected void setShutdownOptions(Dsn dsn, AsyncConnection asyncConnection) {
+        if (dsn.getOptions().containsKey(SHUTDOWN_TIMEOUT_OPTION))
+            asyncConnection.setShutdownTimeout(Long.parseLong(dsn.getOptions().get(SHUTDOWN_TIMEOUT_OPTION)));
+
+        EventSpool spill = createSpill(dsn);
+        if (spill != null)
+            asyncConnection.setSpill(spill);
+    }
+
+    /**
+     * Opens the spool in which the async connection writes the events left when it's closed, if its directory is set
+     * in the Sentry DSN.
+     *
+     * @param dsn Data Source Name of the Sentry server.
+     * @return the spill, or null if it isn't set or couldn't be opened.
+     */
+    protected EventSpool createSpill(Dsn dsn) {
+        if (!dsn.getOptions().containsKey(SPILL_DIR_OPTION))
+            return null;
+
+        File directory = new File(dsn.getOptions().get(SPILL_DIR_OPTION));
+        try {
+            return new EventSpool(directory, DEFAULT_SPOOL_SEGMENT_SIZE, DEFAULT_SPOOL_MAX_SEGMENTS, false);
+        } catch (IOException e) {
+            logger.error("Couldn't open the spill in '{}', the events left at shutdown will be dropped.", directory, e);
+            return null;
+        }
+    }
+
+    /**
+     * Marshals the events when they're queued by an {@link AsyncConnection}, if enabled in the Sentry DSN.
+     *
+     * @param dsn             Data Source Name of the Sentry server.
+     * @param asyncConnection async connection queueing the events.
+     * @param connection      connection encapsulated by the async connection.
+     */
+    protected void setAsyncMarshaller(Dsn dsn, AsyncConnection asyncConnection, Connection connection) {
+        if (!Boolean.parseBoolean(dsn.getOptions().get(ASYNC_MARSHAL_OPTION)))
+            return;
+        if (!(connection instanceof PayloadConnection)) {
+            logger.warn("The connection '{}' can't send marshalled events, they are queued as they are.", connection);
+            return;
+        }
+        asyncConnection.setMarshaller(createMarshaller(dsn));
+    }
+
+    /**
+     * Encapsulates an already existing connection in an {@link AsyncConnection} sending its events with the
+     * {@link SharedSenderPool} and get the async options from the Sentry DSN.
+     * <p>
+     * The connection gets its own lane in the shared pool, and is closed by the shutdown hook of the pool.
+     *
+     * @param dsn        Data Source Name of the Sentry server.
+     * @param connection Connection to encapsulate in an {@link AsyncConnection}.
+     * @return the asynchronous connection.
+     */
+    protected Connection createSharedAsyncConnection(Dsn dsn, Connection connection) {
+        int maxThreads;
+        if (dsn.getOptions().containsKey(MAX_THREADS_OPTION)) {
+            maxThreads = Integer.parseInt(dsn.getOptions().get(MAX_THREADS_OPTION));
+        } else {
+            maxThreads = Runtime.getRuntime().availableProcessors();
+        }
+
+        int priority;
+        if (dsn.getOptions().containsKey(PRIORITY_OPTION)) {
+            priority = Integer.parseInt(dsn.getOptions().get(PRIORITY_OPTION));
+        } else {
+            priority = Thread.MIN_PRIORITY;
+        }
+
+        int capacity;
+        if (dsn.getOptions().containsKey(QUEUE_SIZE_OPTION)) {
+            capacity = Integer.parseInt(dsn.getOptions().get(QUEUE_SIZE_OPTION));
+        } else {
+            capacity = Integer.MAX_VALUE;
+        }
+
+        SharedSenderPool senderPool = SharedSenderPool.getInstance(maxThreads, new DaemonThreadFactory(priority));
+        SharedSenderPool.Lane lane = senderPool.newLane(capacity);
+        AsyncConnection asyncConnection = new AsyncConnection(connection, lane, false);
+        setAsyncMarshaller(dsn, asyncConnection, connection);
+        setShutdownOptions(dsn, asyncConnection);
+        if (!FALSE.equalsIgnoreCase(dsn.getOptions().get(GRACEFUL_SHUTDOWN_OPTION)))
+            senderPool.closeOnShutdown(lane, asyncConnection);
+
+        return asyncConnection;
+    }
+
+    /**
+     * Creates the {@link LevelAwareEventQueue} of the async connection from the options of the Sentry DSN.
+     *
+     * @param dsn Data Source Name of the Sentry server.
+     * @return the queue of the async connection.
+     */
+    protected LevelAwareEventQueue createLevelAwareEventQueue(Dsn dsn) {
+        int capacity;
+        if (dsn.getOptions().containsKey(QUEUE_SIZE_OPTION)) {
+            capacity = Integer.parseInt(dsn.getOptions().get(QUEUE_SIZE_OPTION));
+        } else {
+            capacity = DEFAULT_LEVEL_QUEUE_SIZE;
+        }
+
+        int reservedCapacity;
+        if (dsn.getOptions().containsKey(RESERVED_QUEUE_SIZE_OPTION)) {
+            reservedCapacity = Integer.parseInt(dsn.getOptions().get(RESERVED_QUEUE_SIZE_OPTION));
+        } else {
+            reservedCapacity = capacity * DEFAULT_RESERVED_QUEUE_PERCENTAGE / PERCENT;
+        }
+
+        long timeToLive;
+        if (dsn.getOptions().containsKey(QUEUE_TTL_OPTION)) {
+            timeToLive = Long.parseLong(dsn.getOptions().get(QUEUE_TTL_OPTION));
+        } else {
+            timeToLive = 0;
+        }
+
+        return new LevelAwareEventQueue(capacity, reservedCapacity, timeToLive);
+    }
+
+    /**
+     * Encapsulates an already existing connection in a {@link RingBufferAsyncConnection} and get the async options
+     * from the Sentry DSN.
+     *
+     * @param dsn        Data Source Name of the Sentry server.
+     * @param connection Connection to encapsulate in a {@link RingBufferAsyncConnection}.
+     * @return the asynchronous connection.
+     */
+    protected Connection createRingBufferAsyncConnection(Dsn dsn, Connection connection) {
+        int threads;
+        if (dsn.getOptions().containsKey(MAX_THREADS_OPTION)) {
+            threads = Integer.parseInt(dsn.getOptions().get(MAX_THREADS_OPTION));
+        } else {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+
+        int priority;
+        if (dsn.getOptions().containsKey(PRIORITY_OPTION)) {
+            priority = Integer.parseInt(dsn.getOptions().get(PRIORITY_OPTION));
+        } else {
+            priority = Thread.MIN_PRIORITY;
+        }
+
+        int capacity;
         if (dsn.getOptions().containsKey(QUEUE_SIZE_OPTION)) {
-            queue = new LinkedBlockingDeque<>(Integer.parseInt(dsn.getOptions().get(QUEUE_SIZE_OPTION)));
+            capacity = Integer.parseInt(dsn.getOptions().get(QUEUE_SIZE_OPTION));
         } else {
-            queue = new LinkedBlockingDeque<>();
+            capacity = DEFAULT_RING_BUFFER_SIZE;
         }
 
-        ExecutorService executorService = new ThreadPoolExecutor(
-                maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS, queue,
-                new DaemonThreadFactory(priority), new ThreadPoolExecutor.DiscardOldestPolicy());
+        WaitStrategy waitStrategy;
+        if (dsn.getOptions().containsKey(WAIT_STRATEGY_OPTION)) {
+            waitStrategy = WaitStrategy.valueOf(dsn.getOptions().get(WAIT_STRATEGY_OPTION).toUpperCase(Locale.ROOT));
+        } else {
+            waitStrategy = WaitStrategy.PARK;
+        }
 
         boolean gracefulShutdown = !FALSE.equalsIgnoreCase(dsn.getOptions().get(GRACEFUL_SHUTDOWN_OPTION));
 
-        return new AsyncConnection(connection, executorService, gracefulShutdown);
+        RingBufferAsyncConnection ringBufferConnection = new RingBufferAsyncConnection(connection, capacity, threads,
+                waitStrategy, new DaemonThreadFactory(priority), gracefulShutdown);
+
+        if (dsn.getOptions().containsKey(SHUTDOWN_TIMEOUT_OPTION))
+            ringBufferConnection.setShutdownTimeout(Long.parseLong(dsn.getOptions().get(SHUTDOWN_TIMEOUT_OPTION)));
+
+        EventSpool spill = createSpill(dsn);
+        if (spill != null)
+            ringBufferConnection.setSpill(spill);
+
+        return ringBufferConnection;
+    }
+
+    /**
+     * Encapsulates an already existing connection in a {@link BatchingConnection} and get the batch options from the
+     * Sentry DSN.
+     *
+     * @param dsn        Data Source Name of the Sentry server.
+     * @param connection Connection to encapsulate in a {@link BatchingConnection}.
+     * @return the batching connection, or the given connection if it can't send batches.
+     */
+    protected Connection createBatchingConnection(Dsn dsn, Connection connection) {
+        if (!(connection instanceof BatchConnection)) {
+            logger.warn("The connection '{}' can't send batches of events, batching is disabled.", connection);
+            return connection;
+        }
+
+        int batchSize = Integer.parseInt(dsn.getOptions().get(BATCH_SIZE_OPTION));
+
+        long lingerTime;
+        if (dsn.getOptions().containsKey(BATCH_LINGER_OPTION)) {
+            lingerTime = Long.parseLong(dsn.getOptions().get(BATCH_LINGER_OPTION));
+        } else {
+            lingerTime = DEFAULT_BATCH_LINGER;
+        }
+
+        ScheduledExecutorService scheduler =
+                Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(Thread.MIN_PRIORITY));
+
+        // The async connection closes the batching connection in its own shutdown hook
+        boolean gracefulShutdown = FALSE.equalsIgnoreCase(dsn.getOptions().get(ASYNC_OPTION))
+                && !FALSE.equalsIgnoreCase(dsn.getOptions().get(GRACEFUL_SHUTDOWN_OPTION));
+
+        return new BatchingConnection((BatchConnection) connection, batchSize, lingerTime, scheduler,
+                gracefulShutdown);
     }
 
     /**
      * Creates an HTTP connection to the Sentry server.
      *
      * @param dsn Data Source Name of the Sentry server.
-     * @return an {@link HttpConnection} to the server.
+     * @return an {@link HttpConnection} to the server, or a {@link FailoverConnection} if other endpoints are set.
      */
     protected Connection createHttpConnection(Dsn dsn) {
-        URL sentryApiUrl = HttpConnection.getSentryApiUrl(dsn.getUri(), dsn.getProjectId());
+        // Spread the events over several endpoints only if other endpoints are set.
+        if (dsn.getOptions().containsKey(ENDPOINTS_OPTION))
+            return createFailoverConnection(dsn);
+        return createHttpConnection(dsn, dsn.getUri());
+    }
+
+    /**
+     * Creates a connection spreading the events over the endpoint of the DSN and the endpoints of the
+     * {@link #ENDPOINTS_OPTION} option.
+     * <p>
+     * The other endpoints use the protocol and the path of the DSN.
+     *
+     * @param dsn Data Source Name of the Sentry server.
+     * @return a {@link FailoverConnection} to the endpoints.
+     */
+    protected Connection createFailoverConnection(Dsn dsn) {
+        List<HttpConnection> endpointConnections = new ArrayList<>();
+        endpointConnections.add(createHttpConnection(dsn, dsn.getUri()));
+        for (String endpoint : dsn.getOptions().get(ENDPOINTS_OPTION).split(",")) {
+            if (!endpoint.trim().isEmpty())
+                endpointConnections.add(createHttpConnection(dsn, getEndpointUri(dsn, endpoint.trim())));
+        }
+        logger.info("Spreading the events over {} endpoints of the Sentry server.", endpointConnections.size());
+        return new FailoverConnection(dsn.getPublicKey(), dsn.getSecretKey(), endpointConnections);
+    }
+
+    private static URI getEndpointUri(Dsn dsn, String endpoint) {
+        try {
+            URI endpointAddress = new URI("//" + endpoint);
+            return new URI(dsn.getUri().getScheme(), null, endpointAddress.getHost(), endpointAddress.getPort(),
+                    dsn.getUri().getPath(), null, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Couldn't parse the endpoint '" + endpoint + "'.", e);
+        }
+    }
+
+    /**
+     * Creates an HTTP connection to an endpoint of the Sentry server.
+     *
+     * @param dsn       Data Source Name of the Sentry server.
+     * @param sentryUri URI of the endpoint, without the path of the Sentry API.
+     * @return an {@link HttpConnection} to the endpoint.
+     */
+    protected HttpConnection createHttpConnection(Dsn dsn, URI sentryUri) {
+        URL sentryApiUrl = HttpConnection.getSentryApiUrl(sentryUri, dsn.getProjectId());
         HttpConnection httpConnection = new HttpConnection(sentryApiUrl, dsn.getPublicKey(), dsn.getSecretKey());
         httpConnection.setMarshaller(createMarshaller(dsn));
 
@@ -165,9 +992,71 @@ public class DefaultRavenFactory extends RavenFactory {
         // Set the HTTP timeout
         if (dsn.getOptions().containsKey(TIMEOUT_OPTION))
             httpConnection.setTimeout(Integer.parseInt(dsn.getOptions().get(TIMEOUT_OPTION)));
+        if (dsn.getOptions().containsKey(READ_TIMEOUT_OPTION))
+            httpConnection.setReadTimeout(Integer.parseInt(dsn.getOptions().get(READ_TIMEOUT_OPTION)));
+        // Set the deadline of a whole request
+        if (dsn.getOptions().containsKey(DEADLINE_OPTION))
+            httpConnection.setDeadline(Integer.parseInt(dsn.getOptions().get(DEADLINE_OPTION)));
+        // Set the maximum number of requests sent at the same time to the server
+        if (Boolean.parseBoolean(dsn.getOptions().get(ADAPTIVE_CONCURRENCY_OPTION)))
+            httpConnection.setConcurrencyLimit(createAdaptiveConcurrencyLimit(dsn));
+        else if (dsn.getOptions().containsKey(MAX_CONCURRENCY_OPTION))
+            httpConnection.setMaxConcurrentRequests(Integer.parseInt(dsn.getOptions().get(MAX_CONCURRENCY_OPTION)));
+        ConcurrencyLimit concurrencyLimit = httpConnection.getConcurrencyLimit();
+        if (concurrencyLimit != null)
+            concurrencyLimit.setShedding(Boolean.parseBoolean(dsn.getOptions().get(SHED_LOAD_OPTION)));
+        // Set the maximum size of a batch payload
+        if (dsn.getOptions().containsKey(BATCH_MAX_BYTES_OPTION))
+            httpConnection.setMaxBatchBytes(Integer.parseInt(dsn.getOptions().get(BATCH_MAX_BYTES_OPTION)));
+        // Warm the connection up in the background
+        if (Boolean.parseBoolean(dsn.getOptions().get(WARM_UP_OPTION)))
+            httpConnection.warmUp();
         return httpConnection;
     }
 
+    /**
+     * Creates the limit of the HTTP requests sent at the same time, adapting to the latency and failures of Sentry.
+     *
+     * @param dsn Data Source Name of the Sentry server.
+     * @return an adaptive {@link ConcurrencyLimit}.
+     */
+    protected ConcurrencyLimit createAdaptiveConcurrencyLimit(Dsn dsn) {
+        int minLimit = 1;
+        if (dsn.getOptions().containsKey(MIN_CONCURRENCY_OPTION))
+            minLimit = Integer.parseInt(dsn.getOptions().get(MIN_CONCURRENCY_OPTION));
+        int maxLimit = DEFAULT_MAX_ADAPTIVE_CONCURRENCY;
+        if (dsn.getOptions().containsKey(MAX_CONCURRENCY_OPTION))
+            maxLimit = Integer.parseInt(dsn.getOptions().get(MAX_CONCURRENCY_OPTION));
+        int initialLimit = Math.max(minLimit, Math.min(maxLimit, DEFAULT_INITIAL_ADAPTIVE_CONCURRENCY));
+        return new ConcurrencyLimit(initialLimit, minLimit, maxLimit);
+    }
+
+    /**
+     * Creates an HTTP connection to the Sentry server using non-blocking sockets.
+     *
+     * @param dsn Data Source Name of the Sentry server.
+     * @return a {@link NioHttpConnection} to the server.
+     */
+    protected Connection createNioHttpConnection(Dsn dsn) {
+        URL sentryApiUrl = HttpConnection.getSentryApiUrl(dsn.getUri(), dsn.getProjectId());
+        NioHttpConnection nioHttpConnection = new NioHttpConnection(sentryApiUrl, dsn.getPublicKey(),
+                dsn.getSecretKey());
+        nioHttpConnection.setMarshaller(createMarshaller(dsn));
+
+        nioHttpConnection.setBypassSecurity(dsn.getProtocolSettings().contains(NAIVE_PROTOCOL));
+        if (dsn.getOptions().containsKey(TIMEOUT_OPTION))
+            nioHttpConnection.setTimeout(Integer.parseInt(dsn.getOptions().get(TIMEOUT_OPTION)));
+        if (dsn.getOptions().containsKey(IDLE_TIMEOUT_OPTION))
+            nioHttpConnection.setIdleTimeout(Long.parseLong(dsn.getOptions().get(IDLE_TIMEOUT_OPTION)));
+        if (dsn.getOptions().containsKey(MAX_CONNECTIONS_OPTION))
+            nioHttpConnection.setMaxConnections(Integer.parseInt(dsn.getOptions().get(MAX_CONNECTIONS_OPTION)));
+        if (dsn.getOptions().containsKey(NIO_THREADS_OPTION))
+            nioHttpConnection.setSelectorThreads(Integer.parseInt(dsn.getOptions().get(NIO_THREADS_OPTION)));
+        if (dsn.getOptions().containsKey(BATCH_MAX_BYTES_OPTION))
+            nioHttpConnection.setMaxBatchBytes(Integer.parseInt(dsn.getOptions().get(BATCH_MAX_BYTES_OPTION)));
+        return nioHttpConnection;
+    }
+
     /**
      * Uses stdout to send the logs.
      *
@@ -182,6 +1071,45 @@ public class DefaultRavenFactory extends RavenFactory {
         return stdOutConnection;
     }
 
+    /**
+     * Writes the events as newline delimited JSON on stdout, or in a rotating file if {@link #NDJSON_FILE_OPTION} is
+     * set.
+     *
+     * @param dsn Data Source Name of the Sentry server.
+     * @return an {@link NdjsonConnection} writing uncompressed events.
+     */
+    protected Connection createNdjsonConnection(Dsn dsn) {
+        //CHECKSTYLE.OFF: RegexpSinglelineJava
+        OutputStream outputStream = System.out;
+        //CHECKSTYLE.ON: RegexpSinglelineJava
+        if (dsn.getOptions().containsKey(NDJSON_FILE_OPTION)) {
+            File file = new File(dsn.getOptions().get(NDJSON_FILE_OPTION));
+            long maxFileSize = DEFAULT_NDJSON_MAX_FILE_SIZE;
+            if (dsn.getOptions().containsKey(NDJSON_MAX_FILE_SIZE_OPTION))
+                maxFileSize = Long.parseLong(dsn.getOptions().get(NDJSON_MAX_FILE_SIZE_OPTION));
+            int maxFiles = DEFAULT_NDJSON_MAX_FILES;
+            if (dsn.getOptions().containsKey(NDJSON_MAX_FILES_OPTION))
+                maxFiles = Integer.parseInt(dsn.getOptions().get(NDJSON_MAX_FILES_OPTION));
+            try {
+                outputStream = new RotatingFileOutputStream(file, maxFileSize, maxFiles);
+            } catch (IOException e) {
+                logger.error("Couldn't open '{}', the NDJSON events are written on stdout.", file, e);
+            }
+        }
+
+        NdjsonConnection ndjsonConnection = new NdjsonConnection(outputStream);
+        Marshaller marshaller = createMarshaller(dsn);
+        // Shippers expect a plain JSON document on each line
+        if (marshaller instanceof JsonMarshaller)
+            ((JsonMarshaller) marshaller).setCompression(false);
+        ndjsonConnection.setMarshaller(marshaller);
+        if (dsn.getOptions().containsKey(NDJSON_BUFFER_SIZE_OPTION))
+            ndjsonConnection.setBufferSize(Integer.parseInt(dsn.getOptions().get(NDJSON_BUFFER_SIZE_OPTION)));
+        if (dsn.getOptions().containsKey(NDJSON_FLUSH_INTERVAL_OPTION))
+            ndjsonConnection.setFlushInterval(Long.parseLong(dsn.getOptions().get(NDJSON_FLUSH_INTERVAL_OPTION)));
+        return ndjsonConnection;
+    }
+
     /**
      * Creates a JSON marshaller that will convert every {@link com.getsentry.raven.event.Event} in a format
      * handled by the Sentry server.
@@ -210,6 +1138,14 @@ public class DefaultRavenFactory extends RavenFactory {
 
         // Enable compression unless the option is set to false
         marshaller.setCompression(!FALSE.equalsIgnoreCase(dsn.getOptions().get(COMPRESSION_OPTION)));
+        if (dsn.getOptions().containsKey(COMPRESSION_LEVEL_OPTION))
+            marshaller.setCompressionLevel(Integer.parseInt(dsn.getOptions().get(COMPRESSION_LEVEL_OPTION)));
+        if (dsn.getOptions().containsKey(COMPRESSION_THRESHOLD_OPTION))
+            marshaller.setCompressionThreshold(Integer.parseInt(dsn.getOptions().get(COMPRESSION_THRESHOLD_OPTION)));
+        if (dsn.getOptions().containsKey(COMPRESSION_ENCODING_OPTION)) {
+            marshaller.setCompressionEncoding(JsonMarshaller.CompressionEncoding.valueOf(
+                    dsn.getOptions().get(COMPRESSION_ENCODING_OPTION).toUpperCase(Locale.ROOT)));
+        }
 
         return marshaller;
     }
@@ -1,6 +1,9 @@
 package com.getsentry.raven;
 
 import com.getsentry.raven.connection.Connection;
+import com.getsentry.raven.connection.DeliveryFuture;
+import com.getsentry.raven.connection.EventDeliveries;
+import com.getsentry.raven.connection.FlushableConnection;
 import com.getsentry.raven.environment.RavenEnvironment;
 import com.getsentry.raven.event.Event;
 import com.getsentry.raven.event.EventBuilder;
@@ -48,9 +51,25 @@ public class Raven {
             connection.send(event);
         } catch (Exception e) {
             logger.error("An exception occurred while sending the event to Sentry.", e);
+            EventDeliveries.dropped(event, e);
         }
     }
 
+    /**
+     * Sends a built {@link Event} to the Sentry server, keeping track of its delivery.
+     * <p>
+     * The event is sent as with {@link #sendEvent(Event)}, the returned future is completed once the transport got the
+     * acknowledgement of Sentry, or once the event has been dropped on the way.
+     *
+     * @param event event to send to Sentry.
+     * @return the future delivery of the event.
+     */
+    public DeliveryFuture sendEventAsync(Event event) {
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+        sendEvent(event);
+        return deliveryFuture;
+    }
+
     /**
      * Sends a message to the Sentry server.
      * <p>
@@ -104,6 +123,19 @@ public class Raven {
         return Collections.unmodifiableSet(builderHelpers);
     }
 
+    /**
+     * Waits until the events sent before the call have been handed over to the transport, without closing the
+     * connection.
+     * <p>
+     * Useful at the end of a batch job or of a short-lived handler, before the process is frozen or stopped.
+     *
+     * @param timeout maximum time (in ms) to wait.
+     * @return true if the events have been handed over to the transport, false if the timeout elapsed first.
+     */
+    public boolean flush(long timeout) {
+        return !(connection instanceof FlushableConnection) || ((FlushableConnection) connection).flush(timeout);
+    }
+
     /**
      * Closes the connection for the Raven instance.
      */
@@ -74,6 +74,8 @@ public abstract class RavenFactory {
 
     /**
      * Creates an instance of Raven using the provided DSN and the specified factory.
+     * <p>
+     * Without a factory name, the factories supporting every protocol setting of the DSN are tried first.
      *
      * @param dsn              Data Source Name of the Sentry server.
      * @param ravenFactoryName name of the raven factory to use to generate an instance of Raven.
@@ -81,12 +83,21 @@ public abstract class RavenFactory {
      * @throws IllegalStateException when no instance of Raven has been created.
      */
     public static Raven ravenInstance(Dsn dsn, String ravenFactoryName) {
-        //Loop through registered factories
-        logger.debug("Attempting to find a working Raven factory");
+        List<RavenFactory> candidateFactories = new LinkedList<>();
+        List<RavenFactory> fallbackFactories = new LinkedList<>();
         for (RavenFactory ravenFactory : getRegisteredFactories()) {
             if (ravenFactoryName != null && !ravenFactoryName.equals(ravenFactory.getClass().getName()))
                 continue;
+            if (ravenFactory.supportsProtocolSettings(dsn))
+                candidateFactories.add(ravenFactory);
+            else
+                fallbackFactories.add(ravenFactory);
+        }
+        candidateFactories.addAll(fallbackFactories);
 
+        //Loop through registered factories
+        logger.debug("Attempting to find a working Raven factory");
+        for (RavenFactory ravenFactory : candidateFactories) {
             logger.debug("Attempting to use '{}' as a Raven factory.", ravenFactory);
             try {
                 Raven ravenInstance = ravenFactory.createRavenInstance(dsn);
@@ -109,6 +120,18 @@ public abstract class RavenFactory {
      */
     public abstract Raven createRavenInstance(Dsn dsn);
 
+    /**
+     * Checks whether the factory supports every protocol setting of a DSN (such as {@code naive} in
+     * {@code naive+https://...}), so {@link #ravenInstance(Dsn, String)} picks it over the factories which would
+     * ignore some of them.
+     *
+     * @param dsn Data Source Name of the Sentry server.
+     * @return true if the factory supports the protocol settings of the DSN, true by default.
+     */
+    protected boolean supportsProtocolSettings(Dsn dsn) {
+        return true;
+    }
+
     @Override
     public String toString() {
         return "RavenFactory{"
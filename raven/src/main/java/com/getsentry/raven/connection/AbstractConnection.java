@@ -5,48 +5,61 @@ import com.getsentry.raven.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Abstract connection to a Sentry server.
  * <p>
  * Provide the basic tools to submit events to the server (authentication header, dsn).<br>
- * To avoid spamming the network if and when Sentry is down, automatically lock the connection each time a
- * {@link ConnectionException} is caught.
+ * To avoid spamming the network if and when Sentry is down, a circuit breaker rejects the events for a while each time
+ * a {@link ConnectionException} is caught, without pausing the threads sending them.
+ * <p>
+ * The events going over the rate limit of the connection, or sent while Sentry asks to wait (see
+ * {@link TooManyRequestsException}), are rejected before being marshalled.
+ * <p>
+ * The events which couldn't be sent are reported to the {@link EventSendFailureCallback}s of the connection.
+ * <p>
+ * Connections able to send events already marshalled implement {@link PayloadConnection} with
+ * {@link #sendPayload(EventPayload)}, which goes through the same rate limit and circuit breaker.
+ * <p>
+ * Connections whose requests complete after {@link #doSend(Event)} returned take the outcome of the request over
+ * with {@link #deferOutcome()}, and record it on the circuit breaker once the server answered.
  */
-public abstract class AbstractConnection implements Connection {
+public abstract class AbstractConnection implements BatchConnection, FlushableConnection {
     /**
      * Current sentry protocol version.
      */
     public static final String SENTRY_PROTOCOL_VERSION = "6";
     /**
-     * Default maximum duration for a lockdown.
+     * Default maximum duration (in ms) the circuit stays open.
      */
     public static final long DEFAULT_MAX_WAITING_TIME = TimeUnit.MINUTES.toMillis(5);
     /**
-     * Default base duration for a lockdown.
+     * Default duration (in ms) the circuit stays open after the first failure.
      */
     public static final long DEFAULT_BASE_WAITING_TIME = TimeUnit.MILLISECONDS.toMillis(10);
     private static final Logger logger = LoggerFactory.getLogger(AbstractConnection.class);
-    private final AtomicBoolean lockdown = new AtomicBoolean();
-    private final Lock lock = new ReentrantLock();
-    private final Condition condition = lock.newCondition();
+    private static final String CIRCUIT_OPEN_MESSAGE = "The connection to the sentry server is failing.";
+    private static final String RATE_LIMITED_MESSAGE = "The events sent to the sentry server are rate limited.";
+    private static final String FAILURE_MESSAGE =
+            "An exception due to the connection occurred, the circuit will be opened.";
     private final String authHeader;
+    private final Set<EventSendFailureCallback> eventSendFailureCallbacks = new CopyOnWriteArraySet<>();
+    private final CircuitBreaker circuitBreaker =
+            new CircuitBreaker(DEFAULT_BASE_WAITING_TIME, DEFAULT_MAX_WAITING_TIME);
+    private final RateLimiter rateLimiter = new RateLimiter();
     /**
-     * Maximum duration for a lockdown.
+     * Outcome of the request being sent by the current thread, which can be deferred by the implementation.
      */
-    private long maxWaitingTime = DEFAULT_MAX_WAITING_TIME;
+    private final ThreadLocal<DeferredOutcome> currentOutcome = new ThreadLocal<>();
     /**
-     * Base duration for a lockdown.
-     * <p>
-     * On each attempt the time is doubled until it reaches {@link #maxWaitingTime}.
+     * Whether the outcome of the events is reported to {@link EventDeliveries}.
      */
-    private long baseWaitingTime = DEFAULT_BASE_WAITING_TIME;
-    private long waitingTime = baseWaitingTime;
+    private volatile boolean reportingDeliveries = true;
 
     /**
      * Creates a connection based on the public and secret keys.
@@ -70,78 +83,414 @@ public abstract class AbstractConnection implements Connection {
         return authHeader;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * While the circuit is open or the events are rate limited, the event is rejected immediately and reported as a
+     * failure.
+     */
     @Override
     public final void send(Event event) {
-        try {
-            waitIfLockedDown();
+        if (rateLimiter.tryAcquire(1) == 0) {
+            logger.debug("The event {} is rejected by the rate limit.", event.getId());
+            reportFailure(event, new ConnectionException(RATE_LIMITED_MESSAGE));
+            return;
+        }
+        CircuitBreaker.Permit permit = circuitBreaker.allowRequest();
+        if (permit == CircuitBreaker.Permit.REJECTED) {
+            logger.debug("The circuit is open, the event {} is rejected.", event.getId());
+            reportFailure(event, new ConnectionException(CIRCUIT_OPEN_MESSAGE));
+            return;
+        }
 
+        DeferredOutcome outcome = startRequest(permit);
+        try {
             doSend(event);
-            waitingTime = baseWaitingTime;
+            if (!outcome.deferred)
+                circuitBreaker.recordSuccess(permit);
+        } catch (TooManyRequestsException e) {
+            onTooManyRequests(e, permit);
+            reportFailure(event, e);
         } catch (ConnectionException e) {
-            logger.warn("An exception due to the connection occurred, a lockdown will be initiated.", e);
-            lockDown();
+            logger.warn(FAILURE_MESSAGE, e);
+            reportFailure(event, e);
+            circuitBreaker.recordFailure(permit);
+        } catch (RuntimeException e) {
+            circuitBreaker.recordUnknownOutcome(permit);
+            if (reportingDeliveries)
+                EventDeliveries.dropped(event, e);
+            throw e;
+        } finally {
+            currentOutcome.remove();
         }
     }
 
     /**
-     * Pauses the current thread if there is a lockdown.
+     * Sends an event already marshalled, with the same rate limit and circuit breaker as {@link #send(Event)}.
+     * <p>
+     * The event itself isn't available, so the failures are only reported to {@link EventDeliveries}, not to the
+     * {@link EventSendFailureCallback}s.
+     *
+     * @param payload marshalled event to add in Sentry.
      */
-    private void waitIfLockedDown() {
-        while (lockdown.get()) {
-            lock.lock();
-            try {
-                if (lockdown.get())
-                    condition.await();
-            } catch (InterruptedException e) {
-                logger.warn("An exception occurred during the lockdown.", e);
-            } finally {
-                lock.unlock();
-            }
+    protected final void sendPayload(EventPayload payload) {
+        if (rateLimiter.tryAcquire(1) == 0) {
+            logger.debug("The event {} is rejected by the rate limit.", payload.getEventId());
+            reportFailure(payload, new ConnectionException(RATE_LIMITED_MESSAGE));
+            return;
+        }
+        CircuitBreaker.Permit permit = circuitBreaker.allowRequest();
+        if (permit == CircuitBreaker.Permit.REJECTED) {
+            logger.debug("The circuit is open, the event {} is rejected.", payload.getEventId());
+            reportFailure(payload, new ConnectionException(CIRCUIT_OPEN_MESSAGE));
+            return;
+        }
+
+        DeferredOutcome outcome = startRequest(permit);
+        try {
+            doSendPayload(payload);
+            if (!outcome.deferred)
+                circuitBreaker.recordSuccess(permit);
+        } catch (TooManyRequestsException e) {
+            onTooManyRequests(e, permit);
+            reportFailure(payload, e);
+        } catch (ConnectionException e) {
+            logger.warn(FAILURE_MESSAGE, e);
+            reportFailure(payload, e);
+            circuitBreaker.recordFailure(permit);
+        } catch (RuntimeException e) {
+            circuitBreaker.recordUnknownOutcome(permit);
+            reportFailure(payload, e);
+            throw e;
+        } finally {
+            currentOutcome.remove();
         }
     }
 
     /**
-     * Initiates a lockdown for {@link #waitingTime}ms and resume the paused threads once the lockdown ends.
+     * {@inheritDoc}
+     * <p>
+     * The circuit breaker applies to the batch as a whole, in the same way it applies to a single event with
+     * {@link #send(Event)}. The events of the batch going over the rate limit are rejected.
      */
-    private void lockDown() {
-        if (!lockdown.compareAndSet(false, true))
+    @Override
+    public final void sendBatch(List<Event> events) {
+        int allowedEvents = rateLimiter.tryAcquire(events.size());
+        List<Event> allowedBatch = events;
+        if (allowedEvents < events.size()) {
+            logger.debug("{} events of a batch are rejected by the rate limit.", events.size() - allowedEvents);
+            ConnectionException exception = new ConnectionException(RATE_LIMITED_MESSAGE);
+            for (Event event : events.subList(allowedEvents, events.size())) {
+                reportFailure(event, exception);
+            }
+            if (allowedEvents == 0)
+                return;
+            allowedBatch = events.subList(0, allowedEvents);
+        }
+        CircuitBreaker.Permit permit = circuitBreaker.allowRequest();
+        if (permit == CircuitBreaker.Permit.REJECTED) {
+            logger.debug("The circuit is open, a batch of {} events is rejected.", allowedBatch.size());
+            ConnectionException exception = new ConnectionException(CIRCUIT_OPEN_MESSAGE);
+            for (Event event : allowedBatch) {
+                reportFailure(event, exception);
+            }
             return;
+        }
 
+        DeferredOutcome outcome = startRequest(permit);
         try {
-            logger.warn("Lockdown started for {}ms.", waitingTime);
-            Thread.sleep(waitingTime);
-
-            // Double the wait until the maximum is reached
-            if (waitingTime < maxWaitingTime)
-                waitingTime <<= 1;
-        } catch (Exception e) {
-            logger.warn("An exception occurred during the lockdown.", e);
+            doSendBatch(allowedBatch);
+            if (!outcome.deferred)
+                circuitBreaker.recordSuccess(permit);
+        } catch (TooManyRequestsException e) {
+            onTooManyRequests(e, permit);
+        } catch (ConnectionException e) {
+            logger.warn(FAILURE_MESSAGE, e);
+            circuitBreaker.recordFailure(permit);
+        } catch (RuntimeException e) {
+            circuitBreaker.recordUnknownOutcome(permit);
+            throw e;
         } finally {
-            lockdown.set(false);
+            currentOutcome.remove();
+        }
+    }
 
-            lock.lock();
+    private DeferredOutcome startRequest(CircuitBreaker.Permit permit) {
+        DeferredOutcome outcome = new DeferredOutcome(permit);
+        currentOutcome.set(outcome);
+        return outcome;
+    }
+
+    /**
+     * Takes over the outcome of the request being sent, for a request which completes after {@link #doSend(Event)},
+     * {@link #doSendBatch(List)} or {@link #doSendPayload(EventPayload)} returned.
+     * <p>
+     * The circuit breaker doesn't record the request as successful when the method returns, the implementation
+     * records the outcome with the returned object once the server answered. A request failing before the method
+     * returns is still recorded as a failure right away.
+     *
+     * @return the outcome of the request being sent, to record once it completes.
+     * @throws IllegalStateException if no request is being sent by the current thread.
+     */
+    protected final DeferredOutcome deferOutcome() {
+        DeferredOutcome outcome = currentOutcome.get();
+        if (outcome == null)
+            throw new IllegalStateException("The outcome can only be deferred while a request is being sent.");
+        outcome.deferred = true;
+        return outcome;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The events are handed over to the transport by {@link #send(Event)} itself, there is nothing to wait for.
+     */
+    @Override
+    public boolean flush(long timeout) {
+        return true;
+    }
+
+    /**
+     * Stops sending events for the time requested by Sentry.
+     * <p>
+     * Sentry answered, so the circuit is closed.
+     *
+     * @param exception exception telling how long to wait.
+     * @param permit    permit with which the request was sent.
+     */
+    private void onTooManyRequests(TooManyRequestsException exception, CircuitBreaker.Permit permit) {
+        logger.warn("The sentry server asked to stop sending events for {}ms.", exception.getRetryAfter(), exception);
+        rateLimiter.limitFor(exception.getRetryAfter());
+        circuitBreaker.recordSuccess(permit);
+    }
+
+    /**
+     * Notifies the {@link EventSendFailureCallback}s that an event couldn't be sent, the event is reported as dropped
+     * to {@link EventDeliveries} unless a callback took charge of it.
+     *
+     * @param event     event which couldn't be sent.
+     * @param exception exception which occurred while sending the event.
+     */
+    protected void reportFailure(Event event, Exception exception) {
+        boolean kept = false;
+        for (EventSendFailureCallback eventSendFailureCallback : eventSendFailureCallbacks) {
             try {
-                condition.signalAll();
-            } finally {
-                lock.unlock();
+                kept |= eventSendFailureCallback.onFailure(event, exception);
+            } catch (RuntimeException e) {
+                logger.warn("An exception occurred while notifying the failure to send the event {}.",
+                        event.getId(), e);
             }
-            logger.warn("Lockdown ended.");
         }
+        if (!kept && reportingDeliveries)
+            EventDeliveries.dropped(event, exception);
+    }
+
+    /**
+     * Reports to {@link EventDeliveries} that a marshalled event couldn't be sent.
+     *
+     * @param payload   marshalled event which couldn't be sent.
+     * @param exception exception which occurred while sending the event.
+     */
+    protected void reportFailure(EventPayload payload, Exception exception) {
+        if (reportingDeliveries)
+            EventDeliveries.dropped(payload.getEventId(), exception);
+    }
+
+    /**
+     * Reports to {@link EventDeliveries} that an event couldn't be sent, for connections which don't keep the event
+     * once it has been marshalled.
+     *
+     * @param eventId   identifier of the event which couldn't be sent.
+     * @param exception exception which occurred while sending the event.
+     */
+    protected void reportFailure(UUID eventId, Exception exception) {
+        if (reportingDeliveries)
+            EventDeliveries.dropped(eventId, exception);
+    }
+
+    /**
+     * Reports to {@link EventDeliveries} that the Sentry server accepted an event.
+     * <p>
+     * Implementations call it once the server acknowledged the event, which may be after {@link #doSend(Event)}
+     * returned.
+     *
+     * @param event event accepted by the Sentry server.
+     */
+    protected void reportDelivery(Event event) {
+        if (reportingDeliveries)
+            EventDeliveries.delivered(event);
+    }
+
+    /**
+     * Reports to {@link EventDeliveries} that the Sentry server accepted a marshalled event.
+     *
+     * @param payload marshalled event accepted by the Sentry server.
+     */
+    protected void reportDelivery(EventPayload payload) {
+        if (reportingDeliveries)
+            EventDeliveries.delivered(payload.getEventId());
+    }
+
+    /**
+     * Reports to {@link EventDeliveries} that the Sentry server accepted an event, for connections which don't keep
+     * the event once it has been marshalled.
+     *
+     * @param eventId identifier of the event accepted by the Sentry server.
+     */
+    protected void reportDelivery(UUID eventId) {
+        if (reportingDeliveries)
+            EventDeliveries.delivered(eventId);
     }
 
     /**
      * Sends an event to the sentry server.
+     * <p>
+     * Implementations report the event with {@link #reportDelivery(Event)} once the server accepted it.
      *
      * @param event captured event to add in Sentry.
      * @throws ConnectionException whenever a temporary exception due to the connection happened.
      */
     protected abstract void doSend(Event event) throws ConnectionException;
 
+    /**
+     * Sends an event already marshalled to the sentry server.
+     * <p>
+     * Connections implementing {@link PayloadConnection} override this method, and report the event with
+     * {@link #reportDelivery(EventPayload)} once the server accepted it.
+     *
+     * @param payload marshalled event to add in Sentry.
+     * @throws ConnectionException whenever a temporary exception due to the connection happened.
+     */
+    protected void doSendPayload(EventPayload payload) throws ConnectionException {
+        throw new UnsupportedOperationException(getClass().getName() + " can't send marshalled events.");
+    }
+
+    /**
+     * Sends several events to the sentry server.
+     * <p>
+     * By default each event is sent separately with {@link #doSend(Event)}, connections able to submit several
+     * events in a single request should override this method.
+     * <p>
+     * A failure doesn't prevent the following events from being sent, the first failure is thrown once every event
+     * has been attempted. A {@link TooManyRequestsException} stops the batch and is thrown right away. Implementations
+     * must report each event which couldn't be sent with {@link #reportFailure(Event, Exception)}, and each event
+     * accepted by the server with {@link #reportDelivery(Event)}.
+     *
+     * @param events captured events to add in Sentry.
+     * @throws ConnectionException whenever a temporary exception due to the connection happened.
+     */
+    protected void doSendBatch(List<Event> events) throws ConnectionException {
+        ConnectionException firstFailure = null;
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            try {
+                doSend(event);
+            } catch (TooManyRequestsException e) {
+                for (Event rejectedEvent : events.subList(i, events.size())) {
+                    reportFailure(rejectedEvent, e);
+                }
+                throw e;
+            } catch (ConnectionException e) {
+                reportFailure(event, e);
+                if (firstFailure == null)
+                    firstFailure = e;
+            }
+        }
+        if (firstFailure != null)
+            throw firstFailure;
+    }
+
+    /**
+     * Adds a callback notified each time an event couldn't be sent.
+     *
+     * @param eventSendFailureCallback callback to notify.
+     */
+    public void addEventSendFailureCallback(EventSendFailureCallback eventSendFailureCallback) {
+        eventSendFailureCallbacks.add(eventSendFailureCallback);
+    }
+
+    /**
+     * Whether callbacks are notified of the events which couldn't be sent, in which case the events must be kept
+     * until their outcome is known.
+     *
+     * @return true if at least one {@link EventSendFailureCallback} was added.
+     */
+    protected boolean hasEventSendFailureCallbacks() {
+        return !eventSendFailureCallbacks.isEmpty();
+    }
+
+    /**
+     * Enables or disables the reports of the outcome of the events to {@link EventDeliveries}.
+     * <p>
+     * When several connections send the same event, only one of them should report its outcome.
+     *
+     * @param reportingDeliveries whether the outcome of the events is reported.
+     */
+    public void setReportingDeliveries(boolean reportingDeliveries) {
+        this.reportingDeliveries = reportingDeliveries;
+    }
+
+    /**
+     * Gets the rate limiter deciding whether events can be sent.
+     *
+     * @return the rate limiter of the connection.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets the maximum duration (in ms) the circuit stays open.
+     *
+     * @param maxWaitingTime maximum duration (in ms) the circuit stays open.
+     */
     public void setMaxWaitingTime(long maxWaitingTime) {
-        this.maxWaitingTime = maxWaitingTime;
+        circuitBreaker.setMaxWaitingTime(maxWaitingTime);
     }
 
+    /**
+     * Sets the duration (in ms) the circuit stays open after the first failure, doubled on each failed probe.
+     *
+     * @param baseWaitingTime duration (in ms) the circuit stays open after the first failure.
+     */
     public void setBaseWaitingTime(long baseWaitingTime) {
-        this.baseWaitingTime = baseWaitingTime;
+        circuitBreaker.setBaseWaitingTime(baseWaitingTime);
+    }
+
+    /**
+     * Outcome of a request completing after the connection handed it over, see {@link #deferOutcome()}.
+     */
+    public final class DeferredOutcome {
+        private final CircuitBreaker.Permit permit;
+        /**
+         * Whether the implementation took the outcome over, only accessed by the thread sending the request.
+         */
+        private boolean deferred;
+
+        private DeferredOutcome(CircuitBreaker.Permit permit) {
+            this.permit = permit;
+        }
+
+        /**
+         * Records that the server accepted the request.
+         */
+        public void recordSuccess() {
+            circuitBreaker.recordSuccess(permit);
+        }
+
+        /**
+         * Records that the request failed, a {@link TooManyRequestsException} stopping the events for the time
+         * requested by Sentry instead of opening the circuit.
+         *
+         * @param exception exception which occurred while sending the request.
+         */
+        public void recordFailure(ConnectionException exception) {
+            if (exception instanceof TooManyRequestsException) {
+                onTooManyRequests((TooManyRequestsException) exception, permit);
+            } else {
+                logger.warn(FAILURE_MESSAGE, exception);
+                circuitBreaker.recordFailure(permit);
+            }
+        }
     }
 }
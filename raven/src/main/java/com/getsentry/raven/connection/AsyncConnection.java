@@ -2,13 +2,24 @@ package com.getsentry.raven.connection;
 
 import com.getsentry.raven.environment.RavenEnvironment;
 import com.getsentry.raven.event.Event;
+import com.getsentry.raven.marshaller.Marshaller;
+import com.getsentry.raven.spool.EventSpool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -16,13 +27,60 @@ import java.util.concurrent.TimeUnit;
  * <p>
  * Instead of synchronously sending each event to a connection, use a ThreadPool to establish the connection
  * and submit the event.
+ * <p>
+ * To keep track of the events for {@link #flush(long)}, the executor must not drop the tasks silently: when the queue
+ * is full, use a {@link DiscardOldestEventPolicy} or a {@link DiscardEventPolicy} rather than the policies of
+ * {@link ThreadPoolExecutor}.
+ * <p>
+ * When a {@link Marshaller} is set, the events are marshalled by the thread sending them and only their
+ * {@link EventPayload} waits in the queue, so the events themselves can be garbage collected right away. The actual
+ * connection must then be a {@link PayloadConnection}.
+ * <p>
+ * When the connection is closed, the queued events are sent by order of severity, {@link Event.Level#FATAL} and
+ * {@link Event.Level#ERROR} first, for up to the shutdown timeout. With a spill (see {@link #setSpill(EventSpool)}),
+ * the events which still couldn't be sent are written on disk to be sent by the next connection using the same spill.
  */
-public class AsyncConnection implements Connection {
+public class AsyncConnection implements FlushableConnection {
+    /**
+     * Default time (in ms) given to the queued events to be sent when the connection is closed.
+     */
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Reason given to the {@link DeliveryFuture}s of the events dropped because the queue is full.
+     */
+    static final String QUEUE_FULL_MESSAGE = "The queue of the async connection is full.";
+    /**
+     * Reason given to the {@link DeliveryFuture}s of the events dropped because the connection is closed.
+     */
+    static final String CLOSED_MESSAGE = "The async connection has been closed.";
+    /**
+     * Reason given to the {@link DeliveryFuture}s of the events written to the spill when the connection is closed.
+     */
+    static final String SPILLED_MESSAGE = "The event has been spilled to disk, to be sent by the next connection.";
     private static final Logger logger = LoggerFactory.getLogger(AsyncConnection.class);
     /**
-     * Timeout of the {@link #executorService}.
+     * Order of the tasks drained when the connection is closed, the most severe events first.
+     */
+    private static final Comparator<Runnable> SEVERITY_ORDER = new Comparator<Runnable>() {
+        @Override
+        public int compare(Runnable task1, Runnable task2) {
+            return Integer.compare(severityOf(task1), severityOf(task2));
+        }
+    };
+    /**
+     * Maximum size (in bytes) of the marshalling buffer kept by a thread between two events.
+     */
+    private static final int MAX_KEPT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Buffer in which each thread marshals its events before they're copied in a payload of the exact size.
      */
-    private static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+    private static final ThreadLocal<ByteArrayOutputStream> MARSHALLING_BUFFER =
+            new ThreadLocal<ByteArrayOutputStream>() {
+                @Override
+                protected ByteArrayOutputStream initialValue() {
+                    return new ByteArrayOutputStream();
+                }
+            };
     /**
      * Connection used to actually send the events.
      */
@@ -35,6 +93,26 @@ public class AsyncConnection implements Connection {
      * Shutdown hook used to stop the async connection properly when the JVM quits.
      */
     private final ShutDownHook shutDownHook = new ShutDownHook();
+    /**
+     * Events submitted to the {@link #executorService} and not sent yet.
+     */
+    private final FlushBarrier flushBarrier = new FlushBarrier();
+    /**
+     * Marshaller used when the events are queued, null to queue the events themselves.
+     */
+    private Marshaller marshaller;
+    /**
+     * Time (in ms) given to the queued events to be sent when the connection is closed.
+     */
+    private long shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+    /**
+     * Spool in which the events left when the connection is closed are written, null to drop them.
+     */
+    private EventSpool spill;
+    /**
+     * Whether the events of the {@link #spill} must stop being sent again, guarded by the spill.
+     */
+    private boolean spillReplayStopped;
     /**
      * Boolean that represents if graceful shutdown is enabled.
      */
@@ -81,17 +159,67 @@ public class AsyncConnection implements Connection {
      */
     @Override
     public void send(Event event) {
-        if (!closed)
-            executorService.execute(new EventSubmitter(event));
+        if (closed) {
+            EventDeliveries.dropped(event, CLOSED_MESSAGE);
+            return;
+        }
+        EventSubmitter eventSubmitter;
+        if (marshaller != null)
+            eventSubmitter = new EventSubmitter(marshall(event), event.getLevel());
+        else
+            eventSubmitter = new EventSubmitter(event);
+        try {
+            executorService.execute(eventSubmitter);
+        } catch (RejectedExecutionException e) {
+            eventSubmitter.discard(e.toString());
+            throw e;
+        }
+    }
+
+    /**
+     * Marshals an event in the buffer of the current thread, then copies it in a payload of the exact size.
+     *
+     * @param event event to marshal.
+     * @return the marshalled event.
+     */
+    private EventPayload marshall(Event event) {
+        ByteArrayOutputStream buffer = MARSHALLING_BUFFER.get();
+        buffer.reset();
+        marshaller.marshall(event, buffer);
+        EventPayload payload = new EventPayload(event.getId(), buffer.toByteArray(), marshaller.getContentEncoding());
+        if (buffer.size() > MAX_KEPT_BUFFER_SIZE)
+            MARSHALLING_BUFFER.remove();
+        return payload;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Waits for the tasks submitted to the executor before the call, then flushes the actual connection with the
+     * time left.
+     */
+    @Override
+    public boolean flush(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            if (!flushBarrier.await(timeout))
+                return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !(actualConnection instanceof FlushableConnection)
+                || ((FlushableConnection) actualConnection).flush(Math.max(0, deadline - System.currentTimeMillis()));
     }
 
     /**
      * {@inheritDoc}.
      * <p>
      * Closing the {@link AsyncConnection} will attempt a graceful shutdown of the {@link #executorService} with a
-     * timeout of {@link #SHUTDOWN_TIMEOUT}, allowing the current events to be submitted while new events will
-     * be rejected.<br>
-     * If the shutdown times out, the {@code executorService} will be forced to shutdown.
+     * timeout of {@link #shutdownTimeout}, allowing the current events to be submitted, the most severe first, while
+     * new events will be rejected.<br>
+     * If the shutdown times out, the {@code executorService} will be forced to shutdown and the events left are
+     * written to the {@link #spill}, if any.
      */
     @Override
     public void close() throws IOException {
@@ -108,32 +236,218 @@ public class AsyncConnection implements Connection {
     private void doClose() throws IOException {
         logger.info("Gracefully shutdown sentry threads.");
         closed = true;
+        sortQueueBySeverity();
         executorService.shutdown();
         try {
-            if (!executorService.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            if (!executorService.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
                 logger.warn("Graceful shutdown took too much time, forcing the shutdown.");
+                stopSpillReplay();
                 List<Runnable> tasks = executorService.shutdownNow();
+                spillOrDiscardAll(tasks);
                 logger.info("{} tasks failed to execute before the shutdown.", tasks.size());
             }
             logger.info("Shutdown finished.");
         } catch (InterruptedException e) {
             logger.error("Graceful shutdown interrupted, forcing the shutdown.");
+            stopSpillReplay();
             List<Runnable> tasks = executorService.shutdownNow();
+            spillOrDiscardAll(tasks);
             logger.info("{} tasks failed to execute before the shutdown.", tasks.size());
         } finally {
-            actualConnection.close();
+            try {
+                stopSpillReplay();
+                if (spill != null)
+                    spill.close();
+            } finally {
+                actualConnection.close();
+            }
+        }
+    }
+
+    /**
+     * Stops sending the events of the {@link #spill} again, before the events left are spilled or the spill is
+     * closed. The events not sent yet stay on disk.
+     */
+    private void stopSpillReplay() {
+        if (spill == null)
+            return;
+        synchronized (spill) {
+            spillReplayStopped = true;
+        }
+    }
+
+    /**
+     * Sorts the tasks waiting in the queue of the executor, so the most severe events are sent first.
+     * <p>
+     * Only the queue of a {@link ThreadPoolExecutor} can be sorted, a {@link LevelAwareEventQueue} is sorted already.
+     */
+    private void sortQueueBySeverity() {
+        if (!(executorService instanceof ThreadPoolExecutor))
+            return;
+        BlockingQueue<Runnable> queue = ((ThreadPoolExecutor) executorService).getQueue();
+        if (queue instanceof LevelAwareEventQueue)
+            return;
+        List<Runnable> tasks = new ArrayList<>();
+        queue.drainTo(tasks);
+        Collections.sort(tasks, SEVERITY_ORDER);
+        for (Runnable task : tasks) {
+            if (!queue.offer(task))
+                discard(task, CLOSED_MESSAGE);
+        }
+    }
+
+    /**
+     * Writes the events of the tasks which won't be run to the {@link #spill}, or drops them if there is no spill.
+     *
+     * @param tasks tasks which won't be run.
+     */
+    private void spillOrDiscardAll(List<Runnable> tasks) {
+        if (spill == null) {
+            discardAll(tasks);
+            return;
+        }
+        int spilledEvents = 0;
+        for (Runnable task : tasks) {
+            if (task instanceof EventSubmitter && ((EventSubmitter) task).event != null
+                    && spill.append(((EventSubmitter) task).event)) {
+                discard(task, SPILLED_MESSAGE);
+                spilledEvents++;
+            } else {
+                discard(task, CLOSED_MESSAGE);
+            }
+        }
+        logger.info("{} events have been spilled to disk.", spilledEvents);
+    }
+
+    /**
+     * Sets the time given to the queued events to be sent when the connection is closed.
+     *
+     * @param shutdownTimeout time (in ms) given to the queued events to be sent.
+     */
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * Sets the spool in which the events left when the connection is closed are written, and sends the events left in
+     * it by a previous connection.
+     * <p>
+     * The events of the previous connection are read and sent by a thread of the executor, not by the calling thread,
+     * and without going through the queue. The spill is closed with the connection. The marshalled events (see
+     * {@link #setMarshaller(Marshaller)}) can't be spilled.
+     *
+     * @param spill spool keeping the events left when the connection is closed.
+     */
+    public void setSpill(EventSpool spill) {
+        this.spill = spill;
+        try {
+            executorService.execute(new SpillReplay(spill));
+        } catch (RejectedExecutionException e) {
+            logger.warn("The events spilled to disk by a previous connection can't be sent yet.", e);
+        }
+    }
+
+    /**
+     * Marshals the events when they're queued, so only their payload is kept in the queue.
+     *
+     * @param marshaller marshaller of the events, null to queue the events themselves.
+     * @throws IllegalArgumentException if the actual connection can't send marshalled events.
+     */
+    public void setMarshaller(Marshaller marshaller) {
+        if (marshaller != null && !(actualConnection instanceof PayloadConnection))
+            throw new IllegalArgumentException(actualConnection + " can't send marshalled events.");
+        this.marshaller = marshaller;
+    }
+
+    /**
+     * Gives up on a task of an {@link AsyncConnection} which won't be run.
+     *
+     * @param runnable task which won't be run, ignored if it doesn't send an event.
+     * @param reason   why the task won't be run.
+     */
+    static void discard(Runnable runnable, String reason) {
+        if (runnable instanceof EventSubmitter)
+            ((EventSubmitter) runnable).discard(reason);
+    }
+
+    private static int severityOf(Runnable task) {
+        if (task instanceof EventSubmitter && ((EventSubmitter) task).getLevel() != null)
+            return ((EventSubmitter) task).getLevel().ordinal();
+        return Event.Level.WARNING.ordinal();
+    }
+
+    private static void discardAll(List<Runnable> tasks) {
+        for (Runnable task : tasks) {
+            discard(task, CLOSED_MESSAGE);
         }
     }
 
     /**
      * Simple runnable using the {@link #send(com.getsentry.raven.event.Event)} method of the
-     * {@link #actualConnection}.
+     * {@link #actualConnection}, or its {@link PayloadConnection#send(EventPayload)} method for a marshalled event.
      */
-    private final class EventSubmitter implements Runnable {
+    final class EventSubmitter implements Runnable {
         private final Event event;
+        private final EventPayload payload;
+        private final UUID eventId;
+        private final Event.Level level;
+        /**
+         * Time (in ms) at which the event has been handed over to the executor.
+         */
+        private final long submissionTime = System.currentTimeMillis();
+        private final FlushBarrier.Epoch epoch = flushBarrier.enter();
 
-        private EventSubmitter(Event event) {
+        /**
+         * Creates a task sending the event through the actual connection.
+         *
+         * @param event event to send.
+         */
+        EventSubmitter(Event event) {
             this.event = event;
+            this.payload = null;
+            this.eventId = event.getId();
+            this.level = event.getLevel();
+        }
+
+        /**
+         * Creates a task sending a marshalled event through the actual connection.
+         *
+         * @param payload marshalled event to send.
+         * @param level   level of the marshalled event.
+         */
+        EventSubmitter(EventPayload payload, Event.Level level) {
+            this.event = null;
+            this.payload = payload;
+            this.eventId = payload.getEventId();
+            this.level = level;
+        }
+
+        /**
+         * Gets the level of the event sent by this task.
+         *
+         * @return the level of the event to send.
+         */
+        Event.Level getLevel() {
+            return level;
+        }
+
+        /**
+         * Gets the time (in ms) at which the event has been handed over to the executor.
+         *
+         * @return the submission time of the event.
+         */
+        long getSubmissionTime() {
+            return submissionTime;
+        }
+
+        /**
+         * Gives up on the event, to be called instead of {@link #run()} when the task is dropped.
+         *
+         * @param reason why the event is dropped.
+         */
+        void discard(String reason) {
+            flushBarrier.exit(epoch);
+            EventDeliveries.dropped(eventId, reason);
         }
 
         @Override
@@ -141,15 +455,87 @@ public class AsyncConnection implements Connection {
             RavenEnvironment.startManagingThread();
             try {
                 // The current thread is managed by raven
-                actualConnection.send(event);
+                if (payload != null)
+                    ((PayloadConnection) actualConnection).send(payload);
+                else
+                    actualConnection.send(event);
             } catch (Exception e) {
                 logger.error("An exception occurred while sending the event to Sentry.", e);
             } finally {
+                flushBarrier.exit(epoch);
                 RavenEnvironment.stopManagingThread();
             }
         }
     }
 
+    /**
+     * Task sending the events spilled to disk by a previous connection through the actual connection, until the spill
+     * is empty or the connection is closed.
+     */
+    private final class SpillReplay implements Runnable {
+        private final EventSpool replayedSpill;
+
+        private SpillReplay(EventSpool replayedSpill) {
+            this.replayedSpill = replayedSpill;
+        }
+
+        @Override
+        public void run() {
+            RavenEnvironment.startManagingThread();
+            try {
+                // The current thread is managed by raven
+                int replayedEvents = 0;
+                while (true) {
+                    Event event;
+                    synchronized (replayedSpill) {
+                        if (spillReplayStopped)
+                            break;
+                        event = replayedSpill.peek();
+                        if (event == null)
+                            break;
+                        replayedSpill.remove();
+                    }
+                    try {
+                        actualConnection.send(event);
+                    } catch (Exception e) {
+                        logger.error("An exception occurred while sending the event to Sentry.", e);
+                    }
+                    replayedEvents++;
+                }
+                if (replayedEvents > 0)
+                    logger.info("{} events spilled to disk by a previous connection are sent.", replayedEvents);
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+
+    /**
+     * Drops the task waiting for the longest time in the queue of the executor to make room for the new one, like
+     * {@link ThreadPoolExecutor.DiscardOldestPolicy} but keeping track of the dropped events.
+     */
+    public static class DiscardOldestEventPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                discard(runnable, CLOSED_MESSAGE);
+                return;
+            }
+            discard(executor.getQueue().poll(), QUEUE_FULL_MESSAGE);
+            executor.execute(runnable);
+        }
+    }
+
+    /**
+     * Drops the new task, like {@link ThreadPoolExecutor.DiscardPolicy} but keeping track of the dropped events.
+     */
+    public static class DiscardEventPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            discard(runnable, executor.isShutdown() ? CLOSED_MESSAGE : QUEUE_FULL_MESSAGE);
+        }
+    }
+
     private final class ShutDownHook extends Thread {
 
       /**
@@ -0,0 +1,17 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+
+import java.util.List;
+
+/**
+ * Connection to a Sentry server, able to send several captured events at once.
+ */
+public interface BatchConnection extends Connection {
+    /**
+     * Sends several events to the sentry server.
+     *
+     * @param events captured events to add in Sentry.
+     */
+    void sendBatch(List<Event> events);
+}
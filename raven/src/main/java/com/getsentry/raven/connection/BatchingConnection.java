@@ -0,0 +1,302 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection gathering events in batches before sending them with {@link BatchConnection#sendBatch(List)}.
+ * <p>
+ * A batch is sent as soon as it contains {@link #batchSize} events, by the thread adding the last event.
+ * Otherwise the batch is sent by the {@link #scheduler} once the first event in the batch has waited for
+ * {@link #lingerTime} milliseconds.
+ * <p>
+ * Usually used between an {@link AsyncConnection} and the actual transport, the size of the payload of each batch is
+ * then up to the transport (see {@link HttpConnection#setMaxBatchBytes(int)}).
+ */
+public class BatchingConnection implements FlushableConnection {
+    private static final Logger logger = LoggerFactory.getLogger(BatchingConnection.class);
+    /**
+     * Thread factory of the default scheduler, whose thread mustn't prevent the JVM from exiting.
+     */
+    private static final ThreadFactory DAEMON_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+    /**
+     * Connection used to actually send the batches.
+     */
+    private final BatchConnection actualConnection;
+    /**
+     * Maximum number of events in a batch.
+     */
+    private final int batchSize;
+    /**
+     * Maximum time (in ms) an event waits for its batch to be full.
+     */
+    private final long lingerTime;
+    /**
+     * Scheduler in charge of sending the batches which aren't full once the linger time is over.
+     */
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Shutdown hook used to send the last batch when the JVM quits.
+     */
+    private final ShutDownHook shutDownHook = new ShutDownHook();
+    /**
+     * Boolean that represents if graceful shutdown is enabled.
+     */
+    private boolean gracefulShutdown;
+    /**
+     * Batches taken and not sent yet.
+     */
+    private final FlushBarrier flushBarrier = new FlushBarrier();
+    private final Object lock = new Object();
+    /**
+     * Events waiting to be sent, guarded by {@link #lock}.
+     */
+    private List<Event> batch;
+    /**
+     * Scheduled submission of the current batch, guarded by {@link #lock}.
+     */
+    private ScheduledFuture<?> lingerSubmission;
+    /**
+     * Number of batches taken so far, guarded by {@link #lock}.
+     */
+    private long batchCount;
+    /**
+     * Boolean used to check whether the connection is still open or not, guarded by {@link #lock}.
+     */
+    private boolean closed;
+
+    /**
+     * Creates a connection gathering events before sending them in batches.
+     * <p>
+     * Will propagate the {@link #close()} operation.
+     *
+     * @param actualConnection connection used to send the batches.
+     * @param batchSize        maximum number of events in a batch.
+     * @param lingerTime       maximum time (in ms) an event waits for its batch to be full.
+     * @param scheduler        scheduler used to send the batches once the linger time is over, if null a single
+     *                         threaded scheduler running on a daemon thread is created. The scheduler is shut down
+     *                         with the connection.
+     * @param gracefulShutdown Indicates whether or not the last batch should be sent by a ShutdownHook. Not needed
+     *                         when the connection is closed by an {@link AsyncConnection} with its own hook.
+     */
+    public BatchingConnection(BatchConnection actualConnection, int batchSize, long lingerTime,
+                              ScheduledExecutorService scheduler, boolean gracefulShutdown) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("The size of a batch must be at least 1, got " + batchSize);
+        this.actualConnection = actualConnection;
+        this.batchSize = batchSize;
+        this.lingerTime = lingerTime;
+        if (scheduler == null)
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(DAEMON_THREAD_FACTORY);
+        else
+            this.scheduler = scheduler;
+        this.batch = new ArrayList<>(batchSize);
+        if (gracefulShutdown) {
+            this.gracefulShutdown = gracefulShutdown;
+            Runtime.getRuntime().addShutdownHook(shutDownHook);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The event is added to the current batch, which is sent if it is now full.
+     */
+    @Override
+    public void send(Event event) {
+        List<Event> fullBatch = null;
+        FlushBarrier.Epoch epoch = null;
+        synchronized (lock) {
+            if (closed) {
+                EventDeliveries.dropped(event, "The batching connection has been closed.");
+                return;
+            }
+            batch.add(event);
+            if (batch.size() >= batchSize) {
+                fullBatch = takeBatch();
+                epoch = flushBarrier.enter();
+            } else if (lingerSubmission == null) {
+                lingerSubmission = scheduler.schedule(new LingerSubmitter(batchCount), lingerTime,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (fullBatch != null)
+            sendBatch(fullBatch, epoch);
+    }
+
+    /**
+     * Sends a batch taken with {@link #takeBatch()}.
+     *
+     * @param events events of the batch.
+     * @param epoch  epoch in which the batch has been counted when it was taken.
+     */
+    private void sendBatch(List<Event> events, FlushBarrier.Epoch epoch) {
+        try {
+            if (!events.isEmpty())
+                actualConnection.sendBatch(events);
+        } finally {
+            flushBarrier.exit(epoch);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The current batch is sent without waiting for the linger time, then the batches taken by other threads are
+     * waited for before flushing the actual connection with the time left.
+     */
+    @Override
+    public boolean flush(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        List<Event> currentBatch = null;
+        FlushBarrier.Epoch epoch = null;
+        synchronized (lock) {
+            if (!batch.isEmpty()) {
+                currentBatch = takeBatch();
+                epoch = flushBarrier.enter();
+            }
+        }
+        if (currentBatch != null)
+            sendBatch(currentBatch, epoch);
+
+        try {
+            if (!flushBarrier.await(Math.max(0, deadline - System.currentTimeMillis())))
+                return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !(actualConnection instanceof FlushableConnection)
+                || ((FlushableConnection) actualConnection).flush(Math.max(0, deadline - System.currentTimeMillis()));
+    }
+
+    /**
+     * Takes the current batch and starts a new one.
+     * <p>
+     * Must be called while holding {@link #lock}.
+     *
+     * @return the events of the current batch.
+     */
+    private List<Event> takeBatch() {
+        List<Event> currentBatch = batch;
+        batch = new ArrayList<>(batchSize);
+        batchCount++;
+        if (lingerSubmission != null) {
+            lingerSubmission.cancel(false);
+            lingerSubmission = null;
+        }
+        return currentBatch;
+    }
+
+    /**
+     * {@inheritDoc}.
+     * <p>
+     * Closing the {@link BatchingConnection} sends the current batch before closing the actual connection.
+     */
+    @Override
+    public void close() throws IOException {
+        if (gracefulShutdown)
+            shutDownHook.enabled = false;
+        doClose();
+    }
+
+    /**
+     * Close the connection whether it's from the shutdown hook or not.
+     *
+     * @see #close()
+     */
+    private void doClose() throws IOException {
+        List<Event> lastBatch;
+        synchronized (lock) {
+            closed = true;
+            lastBatch = takeBatch();
+        }
+        scheduler.shutdown();
+        try {
+            if (!lastBatch.isEmpty())
+                actualConnection.sendBatch(lastBatch);
+        } finally {
+            actualConnection.close();
+        }
+    }
+
+    /**
+     * Runnable sending the current batch once the linger time of its first event is over.
+     */
+    private final class LingerSubmitter implements Runnable {
+        /**
+         * Identifies the batch this submitter has been scheduled for.
+         */
+        private final long batchNumber;
+
+        private LingerSubmitter(long batchNumber) {
+            this.batchNumber = batchNumber;
+        }
+
+        @Override
+        public void run() {
+            RavenEnvironment.startManagingThread();
+            try {
+                // The current thread is managed by raven
+                List<Event> lingeringBatch;
+                FlushBarrier.Epoch epoch;
+                synchronized (lock) {
+                    // The batch has already been sent in the meantime
+                    if (batchNumber != batchCount)
+                        return;
+                    lingerSubmission = null;
+                    lingeringBatch = takeBatch();
+                    epoch = flushBarrier.enter();
+                }
+                sendBatch(lingeringBatch, epoch);
+            } catch (Exception e) {
+                logger.error("An exception occurred while sending a batch of events to Sentry.", e);
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+
+    private final class ShutDownHook extends Thread {
+        /**
+         * Whether or not this ShutDownHook instance will do anything when run.
+         */
+        private volatile boolean enabled = true;
+
+        @Override
+        public void run() {
+            if (!enabled)
+                return;
+
+            RavenEnvironment.startManagingThread();
+            try {
+                // The current thread is managed by raven
+                logger.info("Automatic shutdown of the batching connection");
+                BatchingConnection.this.doClose();
+            } catch (Exception e) {
+                logger.error("An exception occurred while closing the connection.", e);
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+}
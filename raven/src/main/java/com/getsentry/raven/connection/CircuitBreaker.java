@@ -0,0 +1,205 @@
+package com.getsentry.raven.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker stopping the requests to a Sentry server which keeps failing, without blocking the callers.
+ * <p>
+ * The circuit is closed while the requests succeed. A failure opens it for a waiting time, during which every
+ * request is rejected immediately. Once the waiting time is over the circuit is half-open: a single request is
+ * allowed through as a probe, the other ones are still rejected. A successful probe closes the circuit, a failed
+ * probe opens it again for twice the previous waiting time, up to a maximum.
+ * <p>
+ * The outcome of a request is recorded with the {@link Permit} it was sent with, so a request sent while the circuit
+ * was closed and failing once it is half-open isn't taken for the probe: only the probe closes or reopens a half-open
+ * circuit.
+ * <p>
+ * The waiting time is checked by the next request rather than measured by a sleeping thread, no thread is ever
+ * paused by the circuit breaker.
+ */
+final class CircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    /**
+     * Maximum duration (in ms) the circuit stays open.
+     */
+    private volatile long maxWaitingTime;
+    /**
+     * Duration (in ms) the circuit stays open after the first failure.
+     * <p>
+     * On each failed probe the time is doubled until it reaches {@link #maxWaitingTime}.
+     */
+    private volatile long baseWaitingTime;
+    private volatile long waitingTime;
+    /**
+     * Time (in ms) at which an open circuit lets a probe through.
+     */
+    private volatile long openUntil;
+
+    /**
+     * Creates a closed circuit breaker.
+     *
+     * @param baseWaitingTime duration (in ms) the circuit stays open after the first failure.
+     * @param maxWaitingTime  maximum duration (in ms) the circuit stays open.
+     */
+    CircuitBreaker(long baseWaitingTime, long maxWaitingTime) {
+        this.baseWaitingTime = baseWaitingTime;
+        this.maxWaitingTime = maxWaitingTime;
+        this.waitingTime = baseWaitingTime;
+    }
+
+    /**
+     * Checks whether a request can be sent.
+     * <p>
+     * When the waiting time of an open circuit is over, the first caller gets the permission to send the probe.
+     *
+     * @return the permit with which the outcome of the request is recorded, {@link Permit#REJECTED} if the request
+     * must be rejected.
+     */
+    Permit allowRequest() {
+        switch (state.get()) {
+            case CLOSED:
+                return Permit.REQUEST;
+            case OPEN:
+                if (System.currentTimeMillis() >= openUntil && state.compareAndSet(State.OPEN, State.HALF_OPEN))
+                    return Permit.PROBE;
+                return Permit.REJECTED;
+            default:
+                // A probe is already being sent
+                return Permit.REJECTED;
+        }
+    }
+
+    /**
+     * Checks whether a request would be allowed, without taking the permission to send the probe.
+     *
+     * @return true if the circuit is closed, or open with its waiting time over.
+     */
+    boolean isAvailable() {
+        State currentState = state.get();
+        return currentState == State.CLOSED
+                || (currentState == State.OPEN && System.currentTimeMillis() >= openUntil);
+    }
+
+    /**
+     * Records a successful request.
+     * <p>
+     * A successful probe closes the circuit, the success of another request doesn't change the state.
+     *
+     * @param permit permit with which the request was sent.
+     */
+    void recordSuccess(Permit permit) {
+        if (permit == Permit.PROBE && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            waitingTime = baseWaitingTime;
+            logger.warn("The connection to the sentry server recovered, the circuit is closed.");
+        }
+    }
+
+    /**
+     * Records a failed request.
+     * <p>
+     * A failed probe opens the circuit again for a longer time. The failure of another request opens a closed
+     * circuit, the failures of requests sent before the circuit opened don't extend the waiting time.
+     *
+     * @param permit permit with which the request was sent.
+     */
+    void recordFailure(Permit permit) {
+        if (permit == Permit.PROBE) {
+            if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+                // Double the wait until the maximum is reached
+                if (waitingTime < maxWaitingTime)
+                    waitingTime = Math.min(waitingTime << 1, maxWaitingTime);
+                open();
+            }
+        } else if (permit == Permit.REQUEST && state.compareAndSet(State.CLOSED, State.OPEN)) {
+            waitingTime = baseWaitingTime;
+            open();
+        }
+    }
+
+    /**
+     * Records a request which ended without telling whether the server works, such as a request which couldn't be
+     * marshalled.
+     * <p>
+     * If the request was the probe, the next request becomes the probe.
+     *
+     * @param permit permit with which the request was sent.
+     */
+    void recordUnknownOutcome(Permit permit) {
+        if (permit == Permit.PROBE)
+            state.compareAndSet(State.HALF_OPEN, State.OPEN);
+    }
+
+    private void open() {
+        openUntil = System.currentTimeMillis() + waitingTime;
+        logger.warn("The circuit is open, the events are rejected for {}ms.", waitingTime);
+    }
+
+    /**
+     * Gets the current state of the circuit.
+     *
+     * @return the state of the circuit.
+     */
+    State getState() {
+        return state.get();
+    }
+
+    /**
+     * Sets the maximum duration (in ms) the circuit stays open.
+     *
+     * @param maxWaitingTime maximum duration (in ms) the circuit stays open.
+     */
+    void setMaxWaitingTime(long maxWaitingTime) {
+        this.maxWaitingTime = maxWaitingTime;
+    }
+
+    /**
+     * Sets the duration (in ms) the circuit stays open after the first failure.
+     *
+     * @param baseWaitingTime duration (in ms) the circuit stays open after the first failure.
+     */
+    void setBaseWaitingTime(long baseWaitingTime) {
+        this.baseWaitingTime = baseWaitingTime;
+        if (state.get() == State.CLOSED)
+            this.waitingTime = baseWaitingTime;
+    }
+
+    /**
+     * Permissions given by {@link #allowRequest()}.
+     */
+    enum Permit {
+        /**
+         * The request must be rejected.
+         */
+        REJECTED,
+        /**
+         * The request is sent while the circuit is closed.
+         */
+        REQUEST,
+        /**
+         * The request is the probe of a half-open circuit.
+         */
+        PROBE
+    }
+
+    /**
+     * States of the circuit.
+     */
+    enum State {
+        /**
+         * Requests are sent.
+         */
+        CLOSED,
+        /**
+         * Requests are rejected until the end of the waiting time.
+         */
+        OPEN,
+        /**
+         * A single request is being sent to check whether the server recovered.
+         */
+        HALF_OPEN
+    }
+}
@@ -0,0 +1,269 @@
+package com.getsentry.raven.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limit of the requests sent at the same time to a Sentry server.
+ * <p>
+ * A fixed limit never changes. An adaptive limit follows the outcome of the requests with an additive increase,
+ * multiplicative decrease (AIMD) scheme:
+ * <ul>
+ * <li>each request ending in time while at least half of the limit is in use raises the limit by {@code 1/limit},
+ * about one more request per round trip;</li>
+ * <li>a failed request, or a smoothed round trip time (RTT) going over {@link #LATENCY_TOLERANCE} times the baseline
+ * RTT, cuts the limit by {@link #BACKOFF_RATIO}, at most once per round trip.</li>
+ * </ul>
+ * The baseline RTT is the shortest RTT observed, slowly drifting towards the smoothed RTT so it follows a change of
+ * network.
+ * <p>
+ * The requests over the limit wait for a request to end, unless the limit sheds them: they are then rejected right
+ * away, so the events don't pile up behind a slow server.
+ */
+public final class ConcurrencyLimit {
+    /**
+     * Factor applied to the limit when a request fails or the latency goes up.
+     */
+    public static final double BACKOFF_RATIO = 0.9;
+    /**
+     * Ratio of the smoothed RTT to the baseline RTT over which the server is considered as overloaded.
+     */
+    public static final double LATENCY_TOLERANCE = 2.0;
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyLimit.class);
+    /**
+     * Weight of a new sample in the smoothed RTT.
+     */
+    private static final double RTT_SMOOTHING = 0.2;
+    /**
+     * Weight of the smoothed RTT when the baseline RTT drifts towards it, on each sample.
+     */
+    private static final double BASELINE_DRIFT = 0.01;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+    private final int minLimit;
+    private final int maxLimit;
+    private final boolean adaptive;
+    private volatile boolean shedding;
+    /**
+     * Current limit, a fraction being accumulated by the additive increase, guarded by {@link #lock}.
+     */
+    private double limit;
+    /**
+     * Number of requests in flight, guarded by {@link #lock}.
+     */
+    private int inFlight;
+    /**
+     * Smoothed RTT (in ms), 0 until the first sample, guarded by {@link #lock}.
+     */
+    private double smoothedRtt;
+    /**
+     * Baseline RTT (in ms), 0 until the first sample, guarded by {@link #lock}.
+     */
+    private double baselineRtt;
+    /**
+     * Time (in ms) of the last decrease of the limit, guarded by {@link #lock}.
+     */
+    private long lastDecrease;
+
+    /**
+     * Creates a fixed limit.
+     *
+     * @param limit maximum number of requests in flight.
+     */
+    public ConcurrencyLimit(int limit) {
+        this(limit, limit, limit, false);
+    }
+
+    /**
+     * Creates an adaptive limit.
+     *
+     * @param initialLimit initial number of requests in flight allowed.
+     * @param minLimit     lowest limit.
+     * @param maxLimit     highest limit.
+     */
+    public ConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, true);
+    }
+
+    private ConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, boolean adaptive) {
+        if (minLimit <= 0 || initialLimit < minLimit || maxLimit < initialLimit)
+            throw new IllegalArgumentException("The limits must be positive with min <= initial <= max, got "
+                    + minLimit + ", " + initialLimit + " and " + maxLimit);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.adaptive = adaptive;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Takes a place for a request, waiting for a request to end if the limit is reached and isn't shedding.
+     *
+     * @param waitingTime maximum time (in ms) to wait for a place.
+     * @return true if the request can be sent, false if it was shed or the wait timed out.
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    boolean tryAcquire(long waitingTime) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitingTime);
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                long remainingTime = deadline - System.nanoTime();
+                if (shedding || remainingTime <= 0)
+                    return false;
+                available.awaitNanos(remainingTime);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the place of a request whose outcome doesn't tell anything about the server.
+     */
+    void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the place of a request, adapting the limit to its outcome.
+     *
+     * @param rtt     time (in ms) taken by the request.
+     * @param dropped whether the request failed, timed out or was rejected by the server.
+     */
+    void release(long rtt, boolean dropped) {
+        lock.lock();
+        try {
+            // The limit is compared with the requests in flight while this one still counts
+            boolean limitInUse = inFlight * 2 >= (int) limit;
+            inFlight--;
+            if (adaptive)
+                adapt(rtt, dropped, limitInUse);
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adapt(long rtt, boolean dropped, boolean limitInUse) {
+        if (!dropped && smoothedRtt == 0) {
+            smoothedRtt = rtt;
+            baselineRtt = rtt;
+        } else if (!dropped) {
+            smoothedRtt += RTT_SMOOTHING * (rtt - smoothedRtt);
+            baselineRtt = Math.min(rtt, baselineRtt + BASELINE_DRIFT * (smoothedRtt - baselineRtt));
+        }
+        long now = System.currentTimeMillis();
+        // The RTTs are measured in ms, a baseline under 1ms is rounded up so a jitter of 1ms isn't taken as an overload
+        if (dropped || smoothedRtt > LATENCY_TOLERANCE * Math.max(baselineRtt, 1)) {
+            if (now - lastDecrease >= smoothedRtt && limit > minLimit) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                lastDecrease = now;
+                logger.debug("The concurrency limit went down to {} (smoothed RTT {}ms, baseline {}ms).",
+                        (int) limit, (long) smoothedRtt, (long) baselineRtt);
+            }
+        } else if (limitInUse && limit < maxLimit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * Sets whether the requests over the limit are rejected right away instead of waiting.
+     *
+     * @param shedding true to reject the requests over the limit.
+     */
+    public void setShedding(boolean shedding) {
+        this.shedding = shedding;
+    }
+
+    /**
+     * Whether the requests over the limit are rejected right away instead of waiting.
+     *
+     * @return true if the requests over the limit are rejected.
+     */
+    public boolean isShedding() {
+        return shedding;
+    }
+
+    /**
+     * Gets the current number of requests which can be in flight.
+     *
+     * @return the current limit.
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests in flight.
+     *
+     * @return the number of requests in flight.
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the smoothed round trip time of the successful requests, only measured by an adaptive limit.
+     *
+     * @return the smoothed RTT (in ms), 0 if it hasn't been measured.
+     */
+    public long getSmoothedRtt() {
+        lock.lock();
+        try {
+            return (long) smoothedRtt;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the baseline round trip time, against which the latency of the server is compared.
+     *
+     * @return the baseline RTT (in ms), 0 if it hasn't been measured.
+     */
+    public long getBaselineRtt() {
+        lock.lock();
+        try {
+            return (long) baselineRtt;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether the limit adapts to the outcome of the requests.
+     *
+     * @return true for an adaptive limit, false for a fixed one.
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrencyLimit{limit=" + getLimit() + ", inFlight=" + getInFlight()
+                + ", smoothedRtt=" + getSmoothedRtt() + "ms}";
+    }
+}
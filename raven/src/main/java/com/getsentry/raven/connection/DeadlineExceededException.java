@@ -0,0 +1,32 @@
+package com.getsentry.raven.connection;
+
+/**
+ * Exception thrown when a request to the Sentry server didn't complete before its deadline.
+ * <p>
+ * The failure is transient like any {@link ConnectionException}, but it is told apart from the errors reported by the
+ * network or by Sentry: the server may work, it was only too slow to answer.
+ */
+public class DeadlineExceededException extends ConnectionException {
+    private final long deadline;
+
+    /**
+     * Creates an exception for a request which went over its deadline.
+     *
+     * @param message  error message.
+     * @param cause    exception which caused the failure, such as the socket closed once the deadline passed.
+     * @param deadline deadline (in ms) of the request.
+     */
+    public DeadlineExceededException(String message, Throwable cause, long deadline) {
+        super(message, cause);
+        this.deadline = deadline;
+    }
+
+    /**
+     * Gets the deadline (in ms) the request went over.
+     *
+     * @return the deadline (in ms) of the request.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+}
@@ -0,0 +1,183 @@
+package com.getsentry.raven.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Outcome of the delivery of an event, completed either with the identifier of the event accepted by the Sentry
+ * server, or with the reason why the event has been dropped.
+ * <p>
+ * {@link #get()} returns the identifier of the delivered event and throws an {@link ExecutionException} caused by a
+ * {@link ConnectionException} when the event has been dropped. {@link DeliveryListener}s can be added instead of
+ * waiting. Nothing is allocated for the listeners nor for the waiting threads unless there are some.
+ * <p>
+ * A delivery can't be cancelled.
+ *
+ * @see EventDeliveries
+ */
+public final class DeliveryFuture implements Future<UUID> {
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryFuture.class);
+    private final UUID eventId;
+    private volatile boolean done;
+    /**
+     * Whether the event has been delivered, guarded by {@code this}.
+     */
+    private boolean delivered;
+    /**
+     * Why the event has been dropped, guarded by {@code this}.
+     */
+    private String dropReason;
+    /**
+     * Listeners waiting for the outcome, guarded by {@code this} and created with the first listener.
+     */
+    private List<DeliveryListener> listeners;
+
+    /**
+     * Creates the future delivery of an event.
+     *
+     * @param eventId identifier of the event.
+     */
+    DeliveryFuture(UUID eventId) {
+        this.eventId = eventId;
+    }
+
+    /**
+     * Completes the delivery, unless it is already done.
+     *
+     * @param eventDelivered whether the event has been delivered.
+     * @param reason         why the event has been dropped, if it hasn't been delivered.
+     */
+    void complete(boolean eventDelivered, String reason) {
+        List<DeliveryListener> listenersToNotify;
+        synchronized (this) {
+            if (done)
+                return;
+            delivered = eventDelivered;
+            dropReason = reason;
+            done = true;
+            notifyAll();
+            listenersToNotify = listeners;
+            listeners = null;
+        }
+        if (listenersToNotify != null) {
+            for (DeliveryListener listener : listenersToNotify) {
+                notifyListener(listener);
+            }
+        }
+    }
+
+    private void notifyListener(DeliveryListener listener) {
+        try {
+            if (delivered)
+                listener.onDelivered(eventId);
+            else
+                listener.onDropped(eventId, dropReason);
+        } catch (RuntimeException e) {
+            logger.warn("An exception occurred while notifying the delivery of the event {}.", eventId, e);
+        }
+    }
+
+    /**
+     * Adds a listener notified of the outcome of the delivery, right away if it is already known.
+     * <p>
+     * The listener is called by the thread completing the delivery, usually a thread of the transport, and must
+     * return quickly.
+     *
+     * @param listener listener to notify.
+     */
+    public void addListener(DeliveryListener listener) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null)
+                    listeners = new ArrayList<>(1);
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    public UUID getEventId() {
+        return eventId;
+    }
+
+    /**
+     * Checks whether the event has been accepted by the Sentry server.
+     *
+     * @return true if the event has been delivered, false if it has been dropped or if the outcome isn't known yet.
+     */
+    public synchronized boolean isDelivered() {
+        return done && delivered;
+    }
+
+    /**
+     * Gets the reason why the event has been dropped.
+     *
+     * @return why the event has been dropped, null if it hasn't been dropped or if the outcome isn't known yet.
+     */
+    public synchronized String getDropReason() {
+        return dropReason;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized UUID get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return getOutcome();
+    }
+
+    @Override
+    public synchronized UUID get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remainingTime = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingTime <= 0)
+                throw new TimeoutException("The outcome of the delivery of the event " + eventId + " isn't known.");
+            wait(remainingTime);
+        }
+        return getOutcome();
+    }
+
+    /**
+     * Gets the outcome of a completed delivery, must be called while holding the lock on {@code this}.
+     */
+    private UUID getOutcome() throws ExecutionException {
+        if (!delivered)
+            throw new ExecutionException(
+                    new ConnectionException("The event " + eventId + " has been dropped: " + dropReason));
+        return eventId;
+    }
+
+    @Override
+    public String toString() {
+        return "DeliveryFuture{"
+                + "eventId=" + eventId
+                + ", done=" + done
+                + '}';
+    }
+}
@@ -0,0 +1,23 @@
+package com.getsentry.raven.connection;
+
+import java.util.UUID;
+
+/**
+ * Listener notified once the outcome of an event tracked by a {@link DeliveryFuture} is known.
+ */
+public interface DeliveryListener {
+    /**
+     * Called when the transport got the acknowledgement of the Sentry server for the event.
+     *
+     * @param eventId identifier of the event accepted by Sentry.
+     */
+    void onDelivered(UUID eventId);
+
+    /**
+     * Called when the event has been dropped before reaching the Sentry server.
+     *
+     * @param eventId identifier of the dropped event.
+     * @param reason  why the event has been dropped.
+     */
+    void onDropped(UUID eventId, String reason);
+}
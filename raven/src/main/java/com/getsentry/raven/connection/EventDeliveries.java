@@ -0,0 +1,102 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Register of the {@link DeliveryFuture}s waiting for the outcome of their event.
+ * <p>
+ * The transports report the events acknowledged by the Sentry server with {@link #delivered(Event)}, and the
+ * connections dropping an event report it with {@link #dropped(Event, String)}. The futures are matched by event
+ * identifier, so an event going through a spool and deserialised again still completes its future.
+ * <p>
+ * When no event is tracked, reporting an outcome only checks that the register is empty.
+ */
+public final class EventDeliveries {
+    private static final ConcurrentMap<UUID, DeliveryFuture> PENDING_DELIVERIES = new ConcurrentHashMap<>();
+
+    private EventDeliveries() {
+    }
+
+    /**
+     * Starts tracking the delivery of an event, before it is sent.
+     *
+     * @param event event to track.
+     * @return the future completed once the event is delivered or dropped.
+     */
+    public static DeliveryFuture track(Event event) {
+        DeliveryFuture deliveryFuture = new DeliveryFuture(event.getId());
+        DeliveryFuture existingFuture = PENDING_DELIVERIES.putIfAbsent(event.getId(), deliveryFuture);
+        return existingFuture != null ? existingFuture : deliveryFuture;
+    }
+
+    /**
+     * Reports that the Sentry server accepted an event.
+     *
+     * @param event delivered event.
+     */
+    public static void delivered(Event event) {
+        complete(event.getId(), true, null);
+    }
+
+    /**
+     * Reports that the Sentry server accepted an event.
+     *
+     * @param eventId identifier of the delivered event.
+     */
+    public static void delivered(UUID eventId) {
+        complete(eventId, true, null);
+    }
+
+    /**
+     * Reports that an event won't reach the Sentry server.
+     *
+     * @param event  dropped event.
+     * @param reason why the event has been dropped.
+     */
+    public static void dropped(Event event, String reason) {
+        complete(event.getId(), false, reason);
+    }
+
+    /**
+     * Reports that an event won't reach the Sentry server.
+     *
+     * @param eventId identifier of the dropped event.
+     * @param reason  why the event has been dropped.
+     */
+    public static void dropped(UUID eventId, String reason) {
+        complete(eventId, false, reason);
+    }
+
+    /**
+     * Reports that an event won't reach the Sentry server because of an exception.
+     *
+     * @param event     dropped event.
+     * @param exception exception which caused the event to be dropped.
+     */
+    public static void dropped(Event event, Exception exception) {
+        dropped(event.getId(), exception);
+    }
+
+    /**
+     * Reports that an event won't reach the Sentry server because of an exception.
+     *
+     * @param eventId   identifier of the dropped event.
+     * @param exception exception which caused the event to be dropped.
+     */
+    public static void dropped(UUID eventId, Exception exception) {
+        if (!PENDING_DELIVERIES.isEmpty())
+            complete(eventId, false, exception.getMessage() != null ? exception.getMessage() : exception.toString());
+    }
+
+    private static void complete(UUID eventId, boolean delivered, String reason) {
+        if (PENDING_DELIVERIES.isEmpty())
+            return;
+        DeliveryFuture deliveryFuture = PENDING_DELIVERIES.remove(eventId);
+        if (deliveryFuture != null)
+            deliveryFuture.complete(delivered, reason);
+    }
+}
@@ -0,0 +1,66 @@
+package com.getsentry.raven.connection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Event already marshalled, ready to be sent as the body of a request to Sentry.
+ * <p>
+ * The content can't be modified once the payload is created, so a payload can be shared by several connections.
+ */
+public final class EventPayload {
+    private final UUID eventId;
+    private final byte[] content;
+    private final String contentEncoding;
+
+    /**
+     * Creates the payload of a marshalled event.
+     *
+     * @param eventId         identifier of the marshalled event.
+     * @param content         marshalled event, which mustn't be modified afterwards.
+     * @param contentEncoding value of the {@code Content-Encoding} header of the content, null if there is none.
+     */
+    public EventPayload(UUID eventId, byte[] content, String contentEncoding) {
+        this.eventId = eventId;
+        this.content = content;
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * Gets the identifier of the marshalled event.
+     *
+     * @return the event identifier.
+     */
+    public UUID getEventId() {
+        return eventId;
+    }
+
+    /**
+     * Gets the value of the {@code Content-Encoding} header of the content.
+     *
+     * @return the content encoding, or null if the content is sent without such header.
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * Gets the size (in bytes) of the content.
+     *
+     * @return the size of the marshalled event.
+     */
+    public int getSize() {
+        return content.length;
+    }
+
+    /**
+     * Writes the content to a stream.
+     *
+     * @param destination stream to which the content is written.
+     * @throws IOException if the content couldn't be written.
+     */
+    public void writeTo(OutputStream destination) throws IOException {
+        destination.write(content);
+    }
+}
@@ -0,0 +1,140 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of events, shared by several producers and several consumers.
+ * <p>
+ * The slots are allocated once and reused. Each slot carries a sequence number telling whether it can be written
+ * (the sequence is the position of the producer) or read (the sequence is the position of the consumer + 1), so
+ * producers and consumers only compete with a compare-and-set on their own position.
+ */
+final class EventRingBuffer {
+    private final int mask;
+    private final Event[] slots;
+    private final AtomicLongArray sequences;
+    /**
+     * Position of the next slot to write.
+     */
+    private final AtomicLong producerPosition = new AtomicLong();
+    /**
+     * Position of the next slot to read.
+     */
+    private final AtomicLong consumerPosition = new AtomicLong();
+
+    /**
+     * Creates a ring buffer.
+     *
+     * @param capacity minimum number of events in the ring buffer, rounded up to a power of two (at least 2).
+     */
+    EventRingBuffer(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity of the ring buffer must be positive: " + capacity);
+        // With a single slot, a published slot couldn't be told apart from a slot free for the next lap
+        int size = Math.max(2, Integer.highestOneBit(capacity));
+        if (size < capacity)
+            size <<= 1;
+        mask = size - 1;
+        slots = new Event[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds an event at the end of the ring buffer.
+     *
+     * @param event event to add.
+     * @return false if the ring buffer is full.
+     */
+    boolean offer(Event event) {
+        long position = producerPosition.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (producerPosition.compareAndSet(position, position + 1)) {
+                    slots[index] = event;
+                    // Publishes the event to the consumers
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = producerPosition.get();
+            } else if (difference < 0) {
+                // The slot still holds the event written one lap before
+                return false;
+            } else {
+                position = producerPosition.get();
+            }
+        }
+    }
+
+    /**
+     * Takes the first event of the ring buffer.
+     *
+     * @return the first event, or {@code null} if the ring buffer is empty.
+     */
+    Event poll() {
+        long position = consumerPosition.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (consumerPosition.compareAndSet(position, position + 1)) {
+                    Event event = slots[index];
+                    slots[index] = null;
+                    // Gives the slot back to the producers of the next lap
+                    sequences.set(index, position + mask + 1);
+                    return event;
+                }
+                position = consumerPosition.get();
+            } else if (difference < 0) {
+                // The slot hasn't been written yet
+                return null;
+            } else {
+                position = consumerPosition.get();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of events offered so far, which is also the position of the next event offered.
+     *
+     * @return the position of the producers.
+     */
+    long producerPosition() {
+        return producerPosition.get();
+    }
+
+    /**
+     * Gets the number of events polled so far, which is also the position of the next event polled.
+     *
+     * @return the position of the consumers.
+     */
+    long consumerPosition() {
+        return consumerPosition.get();
+    }
+
+    /**
+     * Gets the number of events in the ring buffer, which may be outdated as soon as it is returned.
+     *
+     * @return the approximate number of events in the ring buffer.
+     */
+    int size() {
+        long size = producerPosition.get() - consumerPosition.get();
+        return (int) Math.max(0, Math.min(size, slots.length));
+    }
+
+    /**
+     * Gets the number of slots of the ring buffer.
+     *
+     * @return the maximum number of events in the ring buffer.
+     */
+    int capacity() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,17 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+
+/**
+ * Callback notified when an {@link AbstractConnection} fails to send an event.
+ */
+public interface EventSendFailureCallback {
+    /**
+     * Called when an event couldn't be sent to the Sentry server.
+     *
+     * @param event     event which couldn't be sent.
+     * @param exception exception which occurred while sending the event.
+     * @return true if the callback took charge of the event to send it later, false if the event is dropped.
+     */
+    boolean onFailure(Event event, Exception exception);
+}
@@ -0,0 +1,258 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection spreading the events over several endpoints of the same Sentry server, such as several ingest nodes.
+ * <p>
+ * Each event goes to the available endpoint with the fewest requests in flight, the ties being broken in turns. Each
+ * endpoint has its own circuit breaker and rate limit: an endpoint which fails is skipped while its circuit is open,
+ * and the event is sent to another endpoint right away. Once the waiting time of an open circuit is over, the next
+ * event is sent to that endpoint as a probe, bringing it back if it succeeds.
+ * <p>
+ * The failure of an event is only reported once every endpoint failed, which also opens the circuit of the failover
+ * connection itself. The events of a batch are sent one by one, so each of them can fail over.
+ * <p>
+ * The endpoints share the rate limits of the project: when an endpoint asks to stop sending events, the event isn't
+ * sent to the other endpoints and every endpoint waits, as well as the failover connection itself.
+ */
+public class FailoverConnection extends AbstractConnection implements PayloadConnection {
+    private static final Logger logger = LoggerFactory.getLogger(FailoverConnection.class);
+    private static final String UNAVAILABLE_MESSAGE = "None of the sentry endpoints could take the event.";
+    private final List<Endpoint> endpoints;
+    /**
+     * Counter rotating the first endpoint considered, to spread the events evenly between idle endpoints.
+     */
+    private final AtomicInteger rotation = new AtomicInteger();
+
+    /**
+     * Creates a connection spreading the events over several endpoints.
+     * <p>
+     * Will propagate the {@link #close()} operation to every endpoint.
+     *
+     * @param publicKey           public key of the current project.
+     * @param secretKey           private key of the current project.
+     * @param endpointConnections connections to each endpoint of the Sentry server.
+     */
+    public FailoverConnection(String publicKey, String secretKey, List<HttpConnection> endpointConnections) {
+        super(publicKey, secretKey);
+        if (endpointConnections.isEmpty())
+            throw new IllegalArgumentException("At least one endpoint is required.");
+        endpoints = new ArrayList<>(endpointConnections.size());
+        for (HttpConnection endpointConnection : endpointConnections) {
+            endpoints.add(new Endpoint(endpoints.size(), endpointConnection));
+        }
+    }
+
+    @Override
+    protected void doSend(final Event event) throws ConnectionException {
+        sendToEndpoints(event.getId(), new Submission() {
+            @Override
+            public void sendTo(HttpConnection connection) {
+                connection.doSend(event);
+            }
+        });
+    }
+
+    @Override
+    public void send(EventPayload payload) {
+        sendPayload(payload);
+    }
+
+    @Override
+    protected void doSendPayload(final EventPayload payload) throws ConnectionException {
+        sendToEndpoints(payload.getEventId(), new Submission() {
+            @Override
+            public void sendTo(HttpConnection connection) {
+                connection.doSendPayload(payload);
+            }
+        });
+    }
+
+    /**
+     * Sends an event to the best endpoint, then to the next best one each time an endpoint fails.
+     * <p>
+     * The circuit of an endpoint is checked before its rate limit, so an endpoint whose circuit is open doesn't use
+     * its tokens.
+     *
+     * @param eventId    identifier of the event sent.
+     * @param submission sending of the event to an endpoint.
+     * @throws TooManyRequestsException if an endpoint asked to stop sending events.
+     * @throws ConnectionException      if no endpoint could take the event.
+     */
+    private void sendToEndpoints(UUID eventId, Submission submission) throws ConnectionException {
+        boolean[] triedEndpoints = new boolean[endpoints.size()];
+        ConnectionException lastFailure = null;
+        Endpoint endpoint;
+        while ((endpoint = selectEndpoint(triedEndpoints)) != null) {
+            triedEndpoints[endpoint.index] = true;
+            CircuitBreaker.Permit permit = endpoint.circuitBreaker.allowRequest();
+            if (permit == CircuitBreaker.Permit.REJECTED)
+                continue;
+            if (endpoint.connection.getRateLimiter().tryAcquire(1) == 0) {
+                // The event isn't sent, if it was the probe the next event becomes the probe
+                endpoint.circuitBreaker.recordUnknownOutcome(permit);
+                continue;
+            }
+
+            endpoint.pendingRequests.incrementAndGet();
+            try {
+                submission.sendTo(endpoint.connection);
+                endpoint.circuitBreaker.recordSuccess(permit);
+                return;
+            } catch (TooManyRequestsException e) {
+                // The limit applies to the project, whichever endpoint answered
+                endpoint.circuitBreaker.recordSuccess(permit);
+                for (Endpoint limitedEndpoint : endpoints) {
+                    limitedEndpoint.connection.getRateLimiter().limitFor(e.getRetryAfter());
+                }
+                throw e;
+            } catch (ConnectionException e) {
+                logger.warn("The event {} couldn't be sent to {}, trying another endpoint.", eventId,
+                        endpoint.connection, e);
+                endpoint.circuitBreaker.recordFailure(permit);
+                lastFailure = e;
+            } catch (RuntimeException e) {
+                endpoint.circuitBreaker.recordUnknownOutcome(permit);
+                throw e;
+            } finally {
+                endpoint.pendingRequests.decrementAndGet();
+            }
+        }
+        throw new ConnectionException(UNAVAILABLE_MESSAGE, lastFailure);
+    }
+
+    /**
+     * Selects the available endpoint with the fewest requests in flight.
+     *
+     * @param triedEndpoints endpoints already tried for the current event, by index.
+     * @return the endpoint to try next, or null if there is none.
+     */
+    private Endpoint selectEndpoint(boolean[] triedEndpoints) {
+        int start = (rotation.getAndIncrement() & Integer.MAX_VALUE) % endpoints.size();
+        Endpoint selectedEndpoint = null;
+        for (int i = 0; i < endpoints.size(); i++) {
+            Endpoint endpoint = endpoints.get((start + i) % endpoints.size());
+            if (triedEndpoints[endpoint.index] || !endpoint.circuitBreaker.isAvailable())
+                continue;
+            if (selectedEndpoint == null
+                    || endpoint.pendingRequests.get() < selectedEndpoint.pendingRequests.get())
+                selectedEndpoint = endpoint;
+        }
+        return selectedEndpoint;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The setting applies to every endpoint as well.
+     */
+    @Override
+    public void setReportingDeliveries(boolean reportingDeliveries) {
+        super.setReportingDeliveries(reportingDeliveries);
+        for (Endpoint endpoint : endpoints) {
+            endpoint.connection.setReportingDeliveries(reportingDeliveries);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The setting applies to the circuit of every endpoint as well.
+     */
+    @Override
+    public void setMaxWaitingTime(long maxWaitingTime) {
+        super.setMaxWaitingTime(maxWaitingTime);
+        for (Endpoint endpoint : endpoints) {
+            endpoint.circuitBreaker.setMaxWaitingTime(maxWaitingTime);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The setting applies to the circuit of every endpoint as well.
+     */
+    @Override
+    public void setBaseWaitingTime(long baseWaitingTime) {
+        super.setBaseWaitingTime(baseWaitingTime);
+        for (Endpoint endpoint : endpoints) {
+            endpoint.circuitBreaker.setBaseWaitingTime(baseWaitingTime);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Flushes every endpoint with the time left.
+     */
+    @Override
+    public boolean flush(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        boolean flushed = true;
+        for (Endpoint endpoint : endpoints) {
+            flushed &= endpoint.connection.flush(Math.max(0, deadline - System.currentTimeMillis()));
+        }
+        return flushed;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every endpoint is closed, even if closing one of them fails.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException firstFailure = null;
+        for (Endpoint endpoint : endpoints) {
+            try {
+                endpoint.connection.close();
+            } catch (IOException e) {
+                if (firstFailure == null)
+                    firstFailure = e;
+            }
+        }
+        if (firstFailure != null)
+            throw firstFailure;
+    }
+
+    /**
+     * Sending of an event, or of a marshalled event, to an endpoint.
+     */
+    private interface Submission {
+        /**
+         * Sends the event to an endpoint.
+         *
+         * @param connection connection to the endpoint.
+         * @throws ConnectionException whenever a temporary exception due to the connection happened.
+         */
+        void sendTo(HttpConnection connection) throws ConnectionException;
+    }
+
+    /**
+     * Endpoint of the Sentry server, with its own health.
+     */
+    private static final class Endpoint {
+        private final int index;
+        private final HttpConnection connection;
+        private final CircuitBreaker circuitBreaker =
+                new CircuitBreaker(DEFAULT_BASE_WAITING_TIME, DEFAULT_MAX_WAITING_TIME);
+        /**
+         * Number of requests in flight to the endpoint.
+         */
+        private final AtomicInteger pendingRequests = new AtomicInteger();
+
+        private Endpoint(int index, HttpConnection connection) {
+            this.index = index;
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.marshaller.Marshaller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection sending each event to several Sentry servers or projects.
+ * <p>
+ * The event is marshalled (and compressed) once, and the same {@link EventPayload} is handed to every destination.
+ * Each destination keeps its own authentication, rate limit and circuit breaker, so a failing destination doesn't
+ * prevent the event from reaching the others.
+ * <p>
+ * Only the first destination should report the outcome of the events to {@link EventDeliveries}, see
+ * {@link AbstractConnection#setReportingDeliveries(boolean)}.
+ */
+public class FanOutConnection implements PayloadConnection, FlushableConnection {
+    private static final Logger logger = LoggerFactory.getLogger(FanOutConnection.class);
+    private final Marshaller marshaller;
+    private final List<PayloadConnection> destinations;
+
+    /**
+     * Creates a connection sending each event to several destinations.
+     * <p>
+     * Will propagate the {@link #close()} operation to every destination.
+     *
+     * @param marshaller   marshaller used once per event for every destination.
+     * @param destinations connections to the Sentry servers receiving the events.
+     */
+    public FanOutConnection(Marshaller marshaller, List<? extends PayloadConnection> destinations) {
+        this.marshaller = marshaller;
+        this.destinations = new ArrayList<>(destinations);
+    }
+
+    @Override
+    public void send(Event event) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        marshaller.marshall(event, content);
+        send(new EventPayload(event.getId(), content.toByteArray(), marshaller.getContentEncoding()));
+    }
+
+    @Override
+    public void send(EventPayload payload) {
+        for (PayloadConnection destination : destinations) {
+            try {
+                destination.send(payload);
+            } catch (RuntimeException e) {
+                logger.error("An exception occurred while sending the event {} to {}.", payload.getEventId(),
+                        destination, e);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Flushes every destination with the time left.
+     */
+    @Override
+    public boolean flush(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        boolean flushed = true;
+        for (PayloadConnection destination : destinations) {
+            long remainingTime = Math.max(0, deadline - System.currentTimeMillis());
+            if (destination instanceof FlushableConnection)
+                flushed &= ((FlushableConnection) destination).flush(remainingTime);
+        }
+        return flushed;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every destination is closed, even if closing one of them fails.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException firstFailure = null;
+        for (PayloadConnection destination : destinations) {
+            try {
+                destination.close();
+            } catch (IOException e) {
+                if (firstFailure == null)
+                    firstFailure = e;
+            }
+        }
+        if (firstFailure != null)
+            throw firstFailure;
+    }
+}
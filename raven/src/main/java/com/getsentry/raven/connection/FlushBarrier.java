@@ -0,0 +1,103 @@
+package com.getsentry.raven.connection;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the events in flight in a connection, to wait until the events submitted before a flush have been
+ * handed over to the next connection.
+ * <p>
+ * The events are counted by epoch: each event is counted in the current epoch with {@link #enter()} and discounted
+ * with {@link #exit(Epoch)} once handled, whether it has been sent, has failed or has been dropped. A flush starts a
+ * new epoch and waits until the counters of the previous epochs are back to zero, so it doesn't wait for the events
+ * submitted after it, nor checks the size of a queue.
+ */
+final class FlushBarrier {
+    private final Object lock = new Object();
+    private volatile Epoch currentEpoch = new Epoch(null);
+    /**
+     * Number of threads waiting for a flush, the threads handling the events only notify them when there are some.
+     */
+    private volatile int waitingThreads;
+
+    /**
+     * Counts a new event in the current epoch.
+     *
+     * @return the epoch in which the event is counted, to give back to {@link #exit(Epoch)}.
+     */
+    Epoch enter() {
+        Epoch epoch = currentEpoch;
+        epoch.pendingEvents.incrementAndGet();
+        return epoch;
+    }
+
+    /**
+     * Discounts an event which has been handled.
+     *
+     * @param epoch epoch returned by {@link #enter()} for the event.
+     */
+    void exit(Epoch epoch) {
+        if (epoch.pendingEvents.decrementAndGet() == 0 && waitingThreads > 0) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until every event counted before the call has been handled.
+     *
+     * @param timeout maximum time (in ms) to wait.
+     * @return true if the events have been handled, false if the timeout elapsed first.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    boolean await(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        synchronized (lock) {
+            Epoch flushedEpoch = currentEpoch;
+            currentEpoch = new Epoch(flushedEpoch);
+            waitingThreads++;
+            try {
+                while (!isDrained(flushedEpoch)) {
+                    long remainingTime = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remainingTime <= 0)
+                        return false;
+                    lock.wait(remainingTime);
+                }
+                return true;
+            } finally {
+                waitingThreads--;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the events of an epoch and of the epochs before it have all been handled.
+     * <p>
+     * Must be called while holding {@link #lock}.
+     */
+    private static boolean isDrained(Epoch epoch) {
+        for (Epoch previousEpoch = epoch; previousEpoch != null; previousEpoch = previousEpoch.previousEpoch) {
+            if (previousEpoch.pendingEvents.get() > 0)
+                return false;
+        }
+        // The epochs before are over, there is no need to check them again
+        epoch.previousEpoch = null;
+        return true;
+    }
+
+    /**
+     * Events submitted between two flushes.
+     */
+    static final class Epoch {
+        private final AtomicInteger pendingEvents = new AtomicInteger();
+        /**
+         * Epoch before this one, until both are drained, guarded by {@link FlushBarrier#lock}.
+         */
+        private Epoch previousEpoch;
+
+        private Epoch(Epoch previousEpoch) {
+            this.previousEpoch = previousEpoch;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.getsentry.raven.connection;
+
+/**
+ * Connection to a Sentry server, able to wait for the events it was given to be handed over to the transport.
+ * <p>
+ * Connections which don't implement this interface are considered flushed as soon as
+ * {@link #send(com.getsentry.raven.event.Event)} returned.
+ */
+public interface FlushableConnection extends Connection {
+    /**
+     * Waits until the events sent before the call have been handed over to the transport, or the timeout elapses.
+     * <p>
+     * Unlike {@link #close()}, the connection can still be used afterwards.
+     *
+     * @param timeout maximum time (in ms) to wait.
+     * @return true if the events have been handed over to the transport, false if the timeout elapsed first.
+     */
+    boolean flush(long timeout);
+}
@@ -2,27 +2,59 @@ package com.getsentry.raven.connection;
 
 import com.getsentry.raven.environment.RavenEnvironment;
 import com.getsentry.raven.event.Event;
+import com.getsentry.raven.marshaller.BatchMarshaller;
 import com.getsentry.raven.marshaller.Marshaller;
+import com.getsentry.raven.util.BufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 import java.io.*;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Basic connection to a Sentry server, using HTTP and HTTPS.
  * <p>
  * It is possible to enable the "naive mode" to allow a connection over SSL using a certificate with a wildcard.
+ * <p>
+ * Responses are always read until the end so the underlying socket can be kept alive and reused by the next
+ * request. The idle sockets are pooled by the JVM for every {@link HttpURLConnection} (see the {@code http.keepAlive}
+ * and {@code http.maxConnections} JVM properties), the number of requests sent at the same time by this connection can
+ * be bounded with {@link #setMaxConcurrentRequests(int)}, or by a limit adapting to the latency and failures of the
+ * requests with {@link #setConcurrencyLimit(ConcurrencyLimit)}.
+ * <p>
+ * When the {@link Marshaller} is a {@link BatchMarshaller}, a batch of events is submitted in a single request, split
+ * in several requests if the serialised events go over {@link #setMaxBatchBytes(int)}. The Sentry server must be able
+ * to handle those multi-event payloads.
+ * <p>
+ * Events already marshalled (see {@link EventPayload}) are sent as is, with their own content encoding.
+ * <p>
+ * The requests are streamed rather than buffered by {@link HttpURLConnection}: the events are marshalled in a buffer
+ * taken from a pool shared by every connection, then sent with their exact length straight from that buffer. A body
+ * going over the size of the pooled buffers is sent in chunks as it is marshalled instead.
+ * <p>
+ * The connection can be warmed up with {@link #warmUp()}, so the first event doesn't wait for the resolution of the
+ * host of Sentry and, over HTTPS, for the loading of the TLS classes and a full handshake.
  */
-public class HttpConnection extends AbstractConnection {
+public class HttpConnection extends AbstractConnection implements PayloadConnection {
     private static final Charset UTF_8 = Charset.forName("UTF-8");
     private static final Logger logger = LoggerFactory.getLogger(HttpConnection.class);
     /**
@@ -33,10 +65,55 @@ public class HttpConnection extends AbstractConnection {
      * HTTP Header for the authentication to Sentry.
      */
     private static final String SENTRY_AUTH = "X-Sentry-Auth";
+    /**
+     * HTTP Header for the encoding of the content.
+     */
+    private static final String CONTENT_ENCODING = "Content-Encoding";
     /**
      * Default timeout of an HTTP connection to Sentry.
      */
     private static final int DEFAULT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Default timeout when reading the response of Sentry.
+     */
+    private static final int DEFAULT_READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(5);
+    /**
+     * Default deadline (in ms) of a request, from the wait for a permit to the end of the response.
+     */
+    private static final int DEFAULT_DEADLINE = (int) TimeUnit.SECONDS.toMillis(10);
+    /**
+     * Timer closing the requests which went over their deadline, shared by every connection.
+     */
+    private static final ScheduledThreadPoolExecutor DEADLINE_TIMER = createDeadlineTimer();
+    /**
+     * Size of the buffer used to drain the responses sent by Sentry.
+     */
+    private static final int DRAIN_BUFFER_SIZE = 512;
+    /**
+     * Default maximum size (in bytes) of the serialised events sent in a single request.
+     */
+    private static final int DEFAULT_MAX_BATCH_BYTES = 512 * 1024;
+    /**
+     * Initial size (in bytes) of the buffers in which the requests are marshalled.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    /**
+     * Maximum size (in bytes) of a buffered request body, the larger ones are sent in chunks.
+     */
+    private static final int MAX_BUFFERED_BODY_SIZE = 256 * 1024;
+    /**
+     * Maximum number of idle buffers kept in the pool.
+     */
+    private static final int MAX_POOLED_BUFFERS = 16;
+    /**
+     * Size (in bytes) of the chunks of a request body too large to be buffered.
+     */
+    private static final int STREAMING_CHUNK_SIZE = 16 * 1024;
+    /**
+     * Buffers in which the requests are marshalled, shared by every connection.
+     */
+    private static final BufferPool BUFFER_POOL =
+            new BufferPool(INITIAL_BUFFER_SIZE, MAX_BUFFERED_BODY_SIZE, MAX_POOLED_BUFFERS);
     /**
      * HostnameVerifier allowing wildcard certificates to work without adding them to the truststore.
      */
@@ -58,11 +135,27 @@ public class HttpConnection extends AbstractConnection {
      * Timeout of an HTTP connection to Sentry.
      */
     private int timeout = DEFAULT_TIMEOUT;
+    /**
+     * Timeout when reading the response of Sentry.
+     */
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    /**
+     * Deadline (in ms) of a request, from the wait for a permit to the end of the response, 0 for no deadline.
+     */
+    private int deadline = DEFAULT_DEADLINE;
     /**
      * Setting allowing to bypass the security system which requires wildcard certificates
      * to be added to the truststore.
      */
     private boolean bypassSecurity = false;
+    /**
+     * Limit of the requests sent at the same time to Sentry, {@code null} if there is no limit.
+     */
+    private volatile ConcurrencyLimit concurrencyLimit;
+    /**
+     * Maximum size (in bytes) of the serialised events sent in a single request.
+     */
+    private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
 
     /**
      * Creates an HTTP connection to a Sentry server.
@@ -76,6 +169,20 @@ public class HttpConnection extends AbstractConnection {
         this.sentryUrl = sentryUrl;
     }
 
+    private static ScheduledThreadPoolExecutor createDeadlineTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "raven-deadline");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Most requests complete in time, don't keep their cancelled timeouts around
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
     /**
      * Automatically determines the URL to the HTTP API of Sentry.
      *
@@ -106,6 +213,7 @@ public class HttpConnection extends AbstractConnection {
             connection.setRequestMethod("POST");
             connection.setDoOutput(true);
             connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(readTimeout);
             connection.setRequestProperty(USER_AGENT, RavenEnvironment.NAME);
             connection.setRequestProperty(SENTRY_AUTH, getAuthHeader());
             return connection;
@@ -115,25 +223,304 @@ public class HttpConnection extends AbstractConnection {
     }
 
     @Override
-    protected void doSend(Event event) {
-        HttpURLConnection connection = getConnection();
+    protected void doSend(final Event event) {
+        sendRequest(new RequestBody() {
+            @Override
+            public void writeTo(OutputStream outputStream) {
+                marshaller.marshall(event, outputStream);
+            }
+        }, -1, marshaller.getContentEncoding(),
+                "An exception occurred while submitting the event to the sentry server.");
+        reportDelivery(event);
+    }
+
+    @Override
+    public void send(EventPayload payload) {
+        sendPayload(payload);
+    }
+
+    @Override
+    protected void doSendPayload(final EventPayload payload) {
+        sendRequest(new RequestBody() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                payload.writeTo(outputStream);
+            }
+        }, payload.getSize(), payload.getContentEncoding(),
+                "An exception occurred while submitting the event to the sentry server.");
+        reportDelivery(payload);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Each event is serialised once, then the batch is split in several requests so the serialised events of a request
+     * don't go over {@link #maxBatchBytes}. When a request fails, the following ones are still sent and the first
+     * failure is thrown at the end, unless Sentry asked to stop sending events.
+     */
+    @Override
+    protected void doSendBatch(List<Event> events) {
+        if (events.size() == 1 || !(marshaller instanceof BatchMarshaller)) {
+            super.doSendBatch(events);
+            return;
+        }
+
+        final BatchMarshaller batchMarshaller = (BatchMarshaller) marshaller;
+        List<List<byte[]>> requests = new ArrayList<>();
+        List<List<Event>> requestEvents = new ArrayList<>();
+        List<byte[]> currentRequest = new ArrayList<>();
+        List<Event> currentEvents = new ArrayList<>();
+        long currentRequestBytes = 0;
+        for (Event event : events) {
+            byte[] serialisedEvent = batchMarshaller.serialise(event);
+            if (!currentRequest.isEmpty() && currentRequestBytes + serialisedEvent.length > maxBatchBytes) {
+                requests.add(currentRequest);
+                requestEvents.add(currentEvents);
+                currentRequest = new ArrayList<>();
+                currentEvents = new ArrayList<>();
+                currentRequestBytes = 0;
+            }
+            currentRequest.add(serialisedEvent);
+            currentEvents.add(event);
+            currentRequestBytes += serialisedEvent.length;
+        }
+        requests.add(currentRequest);
+        requestEvents.add(currentEvents);
+
+        ConnectionException firstFailure = null;
+        for (int i = 0; i < requests.size(); i++) {
+            final List<byte[]> serialisedEvents = requests.get(i);
+            try {
+                sendRequest(new RequestBody() {
+                    @Override
+                    public void writeTo(OutputStream outputStream) {
+                        batchMarshaller.marshallSerialised(serialisedEvents, outputStream);
+                    }
+                }, -1, marshaller.getContentEncoding(),
+                        "An exception occurred while submitting a batch of events to the sentry server.");
+                for (Event event : requestEvents.get(i)) {
+                    reportDelivery(event);
+                }
+            } catch (TooManyRequestsException e) {
+                // The following requests would be rejected as well
+                for (List<Event> rejectedEvents : requestEvents.subList(i, requestEvents.size())) {
+                    for (Event event : rejectedEvents) {
+                        reportFailure(event, e);
+                    }
+                }
+                throw e;
+            } catch (ConnectionException e) {
+                for (Event event : requestEvents.get(i)) {
+                    reportFailure(event, e);
+                }
+                if (firstFailure == null)
+                    firstFailure = e;
+            }
+        }
+        if (firstFailure != null)
+            throw firstFailure;
+    }
+
+    /**
+     * Waits until a request to Sentry can be sent without going above the maximum of concurrent requests.
+     * <p>
+     * A request holds its permit for about {@link #timeout} + {@link #readTimeout}, waiting longer than that means
+     * that the server is stalling. The wait is also bounded by the deadline of the request.
+     * <p>
+     * A limit shedding the requests over it rejects the request right away with a {@link TooManyRequestsException}
+     * asking to wait for 0ms, so the circuit isn't opened and a {@link FailoverConnection} tries another endpoint.
+     *
+     * @param limit           limit of the requests to Sentry, {@code null} if there is no limit.
+     * @param requestDeadline time (in ms) at which the request must be over, 0 if there is no deadline.
+     * @throws ConnectionException if no permit could be acquired in time.
+     */
+    private void acquireRequestPermit(ConcurrencyLimit limit, long requestDeadline) {
+        if (limit == null)
+            return;
         try {
-            connection.connect();
-            OutputStream outputStream = connection.getOutputStream();
-            marshaller.marshall(event, outputStream);
-            outputStream.close();
-            connection.getInputStream().close();
-        } catch (IOException e) {
-            String errorMessage = null;
-            final InputStream errorStream = connection.getErrorStream();
-            if (errorStream != null)
-                errorMessage = getErrorMessageFromStream(errorStream);
-            if (null == errorMessage || errorMessage.isEmpty())
-                errorMessage = "An exception occurred while submitting the event to the sentry server.";
-            throw new ConnectionException(errorMessage, e);
+            long waitingTime = (long) timeout + readTimeout;
+            boolean boundByDeadline = requestDeadline > 0
+                    && requestDeadline - System.currentTimeMillis() < waitingTime;
+            if (boundByDeadline)
+                waitingTime = requestDeadline - System.currentTimeMillis();
+            if (limit.tryAcquire(waitingTime))
+                return;
+            if (limit.isShedding())
+                throw new TooManyRequestsException("The request is shed, " + limit.getLimit() + " requests are "
+                        + "already sent to the sentry server.", null, 0);
+            if (boundByDeadline)
+                throw new DeadlineExceededException("The deadline passed while waiting for a request to the "
+                        + "sentry server to end.", null, deadline);
+            throw new ConnectionException("Timed out while waiting for a request to the sentry server to end.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException("Interrupted while waiting for a request to the sentry server to end.", e);
+        }
+    }
+
+    /**
+     * Sends a request to Sentry once a permit is acquired, and reads its response entirely.
+     *
+     * @param body            body of the request.
+     * @param contentLength   size (in bytes) of the body, -1 if it is only known once the body is written.
+     * @param contentEncoding value of the {@code Content-Encoding} header, null if the body isn't encoded.
+     * @param failureMessage  message of the exception thrown if Sentry didn't send an error message.
+     * @throws ConnectionException if the request failed.
+     */
+    private void sendRequest(RequestBody body, int contentLength, String contentEncoding, String failureMessage) {
+        long requestDeadline = deadline > 0 ? System.currentTimeMillis() + deadline : 0;
+        ConcurrencyLimit limit = concurrencyLimit;
+        acquireRequestPermit(limit, requestDeadline);
+        long start = System.nanoTime();
+        // Whether Sentry failed or is overloaded, null if the outcome doesn't tell anything about the server
+        Boolean dropped = null;
+        try {
+            HttpURLConnection connection = getConnection();
+            if (contentEncoding != null)
+                connection.setRequestProperty(CONTENT_ENCODING, contentEncoding);
+            RequestCancellation cancellation = null;
+            ByteArrayOutputStream buffer = null;
+            try {
+                if (requestDeadline > 0) {
+                    // Each blocking operation gives up at the deadline, the timer closes the socket if it doesn't
+                    connection.setConnectTimeout(boundTimeout(timeout, requestDeadline));
+                    connection.setReadTimeout(boundTimeout(readTimeout, requestDeadline));
+                    cancellation = new RequestCancellation(connection, requestDeadline);
+                }
+                if (contentLength >= 0) {
+                    connection.setFixedLengthStreamingMode(contentLength);
+                    OutputStream outputStream = connection.getOutputStream();
+                    body.writeTo(outputStream);
+                    outputStream.close();
+                } else {
+                    buffer = BUFFER_POOL.acquire();
+                    BodyOutputStream bodyStream = new BodyOutputStream(connection, buffer);
+                    body.writeTo(bodyStream);
+                    bodyStream.send();
+                }
+                // Read the response entirely, otherwise the socket can't be reused by the next request.
+                drainAndClose(connection.getInputStream());
+                if (cancellation != null)
+                    cancellation.complete();
+                dropped = false;
+            } catch (IOException e) {
+                // The socket has already been closed by the timer if the request wasn't in flight anymore
+                boolean cancelled = cancellation != null && !cancellation.complete();
+                if (cancelled || requestDeadline > 0 && System.currentTimeMillis() >= requestDeadline) {
+                    dropped = true;
+                    if (!cancelled)
+                        connection.disconnect();
+                    throw new DeadlineExceededException("The request to the sentry server went over its deadline of "
+                            + deadline + "ms.", e, deadline);
+                }
+                // The status is only needed by an adaptive limit
+                dropped = limit == null || !limit.isAdaptive() || isServerFailure(connection);
+                throw createConnectionException(connection, e, failureMessage);
+            } catch (RuntimeException e) {
+                // The request hasn't been completed, the socket can't be reused.
+                if (cancellation == null || cancellation.complete())
+                    connection.disconnect();
+                throw e;
+            } finally {
+                if (cancellation != null)
+                    cancellation.complete();
+                if (buffer != null)
+                    BUFFER_POOL.release(buffer);
+            }
         } finally {
+            if (limit != null && dropped == null)
+                limit.release();
+            else if (limit != null)
+                limit.release(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), dropped);
+        }
+    }
+
+    /**
+     * Bounds a timeout by the time left until a deadline.
+     *
+     * @param operationTimeout timeout (in ms) of an operation, 0 for no timeout.
+     * @param requestDeadline  time (in ms) at which the request must be over.
+     * @return the timeout (in ms) of the operation, never 0.
+     * @throws DeadlineExceededException if the deadline already passed.
+     */
+    private int boundTimeout(int operationTimeout, long requestDeadline) {
+        long remainingTime = requestDeadline - System.currentTimeMillis();
+        if (remainingTime <= 0)
+            throw new DeadlineExceededException("The deadline of the request to the sentry server passed before it "
+                    + "was sent.", null, deadline);
+        if (operationTimeout > 0 && operationTimeout < remainingTime)
+            return operationTimeout;
+        return (int) Math.min(remainingTime, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates the exception reporting a failed submission, with the error message sent by Sentry if there is one.
+     *
+     * @param connection     connection on which the submission failed.
+     * @param cause          exception which caused the failure.
+     * @param failureMessage message used if Sentry didn't send an error message.
+     * @return an exception describing the failure.
+     */
+    private ConnectionException createConnectionException(HttpURLConnection connection, IOException cause,
+                                                          String failureMessage) {
+        String errorMessage = null;
+        boolean tooManyRequests = false;
+        final InputStream errorStream = connection.getErrorStream();
+        if (errorStream != null) {
+            errorMessage = getErrorMessageFromStream(errorStream);
+            tooManyRequests = getResponseCode(connection) == RateLimiter.TOO_MANY_REQUESTS;
+        } else {
+            // No response was received, the socket is in an unknown state and must not be reused.
             connection.disconnect();
         }
+        if (null == errorMessage || errorMessage.isEmpty())
+            errorMessage = failureMessage;
+        if (tooManyRequests) {
+            long retryAfter = RateLimiter.parseRetryAfter(connection.getHeaderField(RateLimiter.RETRY_AFTER_HEADER),
+                    connection.getHeaderField(RateLimiter.SENTRY_RATE_LIMITS_HEADER));
+            return new TooManyRequestsException(errorMessage, cause, retryAfter);
+        }
+        return new ConnectionException(errorMessage, cause);
+    }
+
+    /**
+     * Checks whether a failed request is due to the server, rather than to the event.
+     *
+     * @param connection connection on which the request failed.
+     * @return true if no response was received, or if Sentry answered with a server error or a rate limit.
+     */
+    private static boolean isServerFailure(HttpURLConnection connection) {
+        int responseCode = getResponseCode(connection);
+        return responseCode < HttpURLConnection.HTTP_BAD_REQUEST
+                || responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                || responseCode == RateLimiter.TOO_MANY_REQUESTS;
+    }
+
+    private static int getResponseCode(HttpURLConnection connection) {
+        try {
+            return connection.getResponseCode();
+        } catch (IOException e) {
+            logger.debug("Couldn't get the status of the response sent by the sentry server.", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Reads a stream until its end and closes it, allowing the underlying connection to be kept alive.
+     *
+     * @param inputStream stream to drain.
+     * @throws IOException if the stream couldn't be read.
+     */
+    private static void drainAndClose(InputStream inputStream) throws IOException {
+        try {
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            int read;
+            do {
+                read = inputStream.read(buffer);
+            } while (read != -1);
+        } finally {
+            inputStream.close();
+        }
     }
 
     private String getErrorMessageFromStream(InputStream errorStream) {
@@ -152,6 +539,12 @@ public class HttpConnection extends AbstractConnection {
             }
         } catch (Exception e2) {
             logger.error("Exception while reading the error message from the connection.", e2);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e3) {
+                logger.debug("Couldn't close the error stream of the connection.", e3);
+            }
         }
         return sb.toString();
     }
@@ -160,6 +553,15 @@ public class HttpConnection extends AbstractConnection {
         this.timeout = timeout;
     }
 
+    /**
+     * Sets the timeout (in ms) when reading the response of Sentry.
+     *
+     * @param readTimeout timeout of a read, 0 to wait indefinitely.
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
     public void setMarshaller(Marshaller marshaller) {
         this.marshaller = marshaller;
     }
@@ -168,7 +570,238 @@ public class HttpConnection extends AbstractConnection {
         this.bypassSecurity = bypassSecurity;
     }
 
+    /**
+     * Sets the deadline (in ms) of each request, from the wait for a permit to the end of the response.
+     * <p>
+     * The connect and read timeouts are shortened so they don't go over the deadline, and the socket of a request
+     * still running at its deadline is closed. Such a request fails with a {@link DeadlineExceededException}.
+     *
+     * @param deadline deadline of a request, 0 for no deadline.
+     */
+    public void setDeadline(int deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Sets the maximum number of requests sent at the same time to the Sentry server.
+     * <p>
+     * Senders wait for a request to end once the maximum is reached, and fail with a {@link ConnectionException} if
+     * it takes more than the connection and read timeouts. This bounds the number of sockets in use, not the number
+     * of idle sockets kept alive by the JVM.
+     *
+     * @param maxConcurrentRequests maximum number of concurrent requests, or a value &lt;= 0 to remove the limit.
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.concurrencyLimit = maxConcurrentRequests > 0 ? new ConcurrencyLimit(maxConcurrentRequests) : null;
+    }
+
+    /**
+     * Sets the limit of the requests sent at the same time to the Sentry server, such as an adaptive limit.
+     * <p>
+     * The requests over the limit wait as with {@link #setMaxConcurrentRequests(int)}, or are rejected right away if
+     * the limit sheds them. An adaptive limit learns from every request: a request failing without a response, with
+     * a server error, a rate limit or over its deadline lowers the limit, and so does a growing latency.
+     *
+     * @param concurrencyLimit limit of the concurrent requests, or {@code null} to remove the limit.
+     */
+    public void setConcurrencyLimit(ConcurrencyLimit concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    /**
+     * Gets the limit of the requests sent at the same time to the Sentry server, exposing its current value, the
+     * requests in flight and the observed round trip time.
+     *
+     * @return the limit of the concurrent requests, or {@code null} if there is no limit.
+     */
+    public ConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * Sets the maximum size (in bytes) of the serialised events sent in a single request, before compression.
+     * <p>
+     * A single event bigger than the maximum is still sent, in a request of its own.
+     *
+     * @param maxBatchBytes maximum size of the serialised events of a request.
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        if (maxBatchBytes <= 0)
+            throw new IllegalArgumentException("The maximum size of a batch must be positive, got " + maxBatchBytes);
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Warms the connection up in a background thread.
+     * <p>
+     * The host of Sentry is resolved, which fills the DNS cache of the JVM. Over HTTPS, a first handshake is completed
+     * with Sentry by the default socket factory of {@link HttpsURLConnection}, which the requests use as well: they
+     * resume the session of that handshake instead of going through a full handshake, and a factory set with
+     * {@link HttpsURLConnection#setDefaultSSLSocketFactory(SSLSocketFactory)} (with its trust store) still applies.
+     * A failure of the warm-up is only logged.
+     */
+    public void warmUp() {
+        Thread warmUpThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RavenEnvironment.startManagingThread();
+                try {
+                    warmUpNow();
+                } finally {
+                    RavenEnvironment.stopManagingThread();
+                }
+            }
+        }, "raven-warmup");
+        warmUpThread.setDaemon(true);
+        warmUpThread.start();
+    }
+
+    /**
+     * Warms the connection up in the current thread, see {@link #warmUp()}.
+     */
+    void warmUpNow() {
+        long start = System.currentTimeMillis();
+        String host = sentryUrl.getHost();
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            if ("https".equalsIgnoreCase(sentryUrl.getProtocol())) {
+                SSLSocketFactory socketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+                int port = sentryUrl.getPort() != -1 ? sentryUrl.getPort() : sentryUrl.getDefaultPort();
+                Socket socket = new Socket();
+                try {
+                    socket.connect(new InetSocketAddress(address, port), timeout);
+                    socket.setSoTimeout(readTimeout);
+                    // Created with the host name, so the session is cached for the host used by the requests.
+                    SSLSocket sslSocket = (SSLSocket) socketFactory.createSocket(socket, host, port, true);
+                    sslSocket.startHandshake();
+                    sslSocket.close();
+                } finally {
+                    socket.close();
+                }
+            }
+            logger.debug("The connection to {} has been warmed up in {}ms.", host, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            logger.warn("Couldn't warm up the connection to {}.", host, e);
+        }
+    }
+
     @Override
     public void close() throws IOException {
     }
+
+    @Override
+    public String toString() {
+        return "HttpConnection{sentryUrl=" + sentryUrl + '}';
+    }
+
+    /**
+     * Closes the socket of a request once its deadline passed, interrupting the thread blocked on it.
+     * <p>
+     * The timer and the sending thread race to end the request, only the first one can close the socket: the timer
+     * doesn't close the socket of a request whose response has been read, and the sending thread doesn't close a
+     * socket the timer is closing.
+     */
+    private static final class RequestCancellation implements Runnable {
+        private final HttpURLConnection connection;
+        private final ScheduledFuture<?> future;
+        private final AtomicBoolean inFlight = new AtomicBoolean(true);
+
+        private RequestCancellation(HttpURLConnection connection, long requestDeadline) {
+            this.connection = connection;
+            this.future = DEADLINE_TIMER.schedule(this, requestDeadline - System.currentTimeMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            if (inFlight.compareAndSet(true, false)) {
+                logger.debug("The request to {} went over its deadline, its socket is closed.", connection.getURL());
+                connection.disconnect();
+            }
+        }
+
+        /**
+         * Ends the request on the sending thread, the timer won't close its socket anymore.
+         *
+         * @return true if the request was still in flight, false if the timer already closed its socket.
+         */
+        private boolean complete() {
+            future.cancel(false);
+            return inFlight.compareAndSet(true, false);
+        }
+    }
+
+    /**
+     * Stream buffering the body of a request, to send it with its exact length once it is written entirely.
+     * <p>
+     * Once the body goes over the size of the pooled buffers, the request is sent in chunks instead: the buffered
+     * content is sent first, then the rest is written straight to the connection. Closing the stream doesn't send the
+     * body, as marshallers close the stream they are given.
+     */
+    private static final class BodyOutputStream extends OutputStream {
+        private final HttpURLConnection connection;
+        private final ByteArrayOutputStream buffer;
+        /**
+         * Stream of the connection, {@code null} until the body is sent.
+         */
+        private OutputStream connectionStream;
+
+        private BodyOutputStream(HttpURLConnection connection, ByteArrayOutputStream buffer) {
+            this.connection = connection;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (connectionStream == null && buffer.size() >= MAX_BUFFERED_BODY_SIZE)
+                startChunkedStreaming();
+            if (connectionStream != null)
+                connectionStream.write(b);
+            else
+                buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (connectionStream == null && buffer.size() + len > MAX_BUFFERED_BODY_SIZE)
+                startChunkedStreaming();
+            if (connectionStream != null)
+                connectionStream.write(b, off, len);
+            else
+                buffer.write(b, off, len);
+        }
+
+        private void startChunkedStreaming() throws IOException {
+            connection.setChunkedStreamingMode(STREAMING_CHUNK_SIZE);
+            connectionStream = connection.getOutputStream();
+            buffer.writeTo(connectionStream);
+        }
+
+        /**
+         * Sends the rest of the body and ends the request.
+         *
+         * @throws IOException if the body couldn't be sent.
+         */
+        private void send() throws IOException {
+            if (connectionStream == null) {
+                connection.setFixedLengthStreamingMode(buffer.size());
+                connectionStream = connection.getOutputStream();
+                buffer.writeTo(connectionStream);
+            }
+            connectionStream.close();
+        }
+    }
+
+    /**
+     * Body of a request to Sentry.
+     */
+    private interface RequestBody {
+        /**
+         * Writes the body of the request.
+         *
+         * @param outputStream stream of the request, closed by the caller.
+         * @throws IOException if the body couldn't be written.
+         */
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
 }
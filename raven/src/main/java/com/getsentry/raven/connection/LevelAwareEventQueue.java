@@ -0,0 +1,371 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of the events waiting to be sent by an {@link AsyncConnection}, partitioned by
+ * {@link Event.Level}.
+ * <p>
+ * The events are taken by level, the most severe first, and in order within a level. When the queue is full, the
+ * oldest event of the least severe level is dropped to make room for the new one; an event never pushes out a more
+ * severe one. Part of the capacity is reserved to {@link Event.Level#ERROR} and {@link Event.Level#FATAL} events, so
+ * a flood of less severe events can't fill the queue entirely.
+ * <p>
+ * Events waiting for longer than the time to live of the queue are dropped instead of being sent.
+ * <p>
+ * Tasks which don't send an event, and events without level, are handled as {@link Event.Level#WARNING} events.
+ */
+public class LevelAwareEventQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private static final Logger logger = LoggerFactory.getLogger(LevelAwareEventQueue.class);
+    private static final Event.Level[] LEVELS = Event.Level.values();
+    private static final int DEFAULT_PARTITION = Event.Level.WARNING.ordinal();
+    /**
+     * Partitions from the most severe level to the least severe one.
+     */
+    private final List<ArrayDeque<Runnable>> partitions = new ArrayList<>(LEVELS.length);
+    private final int capacity;
+    private final int reservedCapacity;
+    /**
+     * Maximum time (in ms) an event waits in the queue, 0 if there is no limit.
+     */
+    private final long timeToLive;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int size;
+    /**
+     * Number of {@link Event.Level#ERROR} and {@link Event.Level#FATAL} events in the queue.
+     */
+    private int severeSize;
+
+    /**
+     * Creates a queue.
+     *
+     * @param capacity         maximum number of events in the queue.
+     * @param reservedCapacity number of places only available to {@link Event.Level#ERROR} and
+     *                         {@link Event.Level#FATAL} events.
+     * @param timeToLive       maximum time (in ms) an event waits in the queue, 0 for no limit.
+     */
+    public LevelAwareEventQueue(int capacity, int reservedCapacity, long timeToLive) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity of the queue must be positive: " + capacity);
+        if (reservedCapacity < 0 || reservedCapacity >= capacity)
+            throw new IllegalArgumentException("The reserved capacity must be between 0 and the capacity, got "
+                    + reservedCapacity);
+        this.capacity = capacity;
+        this.reservedCapacity = reservedCapacity;
+        this.timeToLive = timeToLive;
+        for (int i = 0; i < LEVELS.length; i++) {
+            partitions.add(new ArrayDeque<Runnable>());
+        }
+    }
+
+    private static int partitionOf(Runnable runnable) {
+        if (runnable instanceof AsyncConnection.EventSubmitter) {
+            Event.Level level = ((AsyncConnection.EventSubmitter) runnable).getLevel();
+            if (level != null)
+                return level.ordinal();
+        }
+        return DEFAULT_PARTITION;
+    }
+
+    private static boolean isSevere(int partition) {
+        return partition <= Event.Level.ERROR.ordinal();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When the queue is full, the oldest task of the least severe level, which is at most as severe as the new task,
+     * is dropped; the new task is rejected if there is none.
+     */
+    @Override
+    public boolean offer(Runnable runnable) {
+        if (runnable == null)
+            throw new NullPointerException();
+        int partition = partitionOf(runnable);
+        lock.lock();
+        try {
+            expire();
+            boolean full = size >= capacity
+                    || !isSevere(partition) && size - severeSize >= capacity - reservedCapacity;
+            if (full && !dropLeastSevere(partition))
+                return false;
+            partitions.get(partition).addLast(runnable);
+            size++;
+            if (isSevere(partition))
+                severeSize++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the oldest task of the least severe level, if it is at most as severe as the given level.
+     *
+     * @param maxPartition partition of the most severe level which can be dropped.
+     * @return true if a task has been dropped.
+     */
+    private boolean dropLeastSevere(int maxPartition) {
+        for (int partition = LEVELS.length - 1; partition >= maxPartition; partition--) {
+            Runnable dropped = partitions.get(partition).peekFirst();
+            if (dropped != null) {
+                logger.warn("The queue is full, an event of level {} is dropped.", LEVELS[partition]);
+                AsyncConnection.discard(removeFirst(partition), AsyncConnection.QUEUE_FULL_MESSAGE);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the events which waited longer than the time to live, oldest first in each level.
+     */
+    private void expire() {
+        if (timeToLive <= 0)
+            return;
+        long oldestSubmission = System.currentTimeMillis() - timeToLive;
+        for (int partition = 0; partition < LEVELS.length; partition++) {
+            ArrayDeque<Runnable> tasks = partitions.get(partition);
+            while (tasks.peekFirst() instanceof AsyncConnection.EventSubmitter
+                    && ((AsyncConnection.EventSubmitter) tasks.peekFirst()).getSubmissionTime() < oldestSubmission) {
+                logger.debug("An event of level {} waited more than {}ms, it is dropped.", LEVELS[partition],
+                        timeToLive);
+                AsyncConnection.discard(removeFirst(partition), "The event waited more than " + timeToLive
+                        + "ms to be sent.");
+            }
+        }
+    }
+
+    private Runnable removeFirst(int partition) {
+        Runnable runnable = partitions.get(partition).pollFirst();
+        size--;
+        if (isSevere(partition))
+            severeSize--;
+        notFull.signal();
+        return runnable;
+    }
+
+    /**
+     * Takes the oldest task of the most severe level, must be called with the lock held.
+     *
+     * @return the task, or {@code null} if the queue is empty.
+     */
+    private Runnable dequeue() {
+        expire();
+        for (int partition = 0; partition < LEVELS.length; partition++) {
+            if (!partitions.get(partition).isEmpty())
+                return removeFirst(partition);
+        }
+        return null;
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long remainingTime = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Runnable runnable;
+            while ((runnable = dequeue()) == null) {
+                if (remainingTime <= 0)
+                    return null;
+                remainingTime = notEmpty.awaitNanos(remainingTime);
+            }
+            return runnable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Runnable runnable;
+            while ((runnable = dequeue()) == null) {
+                notEmpty.await();
+            }
+            return runnable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            expire();
+            for (ArrayDeque<Runnable> tasks : partitions) {
+                if (!tasks.isEmpty())
+                    return tasks.peekFirst();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Waits until the task is accepted, even if this means dropping a less severe task.
+     */
+    @Override
+    public void put(Runnable runnable) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (!offer(runnable)) {
+                notFull.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) throws InterruptedException {
+        long remainingTime = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!offer(runnable)) {
+                if (remainingTime <= 0)
+                    return false;
+                remainingTime = notFull.awaitNanos(remainingTime);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            for (int partition = 0; partition < LEVELS.length; partition++) {
+                if (partitions.get(partition).removeFirstOccurrence(o)) {
+                    size--;
+                    if (isSevere(partition))
+                        severeSize--;
+                    notFull.signal();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> collection, int maxElements) {
+        if (collection == this)
+            throw new IllegalArgumentException("Can't drain a queue into itself.");
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements) {
+                Runnable runnable = dequeue();
+                if (runnable == null)
+                    break;
+                collection.add(runnable);
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The iterator works on a copy of the queue, most severe levels first.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        List<Runnable> snapshot = new ArrayList<>(size());
+        lock.lock();
+        try {
+            for (ArrayDeque<Runnable> tasks : partitions) {
+                snapshot.addAll(tasks);
+            }
+        } finally {
+            lock.unlock();
+        }
+        final Iterator<Runnable> snapshotIterator = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable current;
+
+            @Override
+            public boolean hasNext() {
+                return snapshotIterator.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                current = snapshotIterator.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                if (current == null)
+                    throw new IllegalStateException();
+                LevelAwareEventQueue.this.remove(current);
+                current = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,303 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.marshaller.Marshaller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection writing the events as newline delimited JSON (one JSON document per line) on a stream, such as stdout or
+ * a {@link com.getsentry.raven.util.RotatingFileOutputStream}, for a log shipper to pick them up.
+ * <p>
+ * The events are marshalled by the calling threads without holding any lock, then appended to a shared buffer. A
+ * writing thread writes the whole buffer at once ("group commit") when it reaches {@link #setBufferSize(int)} bytes,
+ * or when its first event has waited for {@link #setFlushInterval(long)}, so a burst of events costs a few writes
+ * instead of one per event. The callers wait only while the buffer is full and the previous one is still being
+ * written.
+ * <p>
+ * The events are reported as delivered once they have been written and flushed on the stream. The marshaller must
+ * write uncompressed JSON on a single line.
+ */
+public class NdjsonConnection extends AbstractConnection {
+    /**
+     * Default size (in bytes) of the buffer triggering a write.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Default maximum time (in ms) an event waits in the buffer.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 200;
+    private static final Logger logger = LoggerFactory.getLogger(NdjsonConnection.class);
+    private static final int NEW_LINE = '\n';
+    /**
+     * Maximum size (in bytes) of a marshalling buffer kept by a thread between events.
+     */
+    private static final int MAX_KEPT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Timeout (in ms) of the writing thread when the connection is closed.
+     */
+    private static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+    private static final String CLOSED_MESSAGE = "The NDJSON connection has been closed.";
+    /**
+     * Buffer in which each thread marshals its events, so marshalling happens outside of the lock.
+     */
+    private static final ThreadLocal<ByteArrayOutputStream> LINE_BUFFER =
+            new ThreadLocal<ByteArrayOutputStream>() {
+                @Override
+                protected ByteArrayOutputStream initialValue() {
+                    return new ByteArrayOutputStream();
+                }
+            };
+    private final OutputStream outputStream;
+    private final Object lock = new Object();
+    private final Thread writingThread;
+    private Marshaller marshaller;
+    private volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+    private volatile long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    /**
+     * Lines waiting to be written, guarded by {@link #lock}.
+     */
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream(DEFAULT_BUFFER_SIZE);
+    /**
+     * Events whose lines are in {@link #buffer}, guarded by {@link #lock}.
+     */
+    private List<Event> bufferedEvents = new ArrayList<>();
+    /**
+     * Buffer written previously, reused by the next swap, guarded by {@link #lock}.
+     */
+    private ByteArrayOutputStream spareBuffer = new ByteArrayOutputStream(DEFAULT_BUFFER_SIZE);
+    /**
+     * Time (in ms) at which the first line of {@link #buffer} was appended, guarded by {@link #lock}.
+     */
+    private long firstAppendTime;
+    /**
+     * Number of buffers taken by the writing thread, guarded by {@link #lock}.
+     */
+    private long takenBuffers;
+    /**
+     * Number of buffers written on the stream, guarded by {@link #lock}.
+     */
+    private long writtenBuffers;
+    /**
+     * Whether a caller of {@link #flush(long)} waits for the buffer to be written, guarded by {@link #lock}.
+     */
+    private boolean flushRequested;
+    private volatile boolean closed;
+
+    /**
+     * Creates a connection writing the events as newline delimited JSON on a stream.
+     * <p>
+     * Will propagate the {@link #close()} operation to the stream.
+     *
+     * @param outputStream stream on which the events are written.
+     */
+    public NdjsonConnection(OutputStream outputStream) {
+        super(null, null);
+        this.outputStream = outputStream;
+        writingThread = new Thread(new Writer(), "raven-ndjson");
+        writingThread.setDaemon(true);
+        writingThread.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The event is marshalled and appended to the buffer, it is written later by the writing thread.
+     */
+    @Override
+    protected void doSend(Event event) throws ConnectionException {
+        ByteArrayOutputStream line = LINE_BUFFER.get();
+        line.reset();
+        marshaller.marshall(event, line);
+        if (line.size() == 0) {
+            reportFailure(event, new ConnectionException("The event couldn't be marshalled."));
+            return;
+        }
+        line.write(NEW_LINE);
+
+        synchronized (lock) {
+            try {
+                while (!closed && buffer.size() >= bufferSize) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectionException("Interrupted while waiting for the NDJSON buffer to be written.", e);
+            }
+            if (closed)
+                throw new ConnectionException(CLOSED_MESSAGE);
+            if (buffer.size() == 0)
+                firstAppendTime = System.currentTimeMillis();
+            try {
+                line.writeTo(buffer);
+            } catch (IOException e) {
+                throw new IllegalStateException("Couldn't copy the event in the NDJSON buffer.", e);
+            }
+            bufferedEvents.add(event);
+            if (buffer.size() >= bufferSize || bufferedEvents.size() == 1)
+                lock.notifyAll();
+        }
+
+        if (line.size() > MAX_KEPT_BUFFER_SIZE)
+            LINE_BUFFER.remove();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Writes the buffer right away, and waits until it has been written.
+     */
+    @Override
+    public boolean flush(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (lock) {
+            long targetBuffers = buffer.size() > 0 ? takenBuffers + 1 : takenBuffers;
+            flushRequested = true;
+            lock.notifyAll();
+            try {
+                while (writtenBuffers < targetBuffers) {
+                    long remainingTime = deadline - System.currentTimeMillis();
+                    if (remainingTime <= 0 || !writingThread.isAlive())
+                        return false;
+                    lock.wait(remainingTime);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a buffer on the stream and reports the outcome of its events.
+     *
+     * @param lines  lines of the events.
+     * @param events events written.
+     */
+    private void write(ByteArrayOutputStream lines, List<Event> events) {
+        try {
+            lines.writeTo(outputStream);
+            outputStream.flush();
+        } catch (IOException e) {
+            logger.error("Couldn't write {} events on the NDJSON stream.", events.size(), e);
+            ConnectionException exception = new ConnectionException("Couldn't write the event on the stream.", e);
+            for (Event event : events) {
+                reportFailure(event, exception);
+            }
+            return;
+        }
+        for (Event event : events) {
+            reportDelivery(event);
+        }
+    }
+
+    /**
+     * Sets the size (in bytes) of the buffer over which it is written.
+     *
+     * @param bufferSize size of the buffer triggering a write.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Sets the maximum time (in ms) an event waits in the buffer before being written.
+     *
+     * @param flushInterval maximum time an event waits in the buffer.
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Sets the marshaller writing each event as a line of the stream.
+     *
+     * @param marshaller marshaller writing uncompressed JSON on a single line.
+     */
+    public void setMarshaller(Marshaller marshaller) {
+        this.marshaller = marshaller;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The events still in the buffer are written before the stream is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writingThread.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for the last NDJSON events to be written.", e);
+        }
+        if (writingThread.isAlive())
+            logger.warn("The last NDJSON events couldn't be written before the stream was closed.");
+        outputStream.close();
+    }
+
+    /**
+     * Loop writing the buffer once it is full, once its first event waited for the flush interval, or when a flush
+     * is requested.
+     */
+    private final class Writer implements Runnable {
+        @Override
+        public void run() {
+            RavenEnvironment.startManagingThread();
+            try {
+                ByteArrayOutputStream lines;
+                List<Event> events;
+                while (true) {
+                    synchronized (lock) {
+                        while (!closed && !flushRequested && buffer.size() < bufferSize) {
+                            long waitingTime = buffer.size() == 0
+                                    ? 0 : firstAppendTime + flushInterval - System.currentTimeMillis();
+                            if (buffer.size() > 0 && waitingTime <= 0)
+                                break;
+                            lock.wait(waitingTime);
+                        }
+                        flushRequested = false;
+                        if (buffer.size() == 0) {
+                            lock.notifyAll();
+                            if (closed)
+                                return;
+                            continue;
+                        }
+                        lines = buffer;
+                        events = bufferedEvents;
+                        buffer = spareBuffer;
+                        bufferedEvents = new ArrayList<>();
+                        takenBuffers++;
+                        lock.notifyAll();
+                    }
+
+                    write(lines, events);
+
+                    synchronized (lock) {
+                        lines.reset();
+                        spareBuffer = lines;
+                        writtenBuffers++;
+                        lock.notifyAll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                logger.debug("The NDJSON events stopped being written.", e);
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+}
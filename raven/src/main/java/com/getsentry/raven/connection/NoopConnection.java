@@ -19,6 +19,7 @@ public class NoopConnection extends AbstractConnection {
 
     @Override
     protected void doSend(Event event) throws ConnectionException {
+        EventDeliveries.dropped(event, "No Sentry DSN set.");
     }
 
     @Override
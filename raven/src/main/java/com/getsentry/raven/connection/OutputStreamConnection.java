@@ -32,6 +32,7 @@ public class OutputStreamConnection extends AbstractConnection {
             marshaller.marshall(event, outputStream);
             outputStream.write("\n".getBytes(UTF_8));
             outputStream.flush();
+            reportDelivery(event);
         } catch (IOException e) {
             throw new ConnectionException("Couldn't sent the event properly", e);
         }
@@ -0,0 +1,15 @@
+package com.getsentry.raven.connection;
+
+/**
+ * Connection to a Sentry server, able to send events already marshalled.
+ */
+public interface PayloadConnection extends Connection {
+    /**
+     * Sends an event already marshalled to the sentry server.
+     * <p>
+     * The payload is sent as is, it isn't marshalled again by the connection.
+     *
+     * @param payload marshalled event to add in Sentry.
+     */
+    void send(EventPayload payload);
+}
@@ -0,0 +1,159 @@
+package com.getsentry.raven.connection;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter deciding whether events can be sent to the Sentry server, before they are marshalled.
+ * <p>
+ * The rate of the events is limited on the client side by a token bucket, refilled at a rate of events per second up
+ * to a burst of events; there is no limit by default. When the Sentry server rejects an event because of a rate limit
+ * or a quota, every event is rejected until the time requested by the server is over.
+ */
+public class RateLimiter {
+    /**
+     * Status of the HTTP responses sent by Sentry when an event is rejected because of a rate limit.
+     */
+    public static final int TOO_MANY_REQUESTS = 429;
+    /**
+     * Header giving the time to wait before sending events again, in seconds or as an HTTP date.
+     */
+    public static final String RETRY_AFTER_HEADER = "Retry-After";
+    /**
+     * Header giving the time to wait for each category of data sent to Sentry.
+     */
+    public static final String SENTRY_RATE_LIMITS_HEADER = "X-Sentry-Rate-Limits";
+    /**
+     * Time (in ms) to wait when Sentry didn't tell how long to wait.
+     */
+    public static final long DEFAULT_RETRY_AFTER = TimeUnit.SECONDS.toMillis(60);
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    private static final long MILLIS_PER_SECOND = TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Number of events added to the bucket each second, 0 if the rate is not limited.
+     */
+    private double rate;
+    /**
+     * Maximum number of events in the bucket.
+     */
+    private double burst;
+    private double tokens;
+    private long lastRefill;
+    /**
+     * Time (in ms) until which every event is rejected, as requested by the Sentry server.
+     */
+    private volatile long limitedUntil;
+
+    /**
+     * Limits the rate of the events on the client side.
+     *
+     * @param eventsPerSecond number of events allowed per second, 0 to disable the limit.
+     * @param burstSize       maximum number of events allowed at once.
+     */
+    public synchronized void setRate(double eventsPerSecond, int burstSize) {
+        if (eventsPerSecond < 0)
+            throw new IllegalArgumentException("The rate of events can't be negative: " + eventsPerSecond);
+        if (eventsPerSecond > 0 && burstSize < 1)
+            throw new IllegalArgumentException("The burst of events must be positive: " + burstSize);
+        this.rate = eventsPerSecond;
+        this.burst = burstSize;
+        this.tokens = burstSize;
+        this.lastRefill = System.currentTimeMillis();
+    }
+
+    /**
+     * Takes the permission to send some events.
+     *
+     * @param events number of events to send.
+     * @return the number of events which can be sent, the other ones must be rejected.
+     */
+    public int tryAcquire(int events) {
+        long now = System.currentTimeMillis();
+        if (now < limitedUntil)
+            return 0;
+
+        synchronized (this) {
+            if (rate <= 0)
+                return events;
+            tokens = Math.min(burst, tokens + (now - lastRefill) * rate / MILLIS_PER_SECOND);
+            lastRefill = now;
+            int acquired = (int) Math.min(events, Math.floor(tokens));
+            tokens -= acquired;
+            return acquired;
+        }
+    }
+
+    /**
+     * Rejects every event for some time, as requested by the Sentry server.
+     *
+     * @param retryAfter time (in ms) to wait before sending events again.
+     */
+    public void limitFor(long retryAfter) {
+        long until = System.currentTimeMillis() + retryAfter;
+        if (until > limitedUntil)
+            limitedUntil = until;
+    }
+
+    /**
+     * Gets the time to wait requested by Sentry in a response rejecting an event.
+     * <p>
+     * The limits of {@code X-Sentry-Rate-Limits} applying to errors take precedence over {@code Retry-After}.
+     *
+     * @param retryAfter       value of the {@code Retry-After} header, {@code null} if there is none.
+     * @param sentryRateLimits value of the {@code X-Sentry-Rate-Limits} header, {@code null} if there is none.
+     * @return the time (in ms) to wait before sending events again.
+     */
+    public static long parseRetryAfter(String retryAfter, String sentryRateLimits) {
+        if (sentryRateLimits != null) {
+            long longestLimit = -1;
+            // retry_after:categories:scope[:reason], several limits separated by commas
+            for (String limit : sentryRateLimits.split(",")) {
+                String[] parts = limit.trim().split(":");
+                if (parts.length < 2 || !appliesToErrors(parts[1]))
+                    continue;
+                long seconds = parseSeconds(parts[0]);
+                if (seconds >= 0)
+                    longestLimit = Math.max(longestLimit, seconds * MILLIS_PER_SECOND);
+            }
+            if (longestLimit >= 0)
+                return longestLimit;
+        }
+
+        if (retryAfter != null) {
+            long seconds = parseSeconds(retryAfter.trim());
+            if (seconds >= 0)
+                return seconds * MILLIS_PER_SECOND;
+            try {
+                SimpleDateFormat httpDateFormat = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+                httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+                long date = httpDateFormat.parse(retryAfter.trim()).getTime();
+                return Math.max(0, date - System.currentTimeMillis());
+            } catch (ParseException e) {
+                return DEFAULT_RETRY_AFTER;
+            }
+        }
+        return DEFAULT_RETRY_AFTER;
+    }
+
+    private static boolean appliesToErrors(String categories) {
+        if (categories.isEmpty())
+            return true;
+        for (String category : categories.split(";")) {
+            if ("error".equals(category) || "default".equals(category))
+                return true;
+        }
+        return false;
+    }
+
+    private static long parseSeconds(String value) {
+        try {
+            // Sentry may send decimal seconds
+            return (long) Math.ceil(Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.spool.EventSpool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection sending again, after a while, the events which couldn't be sent.
+ * <p>
+ * The failures are detected through the {@link EventSendFailureCallback}s of the actual connection. Each failed event
+ * is serialised and kept in a retry queue, bounded both in number of events and in bytes, and a separate thread sends
+ * it again once its delay is over. The new events are sent right away by the calling thread, they never wait behind
+ * the retries.
+ * <p>
+ * The delay before each retry is drawn at random between the base delay and three times the previous delay, up to a
+ * maximum ("decorrelated jitter"), so the clients which failed at the same time don't all retry at the same time.
+ * An event is dropped once it failed {@link #maxRetries} retries, or if the retry queue is full. An event rejected
+ * while the circuit of the actual connection is open counts as a failed retry.
+ * <p>
+ * The retries sent are tracked by event identifier, so the failure of a retry is recognised whether the actual
+ * connection reports it right away or later from another thread.
+ */
+public class RetryingConnection implements BatchConnection, FlushableConnection {
+    private static final Logger logger = LoggerFactory.getLogger(RetryingConnection.class);
+    /**
+     * Factor applied to the previous delay to get the upper bound of the next delay.
+     */
+    private static final int DELAY_GROWTH = 3;
+    /**
+     * Timeout (in ms) of the retrying thread when the connection is closed.
+     */
+    private static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+    private static final String CLOSED_MESSAGE = "The retrying connection has been closed.";
+    /**
+     * Connection used to actually send the events.
+     */
+    private final BatchConnection actualConnection;
+    /**
+     * Maximum number of times an event is sent again.
+     */
+    private final int maxRetries;
+    /**
+     * Minimum delay (in ms) before sending an event again.
+     */
+    private final long baseDelay;
+    /**
+     * Maximum delay (in ms) before sending an event again.
+     */
+    private final long maxDelay;
+    /**
+     * Maximum number of events waiting in the retry queue.
+     */
+    private final int maxQueuedEvents;
+    /**
+     * Maximum size (in bytes) of the serialised events waiting in the retry queue.
+     */
+    private final long maxQueuedBytes;
+    private final Object lock = new Object();
+    /**
+     * Events waiting to be sent again, by time of the next attempt, guarded by {@link #lock}.
+     */
+    private final Queue<Retry> retries = new PriorityQueue<>();
+    private final Thread retryThread;
+    /**
+     * Size (in bytes) of the serialised events in {@link #retries}, guarded by {@link #lock}.
+     */
+    private long queuedBytes;
+    /**
+     * Retries sent through the actual connection, by event identifier, until their failure is reported, guarded by
+     * {@link #lock}.
+     * <p>
+     * The success of a retry isn't reported to this connection, so the map is bounded to the size of the retry
+     * queue, the oldest retries being forgotten first. A forgotten retry which fails starts over from its first
+     * retry.
+     */
+    private final Map<UUID, Retry> sentRetries;
+    private volatile boolean closed;
+
+    /**
+     * Creates a connection sending again the events which couldn't be sent by the actual connection.
+     * <p>
+     * Will propagate the {@link #close()} operation to the actual connection.
+     *
+     * @param actualConnection connection used to send the events, an {@link AbstractConnection} whose failures can be
+     *                         detected.
+     * @param maxRetries       maximum number of times an event is sent again.
+     * @param baseDelay        minimum delay (in ms) before sending an event again.
+     * @param maxDelay         maximum delay (in ms) before sending an event again.
+     * @param maxQueuedEvents  maximum number of events waiting to be sent again.
+     * @param maxQueuedBytes   maximum size (in bytes) of the serialised events waiting to be sent again.
+     */
+    public RetryingConnection(Connection actualConnection, int maxRetries, long baseDelay, long maxDelay,
+                              final int maxQueuedEvents, long maxQueuedBytes) {
+        if (baseDelay < 0 || maxDelay < baseDelay)
+            throw new IllegalArgumentException("The delays must be positive and the maximum delay can't be less than "
+                    + "the base delay, got " + baseDelay + " and " + maxDelay);
+        if (!(actualConnection instanceof AbstractConnection))
+            throw new IllegalArgumentException("The failures of " + actualConnection.getClass().getName()
+                    + " can't be detected.");
+        this.actualConnection = (BatchConnection) actualConnection;
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxQueuedEvents = maxQueuedEvents;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.sentRetries = new LinkedHashMap<UUID, Retry>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Retry> eldest) {
+                return size() > maxQueuedEvents;
+            }
+        };
+        ((AbstractConnection) actualConnection).addEventSendFailureCallback(new RetryingCallback());
+        retryThread = new Thread(new Retrier(), "raven-retry");
+        retryThread.setDaemon(true);
+        retryThread.setPriority(Thread.MIN_PRIORITY);
+        retryThread.start();
+    }
+
+    @Override
+    public void send(Event event) {
+        if (closed) {
+            EventDeliveries.dropped(event, CLOSED_MESSAGE);
+            return;
+        }
+        actualConnection.send(event);
+    }
+
+    @Override
+    public void sendBatch(List<Event> events) {
+        if (closed) {
+            for (Event event : events) {
+                EventDeliveries.dropped(event, CLOSED_MESSAGE);
+            }
+            return;
+        }
+        actualConnection.sendBatch(events);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The events waiting to be sent again aren't waited for.
+     */
+    @Override
+    public boolean flush(long timeout) {
+        return !(actualConnection instanceof FlushableConnection)
+                || ((FlushableConnection) actualConnection).flush(timeout);
+    }
+
+    /**
+     * Draws the delay before the next attempt.
+     *
+     * @param previousDelay delay (in ms) before the previous attempt.
+     * @return the delay (in ms) before the next attempt.
+     */
+    private long nextDelay(long previousDelay) {
+        long upperBound = Math.max(baseDelay, Math.min(maxDelay, previousDelay * DELAY_GROWTH));
+        return baseDelay + (long) (ThreadLocalRandom.current().nextDouble() * (upperBound - baseDelay));
+    }
+
+    /**
+     * Adds a retry to the retry queue, unless the queue is full.
+     *
+     * @param retry retry to add.
+     * @return true if the retry has been queued, false if it has been rejected.
+     */
+    private boolean schedule(Retry retry) {
+        synchronized (lock) {
+            if (retries.size() >= maxQueuedEvents || queuedBytes + retry.record.length > maxQueuedBytes) {
+                logger.warn("The retry queue is full, the event {} is dropped.", retry.eventId);
+                return false;
+            }
+            retries.add(retry);
+            queuedBytes += retry.record.length;
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Sends an event of the retry queue again through the actual connection.
+     *
+     * @param retry retry to send.
+     */
+    private void retry(Retry retry) {
+        Event event;
+        try {
+            event = EventSpool.deserialise(retry.record);
+        } catch (IOException | ClassNotFoundException e) {
+            logger.error("Couldn't deserialise the event {} to send it again, it is dropped.", retry.eventId, e);
+            EventDeliveries.dropped(retry.eventId, e);
+            return;
+        }
+        synchronized (lock) {
+            sentRetries.put(retry.eventId, retry);
+        }
+        try {
+            actualConnection.send(event);
+        } catch (RuntimeException e) {
+            logger.error("An exception occurred while sending the event {} again.", retry.eventId, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The events still waiting to be sent again are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        retryThread.interrupt();
+        try {
+            retryThread.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for the events to stop being sent again.", e);
+        }
+        List<Retry> droppedRetries;
+        synchronized (lock) {
+            droppedRetries = new ArrayList<>(retries);
+            retries.clear();
+            sentRetries.clear();
+            queuedBytes = 0;
+        }
+        if (!droppedRetries.isEmpty())
+            logger.warn("{} events waiting to be sent again are dropped.", droppedRetries.size());
+        for (Retry retry : droppedRetries) {
+            EventDeliveries.dropped(retry.eventId, CLOSED_MESSAGE);
+        }
+        actualConnection.close();
+    }
+
+    /**
+     * Event waiting in the retry queue.
+     */
+    private static final class Retry implements Comparable<Retry> {
+        private final UUID eventId;
+        private final byte[] record;
+        /**
+         * Number of the retry, starting at 1.
+         */
+        private final int attempt;
+        /**
+         * Delay (in ms) before this retry.
+         */
+        private final long delay;
+        /**
+         * Time (in ms) at which the event is sent again.
+         */
+        private final long dueTime;
+
+        private Retry(UUID eventId, byte[] record, int attempt, long delay) {
+            this.eventId = eventId;
+            this.record = record;
+            this.attempt = attempt;
+            this.delay = delay;
+            this.dueTime = System.currentTimeMillis() + delay;
+        }
+
+        @Override
+        public int compareTo(Retry other) {
+            return Long.compare(dueTime, other.dueTime);
+        }
+    }
+
+    /**
+     * Callback queueing the events which couldn't be sent, until they run out of retries.
+     */
+    private final class RetryingCallback implements EventSendFailureCallback {
+        @Override
+        public boolean onFailure(Event event, Exception exception) {
+            if (closed)
+                return false;
+            Retry failedRetry;
+            synchronized (lock) {
+                failedRetry = sentRetries.remove(event.getId());
+            }
+
+            int attempt = failedRetry == null ? 1 : failedRetry.attempt + 1;
+            if (attempt > maxRetries) {
+                logger.warn("The event {} couldn't be sent after {} retries, it is dropped.", event.getId(),
+                        maxRetries);
+                return false;
+            }
+
+            long delay = nextDelay(failedRetry == null ? baseDelay : failedRetry.delay);
+            if (exception instanceof TooManyRequestsException)
+                delay = Math.max(delay, ((TooManyRequestsException) exception).getRetryAfter());
+
+            byte[] record;
+            if (failedRetry != null) {
+                record = failedRetry.record;
+            } else {
+                try {
+                    record = EventSpool.serialise(event);
+                } catch (IOException e) {
+                    logger.error("Couldn't serialise the event {} to send it again.", event.getId(), e);
+                    return false;
+                }
+            }
+            return schedule(new Retry(event.getId(), record, attempt, delay));
+        }
+    }
+
+    /**
+     * Loop sending the events of the retry queue once their delay is over.
+     */
+    private final class Retrier implements Runnable {
+        @Override
+        public void run() {
+            RavenEnvironment.startManagingThread();
+            try {
+                while (!closed) {
+                    Retry retry;
+                    synchronized (lock) {
+                        retry = retries.peek();
+                        long waitingTime = retry == null ? 0 : retry.dueTime - System.currentTimeMillis();
+                        if (retry == null || waitingTime > 0) {
+                            lock.wait(waitingTime);
+                            continue;
+                        }
+                        retries.poll();
+                        queuedBytes -= retry.record.length;
+                    }
+                    retry(retry);
+                }
+            } catch (InterruptedException e) {
+                logger.debug("The events stopped being sent again.", e);
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.spool.EventSpool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Asynchronous usage of a connection, through a lock-free ring buffer.
+ * <p>
+ * Unlike {@link AsyncConnection}, sending an event doesn't allocate a queue node nor a task, and the threads sending
+ * events at the same time don't contend on a lock: the event is written in a preallocated slot of an
+ * {@link EventRingBuffer}, from which a fixed set of threads take the events to send them with the actual connection.
+ * When there are no events, these threads wait according to a {@link WaitStrategy}.
+ * <p>
+ * When the ring buffer is full, the oldest event is dropped to make room for the new one.
+ * <p>
+ * {@link #flush(long)} relies on the positions of the ring buffer: the events offered before the flush have all been
+ * handled once the consumers have gone past the position of the producers and no thread is still sending one of them.
+ */
+public class RingBufferAsyncConnection implements FlushableConnection {
+    private static final Logger logger = LoggerFactory.getLogger(RingBufferAsyncConnection.class);
+    private static final String CLOSED_MESSAGE = "The async connection has been closed.";
+    /**
+     * Connection used to actually send the events.
+     */
+    private final Connection actualConnection;
+    private final EventRingBuffer ringBuffer;
+    private final WaitStrategy waitStrategy;
+    private final EventConsumer[] consumers;
+    private final Thread[] consumerThreads;
+    private final Object flushLock = new Object();
+    /**
+     * Number of threads waiting for a flush, the consumers only notify them when there are some.
+     */
+    private volatile int flushingThreads;
+    /**
+     * Shutdown hook used to stop the async connection properly when the JVM quits.
+     */
+    private final ShutDownHook shutDownHook = new ShutDownHook();
+    private final boolean gracefulShutdown;
+    /**
+     * Time (in ms) given to the threads to send the events left when the connection is closed.
+     */
+    private long shutdownTimeout = AsyncConnection.DEFAULT_SHUTDOWN_TIMEOUT;
+    /**
+     * Spool in which the events left when the connection is closed are written, null to drop them.
+     */
+    private EventSpool spill;
+    /**
+     * Spill whose events are sent again by the first consumer finding it, null if there is none.
+     */
+    private final AtomicReference<EventSpool> spillToReplay = new AtomicReference<>();
+    /**
+     * Whether new events are rejected, the events left are still sent.
+     */
+    private volatile boolean closed;
+    /**
+     * Whether the threads must stop without sending the events left.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Creates a connection sending the events through a ring buffer.
+     * <p>
+     * Will propagate the {@link #close()} operation.
+     *
+     * @param actualConnection connection used to send the events.
+     * @param capacity         minimum number of events waiting to be sent, rounded up to a power of two.
+     * @param threads          number of threads sending the events.
+     * @param waitStrategy     strategy followed by the threads while there are no events to send.
+     * @param threadFactory    factory creating the threads sending the events.
+     * @param gracefulShutdown Indicates whether or not the shutdown operation should be managed by a ShutdownHook.
+     */
+    public RingBufferAsyncConnection(Connection actualConnection, int capacity, int threads, WaitStrategy waitStrategy,
+                                     ThreadFactory threadFactory, boolean gracefulShutdown) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread is needed to send the events, got " + threads);
+        this.actualConnection = actualConnection;
+        this.ringBuffer = new EventRingBuffer(capacity);
+        this.waitStrategy = waitStrategy;
+        this.gracefulShutdown = gracefulShutdown;
+        consumers = new EventConsumer[threads];
+        consumerThreads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            consumers[i] = new EventConsumer();
+            consumerThreads[i] = threadFactory.newThread(consumers[i]);
+            consumerThreads[i].start();
+        }
+        if (gracefulShutdown)
+            Runtime.getRuntime().addShutdownHook(shutDownHook);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The event will be added to the ring buffer and will be handled by a separate {@code Thread} later on.
+     */
+    @Override
+    public void send(Event event) {
+        if (closed) {
+            EventDeliveries.dropped(event, CLOSED_MESSAGE);
+            return;
+        }
+        while (!ringBuffer.offer(event)) {
+            Event droppedEvent = ringBuffer.poll();
+            if (droppedEvent != null) {
+                logger.warn("The ring buffer is full, the event {} is dropped.", droppedEvent.getId());
+                EventDeliveries.dropped(droppedEvent, "The ring buffer of the async connection is full.");
+                notifyFlushingThreads();
+            }
+        }
+        // The connection may have been closed while the event was offered, after the events left had been taken out
+        if (stopped)
+            dropEventsLeft();
+    }
+
+    /**
+     * Drops the events left in the ring buffer once the connection is stopped, the spill being closed.
+     */
+    private void dropEventsLeft() {
+        for (Event event = ringBuffer.poll(); event != null; event = ringBuffer.poll()) {
+            EventDeliveries.dropped(event, CLOSED_MESSAGE);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Waits for the consumers to send the events offered before the call, then flushes the actual connection with the
+     * time left.
+     */
+    @Override
+    public boolean flush(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        long flushedPosition = ringBuffer.producerPosition();
+        synchronized (flushLock) {
+            flushingThreads++;
+            try {
+                while (!isHandled(flushedPosition)) {
+                    long remainingTime = deadline - System.currentTimeMillis();
+                    if (remainingTime <= 0)
+                        return false;
+                    flushLock.wait(remainingTime);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                flushingThreads--;
+            }
+        }
+        return !(actualConnection instanceof FlushableConnection)
+                || ((FlushableConnection) actualConnection).flush(Math.max(0, deadline - System.currentTimeMillis()));
+    }
+
+    /**
+     * Checks whether the events offered before a position have all been polled, and aren't being sent anymore.
+     *
+     * @param position position of the producers when the flush started.
+     * @return true if the events before the position have been handled.
+     */
+    private boolean isHandled(long position) {
+        if (ringBuffer.consumerPosition() < position)
+            return false;
+        for (EventConsumer consumer : consumers) {
+            if (consumer.lowestPosition < position)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wakes up the threads waiting for a flush, if any, so they check the positions again.
+     */
+    private void notifyFlushingThreads() {
+        if (flushingThreads > 0) {
+            synchronized (flushLock) {
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}.
+     * <p>
+     * Closing the {@link RingBufferAsyncConnection} lets the threads send the events left for up to
+     * {@link #shutdownTimeout}, while new events are rejected. The events still in the ring buffer after that are
+     * written to the {@link #spill}, or dropped if there is none. An event offered while the connection stops is
+     * dropped by the thread offering it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (gracefulShutdown)
+            shutDownHook.enabled = false;
+        doClose();
+    }
+
+    /**
+     * Close the connection whether it's from the shutdown hook or not.
+     *
+     * @see #close()
+     */
+    private void doClose() throws IOException {
+        logger.info("Gracefully shutdown sentry threads.");
+        closed = true;
+        long deadline = System.currentTimeMillis() + shutdownTimeout;
+        try {
+            for (Thread consumer : consumerThreads) {
+                long remainingTime = deadline - System.currentTimeMillis();
+                if (remainingTime > 0)
+                    consumer.join(remainingTime);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Graceful shutdown interrupted, forcing the shutdown.");
+        } finally {
+            stopped = true;
+            int abandonedEvents = 0;
+            for (Event event = ringBuffer.poll(); event != null; event = ringBuffer.poll()) {
+                if (spill != null && spill.append(event))
+                    EventDeliveries.dropped(event, AsyncConnection.SPILLED_MESSAGE);
+                else
+                    EventDeliveries.dropped(event, CLOSED_MESSAGE);
+                abandonedEvents++;
+            }
+            if (abandonedEvents > 0)
+                logger.info("{} events failed to be sent before the shutdown.", abandonedEvents);
+            else
+                logger.info("Shutdown finished.");
+            try {
+                if (spill != null)
+                    spill.close();
+            } finally {
+                actualConnection.close();
+            }
+        }
+    }
+
+    /**
+     * Sets the time given to the threads to send the events left when the connection is closed.
+     *
+     * @param shutdownTimeout time (in ms) given to the events left to be sent.
+     */
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * Sets the spool in which the events left when the connection is closed are written, and sends the events left in
+     * it by a previous connection.
+     * <p>
+     * The events of the previous connection are read and sent by one of the threads of the connection, not by the
+     * calling thread, and without going through the ring buffer. The spill is closed with the connection.
+     *
+     * @param spill spool keeping the events left when the connection is closed.
+     */
+    public void setSpill(EventSpool spill) {
+        this.spill = spill;
+        spillToReplay.set(spill);
+    }
+
+    /**
+     * Loop taking the events from the ring buffer and sending them with the {@link #actualConnection}, until the
+     * connection is closed and the ring buffer empty.
+     */
+    private final class EventConsumer implements Runnable {
+        /**
+         * Lower bound of the position of the event being sent by this consumer, {@link Long#MAX_VALUE} when idle.
+         */
+        private volatile long lowestPosition = Long.MAX_VALUE;
+
+        @Override
+        public void run() {
+            int idleCount = 0;
+            while (!stopped) {
+                if (spillToReplay.get() != null) {
+                    EventSpool replayedSpill = spillToReplay.getAndSet(null);
+                    if (replayedSpill != null)
+                        replay(replayedSpill);
+                }
+                // Any event polled next is at this position or after
+                lowestPosition = ringBuffer.consumerPosition();
+                Event event = ringBuffer.poll();
+                if (event == null) {
+                    lowestPosition = Long.MAX_VALUE;
+                    notifyFlushingThreads();
+                    if (closed)
+                        return;
+                    waitStrategy.idle(idleCount);
+                    if (idleCount < Integer.MAX_VALUE)
+                        idleCount++;
+                    continue;
+                }
+                idleCount = 0;
+                send(event);
+                lowestPosition = Long.MAX_VALUE;
+                notifyFlushingThreads();
+            }
+        }
+
+        /**
+         * Sends the events spilled to disk by a previous connection, until the spill is empty or the connection is
+         * stopped.
+         *
+         * @param replayedSpill spill of the previous connection.
+         */
+        private void replay(EventSpool replayedSpill) {
+            int replayedEvents = 0;
+            while (true) {
+                Event event;
+                // The events left are spilled and the spill closed once the connection is stopped
+                synchronized (replayedSpill) {
+                    if (stopped)
+                        break;
+                    event = replayedSpill.peek();
+                    if (event == null)
+                        break;
+                    replayedSpill.remove();
+                }
+                send(event);
+                replayedEvents++;
+            }
+            if (replayedEvents > 0)
+                logger.info("{} events spilled to disk by a previous connection are sent.", replayedEvents);
+        }
+
+        private void send(Event event) {
+            RavenEnvironment.startManagingThread();
+            try {
+                // The current thread is managed by raven
+                actualConnection.send(event);
+            } catch (Exception e) {
+                logger.error("An exception occurred while sending the event to Sentry.", e);
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+
+    private final class ShutDownHook extends Thread {
+        /**
+         * Whether or not this ShutDownHook instance will do anything when run.
+         */
+        private volatile boolean enabled = true;
+
+        @Override
+        public void run() {
+            if (!enabled)
+                return;
+
+            RavenEnvironment.startManagingThread();
+            try {
+                // The current thread is managed by raven
+                logger.info("Automatic shutdown of the async connection");
+                RingBufferAsyncConnection.this.doClose();
+            } catch (Exception e) {
+                logger.error("An exception occurred while closing the connection.", e);
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Connection sending each event to a destination picked by rules, such as a Sentry project per tenant.
+ * <p>
+ * The rules are compiled in lookup tables when they're added, so routing an event doesn't scan the rules:
+ * <ul>
+ * <li>a tag rule matches the events with a tag set to a value, with one hash lookup per tag name having rules;</li>
+ * <li>a logger rule matches the events whose logger is in a package (or is a logger), with a trie of the name
+ * segments walked once, the longest prefix winning;</li>
+ * <li>a level rule matches the events at least as severe as a threshold, with a table indexed by level, the highest
+ * threshold reached winning.</li>
+ * </ul>
+ * The tag rules are checked first (in the order in which their tag names were added), then the logger rules, then
+ * the level rules. The events matching no rule go to the default destination.
+ * <p>
+ * The destinations are usually asynchronous connections sharing the threads of a {@link SharedSenderPool}, each with
+ * its own lane, so a slow destination doesn't hold the events of the others. The rules must be added before the
+ * connection is used.
+ */
+public class RoutingConnection implements FlushableConnection {
+    private static final int LEVELS = Event.Level.values().length;
+    private final Connection defaultDestination;
+    /**
+     * Destinations by value, for each tag name having rules.
+     */
+    private final Map<String, Map<String, Connection>> tagRoutes = new LinkedHashMap<>();
+    private final LoggerNode loggerRoutes = new LoggerNode();
+    /**
+     * Destination of the level rules, by threshold.
+     */
+    private final Connection[] levelRoutes = new Connection[LEVELS];
+    /**
+     * Destination of the events, by level, compiled from {@link #levelRoutes}.
+     */
+    private final Connection[] levelDestinations = new Connection[LEVELS];
+    /**
+     * Every destination, flushed and closed once.
+     */
+    private final Set<Connection> destinations = Collections.newSetFromMap(new IdentityHashMap<Connection, Boolean>());
+
+    /**
+     * Creates a connection routing the events.
+     * <p>
+     * Will propagate the {@link #close()} operation to every destination.
+     *
+     * @param defaultDestination connection receiving the events matching no rule.
+     */
+    public RoutingConnection(Connection defaultDestination) {
+        this.defaultDestination = defaultDestination;
+        destinations.add(defaultDestination);
+    }
+
+    /**
+     * Routes the events with a tag set to a value.
+     *
+     * @param tagName     name of the tag.
+     * @param tagValue    value of the tag.
+     * @param destination connection receiving the matching events.
+     */
+    public void addTagRoute(String tagName, String tagValue, Connection destination) {
+        Map<String, Connection> valueRoutes = tagRoutes.get(tagName);
+        if (valueRoutes == null) {
+            valueRoutes = new HashMap<>();
+            tagRoutes.put(tagName, valueRoutes);
+        }
+        valueRoutes.put(tagValue, destination);
+        destinations.add(destination);
+    }
+
+    /**
+     * Routes the events of a logger and of the loggers under it, {@code com.example} matching
+     * {@code com.example.Foo} but not {@code com.examples.Foo}.
+     *
+     * @param loggerPrefix name of the logger or package.
+     * @param destination  connection receiving the matching events.
+     */
+    public void addLoggerRoute(String loggerPrefix, Connection destination) {
+        LoggerNode node = loggerRoutes;
+        for (String segment : loggerPrefix.split("\\.")) {
+            LoggerNode child = node.children.get(segment);
+            if (child == null) {
+                child = new LoggerNode();
+                node.children.put(segment, child);
+            }
+            node = child;
+        }
+        node.destination = destination;
+        destinations.add(destination);
+    }
+
+    /**
+     * Routes the events at least as severe as a level.
+     *
+     * @param threshold   least severe level of the matching events.
+     * @param destination connection receiving the matching events.
+     */
+    public void addLevelRoute(Event.Level threshold, Connection destination) {
+        levelRoutes[threshold.ordinal()] = destination;
+        // The levels are declared from the most severe, each level goes to the highest threshold it reaches
+        Connection compiledDestination = null;
+        for (int level = LEVELS - 1; level >= 0; level--) {
+            if (levelRoutes[level] != null)
+                compiledDestination = levelRoutes[level];
+            levelDestinations[level] = compiledDestination;
+        }
+        destinations.add(destination);
+    }
+
+    /**
+     * Picks the destination of an event.
+     *
+     * @param event event to route.
+     * @return the connection receiving the event.
+     */
+    protected Connection route(Event event) {
+        if (!tagRoutes.isEmpty() && event.getTags() != null) {
+            for (Map.Entry<String, Map<String, Connection>> tagRoute : tagRoutes.entrySet()) {
+                String tagValue = event.getTags().get(tagRoute.getKey());
+                Connection destination = tagValue != null ? tagRoute.getValue().get(tagValue) : null;
+                if (destination != null)
+                    return destination;
+            }
+        }
+
+        if (!loggerRoutes.children.isEmpty() && event.getLogger() != null) {
+            Connection destination = routeLogger(event.getLogger());
+            if (destination != null)
+                return destination;
+        }
+
+        if (event.getLevel() != null && levelDestinations[event.getLevel().ordinal()] != null)
+            return levelDestinations[event.getLevel().ordinal()];
+
+        return defaultDestination;
+    }
+
+    /**
+     * Walks the trie of the logger rules along the segments of a logger name.
+     *
+     * @param logger name of the logger.
+     * @return the destination of the longest matching prefix, or null if there is none.
+     */
+    private Connection routeLogger(String logger) {
+        LoggerNode node = loggerRoutes;
+        Connection destination = null;
+        int start = 0;
+        while (node != null && start <= logger.length()) {
+            int end = logger.indexOf('.', start);
+            if (end < 0)
+                end = logger.length();
+            node = node.children.get(logger.substring(start, end));
+            if (node != null && node.destination != null)
+                destination = node.destination;
+            start = end + 1;
+        }
+        return destination;
+    }
+
+    @Override
+    public void send(Event event) {
+        route(event).send(event);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Flushes every destination with the time left.
+     */
+    @Override
+    public boolean flush(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        boolean flushed = true;
+        for (Connection destination : destinations) {
+            long remainingTime = Math.max(0, deadline - System.currentTimeMillis());
+            if (destination instanceof FlushableConnection)
+                flushed &= ((FlushableConnection) destination).flush(remainingTime);
+        }
+        return flushed;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every destination is closed, even if closing one of them fails.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException firstFailure = null;
+        for (Connection destination : destinations) {
+            try {
+                destination.close();
+            } catch (IOException e) {
+                if (firstFailure == null)
+                    firstFailure = e;
+            }
+        }
+        if (firstFailure != null)
+            throw firstFailure;
+    }
+
+    /**
+     * Node of the trie of the logger rules, one per segment of the logger names.
+     */
+    private static final class LoggerNode {
+        private final Map<String, LoggerNode> children = new HashMap<>();
+        /**
+         * Destination of the loggers under this node, null if no rule ends here.
+         */
+        private Connection destination;
+    }
+}
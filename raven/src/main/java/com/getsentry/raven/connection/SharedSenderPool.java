@@ -0,0 +1,319 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of threads sending the events of every {@link AsyncConnection} sharing it in the JVM.
+ * <p>
+ * Each connection hands its events to its own {@link Lane}, an executor with its own bounded queue. The threads of
+ * the pool serve the lanes with waiting events in turns, one event at a time, so a connection flooded with events
+ * can't starve the others. A lane runs at most its share of the threads at the same time (the number of threads
+ * divided by the number of lanes with events waiting or being sent), so a connection whose requests hang can't hold
+ * every thread of the pool.
+ * <p>
+ * A single shutdown hook closes the connections registered with {@link #closeOnShutdown(Lane, Connection)} when the
+ * JVM shuts down, rather than one hook per connection.
+ */
+public final class SharedSenderPool {
+    private static final Logger logger = LoggerFactory.getLogger(SharedSenderPool.class);
+    private static SharedSenderPool instance;
+    /**
+     * Lanes with events waiting to be sent, in the order in which they're served.
+     */
+    private final BlockingQueue<Lane> readyLanes = new LinkedBlockingQueue<>();
+    /**
+     * Connections closed by the shutdown hook, with the lane they submit their events to.
+     */
+    private final Map<Lane, Connection> closedOnShutdown = new ConcurrentHashMap<>();
+    /**
+     * Number of lanes with tasks waiting or running, sharing the threads of the pool.
+     */
+    private final AtomicInteger activeLanes = new AtomicInteger();
+    private final Thread shutdownHook = new ShutdownHook();
+    private final int threads;
+    private boolean shutdownHookAdded;
+
+    /**
+     * Creates a pool of threads serving lanes in turns.
+     *
+     * @param threads       number of threads sending the events.
+     * @param threadFactory factory creating the threads of the pool.
+     */
+    SharedSenderPool(int threads, ThreadFactory threadFactory) {
+        this.threads = threads;
+        for (int i = 0; i < threads; i++) {
+            threadFactory.newThread(new Worker()).start();
+        }
+    }
+
+    /**
+     * Gets the pool shared in the JVM, created on the first call.
+     * <p>
+     * The pool is created once with the parameters of the first call, the following calls get the same pool whatever
+     * their parameters.
+     *
+     * @param threads       number of threads sending the events.
+     * @param threadFactory factory creating the threads of the pool.
+     * @return the shared pool.
+     */
+    public static synchronized SharedSenderPool getInstance(int threads, ThreadFactory threadFactory) {
+        if (instance == null)
+            instance = new SharedSenderPool(threads, threadFactory);
+        return instance;
+    }
+
+    /**
+     * Creates a lane submitting tasks to the threads of this pool.
+     *
+     * @param capacity maximum number of tasks waiting in the lane, the oldest task being dropped to make room for a new
+     *                 one when the lane is full.
+     * @return a new lane.
+     */
+    public Lane newLane(int capacity) {
+        return new Lane(capacity);
+    }
+
+    /**
+     * Closes a connection when the JVM shuts down, unless its lane has been shut down before.
+     *
+     * @param lane       lane to which the connection submits its events.
+     * @param connection connection to close.
+     */
+    public void closeOnShutdown(Lane lane, Connection connection) {
+        closedOnShutdown.put(lane, connection);
+        synchronized (this) {
+            if (!shutdownHookAdded) {
+                // JUL loggers are shutdown by an other shutdown hook, it's possible that nothing will get logged.
+                Runtime.getRuntime().addShutdownHook(shutdownHook);
+                shutdownHookAdded = true;
+            }
+        }
+    }
+
+    /**
+     * Executor running its tasks with the threads of the {@link SharedSenderPool}, in turns with the other lanes.
+     * <p>
+     * Shutting down a lane doesn't stop the threads of the pool, which are shared with the other lanes.
+     */
+    public final class Lane extends AbstractExecutorService {
+        private final Deque<Runnable> tasks = new ArrayDeque<>();
+        private final int capacity;
+        private int runningTasks;
+        /**
+         * Whether the lane is in {@link #readyLanes}, or being served by a thread of the pool.
+         */
+        private boolean scheduled;
+        /**
+         * Whether the lane is counted in {@link #activeLanes}.
+         */
+        private boolean active;
+        private boolean shutdown;
+
+        private Lane(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            Runnable droppedTask = null;
+            boolean schedule = false;
+            synchronized (this) {
+                if (!shutdown) {
+                    if (tasks.size() >= capacity)
+                        droppedTask = tasks.poll();
+                    tasks.offer(task);
+                    updateActivity();
+                    schedule = !scheduled && runningTasks < maxRunningTasks();
+                    scheduled |= schedule;
+                } else {
+                    droppedTask = task;
+                }
+            }
+            if (droppedTask != null)
+                AsyncConnection.discard(droppedTask,
+                        droppedTask == task ? AsyncConnection.CLOSED_MESSAGE : AsyncConnection.QUEUE_FULL_MESSAGE);
+            if (schedule)
+                readyLanes.offer(this);
+        }
+
+        /**
+         * Maximum number of tasks of the lane running at the same time, its share of the threads of the pool.
+         *
+         * @return the number of threads the lane can use.
+         */
+        private int maxRunningTasks() {
+            return Math.max(1, threads / Math.max(1, activeLanes.get()));
+        }
+
+        /**
+         * Counts the lane in {@link #activeLanes} while it has tasks waiting or running.
+         */
+        private void updateActivity() {
+            boolean nowActive = !tasks.isEmpty() || runningTasks > 0;
+            if (nowActive != active) {
+                active = nowActive;
+                if (active)
+                    activeLanes.incrementAndGet();
+                else
+                    activeLanes.decrementAndGet();
+            }
+        }
+
+        /**
+         * Takes the next task of the lane, putting the lane back at the end of {@link #readyLanes} if other tasks are
+         * waiting and the lane hasn't reached its share of the threads.
+         * <p>
+         * A lane left out of {@link #readyLanes} at its share is put back when one of its tasks is over.
+         *
+         * @return the next task, or null if there is none or the lane already uses its share of the threads.
+         */
+        private synchronized Runnable next() {
+            if (runningTasks >= maxRunningTasks()) {
+                scheduled = false;
+                return null;
+            }
+            Runnable task = tasks.poll();
+            if (task == null) {
+                scheduled = false;
+                return null;
+            }
+            runningTasks++;
+            if (tasks.isEmpty() || runningTasks >= maxRunningTasks())
+                scheduled = false;
+            else
+                readyLanes.offer(this);
+            return task;
+        }
+
+        private void run(Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("An exception occurred while running a task of the shared sender pool.", e);
+            } finally {
+                synchronized (this) {
+                    runningTasks--;
+                    updateActivity();
+                    if (!scheduled && !tasks.isEmpty() && runningTasks < maxRunningTasks()) {
+                        scheduled = true;
+                        readyLanes.offer(this);
+                    }
+                    if (isTerminated())
+                        notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            closedOnShutdown.remove(this);
+            synchronized (this) {
+                shutdown = true;
+                if (isTerminated())
+                    notifyAll();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            closedOnShutdown.remove(this);
+            synchronized (this) {
+                shutdown = true;
+                List<Runnable> pendingTasks = new ArrayList<>(tasks);
+                tasks.clear();
+                updateActivity();
+                if (isTerminated())
+                    notifyAll();
+                return pendingTasks;
+            }
+        }
+
+        @Override
+        public synchronized boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public synchronized boolean isTerminated() {
+            return shutdown && tasks.isEmpty() && runningTasks == 0;
+        }
+
+        @Override
+        public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+            while (!isTerminated()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Thread of the pool, serving the ready lanes in turns.
+     */
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                Lane lane;
+                try {
+                    lane = readyLanes.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                Runnable task = lane.next();
+                if (task != null)
+                    lane.run(task);
+            }
+        }
+    }
+
+    /**
+     * Hook closing the registered connections when the JVM shuts down.
+     * <p>
+     * Every lane is shut down first, so they are all drained at the same time while the connections are closed.
+     */
+    private final class ShutdownHook extends Thread {
+        @Override
+        public void run() {
+            RavenEnvironment.startManagingThread();
+            try {
+                // The current thread is managed by raven
+                logger.info("Automatic shutdown of the connections of the shared sender pool");
+                Map<Lane, Connection> connections = new ConcurrentHashMap<>(closedOnShutdown);
+                for (Lane lane : connections.keySet()) {
+                    lane.shutdown();
+                }
+                for (Connection connection : connections.values()) {
+                    try {
+                        connection.close();
+                    } catch (IOException | RuntimeException e) {
+                        logger.error("An exception occurred while closing the connection.", e);
+                    }
+                }
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+}
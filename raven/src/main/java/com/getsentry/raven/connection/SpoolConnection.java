@@ -0,0 +1,233 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.spool.EventSpool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection keeping on disk the events which couldn't be sent, to send them again once Sentry is reachable.
+ * <p>
+ * When the actual connection fails to send an event, the event is appended to an {@link EventSpool} and the following
+ * events are appended to the spool as well, so they are sent in order. A separate thread replays the spool through
+ * the actual connection, until it's empty again. As the spool is kept on disk, the events which are still in the spool
+ * when the JVM stops are sent by the next {@code SpoolConnection} using the same spool.
+ * <p>
+ * In write-ahead mode, every event is appended to the spool before being sent by the replaying thread, so the events
+ * survive a crash of the JVM while they are being sent.
+ * <p>
+ * The failures are detected through the {@link EventSendFailureCallback}s of an {@link AbstractConnection}. With any
+ * other connection, only the events sent in write-ahead mode go through the spool.
+ */
+public class SpoolConnection implements BatchConnection, FlushableConnection {
+    private static final Logger logger = LoggerFactory.getLogger(SpoolConnection.class);
+    /**
+     * Time (in ms) between two attempts to replay the spool, when nothing is appended to it.
+     */
+    private static final long REPLAY_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Timeout (in ms) of the replaying thread when the connection is closed.
+     */
+    private static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+    private static final String CLOSED_MESSAGE = "The spool connection has been closed.";
+    /**
+     * Connection used to actually send the events.
+     */
+    private final Connection actualConnection;
+    private final EventSpool spool;
+    private final boolean writeAhead;
+    private final Object replayLock = new Object();
+    private final Thread replayThread;
+    /**
+     * Whether the last event sent by the actual connection failed, until the spool is replayed entirely.
+     */
+    private volatile boolean failing;
+    /**
+     * Whether the actual connection failed to send the event being replayed.
+     */
+    private volatile boolean replayFailed;
+    private volatile boolean closed;
+
+    /**
+     * Creates a connection keeping in a spool the events which couldn't be sent by the actual connection.
+     * <p>
+     * Will propagate the {@link #close()} operation to the spool and the actual connection.
+     *
+     * @param actualConnection connection used to send the events.
+     * @param spool            spool storing the events until they can be sent.
+     * @param writeAhead       whether every event should be appended to the spool before being sent.
+     */
+    public SpoolConnection(Connection actualConnection, EventSpool spool, boolean writeAhead) {
+        this.actualConnection = actualConnection;
+        this.spool = spool;
+        this.writeAhead = writeAhead;
+        if (actualConnection instanceof AbstractConnection) {
+            ((AbstractConnection) actualConnection).addEventSendFailureCallback(new SpoolingCallback());
+        } else {
+            logger.warn("The failures of {} can't be detected, only the events written ahead will be spooled.",
+                    actualConnection.getClass().getName());
+        }
+        replayThread = new Thread(new SpoolReplayer(), "raven-spool-replay");
+        replayThread.setDaemon(true);
+        replayThread.setPriority(Thread.MIN_PRIORITY);
+        replayThread.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The event is appended to the spool instead of being sent when earlier events are still waiting in the spool.
+     */
+    @Override
+    public void send(Event event) {
+        if (closed) {
+            EventDeliveries.dropped(event, CLOSED_MESSAGE);
+            return;
+        }
+        if (writeAhead || failing || !spool.isEmpty()) {
+            spool(event);
+        } else {
+            actualConnection.send(event);
+        }
+    }
+
+    @Override
+    public void sendBatch(List<Event> events) {
+        if (closed) {
+            for (Event event : events) {
+                EventDeliveries.dropped(event, CLOSED_MESSAGE);
+            }
+            return;
+        }
+        if (writeAhead || failing || !spool.isEmpty()) {
+            for (Event event : events) {
+                spool(event);
+            }
+        } else if (actualConnection instanceof BatchConnection) {
+            ((BatchConnection) actualConnection).sendBatch(events);
+        } else {
+            for (Event event : events) {
+                actualConnection.send(event);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The events in the spool are already safe on disk, they're replayed once Sentry is reachable and aren't waited
+     * for.
+     */
+    @Override
+    public boolean flush(long timeout) {
+        return !(actualConnection instanceof FlushableConnection)
+                || ((FlushableConnection) actualConnection).flush(timeout);
+    }
+
+    /**
+     * Appends an event to the spool and wakes up the replay thread.
+     *
+     * @param event event to append.
+     * @return true if the event has been spooled, false if it has been dropped.
+     */
+    private boolean spool(Event event) {
+        boolean spooled = spool.append(event);
+        if (!spooled) {
+            logger.error("The event {} couldn't be spooled, it is dropped.", event.getId());
+            EventDeliveries.dropped(event, "The event couldn't be spooled.");
+        }
+        synchronized (replayLock) {
+            replayLock.notifyAll();
+        }
+        return spooled;
+    }
+
+    /**
+     * Sends the events of the spool in order through the actual connection, until the spool is empty or an event
+     * fails.
+     */
+    private void replay() {
+        while (!closed) {
+            Event event = spool.peek();
+            if (event == null)
+                break;
+            replayFailed = false;
+            actualConnection.send(event);
+            if (replayFailed)
+                return;
+            spool.remove();
+        }
+        if (!closed)
+            failing = false;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The events left in the spool stay on disk, to be sent by the next connection using the same spool.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        replayThread.interrupt();
+        try {
+            replayThread.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for the spool to stop being replayed.", e);
+        }
+        try {
+            spool.close();
+        } finally {
+            actualConnection.close();
+        }
+    }
+
+    /**
+     * Callback appending to the spool the events which couldn't be sent.
+     */
+    private final class SpoolingCallback implements EventSendFailureCallback {
+        @Override
+        public boolean onFailure(Event event, Exception exception) {
+            if (Thread.currentThread() == replayThread) {
+                // The event is still in the spool
+                replayFailed = true;
+                return true;
+            }
+            failing = true;
+            return spool(event);
+        }
+    }
+
+    /**
+     * Loop replaying the spool each time events are appended to it, or regularly until it's empty.
+     */
+    private final class SpoolReplayer implements Runnable {
+        @Override
+        public void run() {
+            RavenEnvironment.startManagingThread();
+            try {
+                while (!closed) {
+                    try {
+                        replay();
+                    } catch (Exception e) {
+                        logger.error("An exception occurred while replaying the spool.", e);
+                    }
+                    synchronized (replayLock) {
+                        if (!closed)
+                            replayLock.wait(REPLAY_INTERVAL);
+                    }
+                }
+            } catch (InterruptedException e) {
+                logger.debug("The spool stopped being replayed.", e);
+            } finally {
+                RavenEnvironment.stopManagingThread();
+            }
+        }
+    }
+}
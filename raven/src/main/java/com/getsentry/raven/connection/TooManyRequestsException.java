@@ -0,0 +1,31 @@
+package com.getsentry.raven.connection;
+
+/**
+ * Exception thrown when the Sentry server rejected an event because of a rate limit or a quota.
+ * <p>
+ * The server works, no event should be sent until the end of {@link #getRetryAfter()}.
+ */
+public class TooManyRequestsException extends ConnectionException {
+    private final long retryAfter;
+
+    /**
+     * Creates an exception for a submission rejected by the Sentry server.
+     *
+     * @param message    error message.
+     * @param cause      exception which caused the failure.
+     * @param retryAfter time (in ms) to wait before sending events again.
+     */
+    public TooManyRequestsException(String message, Throwable cause, long retryAfter) {
+        super(message, cause);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Gets the time (in ms) to wait before sending events again.
+     *
+     * @return the time (in ms) to wait before sending events again.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,60 @@
+package com.getsentry.raven.connection;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Strategy followed by the threads of a {@link RingBufferAsyncConnection} while there are no events to send.
+ */
+public enum WaitStrategy {
+    /**
+     * Busy spins, for the lowest latency at the cost of a CPU core per thread.
+     */
+    SPIN {
+        @Override
+        void idle(int idleCount) {
+            // Checks the ring buffer again right away
+        }
+    },
+    /**
+     * Yields the CPU to other threads between checks.
+     */
+    YIELD {
+        @Override
+        void idle(int idleCount) {
+            Thread.yield();
+        }
+    },
+    /**
+     * Parks the thread for a time growing with the number of empty checks, up to {@link #MAX_PARK_TIME}.
+     */
+    PARK {
+        @Override
+        void idle(int idleCount) {
+            if (idleCount < SPINS_BEFORE_PARKING) {
+                Thread.yield();
+                return;
+            }
+            int shift = Math.min(idleCount - SPINS_BEFORE_PARKING, MAX_PARK_SHIFT);
+            LockSupport.parkNanos(Math.min(MIN_PARK_TIME << shift, MAX_PARK_TIME));
+        }
+    };
+
+    /**
+     * Number of empty checks during which the thread yields before parking.
+     */
+    private static final int SPINS_BEFORE_PARKING = 100;
+    private static final long MIN_PARK_TIME = TimeUnit.MICROSECONDS.toNanos(10);
+    /**
+     * Maximum time (in ns) a thread is parked, which is the maximum latency of an event sent to an idle connection.
+     */
+    private static final long MAX_PARK_TIME = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int MAX_PARK_SHIFT = 20;
+
+    /**
+     * Waits after the ring buffer has been found empty.
+     *
+     * @param idleCount number of times the ring buffer has been found empty in a row, starting at 0.
+     */
+    abstract void idle(int idleCount);
+}
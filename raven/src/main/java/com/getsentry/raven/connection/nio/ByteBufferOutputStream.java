@@ -0,0 +1,66 @@
+package com.getsentry.raven.connection.nio;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * OutputStream writing into a buffer taken from a {@link ByteBufferPool}, growing it when necessary.
+ */
+final class ByteBufferOutputStream extends OutputStream {
+    private final ByteBufferPool pool;
+    private ByteBuffer buffer;
+
+    /**
+     * Creates a stream writing into a pooled buffer.
+     *
+     * @param pool pool providing the initial buffer.
+     */
+    ByteBufferOutputStream(ByteBufferPool pool) {
+        this.pool = pool;
+        this.buffer = pool.acquire();
+    }
+
+    @Override
+    public void write(int b) {
+        ensureRemaining(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureRemaining(len);
+        buffer.put(b, off, len);
+    }
+
+    private void ensureRemaining(int length) {
+        if (buffer.remaining() >= length)
+            return;
+        ByteBuffer biggerBuffer = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2,
+                buffer.position() + length));
+        buffer.flip();
+        biggerBuffer.put(buffer);
+        pool.release(buffer);
+        buffer = biggerBuffer;
+    }
+
+    /**
+     * Gets the content written so far, ready to be read.
+     * <p>
+     * The stream must not be used afterwards, and the buffer should be given back to the pool once consumed.
+     *
+     * @return the buffer containing the content written in the stream.
+     */
+    ByteBuffer toBuffer() {
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Gives the buffer back to the pool, for content which won't be sent.
+     * <p>
+     * The stream and the buffer returned by {@link #toBuffer()} must not be used afterwards.
+     */
+    void release() {
+        pool.release(buffer);
+    }
+}
@@ -0,0 +1,59 @@
+package com.getsentry.raven.connection.nio;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of direct {@link ByteBuffer}s of a fixed size.
+ * <p>
+ * Direct buffers can be written to a channel without being copied first, but are expensive to allocate, hence the
+ * reuse. Buffers of another capacity are not pooled.
+ */
+final class ByteBufferPool {
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+    private final int bufferSize;
+    private final int maxPooledBuffers;
+
+    /**
+     * Creates a pool of buffers.
+     *
+     * @param bufferSize       capacity of the pooled buffers.
+     * @param maxPooledBuffers maximum number of buffers kept in the pool.
+     */
+    ByteBufferPool(int bufferSize, int maxPooledBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, or allocates a new one if the pool is empty.
+     *
+     * @return a buffer of {@link #bufferSize} bytes.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null)
+            return ByteBuffer.allocateDirect(bufferSize);
+        pooledBuffers.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool.
+     *
+     * @param buffer buffer which isn't used anymore.
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize)
+            return;
+        if (pooledBuffers.incrementAndGet() > maxPooledBuffers) {
+            pooledBuffers.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+}
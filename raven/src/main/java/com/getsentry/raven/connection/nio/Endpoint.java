@@ -0,0 +1,86 @@
+package com.getsentry.raven.connection.nio;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+
+/**
+ * Sentry server to which the channels are opened.
+ */
+final class Endpoint {
+    private final String host;
+    private final int port;
+    /**
+     * Context used to secure the channels, {@code null} for plain HTTP.
+     */
+    private final SSLContext sslContext;
+    /**
+     * Whether the hostname of the server is checked against its certificate.
+     */
+    private final boolean verifyHostname;
+
+    /**
+     * Creates an endpoint.
+     *
+     * @param host           hostname of the server.
+     * @param port           port of the server.
+     * @param sslContext     context used to secure the channels, {@code null} for plain HTTP.
+     * @param verifyHostname whether the hostname of the server is checked against its certificate.
+     */
+    Endpoint(String host, int port, SSLContext sslContext, boolean verifyHostname) {
+        this.host = host;
+        this.port = port;
+        this.sslContext = sslContext;
+        this.verifyHostname = verifyHostname;
+    }
+
+    /**
+     * Opens a non-blocking channel and starts connecting it to the server.
+     * <p>
+     * The hostname is resolved on every call, so DNS changes are taken into account by the new channels.
+     *
+     * @return a channel, possibly still connecting.
+     * @throws IOException if the channel couldn't be opened.
+     */
+    SocketChannel openChannel() throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.connect(new InetSocketAddress(host, port));
+            return channel;
+        } catch (UnresolvedAddressException e) {
+            channel.close();
+            throw new UnknownHostException(host);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the transport layer of a channel opened by {@link #openChannel()}.
+     *
+     * @param channel channel to the server.
+     * @return the transport layer of the channel.
+     */
+    TransportLayer createTransportLayer(SocketChannel channel) {
+        if (sslContext == null)
+            return new PlainTransportLayer(channel);
+
+        SSLEngine engine = sslContext.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        if (verifyHostname) {
+            SSLParameters parameters = engine.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(parameters);
+        }
+        return new TlsTransportLayer(channel, engine);
+    }
+}
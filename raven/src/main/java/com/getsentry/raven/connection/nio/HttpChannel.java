@@ -0,0 +1,203 @@
+package com.getsentry.raven.connection.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Kept-alive channel to Sentry, going through the HTTP exchanges one after the other.
+ * <p>
+ * Only used by the thread of its {@link SelectorLoop}.
+ */
+final class HttpChannel {
+    private static final Logger logger = LoggerFactory.getLogger(HttpChannel.class);
+    private static final int READ_BUFFER_SIZE = 4 * 1024;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final TransportLayer transport;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private State state = State.CONNECTING;
+    private Submission submission;
+    private ByteBuffer[] sources;
+    private ResponseParser parser;
+    /**
+     * Whether the channel has already been used for a previous exchange.
+     */
+    private boolean reused;
+    /**
+     * Time (in ms, see {@link SelectorLoop}) after which the channel has been inactive for too long.
+     */
+    private long deadline;
+
+    private HttpChannel(SocketChannel channel, Selector selector, TransportLayer transport) throws IOException {
+        this.channel = channel;
+        this.transport = transport;
+        this.key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+    }
+
+    /**
+     * Opens a channel to the endpoint, for a first submission.
+     *
+     * @param endpoint   Sentry server.
+     * @param selector   selector with which the channel is registered.
+     * @param submission first submission sent on the channel, once connected.
+     * @return a new channel.
+     * @throws IOException if the channel couldn't be opened.
+     */
+    static HttpChannel open(Endpoint endpoint, Selector selector, Submission submission) throws IOException {
+        SocketChannel socketChannel = endpoint.openChannel();
+        HttpChannel httpChannel;
+        try {
+            httpChannel = new HttpChannel(socketChannel, selector, endpoint.createTransportLayer(socketChannel));
+        } catch (IOException e) {
+            socketChannel.close();
+            throw e;
+        }
+        httpChannel.assign(submission);
+        return httpChannel;
+    }
+
+    /**
+     * Starts sending a submission on an idle channel.
+     *
+     * @param newSubmission submission to send.
+     */
+    void start(Submission newSubmission) {
+        assign(newSubmission);
+        state = State.WRITING;
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void assign(Submission newSubmission) {
+        submission = newSubmission;
+        sources = newSubmission.startAttempt();
+        parser = new ResponseParser();
+    }
+
+    /**
+     * Goes on with the current exchange, as far as possible without blocking.
+     *
+     * @return the response once it has been entirely received, {@code null} otherwise.
+     * @throws IOException if the exchange failed, the channel must then be closed.
+     */
+    ResponseParser process() throws IOException {
+        switch (state) {
+            case CONNECTING:
+                if (!channel.finishConnect())
+                    return null;
+                state = State.HANDSHAKING;
+                return process();
+            case HANDSHAKING:
+                int interestOps = transport.handshake();
+                if (interestOps != 0) {
+                    key.interestOps(interestOps);
+                    return null;
+                }
+                state = State.WRITING;
+                return process();
+            case WRITING:
+                if (!transport.write(sources)) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return null;
+                }
+                state = State.READING;
+                key.interestOps(SelectionKey.OP_READ);
+                return null;
+            case READING:
+                return readResponse();
+            case IDLE:
+                // An idle channel is only readable when the server closes it
+                throw new EOFException("The connection has been closed by the server.");
+            default:
+                throw new IllegalStateException("Unexpected channel state " + state);
+        }
+    }
+
+    private ResponseParser readResponse() throws IOException {
+        while (true) {
+            readBuffer.clear();
+            int read = transport.read(readBuffer);
+            if (read < 0) {
+                if (parser.endOfStream())
+                    return parser;
+                throw new EOFException("The connection has been closed before receiving the whole response.");
+            } else if (read == 0) {
+                return null;
+            }
+            readBuffer.flip();
+            if (parser.feed(readBuffer))
+                return parser;
+        }
+    }
+
+    /**
+     * Ends the current exchange once its response has been received, the channel becomes idle.
+     *
+     * @return the submission which has been sent.
+     */
+    Submission finish() {
+        Submission finishedSubmission = submission;
+        submission = null;
+        sources = null;
+        parser = null;
+        reused = true;
+        state = State.IDLE;
+        key.interestOps(SelectionKey.OP_READ);
+        return finishedSubmission;
+    }
+
+    /**
+     * Checks whether a failure of the current exchange may be due to the server closing the kept-alive channel
+     * while the submission was sent, in which case the submission can safely be sent again on a new channel.
+     *
+     * @return true if the channel was reused and no response has been received.
+     */
+    boolean isStale() {
+        return reused && parser != null && !parser.hasStarted();
+    }
+
+    boolean isIdle() {
+        return state == State.IDLE;
+    }
+
+    Submission getSubmission() {
+        return submission;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Closes the channel, errors are ignored as the channel won't be used anymore.
+     */
+    void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Couldn't close the channel to the sentry server.", e);
+        }
+    }
+
+    /**
+     * Steps in the life of the channel.
+     */
+    private enum State {
+        CONNECTING,
+        HANDSHAKING,
+        WRITING,
+        READING,
+        IDLE
+    }
+}
@@ -0,0 +1,414 @@
+package com.getsentry.raven.connection.nio;
+
+import com.getsentry.raven.connection.AbstractConnection;
+import com.getsentry.raven.connection.ConnectionException;
+import com.getsentry.raven.environment.RavenEnvironment;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.marshaller.BatchMarshaller;
+import com.getsentry.raven.marshaller.Marshaller;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection to a Sentry server over HTTP and HTTPS, using non-blocking sockets.
+ * <p>
+ * Unlike with {@link com.getsentry.raven.connection.HttpConnection}, the thread sending an event doesn't wait for the
+ * response of Sentry: the event is marshalled in a pooled direct buffer, written as is on the socket, and the exchange
+ * is carried on by one of the selector threads. Each selector thread multiplexes its submissions over kept-alive
+ * sockets, up to {@link #setMaxConnections(int)} sockets opened at the same time for the whole connection.
+ * <p>
+ * As submissions complete after {@link #send(Event)} returned, their outcome is recorded once the response of Sentry
+ * has been read: a failed submission opens the circuit (or stops the events for the time requested by Sentry) and
+ * its events are reported to the {@link com.getsentry.raven.connection.EventSendFailureCallback}s, as are the events
+ * refused because too many submissions are waiting for a socket (see {@link #setMaxPendingSubmissions(int)}). The
+ * events are only kept until then if there are failure callbacks, otherwise their identifiers are enough to report
+ * their outcome to {@link com.getsentry.raven.connection.EventDeliveries}.
+ * <p>
+ * HTTP proxies are not supported.
+ */
+public class NioHttpConnection extends AbstractConnection {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int HTTP_PORT = 80;
+    private static final int HTTPS_PORT = 443;
+    /**
+     * Default maximum time (in ms) without progress on a socket in use.
+     */
+    private static final int DEFAULT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Default maximum time (in ms) a socket is kept open without being used.
+     */
+    private static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+    private static final int DEFAULT_MAX_PENDING_SUBMISSIONS = 100;
+    private static final int DEFAULT_MAX_BATCH_BYTES = 512 * 1024;
+    /**
+     * Size of the pooled buffers in which events are marshalled, bigger events get a buffer of their own.
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+    /**
+     * Maximum time (in ms) given to the pending submissions when the connection is closed.
+     */
+    private static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
+    private static final AtomicInteger LOOP_COUNTER = new AtomicInteger();
+    /**
+     * URL of the Sentry endpoint.
+     */
+    private final URL sentryUrl;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    /**
+     * Marshaller used to transform the {@link Event} into the body of the requests.
+     */
+    private Marshaller marshaller;
+    private int timeout = DEFAULT_TIMEOUT;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int maxPendingSubmissions = DEFAULT_MAX_PENDING_SUBMISSIONS;
+    private int selectorThreads = 1;
+    private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    /**
+     * Setting allowing to bypass the verification of the hostname against the certificate of the server.
+     */
+    private boolean bypassSecurity = false;
+    /**
+     * Context used for HTTPS, the default context if {@code null}.
+     */
+    private SSLContext sslContext;
+    /**
+     * Selector loops sending the submissions, started on the first submission.
+     */
+    private volatile SelectorLoop[] loops;
+    private ByteBufferPool bufferPool;
+    /**
+     * Beginning of the head of every request, up to the value of the Content-Length header.
+     */
+    private String requestHeadPrefix;
+    private boolean closed;
+
+    /**
+     * Creates a non-blocking HTTP connection to a Sentry server.
+     *
+     * @param sentryUrl URL to the Sentry API, see
+     *                  {@link com.getsentry.raven.connection.HttpConnection#getSentryApiUrl(java.net.URI, String)}.
+     * @param publicKey public key of the current project.
+     * @param secretKey private key of the current project.
+     */
+    public NioHttpConnection(URL sentryUrl, String publicKey, String secretKey) {
+        super(publicKey, secretKey);
+        this.sentryUrl = sentryUrl;
+    }
+
+    @Override
+    protected void doSend(Event event) throws ConnectionException {
+        SelectorLoop[] selectorLoops = getLoops();
+        ByteBufferOutputStream payload = new ByteBufferOutputStream(bufferPool);
+        boolean submitted = false;
+        try {
+            marshaller.marshall(event, payload);
+            submit(selectorLoops, payload.toBuffer(), Collections.singletonList(event));
+            submitted = true;
+        } finally {
+            if (!submitted)
+                payload.release();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Each event is serialised once, then the batch is split in several requests so the serialised events of a request
+     * don't go over {@link #maxBatchBytes}. When a request is refused, the following ones are still submitted and the
+     * first failure is thrown at the end.
+     */
+    @Override
+    protected void doSendBatch(List<Event> events) throws ConnectionException {
+        if (events.size() == 1 || !(marshaller instanceof BatchMarshaller)) {
+            super.doSendBatch(events);
+            return;
+        }
+
+        SelectorLoop[] selectorLoops = getLoops();
+        BatchMarshaller batchMarshaller = (BatchMarshaller) marshaller;
+        List<List<byte[]>> requests = new ArrayList<>();
+        List<List<Event>> requestEvents = new ArrayList<>();
+        List<byte[]> currentRequest = new ArrayList<>();
+        List<Event> currentEvents = new ArrayList<>();
+        long currentRequestBytes = 0;
+        for (Event event : events) {
+            byte[] serialisedEvent = batchMarshaller.serialise(event);
+            if (!currentRequest.isEmpty() && currentRequestBytes + serialisedEvent.length > maxBatchBytes) {
+                requests.add(currentRequest);
+                requestEvents.add(currentEvents);
+                currentRequest = new ArrayList<>();
+                currentEvents = new ArrayList<>();
+                currentRequestBytes = 0;
+            }
+            currentRequest.add(serialisedEvent);
+            currentEvents.add(event);
+            currentRequestBytes += serialisedEvent.length;
+        }
+        requests.add(currentRequest);
+        requestEvents.add(currentEvents);
+
+        ConnectionException firstFailure = null;
+        for (int i = 0; i < requests.size(); i++) {
+            ByteBufferOutputStream payload = new ByteBufferOutputStream(bufferPool);
+            boolean submitted = false;
+            try {
+                batchMarshaller.marshallSerialised(requests.get(i), payload);
+                submit(selectorLoops, payload.toBuffer(), requestEvents.get(i));
+                submitted = true;
+            } catch (ConnectionException e) {
+                for (Event event : requestEvents.get(i)) {
+                    reportFailure(event, e);
+                }
+                if (firstFailure == null)
+                    firstFailure = e;
+            } finally {
+                if (!submitted)
+                    payload.release();
+            }
+        }
+        if (firstFailure != null)
+            throw firstFailure;
+    }
+
+    /**
+     * Hands a request over to a selector loop, its outcome being recorded once Sentry answered.
+     * <p>
+     * The payload belongs to the submission once this method returned, it must be given back to the pool by the
+     * caller otherwise.
+     *
+     * @param selectorLoops selector loops of the connection.
+     * @param payload       marshalled events.
+     * @param events        events sent by the request.
+     * @throws ConnectionException if the loop refused the request.
+     */
+    private void submit(SelectorLoop[] selectorLoops, ByteBuffer payload, List<Event> events) {
+        ByteBuffer head = ByteBuffer.wrap((requestHeadPrefix + payload.remaining() + "\r\n\r\n").getBytes(ISO_8859_1));
+        UUID[] eventIds = new UUID[events.size()];
+        for (int i = 0; i < eventIds.length; i++) {
+            eventIds[i] = events.get(i).getId();
+        }
+        Submission submission = new Submission(this, head, payload, bufferPool, eventIds,
+                hasEventSendFailureCallbacks() ? events : null, deferOutcome());
+        int loopIndex = (nextLoop.getAndIncrement() & Integer.MAX_VALUE) % selectorLoops.length;
+        if (!selectorLoops[loopIndex].submit(submission))
+            throw new ConnectionException("Too many events waiting to be submitted to the sentry server.");
+    }
+
+    /**
+     * Records the success of a submission and reports its events as delivered.
+     *
+     * @param submission submission accepted by Sentry.
+     */
+    void onDelivered(Submission submission) {
+        submission.getOutcome().recordSuccess();
+        for (UUID eventId : submission.getEventIds()) {
+            reportDelivery(eventId);
+        }
+    }
+
+    /**
+     * Records the failure of a submission and reports its events as failed.
+     *
+     * @param submission submission which couldn't be sent.
+     * @param exception  why the submission failed.
+     */
+    void onFailed(Submission submission, ConnectionException exception) {
+        submission.getOutcome().recordFailure(exception);
+        if (submission.getEvents() != null) {
+            for (Event event : submission.getEvents()) {
+                reportFailure(event, exception);
+            }
+        } else {
+            for (UUID eventId : submission.getEventIds()) {
+                reportFailure(eventId, exception);
+            }
+        }
+    }
+
+    /**
+     * Gets the selector loops, starting them on the first call.
+     *
+     * @return the selector loops.
+     */
+    private SelectorLoop[] getLoops() {
+        SelectorLoop[] selectorLoops = loops;
+        if (selectorLoops != null)
+            return selectorLoops;
+        synchronized (this) {
+            if (closed)
+                throw new ConnectionException("The connection to the sentry server has been closed.");
+            if (loops == null)
+                loops = startLoops();
+            return loops;
+        }
+    }
+
+    private SelectorLoop[] startLoops() {
+        boolean secure = "https".equalsIgnoreCase(sentryUrl.getProtocol());
+        int port = sentryUrl.getPort() != -1 ? sentryUrl.getPort() : secure ? HTTPS_PORT : HTTP_PORT;
+        Endpoint endpoint = new Endpoint(sentryUrl.getHost(), port, secure ? getSslContext() : null, !bypassSecurity);
+
+        String hostHeader = sentryUrl.getHost() + (sentryUrl.getPort() != -1 ? ":" + sentryUrl.getPort() : "");
+        String contentEncoding = marshaller.getContentEncoding();
+        requestHeadPrefix = "POST " + sentryUrl.getFile() + " HTTP/1.1\r\n"
+                + "Host: " + hostHeader + "\r\n"
+                + "User-Agent: " + RavenEnvironment.NAME + "\r\n"
+                + "X-Sentry-Auth: " + getAuthHeader() + "\r\n"
+                + (contentEncoding != null ? "Content-Encoding: " + contentEncoding + "\r\n" : "")
+                + "Content-Length: ";
+        bufferPool = new ByteBufferPool(BUFFER_SIZE, maxConnections + selectorThreads);
+
+        SelectorLoop[] selectorLoops = new SelectorLoop[selectorThreads];
+        int channelsPerLoop = Math.max(1, maxConnections / selectorThreads);
+        try {
+            for (int i = 0; i < selectorLoops.length; i++) {
+                selectorLoops[i] = new SelectorLoop(endpoint, channelsPerLoop, maxPendingSubmissions, timeout,
+                        idleTimeout);
+                selectorLoops[i].start("raven-nio-" + LOOP_COUNTER.incrementAndGet());
+            }
+        } catch (IOException e) {
+            for (SelectorLoop selectorLoop : selectorLoops) {
+                if (selectorLoop != null)
+                    selectorLoop.shutdown(0);
+            }
+            throw new IllegalStateException("Couldn't set up the selectors for the sentry server.", e);
+        }
+        return selectorLoops;
+    }
+
+    private SSLContext getSslContext() {
+        if (sslContext != null)
+            return sslContext;
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Couldn't get the default SSL context.", e);
+        }
+    }
+
+    public void setMarshaller(Marshaller marshaller) {
+        this.marshaller = marshaller;
+    }
+
+    /**
+     * Sets the maximum time (in ms) without progress on a socket in use, before its submission fails.
+     *
+     * @param timeout timeout of the connection, the handshakes and the response.
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets the maximum time (in ms) a socket is kept open without being used.
+     *
+     * @param idleTimeout timeout of an idle socket.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Sets the maximum number of sockets opened at the same time, shared between the selector threads.
+     *
+     * @param maxConnections maximum number of sockets, at least one per selector thread.
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Sets the maximum number of submissions waiting for a socket or in progress, per selector thread.
+     *
+     * @param maxPendingSubmissions maximum number of submissions before the circuit is opened.
+     */
+    public void setMaxPendingSubmissions(int maxPendingSubmissions) {
+        this.maxPendingSubmissions = maxPendingSubmissions;
+    }
+
+    public void setSelectorThreads(int selectorThreads) {
+        this.selectorThreads = selectorThreads;
+    }
+
+    /**
+     * Sets the maximum size (in bytes) of the serialised events sent in a single request, before compression.
+     *
+     * @param maxBatchBytes maximum size of the serialised events of a request.
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        if (maxBatchBytes <= 0)
+            throw new IllegalArgumentException("The maximum size of a batch must be positive, got " + maxBatchBytes);
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public void setBypassSecurity(boolean bypassSecurity) {
+        this.bypassSecurity = bypassSecurity;
+    }
+
+    public void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Waits for the submissions handed over to the selector loops to complete.
+     */
+    @Override
+    public boolean flush(long flushTimeout) {
+        SelectorLoop[] selectorLoops = loops;
+        if (selectorLoops == null)
+            return true;
+        long deadline = System.currentTimeMillis() + flushTimeout;
+        try {
+            for (SelectorLoop selectorLoop : selectorLoops) {
+                if (!selectorLoop.awaitPendingSubmissions(Math.max(0, deadline - System.currentTimeMillis())))
+                    return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The pending submissions are given up to one second to complete.
+     */
+    @Override
+    public void close() throws IOException {
+        SelectorLoop[] selectorLoops;
+        synchronized (this) {
+            closed = true;
+            selectorLoops = loops;
+        }
+        if (selectorLoops == null)
+            return;
+
+        for (SelectorLoop selectorLoop : selectorLoops) {
+            selectorLoop.shutdown(SHUTDOWN_TIMEOUT);
+        }
+        try {
+            for (SelectorLoop selectorLoop : selectorLoops) {
+                selectorLoop.awaitTermination(SHUTDOWN_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
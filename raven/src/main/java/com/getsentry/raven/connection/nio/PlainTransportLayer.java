@@ -0,0 +1,51 @@
+package com.getsentry.raven.connection.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Transport layer for plain HTTP, reading and writing directly on the channel.
+ */
+final class PlainTransportLayer implements TransportLayer {
+    private final SocketChannel channel;
+
+    /**
+     * Creates a plain transport on a channel.
+     *
+     * @param channel channel used to send and receive data.
+     */
+    PlainTransportLayer(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public int handshake() {
+        return 0;
+    }
+
+    @Override
+    public boolean write(ByteBuffer[] sources) throws IOException {
+        channel.write(sources);
+        return !hasRemaining(sources);
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+        return channel.read(destination);
+    }
+
+    /**
+     * Checks whether some of the buffers still have data to be consumed.
+     *
+     * @param buffers buffers to check.
+     * @return true if at least one buffer has remaining data.
+     */
+    static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining())
+                return true;
+        }
+        return false;
+    }
+}
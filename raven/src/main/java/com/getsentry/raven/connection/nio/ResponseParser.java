@@ -0,0 +1,276 @@
+package com.getsentry.raven.connection.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Incremental parser of the HTTP/1.1 responses sent by Sentry.
+ * <p>
+ * Supports bodies delimited by {@code Content-Length}, chunked bodies and bodies delimited by the end of the
+ * connection. Only the beginning of the body is kept, to report the error messages sent by Sentry.
+ */
+final class ResponseParser {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * Maximum size of the status line and headers of a response.
+     */
+    private static final int MAX_HEAD_SIZE = 16 * 1024;
+    /**
+     * Maximum number of bytes of the body kept to report error messages.
+     */
+    private static final int MAX_KEPT_BODY_SIZE = 1024;
+    private static final int HEX_RADIX = 16;
+    /**
+     * Parts of the status line: version, status code and reason phrase.
+     */
+    private static final int STATUS_LINE_PARTS = 3;
+    private static final int NO_CONTENT = 204;
+    private static final int NOT_MODIFIED = 304;
+    private static final int MIN_FINAL_STATUS = 200;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private final StringBuilder head = new StringBuilder();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private State state = State.HEAD;
+    private int statusCode;
+    private boolean keepAlive;
+    private long remainingBodyLength;
+    private String retryAfter;
+    private String sentryRateLimits;
+
+    /**
+     * Consumes the data received for the response.
+     *
+     * @param data data received, from its position to its limit.
+     * @return true once the response is complete, in which case the data left belongs to the next response.
+     * @throws IOException if the response isn't valid.
+     */
+    boolean feed(ByteBuffer data) throws IOException {
+        while (state != State.COMPLETE && data.hasRemaining()) {
+            switch (state) {
+                case HEAD:
+                case CHUNK_SIZE:
+                case CHUNK_END:
+                case TRAILERS:
+                    String currentLine = readLine(data);
+                    if (currentLine != null)
+                        onLine(currentLine);
+                    break;
+                case FIXED_LENGTH_BODY:
+                case CHUNK_DATA:
+                    int length = (int) Math.min(remainingBodyLength, data.remaining());
+                    keepBody(data, length);
+                    remainingBodyLength -= length;
+                    if (remainingBodyLength == 0)
+                        state = state == State.CHUNK_DATA ? State.CHUNK_END : State.COMPLETE;
+                    break;
+                case BODY_UNTIL_CLOSE:
+                    keepBody(data, data.remaining());
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected parser state " + state);
+            }
+        }
+        return state == State.COMPLETE;
+    }
+
+    /**
+     * Notifies the parser that the server closed the connection.
+     *
+     * @return true if the response was delimited by the end of the connection and is now complete.
+     */
+    boolean endOfStream() {
+        if (state == State.BODY_UNTIL_CLOSE)
+            state = State.COMPLETE;
+        return state == State.COMPLETE;
+    }
+
+    /**
+     * Checks whether some data of the response has already been received.
+     *
+     * @return true if the response has started.
+     */
+    boolean hasStarted() {
+        return state != State.HEAD || line.size() > 0 || head.length() > 0;
+    }
+
+    private String readLine(ByteBuffer data) throws ProtocolException {
+        while (data.hasRemaining()) {
+            byte b = data.get();
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                line.reset();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, ISO_8859_1);
+            }
+            if (line.size() + head.length() >= MAX_HEAD_SIZE)
+                throw new ProtocolException("Response line or headers too long.");
+            line.write(b);
+        }
+        return null;
+    }
+
+    private void onLine(String currentLine) throws ProtocolException {
+        switch (state) {
+            case HEAD:
+                if (!currentLine.isEmpty())
+                    head.append(currentLine).append('\n');
+                else if (head.length() > 0)
+                    onHeadComplete();
+                break;
+            case CHUNK_SIZE:
+                remainingBodyLength = parseChunkSize(currentLine);
+                state = remainingBodyLength == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                break;
+            case CHUNK_END:
+                state = State.CHUNK_SIZE;
+                break;
+            case TRAILERS:
+                if (currentLine.isEmpty())
+                    state = State.COMPLETE;
+                break;
+            default:
+                throw new IllegalStateException("Unexpected parser state " + state);
+        }
+    }
+
+    private void onHeadComplete() throws ProtocolException {
+        String[] lines = head.toString().split("\n");
+        String[] statusLine = lines[0].split(" ", STATUS_LINE_PARTS);
+        if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/"))
+            throw new ProtocolException("Invalid status line '" + lines[0] + "'.");
+        try {
+            statusCode = Integer.parseInt(statusLine[1]);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid status line '" + lines[0] + "'.");
+        }
+
+        keepAlive = !"HTTP/1.0".equals(statusLine[0]);
+        retryAfter = null;
+        sentryRateLimits = null;
+        long contentLength = -1;
+        boolean chunked = false;
+        for (int i = 1; i < lines.length; i++) {
+            int separator = lines[i].indexOf(':');
+            if (separator <= 0)
+                continue;
+            String name = lines[i].substring(0, separator).trim().toLowerCase(Locale.ROOT);
+            String rawValue = lines[i].substring(separator + 1).trim();
+            String value = rawValue.toLowerCase(Locale.ROOT);
+            if ("content-length".equals(name)) {
+                contentLength = parseContentLength(value);
+            } else if ("transfer-encoding".equals(name)) {
+                chunked = value.endsWith("chunked");
+            } else if ("retry-after".equals(name)) {
+                retryAfter = rawValue;
+            } else if ("x-sentry-rate-limits".equals(name)) {
+                sentryRateLimits = rawValue;
+            } else if ("connection".equals(name)) {
+                if (value.contains("close"))
+                    keepAlive = false;
+                else if (value.contains("keep-alive"))
+                    keepAlive = true;
+            }
+        }
+        head.setLength(0);
+
+        if (statusCode < MIN_FINAL_STATUS) {
+            // Informational response, the actual response comes next
+            return;
+        } else if (statusCode == NO_CONTENT || statusCode == NOT_MODIFIED || contentLength == 0) {
+            state = State.COMPLETE;
+        } else if (chunked) {
+            state = State.CHUNK_SIZE;
+        } else if (contentLength > 0) {
+            remainingBodyLength = contentLength;
+            state = State.FIXED_LENGTH_BODY;
+        } else {
+            keepAlive = false;
+            state = State.BODY_UNTIL_CLOSE;
+        }
+    }
+
+    private static long parseContentLength(String value) throws ProtocolException {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid Content-Length '" + value + "'.");
+        }
+    }
+
+    private static long parseChunkSize(String chunkLine) throws ProtocolException {
+        int extension = chunkLine.indexOf(';');
+        String size = (extension >= 0 ? chunkLine.substring(0, extension) : chunkLine).trim();
+        try {
+            return Long.parseLong(size, HEX_RADIX);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid chunk size '" + size + "'.");
+        }
+    }
+
+    private void keepBody(ByteBuffer data, int length) {
+        int kept = Math.min(length, MAX_KEPT_BODY_SIZE - body.size());
+        for (int i = 0; i < kept; i++) {
+            body.write(data.get());
+        }
+        data.position(data.position() + length - kept);
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Checks whether the connection can be reused once the response is complete.
+     *
+     * @return true if the server didn't ask to close the connection.
+     */
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Gets the {@code Retry-After} header of the response.
+     *
+     * @return the value of the header, {@code null} if there is none.
+     */
+    String getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Gets the {@code X-Sentry-Rate-Limits} header of the response.
+     *
+     * @return the value of the header, {@code null} if there is none.
+     */
+    String getSentryRateLimits() {
+        return sentryRateLimits;
+    }
+
+    /**
+     * Gets the beginning of the body of the response.
+     *
+     * @return up to {@link #MAX_KEPT_BODY_SIZE} bytes of the body, decoded as UTF-8.
+     */
+    String getBody() {
+        return new String(body.toByteArray(), UTF_8);
+    }
+
+    /**
+     * Parts of the response, in the order they're received.
+     */
+    private enum State {
+        HEAD,
+        FIXED_LENGTH_BODY,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_END,
+        TRAILERS,
+        BODY_UNTIL_CLOSE,
+        COMPLETE
+    }
+}
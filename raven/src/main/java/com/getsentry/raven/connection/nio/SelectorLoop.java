@@ -0,0 +1,383 @@
+package com.getsentry.raven.connection.nio;
+
+import com.getsentry.raven.connection.ConnectionException;
+import com.getsentry.raven.connection.RateLimiter;
+import com.getsentry.raven.connection.TooManyRequestsException;
+import com.getsentry.raven.environment.RavenEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread multiplexing the submissions to Sentry over a bounded number of kept-alive {@link HttpChannel}s.
+ * <p>
+ * Submissions are handed over by any thread with {@link #submit(Submission)}, then wait for a channel to be available.
+ * Idle channels are reused in LIFO order, so the channels which aren't needed anymore reach their idle timeout and
+ * are closed.
+ * <p>
+ * Every submission handed over ends up reported to its connection, as delivered or failed, including the
+ * submissions still pending when the loop stops.
+ */
+final class SelectorLoop implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(SelectorLoop.class);
+    /**
+     * Maximum number of attempts for a submission failing because the server closed a kept-alive channel.
+     */
+    private static final int MAX_ATTEMPTS = 2;
+    private static final int MIN_SUCCESS_STATUS = 200;
+    private static final int MAX_SUCCESS_STATUS = 299;
+    private static final String REJECTED_MESSAGE = "Rejected by the sentry server with the HTTP status ";
+    private static final String ABANDONED_MESSAGE = "The connection has been closed before the event was submitted.";
+    private static final String FAILURE_MESSAGE =
+            "An exception occurred while submitting the event to the sentry server.";
+    private final Endpoint endpoint;
+    private final Selector selector;
+    /**
+     * Submissions handed over by other threads and not yet taken by the loop.
+     */
+    private final Queue<Submission> submissions = new ConcurrentLinkedQueue<>();
+    /**
+     * Number of submissions handed over and not completed yet, also used as the monitor notified when it reaches 0.
+     */
+    private final AtomicInteger pendingSubmissions = new AtomicInteger();
+    private final Deque<Submission> waitingSubmissions = new ArrayDeque<>();
+    private final Deque<HttpChannel> idleChannels = new ArrayDeque<>();
+    private final Set<HttpChannel> channels = new HashSet<>();
+    private final int maxChannels;
+    private final int maxPendingSubmissions;
+    /**
+     * Maximum time (in ms) without progress for a channel in use.
+     */
+    private final long timeout;
+    /**
+     * Maximum time (in ms) a channel is kept open without being used.
+     */
+    private final long idleTimeout;
+    private Thread thread;
+    private volatile boolean closing;
+    /**
+     * Whether the loop stopped taking the submissions handed over, set before the last ones are drained.
+     */
+    private volatile boolean terminated;
+    /**
+     * Time (in ms) after which the submissions still pending are abandoned once closing.
+     */
+    private volatile long closeDeadline;
+
+    /**
+     * Creates a loop, which must then be started with {@link #start(String)}.
+     *
+     * @param endpoint              Sentry server to which the channels are opened.
+     * @param maxChannels           maximum number of channels opened at the same time.
+     * @param maxPendingSubmissions maximum number of submissions handed over and not completed yet.
+     * @param timeout               maximum time (in ms) without progress for a channel in use.
+     * @param idleTimeout           maximum time (in ms) a channel is kept open without being used.
+     * @throws IOException if the selector couldn't be opened.
+     */
+    SelectorLoop(Endpoint endpoint, int maxChannels, int maxPendingSubmissions, long timeout, long idleTimeout)
+            throws IOException {
+        this.endpoint = endpoint;
+        this.maxChannels = maxChannels;
+        this.maxPendingSubmissions = maxPendingSubmissions;
+        this.timeout = timeout;
+        this.idleTimeout = idleTimeout;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Starts the daemon thread running the loop.
+     *
+     * @param threadName name of the thread.
+     */
+    void start(String threadName) {
+        thread = new Thread(this, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Hands a submission over to the loop.
+     *
+     * @param submission submission to send.
+     * @return false if the submission has been refused, either because the loop is closing or because there are
+     * already too many pending submissions.
+     */
+    boolean submit(Submission submission) {
+        if (closing)
+            return false;
+        if (pendingSubmissions.incrementAndGet() > maxPendingSubmissions) {
+            endSubmission();
+            return false;
+        }
+        submissions.offer(submission);
+        // The loop may have drained the submissions for the last time since closing was checked
+        if (terminated && submissions.remove(submission)) {
+            endSubmission();
+            return false;
+        }
+        selector.wakeup();
+        return true;
+    }
+
+    /**
+     * Waits until every submission handed over has been completed.
+     *
+     * @param timeoutMillis maximum time (in ms) to wait.
+     * @return true if there is no submission pending, false if the wait timed out.
+     * @throws InterruptedException if the current thread has been interrupted while waiting.
+     */
+    boolean awaitPendingSubmissions(long timeoutMillis) throws InterruptedException {
+        long deadline = currentTime() + timeoutMillis;
+        synchronized (pendingSubmissions) {
+            while (pendingSubmissions.get() > 0) {
+                long remainingTime = deadline - currentTime();
+                if (remainingTime <= 0)
+                    return false;
+                pendingSubmissions.wait(remainingTime);
+            }
+            return true;
+        }
+    }
+
+    private void endSubmission() {
+        if (pendingSubmissions.decrementAndGet() == 0) {
+            synchronized (pendingSubmissions) {
+                pendingSubmissions.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        RavenEnvironment.startManagingThread();
+        try {
+            long now = currentTime();
+            while (!closing || (pendingSubmissions.get() > 0 && now < closeDeadline)) {
+                selector.select(selectTimeout(now));
+                now = currentTime();
+                processSelectedKeys(now);
+                takeSubmissions();
+                dispatchSubmissions(now);
+                expireChannels(now);
+            }
+        } catch (Exception e) {
+            logger.error("The selector loop sending events to Sentry stopped unexpectedly.", e);
+        } finally {
+            abandon();
+            RavenEnvironment.stopManagingThread();
+        }
+    }
+
+    /**
+     * Computes how long the loop can wait for the channels to be ready.
+     *
+     * @param now current time.
+     * @return time (in ms) until the next deadline, or 0 to wait until a channel is ready.
+     */
+    private long selectTimeout(long now) {
+        long nextDeadline = closing ? closeDeadline : Long.MAX_VALUE;
+        for (HttpChannel channel : channels) {
+            nextDeadline = Math.min(nextDeadline, channel.getDeadline());
+        }
+        if (nextDeadline == Long.MAX_VALUE)
+            return 0;
+        return Math.max(1, nextDeadline - now);
+    }
+
+    private void processSelectedKeys(long now) {
+        Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+        while (selectedKeys.hasNext()) {
+            SelectionKey key = selectedKeys.next();
+            selectedKeys.remove();
+            if (key.isValid())
+                process((HttpChannel) key.attachment(), now);
+        }
+    }
+
+    private void process(HttpChannel channel, long now) {
+        ResponseParser response;
+        try {
+            response = channel.process();
+        } catch (IOException | RuntimeException e) {
+            Submission submission = channel.getSubmission();
+            boolean stale = channel.isStale();
+            closeChannel(channel);
+            if (submission == null)
+                return;
+            if (stale && submission.getAttempts() < MAX_ATTEMPTS)
+                waitingSubmissions.addFirst(submission);
+            else
+                fail(submission, e);
+            return;
+        }
+
+        if (response == null) {
+            channel.setDeadline(now + timeout);
+            return;
+        }
+
+        complete(channel.finish(), response);
+        if (response.isKeepAlive()) {
+            idleChannels.push(channel);
+            channel.setDeadline(now + idleTimeout);
+        } else {
+            closeChannel(channel);
+        }
+    }
+
+    private void takeSubmissions() {
+        Submission submission;
+        while ((submission = submissions.poll()) != null) {
+            waitingSubmissions.offer(submission);
+        }
+    }
+
+    /**
+     * Starts the waiting submissions on the idle channels, or on new channels if the maximum isn't reached.
+     *
+     * @param now current time.
+     */
+    private void dispatchSubmissions(long now) {
+        while (!waitingSubmissions.isEmpty()) {
+            HttpChannel channel = idleChannels.poll();
+            if (channel != null) {
+                channel.start(waitingSubmissions.poll());
+                channel.setDeadline(now + timeout);
+            } else if (channels.size() < maxChannels) {
+                Submission submission = waitingSubmissions.poll();
+                try {
+                    channel = HttpChannel.open(endpoint, selector, submission);
+                    channel.setDeadline(now + timeout);
+                    channels.add(channel);
+                } catch (IOException e) {
+                    fail(submission, e);
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void expireChannels(long now) {
+        for (HttpChannel channel : new ArrayList<>(channels)) {
+            if (channel.getDeadline() > now)
+                continue;
+            Submission submission = channel.getSubmission();
+            closeChannel(channel);
+            if (submission != null)
+                fail(submission, new SocketTimeoutException("No progress from the sentry server for "
+                        + timeout + "ms."));
+        }
+    }
+
+    private void complete(Submission submission, ResponseParser response) {
+        submission.release();
+        int statusCode = response.getStatusCode();
+        try {
+            if (statusCode == RateLimiter.TOO_MANY_REQUESTS) {
+                long retryAfter = RateLimiter.parseRetryAfter(response.getRetryAfter(),
+                        response.getSentryRateLimits());
+                submission.failed(new TooManyRequestsException(REJECTED_MESSAGE + statusCode + ": "
+                        + response.getBody(), null, retryAfter));
+            } else if (statusCode < MIN_SUCCESS_STATUS || statusCode > MAX_SUCCESS_STATUS) {
+                submission.failed(new ConnectionException(REJECTED_MESSAGE + statusCode + ": " + response.getBody()));
+            } else {
+                submission.delivered();
+            }
+        } catch (RuntimeException e) {
+            logger.warn("An exception occurred while reporting the outcome of a submission.", e);
+        } finally {
+            endSubmission();
+        }
+    }
+
+    private void fail(Submission submission, Exception cause) {
+        fail(submission, new ConnectionException(FAILURE_MESSAGE, cause));
+    }
+
+    private void fail(Submission submission, ConnectionException exception) {
+        submission.release();
+        try {
+            submission.failed(exception);
+        } catch (RuntimeException e) {
+            logger.warn("An exception occurred while reporting the outcome of a submission.", e);
+        } finally {
+            endSubmission();
+        }
+    }
+
+    private void closeChannel(HttpChannel channel) {
+        channels.remove(channel);
+        idleChannels.remove(channel);
+        channel.close();
+    }
+
+    /**
+     * Closes every channel and the selector, the submissions not completed yet fail.
+     */
+    private void abandon() {
+        terminated = true;
+        takeSubmissions();
+        int lostSubmissions = waitingSubmissions.size();
+        ConnectionException exception = new ConnectionException(ABANDONED_MESSAGE);
+        for (Submission submission : waitingSubmissions) {
+            fail(submission, exception);
+        }
+        waitingSubmissions.clear();
+        for (HttpChannel channel : new ArrayList<>(channels)) {
+            Submission submission = channel.getSubmission();
+            closeChannel(channel);
+            if (submission != null) {
+                fail(submission, exception);
+                lostSubmissions++;
+            }
+        }
+        if (lostSubmissions > 0)
+            logger.warn("{} event(s) couldn't be submitted to the sentry server before closing the connection.",
+                    lostSubmissions);
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("Couldn't close the selector.", e);
+        }
+    }
+
+    /**
+     * Stops accepting submissions, the pending ones are still sent until the deadline.
+     *
+     * @param timeoutMillis maximum time (in ms) given to the pending submissions.
+     */
+    void shutdown(long timeoutMillis) {
+        closeDeadline = currentTime() + timeoutMillis;
+        closing = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Waits for the thread of the loop to stop once {@link #shutdown(long)} has been called.
+     *
+     * @param timeoutMillis maximum time (in ms) to wait.
+     * @throws InterruptedException if the current thread has been interrupted while waiting.
+     */
+    void awaitTermination(long timeoutMillis) throws InterruptedException {
+        thread.join(timeoutMillis);
+    }
+
+    private static long currentTime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
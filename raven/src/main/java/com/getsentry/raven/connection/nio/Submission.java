@@ -0,0 +1,105 @@
+package com.getsentry.raven.connection.nio;
+
+import com.getsentry.raven.connection.AbstractConnection.DeferredOutcome;
+import com.getsentry.raven.connection.ConnectionException;
+import com.getsentry.raven.event.Event;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * HTTP request submitting marshalled events to Sentry.
+ * <p>
+ * Once marshalled, only the identifiers of the events are needed to report their outcome. The events themselves are
+ * only kept when the connection has to hand them over to its
+ * {@link com.getsentry.raven.connection.EventSendFailureCallback}s if the request fails.
+ */
+final class Submission {
+    private final NioHttpConnection connection;
+    private final ByteBuffer head;
+    private final ByteBuffer payload;
+    private final ByteBufferPool pool;
+    private final ByteBuffer[] buffers;
+    private final UUID[] eventIds;
+    /**
+     * Events sent by the request, null unless they're needed by the failure callbacks.
+     */
+    private final List<Event> events;
+    private final DeferredOutcome outcome;
+    private int attempts;
+
+    /**
+     * Creates a request to send on a channel.
+     *
+     * @param connection connection to which the outcome of the request is reported.
+     * @param head       request line and headers.
+     * @param payload    body of the request, taken from the given pool.
+     * @param pool       pool to which the payload is given back once the request is over.
+     * @param eventIds   identifiers of the events sent by the request.
+     * @param events     events sent by the request, or null if they don't have to be kept.
+     * @param outcome    outcome of the request, recorded on the circuit breaker of the connection.
+     */
+    Submission(NioHttpConnection connection, ByteBuffer head, ByteBuffer payload, ByteBufferPool pool,
+               UUID[] eventIds, List<Event> events, DeferredOutcome outcome) {
+        this.connection = connection;
+        this.head = head;
+        this.payload = payload;
+        this.pool = pool;
+        this.buffers = new ByteBuffer[]{head, payload};
+        this.eventIds = eventIds;
+        this.events = events;
+        this.outcome = outcome;
+    }
+
+    /**
+     * Starts a new attempt to send the request, from its first byte.
+     *
+     * @return the buffers to write on the channel.
+     */
+    ByteBuffer[] startAttempt() {
+        attempts++;
+        head.rewind();
+        payload.rewind();
+        return buffers;
+    }
+
+    int getAttempts() {
+        return attempts;
+    }
+
+    UUID[] getEventIds() {
+        return eventIds;
+    }
+
+    List<Event> getEvents() {
+        return events;
+    }
+
+    DeferredOutcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Reports the request as accepted by Sentry to its connection.
+     */
+    void delivered() {
+        connection.onDelivered(this);
+    }
+
+    /**
+     * Reports the request as failed to its connection.
+     *
+     * @param exception why the request failed.
+     */
+    void failed(ConnectionException exception) {
+        connection.onFailed(this, exception);
+    }
+
+    /**
+     * Gives the payload back to its pool, the submission can't be used afterwards.
+     */
+    void release() {
+        pool.release(payload);
+    }
+}
@@ -0,0 +1,173 @@
+package com.getsentry.raven.connection.nio;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Transport layer for HTTPS, encrypting and decrypting the data going through the channel with an {@link SSLEngine}.
+ * <p>
+ * The delegated tasks of the engine (certificate validation, key exchange) are run on the calling thread.
+ */
+final class TlsTransportLayer implements TransportLayer {
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    /**
+     * Encrypted data received from the channel and not unwrapped yet, kept ready to be written into.
+     */
+    private final ByteBuffer networkInput;
+    /**
+     * Encrypted data waiting to be written on the channel, kept ready to be read.
+     */
+    private final ByteBuffer networkOutput;
+    /**
+     * Decrypted data not read yet, kept ready to be written into.
+     */
+    private ByteBuffer applicationInput;
+
+    /**
+     * Creates a TLS transport on a channel.
+     *
+     * @param channel channel used to send and receive data.
+     * @param engine  engine set up in client mode for the remote host.
+     */
+    TlsTransportLayer(SocketChannel channel, SSLEngine engine) {
+        this.channel = channel;
+        this.engine = engine;
+        int packetSize = engine.getSession().getPacketBufferSize();
+        this.networkInput = ByteBuffer.allocate(packetSize);
+        this.networkOutput = ByteBuffer.allocateDirect(packetSize);
+        this.networkOutput.flip();
+        this.applicationInput = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    @Override
+    public int handshake() throws IOException {
+        while (true) {
+            if (!flushNetworkOutput())
+                return SelectionKey.OP_WRITE;
+
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                case NEED_WRAP:
+                    wrap(new ByteBuffer[]{EMPTY_BUFFER});
+                    break;
+                case NEED_UNWRAP:
+                    if (unwrap().getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW
+                            && !fillNetworkInput())
+                        return SelectionKey.OP_READ;
+                    break;
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    @Override
+    public boolean write(ByteBuffer[] sources) throws IOException {
+        while (flushNetworkOutput()) {
+            if (!PlainTransportLayer.hasRemaining(sources))
+                return true;
+            wrap(sources);
+            if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK)
+                runDelegatedTasks();
+        }
+        return false;
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+        while (applicationInput.position() == 0) {
+            SSLEngineResult result = unwrap();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+                return -1;
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                int read = channel.read(networkInput);
+                if (read <= 0)
+                    return read;
+            } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                ByteBuffer biggerBuffer = ByteBuffer.allocate(applicationInput.capacity()
+                        + engine.getSession().getApplicationBufferSize());
+                applicationInput.flip();
+                biggerBuffer.put(applicationInput);
+                applicationInput = biggerBuffer;
+            } else if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            } else if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                // Renegotiation requested by the server
+                wrap(new ByteBuffer[]{EMPTY_BUFFER});
+                flushNetworkOutput();
+            }
+        }
+
+        applicationInput.flip();
+        int length = Math.min(applicationInput.remaining(), destination.remaining());
+        ByteBuffer slice = applicationInput.duplicate();
+        slice.limit(slice.position() + length);
+        destination.put(slice);
+        applicationInput.position(applicationInput.position() + length);
+        applicationInput.compact();
+        return length;
+    }
+
+    private void wrap(ByteBuffer[] sources) throws SSLException {
+        networkOutput.compact();
+        SSLEngineResult result;
+        try {
+            result = engine.wrap(sources, networkOutput);
+        } finally {
+            networkOutput.flip();
+        }
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+            throw new SSLException("The TLS session has been closed.");
+    }
+
+    private SSLEngineResult unwrap() throws SSLException {
+        networkInput.flip();
+        try {
+            return engine.unwrap(networkInput, applicationInput);
+        } finally {
+            networkInput.compact();
+        }
+    }
+
+    /**
+     * Writes the pending encrypted data on the channel.
+     *
+     * @return true if there is no pending data anymore.
+     * @throws IOException if the data couldn't be written.
+     */
+    private boolean flushNetworkOutput() throws IOException {
+        if (networkOutput.hasRemaining())
+            channel.write(networkOutput);
+        return !networkOutput.hasRemaining();
+    }
+
+    /**
+     * Reads encrypted data from the channel.
+     *
+     * @return true if some data has been read.
+     * @throws IOException if the data couldn't be read or the channel has reached end-of-stream.
+     */
+    private boolean fillNetworkInput() throws IOException {
+        int read = channel.read(networkInput);
+        if (read < 0)
+            throw new EOFException("The server closed the connection during the TLS handshake.");
+        return read > 0;
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+}
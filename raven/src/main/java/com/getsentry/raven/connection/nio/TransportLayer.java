@@ -0,0 +1,40 @@
+package com.getsentry.raven.connection.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layer between a non-blocking {@link java.nio.channels.SocketChannel} and the HTTP exchanges going through it.
+ * <p>
+ * None of the operations block, each of them does as much as possible and tells whether it has to be called again
+ * once the channel is ready.
+ */
+interface TransportLayer {
+    /**
+     * Carries on with the handshake required before sending data over the channel.
+     *
+     * @return 0 once the handshake is over, otherwise the {@link java.nio.channels.SelectionKey} operation to wait
+     * for before calling this method again.
+     * @throws IOException if the handshake failed.
+     */
+    int handshake() throws IOException;
+
+    /**
+     * Writes data on the channel.
+     *
+     * @param sources buffers to write, from their current position.
+     * @return true if everything has been written, false if the method has to be called again once the channel is
+     * writable.
+     * @throws IOException if the data couldn't be written.
+     */
+    boolean write(ByteBuffer[] sources) throws IOException;
+
+    /**
+     * Reads data from the channel.
+     *
+     * @param destination buffer receiving the data.
+     * @return the number of bytes read, possibly 0, or -1 if the channel has reached end-of-stream.
+     * @throws IOException if the data couldn't be read.
+     */
+    int read(ByteBuffer destination) throws IOException;
+}
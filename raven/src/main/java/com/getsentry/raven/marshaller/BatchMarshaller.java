@@ -0,0 +1,41 @@
+package com.getsentry.raven.marshaller;
+
+import com.getsentry.raven.event.Event;
+
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Marshaller able to serialise several {@link Event}s at once in a single payload.
+ */
+public interface BatchMarshaller extends Marshaller {
+    /**
+     * Serialises a list of events and sends them through an {@code OutputStream} as a single payload.
+     * <p>
+     * As with {@link #marshall(Event, OutputStream)}, the marshaller should not close the given stream.
+     *
+     * @param events      events to serialise.
+     * @param destination destination stream.
+     */
+    void marshall(List<Event> events, OutputStream destination);
+
+    /**
+     * Serialises a single event, without any compression or encoding, so it can be part of a batch sent later with
+     * {@link #marshallSerialised(List, OutputStream)}.
+     * <p>
+     * This allows to split a batch based on the size of its events without serialising them several times.
+     *
+     * @param event event to serialise.
+     * @return the serialised event.
+     */
+    byte[] serialise(Event event);
+
+    /**
+     * Sends events previously serialised with {@link #serialise(Event)} through an {@code OutputStream}, as a single
+     * payload identical to the one written by {@link #marshall(List, OutputStream)}.
+     *
+     * @param serialisedEvents serialised events.
+     * @param destination      destination stream.
+     */
+    void marshallSerialised(List<byte[]> serialisedEvents, OutputStream destination);
+}
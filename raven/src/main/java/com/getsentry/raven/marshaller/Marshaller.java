@@ -20,6 +20,13 @@ public interface Marshaller {
      */
     void marshall(Event event, OutputStream destination);
 
+    /**
+     * Gets the value of the {@code Content-Encoding} header matching the content written by this marshaller.
+     *
+     * @return the encoding of the content, or null if the content is sent without such header.
+     */
+    String getContentEncoding();
+
     /**
      * OutputStream delegating every call except for {@link #close()} to an other OutputStream.
      */
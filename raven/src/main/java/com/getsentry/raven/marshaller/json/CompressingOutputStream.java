@@ -0,0 +1,150 @@
+package com.getsentry.raven.marshaller.json;
+
+import com.getsentry.raven.util.Base64;
+import com.getsentry.raven.util.Base64OutputStream;
+import com.getsentry.raven.util.DeflaterPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Stream compressing the content written once it reaches a size threshold.
+ * <p>
+ * The content is kept aside until it reaches the threshold: a smaller content is written as is when the stream is
+ * closed, a bigger one is compressed with a {@link Deflater} taken from a {@link DeflaterPool} and given back once the
+ * stream is closed. The compressed content is either encoded in base 64 or written in the zlib or gzip format, see
+ * {@link JsonMarshaller.CompressionEncoding}.
+ * <p>
+ * Closing this stream closes the destination once the compressed content is written.
+ */
+final class CompressingOutputStream extends OutputStream {
+    /**
+     * Header of a gzip member: magic number, deflate method, no flags, no modification time, unknown OS.
+     */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int BYTE_MASK = 0xff;
+    private static final int BYTE_SIZE = 8;
+    private static final int INT_SIZE = 4;
+    private final OutputStream destination;
+    private final DeflaterPool deflaterPool;
+    private final int threshold;
+    private final JsonMarshaller.CompressionEncoding encoding;
+    /**
+     * Content written so far, until it reaches the threshold.
+     */
+    private byte[] pendingContent;
+    private int pendingSize;
+    private Deflater deflater;
+    private DeflaterOutputStream deflaterStream;
+    private OutputStream compressedStream;
+    private CRC32 checksum;
+    private boolean closed;
+
+    /**
+     * Creates a stream compressing its content once it reaches a size threshold.
+     *
+     * @param destination  stream to which the content is written.
+     * @param deflaterPool pool of the deflaters compressing the content, writing raw deflate data for gzip.
+     * @param threshold    minimum size (in bytes) of the content to compress it, 0 to always compress it.
+     * @param encoding     format in which the compressed content is written.
+     */
+    CompressingOutputStream(OutputStream destination, DeflaterPool deflaterPool, int threshold,
+                            JsonMarshaller.CompressionEncoding encoding) {
+        this.destination = destination;
+        this.deflaterPool = deflaterPool;
+        this.threshold = threshold;
+        this.encoding = encoding;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (compressedStream == null && pendingSize + len < threshold) {
+            if (pendingContent == null)
+                pendingContent = new byte[threshold];
+            System.arraycopy(b, off, pendingContent, pendingSize, len);
+            pendingSize += len;
+            return;
+        }
+        if (compressedStream == null)
+            startCompression();
+        compressedStream.write(b, off, len);
+    }
+
+    private void startCompression() throws IOException {
+        deflater = deflaterPool.acquire();
+        switch (encoding) {
+            case GZIP:
+                destination.write(GZIP_HEADER);
+                deflaterStream = new DeflaterOutputStream(destination, deflater);
+                checksum = new CRC32();
+                compressedStream = new CheckedOutputStream(deflaterStream, checksum);
+                break;
+            case DEFLATE:
+                deflaterStream = new DeflaterOutputStream(destination, deflater);
+                compressedStream = deflaterStream;
+                break;
+            default:
+                deflaterStream = new DeflaterOutputStream(
+                        new Base64OutputStream(destination, Base64.NO_WRAP), deflater);
+                compressedStream = deflaterStream;
+        }
+        if (pendingSize > 0)
+            compressedStream.write(pendingContent, 0, pendingSize);
+        pendingContent = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (compressedStream == null) {
+            // Compresses even an empty content when there is no threshold
+            if (threshold > 0) {
+                try {
+                    if (pendingSize > 0)
+                        destination.write(pendingContent, 0, pendingSize);
+                } finally {
+                    destination.close();
+                }
+                return;
+            }
+            startCompression();
+        }
+        try {
+            if (checksum != null) {
+                deflaterStream.finish();
+                writeGzipTrailer();
+            }
+            // Finishes the deflater and writes the end of the content, the pooled deflater isn't ended
+            deflaterStream.close();
+        } finally {
+            deflaterPool.release(deflater);
+        }
+    }
+
+    /**
+     * Writes the CRC-32 and the size of the uncompressed content, in little endian, ending the gzip member.
+     *
+     * @throws IOException if the trailer couldn't be written.
+     */
+    private void writeGzipTrailer() throws IOException {
+        writeLittleEndianInt(checksum.getValue());
+        writeLittleEndianInt(deflater.getBytesRead());
+    }
+
+    private void writeLittleEndianInt(long value) throws IOException {
+        for (int i = 0; i < INT_SIZE; i++) {
+            destination.write((int) (value >>> (i * BYTE_SIZE)) & BYTE_MASK);
+        }
+    }
+}
@@ -2,28 +2,31 @@ package com.getsentry.raven.marshaller.json;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.getsentry.raven.util.Base64;
-import com.getsentry.raven.util.Base64OutputStream;
+import com.getsentry.raven.util.DeflaterPool;
 import com.getsentry.raven.event.Event;
 import com.getsentry.raven.event.interfaces.SentryInterface;
-import com.getsentry.raven.marshaller.Marshaller;
+import com.getsentry.raven.marshaller.BatchMarshaller;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Deflater;
 
 /**
  * Event marshaller using JSON to send the data.
  * <p>
- * The content can also be compressed with {@link DeflaterOutputStream} in which case the binary result is encoded
- * in base 64.
+ * The content can also be compressed with {@link java.util.zip.DeflaterOutputStream} in which case the binary
+ * result is encoded in base 64. The {@link Deflater}s are reused through a {@link DeflaterPool}, and contents
+ * smaller than the compression threshold are sent uncompressed.
+ * <p>
+ * A batch of events is sent as a JSON array of events, compressed as a whole.
  */
-public class JsonMarshaller implements Marshaller {
+public class JsonMarshaller implements BatchMarshaller {
     /**
      * Hexadecimal string representing a uuid4 value.
      */
@@ -84,6 +87,10 @@ public class JsonMarshaller implements Marshaller {
      * Maximum length for a message.
      */
     public static final int MAX_MESSAGE_LENGTH = 1000;
+    /**
+     * Maximum number of idle deflaters kept by a marshaller.
+     */
+    public static final int DEFAULT_DEFLATER_POOL_SIZE = Runtime.getRuntime().availableProcessors();
     /**
      * Date format for ISO 8601.
      */
@@ -103,20 +110,83 @@ public class JsonMarshaller implements Marshaller {
      * Enables disables the compression of JSON.
      */
     private boolean compression = true;
+    /**
+     * Minimum size (in bytes) of the JSON content to compress it.
+     */
+    private int compressionThreshold = 0;
+    /**
+     * Format of the compressed JSON.
+     */
+    private CompressionEncoding compressionEncoding = CompressionEncoding.BASE64;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private DeflaterPool deflaterPool = createDeflaterPool();
 
     @Override
     public void marshall(Event event, OutputStream destination) {
-        // Prevent the stream from being closed automatically
-        destination = new UncloseableOutputStream(destination);
+        try (JsonGenerator generator = createGenerator(destination)) {
+            writeContent(generator, event);
+        } catch (IOException e) {
+            logger.error("An exception occurred while serialising the event.", e);
+        }
+    }
 
-        if (compression)
-            destination = new DeflaterOutputStream(new Base64OutputStream(destination, Base64.NO_WRAP));
+    @Override
+    public void marshall(List<Event> events, OutputStream destination) {
+        try (JsonGenerator generator = createGenerator(destination)) {
+            generator.writeStartArray();
+            for (Event event : events) {
+                writeContent(generator, event);
+            }
+            generator.writeEndArray();
+        } catch (IOException e) {
+            logger.error("An exception occurred while serialising the events.", e);
+        }
+    }
 
-        try (JsonGenerator generator = jsonFactory.createGenerator(destination)) {
+    @Override
+    public byte[] serialise(Event event) {
+        ByteArrayOutputStream serialisedEvent = new ByteArrayOutputStream();
+        try (JsonGenerator generator = jsonFactory.createGenerator(serialisedEvent)) {
             writeContent(generator, event);
         } catch (IOException e) {
             logger.error("An exception occurred while serialising the event.", e);
         }
+        return serialisedEvent.toByteArray();
+    }
+
+    @Override
+    public void marshallSerialised(List<byte[]> serialisedEvents, OutputStream destination) {
+        try (OutputStream outputStream = createOutputStream(destination)) {
+            outputStream.write('[');
+            boolean first = true;
+            for (byte[] serialisedEvent : serialisedEvents) {
+                // Skip the events which couldn't be serialised
+                if (serialisedEvent.length == 0)
+                    continue;
+                if (!first)
+                    outputStream.write(',');
+                outputStream.write(serialisedEvent);
+                first = false;
+            }
+            outputStream.write(']');
+        } catch (IOException e) {
+            logger.error("An exception occurred while writing the serialised events.", e);
+        }
+    }
+
+    private JsonGenerator createGenerator(OutputStream destination) throws IOException {
+        return jsonFactory.createGenerator(createOutputStream(destination));
+    }
+
+    private OutputStream createOutputStream(OutputStream destination) {
+        // Prevent the stream from being closed automatically
+        destination = new UncloseableOutputStream(destination);
+
+        if (compression)
+            destination = new CompressingOutputStream(destination, deflaterPool,
+                    compressionEncoding == CompressionEncoding.BASE64 ? compressionThreshold : 0, compressionEncoding);
+
+        return destination;
     }
 
     private void writeContent(JsonGenerator generator, Event event) throws IOException {
@@ -296,4 +366,84 @@ public class JsonMarshaller implements Marshaller {
     public void setCompression(boolean compression) {
         this.compression = compression;
     }
+
+    /**
+     * Sets the level of the JSON compression.
+     *
+     * @param compressionLevel level from 0 (no compression) to 9 (best compression), or -1 for the default level.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        this.deflaterPool = createDeflaterPool();
+    }
+
+    /**
+     * Sets the minimum size of the JSON content to compress it, smaller contents are sent uncompressed.
+     * <p>
+     * The threshold only applies to the {@link CompressionEncoding#BASE64} encoding, the other encodings are announced
+     * in the headers of the request before its content is known.
+     *
+     * @param compressionThreshold minimum size in bytes, 0 to compress every content.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Sets the format in which the compressed JSON is sent.
+     *
+     * @param compressionEncoding format of the compressed JSON.
+     */
+    public void setCompressionEncoding(CompressionEncoding compressionEncoding) {
+        this.compressionEncoding = compressionEncoding;
+        this.deflaterPool = createDeflaterPool();
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return compression ? compressionEncoding.getContentEncoding() : null;
+    }
+
+    private DeflaterPool createDeflaterPool() {
+        return new DeflaterPool(compressionLevel, compressionEncoding == CompressionEncoding.GZIP,
+                DEFAULT_DEFLATER_POOL_SIZE);
+    }
+
+    /**
+     * Formats in which the compressed JSON can be sent.
+     */
+    public enum CompressionEncoding {
+        /**
+         * Deflated content encoded in base 64, understood by every Sentry server.
+         */
+        BASE64(null),
+        /**
+         * Binary content in the gzip format, sent with the {@code Content-Encoding: gzip} header.
+         */
+        GZIP("gzip"),
+        /**
+         * Binary content in the zlib format, sent with the {@code Content-Encoding: deflate} header.
+         */
+        DEFLATE("deflate");
+
+        private final String contentEncoding;
+
+        /**
+         * Creates a format of the compressed JSON.
+         *
+         * @param contentEncoding value of the {@code Content-Encoding} header, null if there is none.
+         */
+        CompressionEncoding(String contentEncoding) {
+            this.contentEncoding = contentEncoding;
+        }
+
+        /**
+         * Gets the value of the {@code Content-Encoding} header of a content in this format.
+         *
+         * @return the content encoding, or null if the content is sent without such header.
+         */
+        public String getContentEncoding() {
+            return contentEncoding;
+        }
+    }
 }
@@ -0,0 +1,446 @@
+package com.getsentry.raven.spool;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.interfaces.SentryException;
+import com.getsentry.raven.event.interfaces.SentryInterface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Durable FIFO of events on the local disk, stored in memory-mapped segment files.
+ * <p>
+ * Events are serialised and appended as CRC-checked records to the last segment, a new segment is started once a
+ * record doesn't fit in the current one. The number of segments is bounded: once the maximum is reached the oldest
+ * segment is dropped, with the events it still contains.
+ * <p>
+ * The position of the next event to read is kept in a cursor file, so the events are read in order across restarts
+ * of the JVM without reading the consumed ones again. As the files are mapped in memory, the records survive a crash
+ * of the JVM; {@code forceWrites} also makes them survive a crash of the system, at the cost of a sync per record.
+ * <p>
+ * A spool directory can only be used by one spool at a time.
+ * <p>
+ * As the files of the spool can be tampered with, the records are only deserialised into a fixed set of classes: the
+ * event, its interfaces, and the JDK value types and collections they're made of. The extras of other types are
+ * written as their {@code toString()}, as the non serialisable extras already are.
+ */
+public class EventSpool implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(EventSpool.class);
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String CURSOR_FILE_NAME = "cursor";
+    /**
+     * Size of the cursor: sequence of the segment being read, and position in that segment.
+     */
+    private static final int CURSOR_SIZE = 12;
+    private static final int CURSOR_POSITION_OFFSET = 8;
+    /**
+     * Classes which can be read back from a record, besides the {@link SentryInterface}s and the arrays of these.
+     */
+    private static final Set<String> ALLOWED_CLASSES = new HashSet<>();
+    static {
+        for (Class<?> type : Arrays.asList(Event.class, Event.Level.class, SentryException.class,
+                StackTraceElement.class, String.class, Boolean.class, Character.class, Number.class, Byte.class,
+                Short.class, Integer.class, Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class,
+                Enum.class, Date.class, UUID.class, ArrayList.class, LinkedList.class, ArrayDeque.class,
+                HashMap.class, LinkedHashMap.class, TreeMap.class, HashSet.class, LinkedHashSet.class,
+                TreeSet.class)) {
+            ALLOWED_CLASSES.add(type.getName());
+        }
+        // Private classes of the collections built by Raven
+        for (Object collection : Arrays.asList(Arrays.asList(), Collections.emptyList(), Collections.emptyMap(),
+                Collections.emptySet(), Collections.singletonList(null), Collections.singletonMap(null, null),
+                Collections.singleton(null), Collections.unmodifiableCollection(new ArrayList<>()),
+                Collections.unmodifiableList(new ArrayList<>()), Collections.unmodifiableList(new LinkedList<>()),
+                Collections.unmodifiableMap(new HashMap<>()), Collections.unmodifiableSet(new HashSet<>()),
+                Collections.unmodifiableSortedMap(new TreeMap<>()),
+                Collections.unmodifiableSortedSet(new TreeSet<>()))) {
+            ALLOWED_CLASSES.add(collection.getClass().getName());
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final boolean forceWrites;
+    /**
+     * Segments of the spool, from the one being read to the one being written.
+     */
+    private final Deque<SpoolSegment> segments = new ArrayDeque<>();
+    private final RandomAccessFile cursorFile;
+    private final FileLock directoryLock;
+    private final MappedByteBuffer cursor;
+    /**
+     * Position of the next record to read in the first segment.
+     */
+    private int readPosition;
+    /**
+     * Length of the record returned by the last call to {@link #peek()}, -1 if there is none.
+     */
+    private int peekedLength = -1;
+
+    /**
+     * Opens the spool stored in a directory, or creates it.
+     *
+     * @param directory   directory of the spool.
+     * @param segmentSize size (in bytes) of each segment file, which bounds the size of an event.
+     * @param maxSegments maximum number of segment files.
+     * @param forceWrites whether each change should be written to the storage device before returning.
+     * @throws IOException if the spool couldn't be opened, or is already used.
+     */
+    public EventSpool(File directory, int segmentSize, int maxSegments, boolean forceWrites) throws IOException {
+        if (segmentSize <= SpoolSegment.RECORD_HEADER_SIZE)
+            throw new IllegalArgumentException("The size of a segment is too small: " + segmentSize);
+        if (maxSegments < 1)
+            throw new IllegalArgumentException("The spool needs at least one segment, got " + maxSegments);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Couldn't create the spool directory '" + directory + "'.");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.forceWrites = forceWrites;
+
+        cursorFile = new RandomAccessFile(new File(directory, CURSOR_FILE_NAME), "rw");
+        try {
+            directoryLock = lockDirectory(cursorFile.getChannel(), directory);
+            cursor = cursorFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, CURSOR_SIZE);
+            openSegments();
+        } catch (IOException | RuntimeException e) {
+            cursorFile.close();
+            throw e;
+        }
+    }
+
+    private static FileLock lockDirectory(FileChannel cursorChannel, File directory) throws IOException {
+        FileLock lock;
+        try {
+            lock = cursorChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Locked by this JVM
+            lock = null;
+        }
+        if (lock == null)
+            throw new IOException("The spool directory '" + directory + "' is already used.");
+        return lock;
+    }
+
+    private void openSegments() throws IOException {
+        File[] segmentFiles = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (segmentFiles == null)
+            throw new IOException("Couldn't list the files of the spool directory '" + directory + "'.");
+        // The names are padded, the lexicographical order is the order of the segments
+        Arrays.sort(segmentFiles);
+
+        long cursorSequence = cursor.getLong(0);
+        for (File segmentFile : segmentFiles) {
+            String name = segmentFile.getName();
+            long sequence;
+            try {
+                sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring the unexpected file '{}' in the spool directory.", segmentFile);
+                continue;
+            }
+            if (sequence < cursorSequence) {
+                // Already consumed, the JVM stopped before the segment could be deleted
+                deleteSegmentFile(segmentFile);
+                continue;
+            }
+            segments.addLast(SpoolSegment.open(segmentFile, sequence));
+        }
+
+        if (segments.isEmpty())
+            segments.addLast(SpoolSegment.create(segmentFile(cursorSequence), cursorSequence, segmentSize));
+        if (segments.getFirst().getSequence() == cursorSequence)
+            readPosition = cursor.getInt(CURSOR_POSITION_OFFSET);
+        saveCursor();
+    }
+
+    /**
+     * Appends an event at the end of the spool.
+     * <p>
+     * If the spool is full, the oldest segment is dropped to make some room.
+     *
+     * @param event event to append.
+     * @return false if the event couldn't be appended.
+     */
+    public boolean append(Event event) {
+        byte[] record;
+        try {
+            record = serialise(event);
+        } catch (IOException e) {
+            logger.error("Couldn't serialise the event {} for the spool.", event.getId(), e);
+            return false;
+        }
+        if (record.length > segmentSize - SpoolSegment.RECORD_HEADER_SIZE) {
+            logger.warn("The event {} is too big to be spooled ({} bytes).", event.getId(), record.length);
+            return false;
+        }
+
+        synchronized (this) {
+            try {
+                SpoolSegment segment = segments.getLast();
+                if (!segment.append(record)) {
+                    segment = startSegment();
+                    segment.append(record);
+                }
+                if (forceWrites)
+                    segment.force();
+                return true;
+            } catch (IOException e) {
+                logger.error("Couldn't append the event {} to the spool.", event.getId(), e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Starts a new segment to write into, dropping the oldest segments if there are too many.
+     *
+     * @return the new segment.
+     * @throws IOException if the segment couldn't be created.
+     */
+    private SpoolSegment startSegment() throws IOException {
+        long sequence = segments.getLast().getSequence() + 1;
+        SpoolSegment segment = SpoolSegment.create(segmentFile(sequence), sequence, segmentSize);
+        segments.addLast(segment);
+        while (segments.size() > maxSegments) {
+            logger.warn("The spool is full, the oldest events are dropped.");
+            removeFirstSegment();
+        }
+        return segment;
+    }
+
+    /**
+     * Gets the first event of the spool, without removing it.
+     * <p>
+     * Events which can't be deserialised anymore are dropped.
+     *
+     * @return the first event, or {@code null} if the spool is empty.
+     */
+    public synchronized Event peek() {
+        byte[] record;
+        while ((record = readRecord()) != null) {
+            try {
+                return deserialise(record);
+            } catch (IOException | ClassNotFoundException e) {
+                logger.error("Couldn't deserialise an event of the spool, the event is dropped.", e);
+                remove();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the event returned by the last call to {@link #peek()}.
+     */
+    public synchronized void remove() {
+        if (peekedLength < 0)
+            throw new IllegalStateException("There is no event to remove, peek() must be called first.");
+        readPosition += SpoolSegment.RECORD_HEADER_SIZE + peekedLength;
+        peekedLength = -1;
+        saveCursor();
+    }
+
+    /**
+     * Checks whether the spool contains some events.
+     *
+     * @return true if there are no events to read.
+     */
+    public synchronized boolean isEmpty() {
+        return readRecord() == null;
+    }
+
+    /**
+     * Reads the next record, deleting the segments which have been entirely read.
+     *
+     * @return the next record, or {@code null} if there is none.
+     */
+    private byte[] readRecord() {
+        while (true) {
+            SpoolSegment segment = segments.getFirst();
+            boolean lastSegment = segment == segments.getLast();
+            byte[] record = null;
+            if (!lastSegment || readPosition < segment.getWritePosition())
+                record = segment.read(readPosition);
+            if (record != null) {
+                peekedLength = record.length;
+                return record;
+            }
+            peekedLength = -1;
+            if (lastSegment)
+                return null;
+            removeFirstSegment();
+        }
+    }
+
+    private void removeFirstSegment() {
+        SpoolSegment segment = segments.removeFirst();
+        readPosition = 0;
+        peekedLength = -1;
+        saveCursor();
+        if (!segment.delete())
+            logger.warn("Couldn't delete the spool segment {}.", segment.getSequence());
+    }
+
+    private void saveCursor() {
+        cursor.putLong(0, segments.getFirst().getSequence());
+        cursor.putInt(CURSOR_POSITION_OFFSET, readPosition);
+        if (forceWrites)
+            cursor.force();
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(directory, String.format(Locale.ROOT, "%020d", sequence) + SEGMENT_SUFFIX);
+    }
+
+    private static void deleteSegmentFile(File segmentFile) {
+        if (!segmentFile.delete())
+            logger.warn("Couldn't delete the spool segment '{}'.", segmentFile);
+    }
+
+    /**
+     * Serialises an event in the format of the records of the spool.
+     * <p>
+     * The objects which couldn't be read back, such as extras of an application class, are written as their
+     * {@code toString()}.
+     *
+     * @param event event to serialise.
+     * @return the serialised event.
+     * @throws IOException if the event couldn't be serialised.
+     */
+    public static byte[] serialise(Event event) throws IOException {
+        ByteArrayOutputStream serialisedEvent = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new EventOutputStream(serialisedEvent)) {
+            objectOutputStream.writeObject(event);
+        }
+        return serialisedEvent.toByteArray();
+    }
+
+    /**
+     * Deserialises an event serialised with {@link #serialise(Event)}.
+     *
+     * @param record serialised event.
+     * @return the event.
+     * @throws IOException            if the event couldn't be deserialised, or contains an object of a class which
+     *                                isn't allowed in an event.
+     * @throws ClassNotFoundException if a class of the event is missing.
+     */
+    public static Event deserialise(byte[] record) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream objectInputStream = new EventInputStream(new ByteArrayInputStream(record))) {
+            Object event = objectInputStream.readObject();
+            if (!(event instanceof Event))
+                throw new InvalidClassException(event.getClass().getName(), "The record isn't an event.");
+            return (Event) event;
+        }
+    }
+
+    /**
+     * Checks whether objects of a class can be part of a serialised event.
+     *
+     * @param type class of the objects.
+     * @return true if the class is allowed in a record.
+     */
+    private static boolean isAllowed(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        return type.isPrimitive() || ALLOWED_CLASSES.contains(type.getName())
+                || SentryInterface.class.isAssignableFrom(type);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The events left in the spool are kept on disk, to be read when the spool is opened again.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (SpoolSegment segment : segments) {
+            segment.force();
+        }
+        cursor.force();
+        try {
+            directoryLock.release();
+        } finally {
+            cursorFile.close();
+        }
+    }
+
+    /**
+     * Stream writing the objects which couldn't be read back as strings.
+     */
+    private static final class EventOutputStream extends ObjectOutputStream {
+        private EventOutputStream(OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            return isAllowed(obj.getClass()) ? obj : obj.toString();
+        }
+    }
+
+    /**
+     * Stream refusing to deserialise the classes which aren't part of an event, before any of their code runs.
+     */
+    private static final class EventInputStream extends ObjectInputStream {
+        private EventInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            // The class is loaded without being initialised
+            Class<?> type = super.resolveClass(desc);
+            if (!isAllowed(type))
+                throw new InvalidClassException(desc.getName(), "The class isn't allowed in a spooled event.");
+            return type;
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws InvalidClassException {
+            throw new InvalidClassException("Proxy classes aren't allowed in a spooled event.");
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.getsentry.raven.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Segment file of an {@link EventSpool}, mapped in memory.
+ * <p>
+ * A segment contains records {@code [length][CRC32][bytes]} one after the other, followed by a length of 0.
+ */
+final class SpoolSegment {
+    /**
+     * Size of the length and CRC32 preceding each record.
+     */
+    static final int RECORD_HEADER_SIZE = 8;
+    private static final int CRC_OFFSET = 4;
+    private static final String READ_WRITE_MODE = "rw";
+    private final File file;
+    private final long sequence;
+    private final MappedByteBuffer buffer;
+    /**
+     * Position after the last valid record of the segment.
+     */
+    private int writePosition;
+
+    private SpoolSegment(File file, long sequence, MappedByteBuffer buffer) {
+        this.file = file;
+        this.sequence = sequence;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a new empty segment.
+     *
+     * @param file     file of the segment, which mustn't exist.
+     * @param sequence position of the segment in the spool.
+     * @param size     size of the segment in bytes.
+     * @return the new segment.
+     * @throws IOException if the file couldn't be created.
+     */
+    static SpoolSegment create(File file, long sequence, int size) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, READ_WRITE_MODE)) {
+            randomAccessFile.setLength(size);
+            return new SpoolSegment(file, sequence,
+                    randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /**
+     * Opens an existing segment and finds the end of its valid records.
+     *
+     * @param file     file of the segment.
+     * @param sequence position of the segment in the spool.
+     * @return the segment.
+     * @throws IOException if the file couldn't be read.
+     */
+    static SpoolSegment open(File file, long sequence) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, READ_WRITE_MODE)) {
+            SpoolSegment segment = new SpoolSegment(file, sequence,
+                    randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length()));
+            int position = 0;
+            byte[] record;
+            while ((record = segment.read(position)) != null) {
+                position += RECORD_HEADER_SIZE + record.length;
+            }
+            segment.writePosition = position;
+            return segment;
+        }
+    }
+
+    /**
+     * Appends a record at the end of the segment.
+     *
+     * @param record content of the record.
+     * @return false if the record doesn't fit in the segment.
+     */
+    boolean append(byte[] record) {
+        int end = writePosition + RECORD_HEADER_SIZE + record.length;
+        if (end > buffer.capacity())
+            return false;
+
+        ByteBuffer view = buffer.duplicate();
+        view.position(writePosition + RECORD_HEADER_SIZE);
+        view.put(record);
+        // Mark the end of the segment before making the record valid
+        if (end + RECORD_HEADER_SIZE <= buffer.capacity())
+            buffer.putInt(end, 0);
+        buffer.putInt(writePosition + CRC_OFFSET, crc(record));
+        buffer.putInt(writePosition, record.length);
+        writePosition = end;
+        return true;
+    }
+
+    /**
+     * Reads the record at the given position.
+     *
+     * @param position position of the record in the segment.
+     * @return the content of the record, or {@code null} if there is no valid record at this position.
+     */
+    byte[] read(int position) {
+        if (position + RECORD_HEADER_SIZE > buffer.capacity())
+            return null;
+        int length = buffer.getInt(position);
+        if (length <= 0 || length > buffer.capacity() - position - RECORD_HEADER_SIZE)
+            return null;
+
+        byte[] record = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + RECORD_HEADER_SIZE);
+        view.get(record);
+        if (crc(record) != buffer.getInt(position + CRC_OFFSET))
+            return null;
+        return record;
+    }
+
+    private static int crc(byte[] record) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(record);
+        return (int) crc32.getValue();
+    }
+
+    /**
+     * Writes the changes of the segment to the storage device.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Deletes the file of the segment, which can't be used anymore.
+     *
+     * @return true if the file has been deleted.
+     */
+    boolean delete() {
+        return file.delete();
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+}
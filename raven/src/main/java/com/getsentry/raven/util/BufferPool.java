@@ -0,0 +1,65 @@
+package com.getsentry.raven.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of {@link ByteArrayOutputStream}s in which requests are marshalled.
+ * <p>
+ * A buffer keeps its array when it is reset, reusing the buffers saves allocating and growing a new array for each
+ * request. The buffers which grew over the maximum size, and the buffers given back while the pool is full, are left
+ * to the garbage collector so the pool doesn't pin large arrays.
+ */
+public final class BufferPool {
+    private final int initialBufferSize;
+    private final int maxBufferSize;
+    private final BlockingQueue<ByteArrayOutputStream> buffers;
+
+    /**
+     * Creates a pool of buffers.
+     *
+     * @param initialBufferSize initial size (in bytes) of the buffers created by the pool.
+     * @param maxBufferSize     maximum size (in bytes) of the content of a buffer kept in the pool.
+     * @param maxSize           maximum number of idle buffers kept in the pool.
+     */
+    public BufferPool(int initialBufferSize, int maxBufferSize, int maxSize) {
+        if (initialBufferSize <= 0 || maxBufferSize < initialBufferSize)
+            throw new IllegalArgumentException("The initial size must be positive and at most the maximum size, got "
+                    + initialBufferSize + " and " + maxBufferSize);
+        this.initialBufferSize = initialBufferSize;
+        this.maxBufferSize = maxBufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    /**
+     * Takes an empty buffer from the pool, or creates one if the pool is empty.
+     *
+     * @return an empty buffer, to give back with {@link #release(ByteArrayOutputStream)}.
+     */
+    public ByteArrayOutputStream acquire() {
+        ByteArrayOutputStream buffer = buffers.poll();
+        return buffer != null ? buffer : new ByteArrayOutputStream(initialBufferSize);
+    }
+
+    /**
+     * Gives a buffer back to the pool.
+     *
+     * @param buffer buffer obtained with {@link #acquire()}, which mustn't be used anymore.
+     */
+    public void release(ByteArrayOutputStream buffer) {
+        if (buffer.size() > maxBufferSize)
+            return;
+        buffer.reset();
+        buffers.offer(buffer);
+    }
+
+    /**
+     * Maximum size (in bytes) of the content of a buffer kept in the pool.
+     *
+     * @return the maximum size of a pooled buffer.
+     */
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+}
@@ -0,0 +1,83 @@
+package com.getsentry.raven.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Bounded pool of {@link Deflater}s sharing the same compression level.
+ * <p>
+ * Each {@code Deflater} holds native zlib memory which is only freed by {@link Deflater#end()} or by the finalizer,
+ * reusing them keeps that memory flat under bursts of events. The deflaters given back while the pool is full are
+ * ended right away.
+ */
+public final class DeflaterPool {
+    private final int level;
+    private final boolean nowrap;
+    private final BlockingQueue<Deflater> deflaters;
+
+    /**
+     * Creates a pool of deflaters.
+     *
+     * @param level   compression level of the deflaters, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}.
+     * @param maxSize maximum number of idle deflaters kept in the pool.
+     */
+    public DeflaterPool(int level, int maxSize) {
+        this(level, false, maxSize);
+    }
+
+    /**
+     * Creates a pool of deflaters.
+     *
+     * @param level   compression level of the deflaters, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}.
+     * @param nowrap  whether the deflaters write raw deflate data, without the zlib header and checksum (as in gzip).
+     * @param maxSize maximum number of idle deflaters kept in the pool.
+     */
+    public DeflaterPool(int level, boolean nowrap, int maxSize) {
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+                && level != Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        this.level = level;
+        this.nowrap = nowrap;
+        this.deflaters = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    /**
+     * Takes a deflater from the pool, or creates one if the pool is empty.
+     *
+     * @return a deflater ready to compress a new stream, to give back with {@link #release(Deflater)}.
+     */
+    public Deflater acquire() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(level, nowrap);
+    }
+
+    /**
+     * Gives a deflater back to the pool.
+     *
+     * @param deflater deflater obtained with {@link #acquire()}, which mustn't be used anymore.
+     */
+    public void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater))
+            deflater.end();
+    }
+
+    /**
+     * Compression level of the deflaters created by this pool.
+     *
+     * @return the compression level.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Whether the deflaters created by this pool write raw deflate data.
+     *
+     * @return true if the zlib header and checksum are omitted.
+     */
+    public boolean isNowrap() {
+        return nowrap;
+    }
+}
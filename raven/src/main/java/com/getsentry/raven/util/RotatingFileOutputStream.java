@@ -0,0 +1,89 @@
+package com.getsentry.raven.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stream appending to a file, rotated once it reaches a maximum size.
+ * <p>
+ * On rotation the file is renamed with the suffix {@code .1}, the previous {@code .1} becomes {@code .2}, and so on,
+ * the oldest file being deleted. A single write is never split between two files: the file is rotated before a write
+ * which would take it over the maximum size, so a write containing whole lines leaves whole lines in every file.
+ * <p>
+ * The stream isn't thread safe.
+ */
+public final class RotatingFileOutputStream extends OutputStream {
+    private final File file;
+    private final long maxFileSize;
+    private final int maxRotatedFiles;
+    private OutputStream outputStream;
+    private long fileSize;
+
+    /**
+     * Opens a rotating stream, appending to the file if it already exists.
+     *
+     * @param file            file written.
+     * @param maxFileSize     size (in bytes) over which the file is rotated.
+     * @param maxRotatedFiles number of rotated files kept, 0 to truncate the file instead.
+     * @throws IOException if the file couldn't be opened.
+     */
+    public RotatingFileOutputStream(File file, long maxFileSize, int maxRotatedFiles) throws IOException {
+        if (maxFileSize <= 0 || maxRotatedFiles < 0)
+            throw new IllegalArgumentException("The maximum size must be positive and the number of rotated files "
+                    + "can't be negative, got " + maxFileSize + " and " + maxRotatedFiles);
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxRotatedFiles = maxRotatedFiles;
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Couldn't create the directory " + directory);
+        open();
+    }
+
+    private void open() throws IOException {
+        outputStream = new FileOutputStream(file, true);
+        fileSize = file.length();
+    }
+
+    private void rotate() throws IOException {
+        outputStream.close();
+        File oldestFile = rotatedFile(maxRotatedFiles);
+        if (oldestFile.exists() && !oldestFile.delete())
+            throw new IOException("Couldn't delete " + oldestFile);
+        for (int i = maxRotatedFiles - 1; i >= 0; i--) {
+            File rotatedFile = i == 0 ? file : rotatedFile(i);
+            if (rotatedFile.exists() && !rotatedFile.renameTo(rotatedFile(i + 1)))
+                throw new IOException("Couldn't rename " + rotatedFile);
+        }
+        open();
+    }
+
+    private File rotatedFile(int index) {
+        return index == 0 ? file : new File(file.getPath() + "." + index);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (fileSize > 0 && fileSize + len > maxFileSize)
+            rotate();
+        outputStream.write(b, off, len);
+        fileSize += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        outputStream.close();
+    }
+}
@@ -121,6 +121,33 @@ public class RavenFactoryTest {
         assertThat(exception, notNullValue());
     }
 
+    @Test
+    public void testFactorySupportingTheProtocolSettingsPreferred(@Injectable final Raven mockRaven,
+                                                                 @Injectable final Raven otherRaven,
+                                                                 @Injectable final Dsn mockDsn) throws Exception {
+        RavenFactory.registerFactory(new RavenFactory() {
+            @Override
+            public Raven createRavenInstance(Dsn dsn) {
+                return otherRaven;
+            }
+
+            @Override
+            protected boolean supportsProtocolSettings(Dsn dsn) {
+                return false;
+            }
+        });
+        RavenFactory.registerFactory(new RavenFactory() {
+            @Override
+            public Raven createRavenInstance(Dsn dsn) {
+                return mockRaven;
+            }
+        });
+
+        Raven raven = RavenFactory.ravenInstance(mockDsn);
+
+        assertThat(raven, is(mockRaven));
+    }
+
     @Test
     public void testAutoDetectDsnIfNotProvided(@Injectable final Raven mockRaven,
                                                @SuppressWarnings("unused") @Mocked final Dsn mockDsn) throws Exception {
@@ -5,6 +5,8 @@ import mockit.NonStrictExpectations;
 import mockit.Tested;
 import mockit.Verifications;
 import com.getsentry.raven.connection.Connection;
+import com.getsentry.raven.connection.FlushableConnection;
+import com.getsentry.raven.connection.DeliveryFuture;
 import com.getsentry.raven.event.Event;
 import com.getsentry.raven.event.EventBuilder;
 import com.getsentry.raven.event.helper.EventBuilderHelper;
@@ -141,4 +143,35 @@ public class RavenTest {
 
         raven.closeConnection();
     }
+
+    @Test
+    public void testFlushDelegatedToTheConnection(@Injectable final FlushableConnection mockFlushableConnection)
+            throws Exception {
+        raven.setConnection(mockFlushableConnection);
+        new NonStrictExpectations() {{
+            mockFlushableConnection.flush(1000);
+            result = false;
+        }};
+
+        assertThat(raven.flush(1000), is(false));
+    }
+
+    @Test
+    public void testConnectionWithoutFlushConsideredFlushed() throws Exception {
+        assertThat(raven.flush(1000), is(true));
+    }
+
+    @Test
+    public void testDeliveryDroppedWhenTheConnectionFails() throws Exception {
+        Event event = new EventBuilder().build();
+        new NonStrictExpectations() {{
+            mockConnection.send((Event) any);
+            result = new IllegalStateException("Broken connection");
+        }};
+
+        DeliveryFuture deliveryFuture = raven.sendEventAsync(event);
+
+        assertThat(deliveryFuture.isDone(), is(true));
+        assertThat(deliveryFuture.getDropReason(), is("Broken connection"));
+    }
 }
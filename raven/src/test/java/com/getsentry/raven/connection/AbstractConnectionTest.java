@@ -2,13 +2,13 @@ package com.getsentry.raven.connection;
 
 import mockit.*;
 import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
 import org.testng.annotations.Test;
 
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import static mockit.Deencapsulation.getField;
-import static mockit.Deencapsulation.setField;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
@@ -19,13 +19,6 @@ public class AbstractConnectionTest {
     private final String secretKey = "56a9d05e-9032-4fdd-8f67-867d526422f9";
     @Tested
     private AbstractConnection abstractConnection = null;
-    @Injectable
-    private Lock mockLock = null;
-    @Injectable
-    private Condition mockCondition = null;
-    //Disable thread sleep during the tests
-    @Mocked("sleep")
-    private Thread mockThread = null;
 
     @Test
     public void testAuthHeader() throws Exception {
@@ -39,9 +32,6 @@ public class AbstractConnectionTest {
 
     @Test
     public void testSuccessfulSendCallsDoSend(@Injectable final Event mockEvent) throws Exception {
-        setField(abstractConnection, "lock", mockLock);
-        setField(abstractConnection, "condition", mockCondition);
-
         abstractConnection.send(mockEvent);
 
         new Verifications() {{
@@ -50,25 +40,41 @@ public class AbstractConnectionTest {
     }
 
     @Test
-    public void testExceptionOnSendStartLockDown(@Injectable final Event mockEvent) throws Exception {
-        setField(abstractConnection, "lock", mockLock);
-        setField(abstractConnection, "condition", mockCondition);
+    public void testFailureInBatchDoesntDropTheFollowingEvents(@Injectable final Event mockEvent1,
+                                                              @Injectable final Event mockEvent2) throws Exception {
         new NonStrictExpectations() {{
-            abstractConnection.doSend((Event) any);
+            abstractConnection.doSend(mockEvent1);
             result = new ConnectionException();
         }};
 
+        abstractConnection.sendBatch(Arrays.asList(mockEvent1, mockEvent2));
+
+        new Verifications() {{
+            abstractConnection.doSend(mockEvent2);
+        }};
+        assertThat(getCircuitBreaker().getState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void testFailureReportedToTheCallbacks(@Injectable final Event mockEvent,
+                                                  @Injectable final EventSendFailureCallback mockCallback)
+            throws Exception {
+        final ConnectionException exception = new ConnectionException();
+        new NonStrictExpectations() {{
+            abstractConnection.doSend((Event) any);
+            result = exception;
+        }};
+        abstractConnection.addEventSendFailureCallback(mockCallback);
+
         abstractConnection.send(mockEvent);
 
         new Verifications() {{
-            mockLock.lock();
-            mockCondition.signalAll();
-            mockLock.unlock();
+            mockCallback.onFailure(mockEvent, exception);
         }};
     }
 
     @Test
-    public void testLockDownDoublesTheWaitingTime(@Injectable final Event mockEvent) throws Exception {
+    public void testExceptionOnSendOpensTheCircuit(@Injectable final Event mockEvent) throws Exception {
         new NonStrictExpectations() {{
             abstractConnection.doSend((Event) any);
             result = new ConnectionException();
@@ -76,27 +82,148 @@ public class AbstractConnectionTest {
 
         abstractConnection.send(mockEvent);
 
-        long waitingTimeAfter = getField(abstractConnection, "waitingTime");
-        assertThat(waitingTimeAfter, is(AbstractConnection.DEFAULT_BASE_WAITING_TIME * 2));
+        assertThat(getCircuitBreaker().getState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void testEventsRejectedWithoutWaitingWhileTheCircuitIsOpen(
+            @Injectable final Event mockEvent,
+            @Injectable final EventSendFailureCallback mockCallback) throws Exception {
+        abstractConnection.setBaseWaitingTime(TimeUnit.HOURS.toMillis(1));
+        new NonStrictExpectations() {{
+            abstractConnection.doSend((Event) any);
+            result = new ConnectionException();
+        }};
+        abstractConnection.send(mockEvent);
+        abstractConnection.addEventSendFailureCallback(mockCallback);
+
+        abstractConnection.send(mockEvent);
+        abstractConnection.sendBatch(Arrays.asList(mockEvent, mockEvent));
+
         new Verifications() {{
-            Thread.sleep(AbstractConnection.DEFAULT_BASE_WAITING_TIME);
+            abstractConnection.doSend((Event) any);
+            times = 1;
+            mockCallback.onFailure(mockEvent, (Exception) any);
+            times = 3;
         }};
     }
 
     @Test
-    public void testLockDownDoesntDoubleItAtMax(@Injectable final Event mockEvent) throws Exception {
-        setField(abstractConnection, "waitingTime", AbstractConnection.DEFAULT_MAX_WAITING_TIME);
+    public void testProbeClosesTheCircuit(@Injectable final Event mockEvent) throws Exception {
+        abstractConnection.setBaseWaitingTime(0);
         new NonStrictExpectations() {{
             abstractConnection.doSend((Event) any);
             result = new ConnectionException();
+            result = null;
         }};
 
+        abstractConnection.send(mockEvent);
         abstractConnection.send(mockEvent);
 
-        long waitingTimeAfter = getField(abstractConnection, "waitingTime");
-        assertThat(waitingTimeAfter, is(AbstractConnection.DEFAULT_MAX_WAITING_TIME));
+        assertThat(getCircuitBreaker().getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void testTooManyRequestsRejectsEventsWithoutOpeningTheCircuit(
+            @Injectable final Event mockEvent,
+            @Injectable final EventSendFailureCallback mockCallback) throws Exception {
+        new NonStrictExpectations() {{
+            abstractConnection.doSend((Event) any);
+            result = new TooManyRequestsException("Quota exceeded", null, TimeUnit.HOURS.toMillis(1));
+        }};
+        abstractConnection.addEventSendFailureCallback(mockCallback);
+
+        abstractConnection.send(mockEvent);
+        abstractConnection.send(mockEvent);
+
+        assertThat(getCircuitBreaker().getState(), is(CircuitBreaker.State.CLOSED));
         new Verifications() {{
-            Thread.sleep(AbstractConnection.DEFAULT_MAX_WAITING_TIME);
+            abstractConnection.doSend((Event) any);
+            times = 1;
+            mockCallback.onFailure(mockEvent, (Exception) any);
+            times = 2;
         }};
     }
+
+    @Test
+    public void testEventsOverTheRateLimitAreRejected(@Injectable final Event mockEvent) throws Exception {
+        abstractConnection.getRateLimiter().setRate(1, 2);
+
+        abstractConnection.sendBatch(Arrays.asList(mockEvent, mockEvent, mockEvent));
+
+        new Verifications() {{
+            abstractConnection.doSend(mockEvent);
+            times = 2;
+        }};
+    }
+
+    private CircuitBreaker getCircuitBreaker() {
+        return getField(abstractConnection, "circuitBreaker");
+    }
+
+    @Test
+    public void testFailedEventReportedAsDropped() throws Exception {
+        Event event = new EventBuilder().build();
+        new NonStrictExpectations() {{
+            abstractConnection.doSend((Event) any);
+            result = new ConnectionException("Server down");
+        }};
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        abstractConnection.send(event);
+
+        assertThat(deliveryFuture.getDropReason(), is("Server down"));
+    }
+
+    @Test
+    public void testFailedEventKeptByACallbackNotDropped(
+            @Injectable final EventSendFailureCallback mockCallback) throws Exception {
+        Event event = new EventBuilder().build();
+        new NonStrictExpectations() {{
+            abstractConnection.doSend((Event) any);
+            result = new ConnectionException("Server down");
+            mockCallback.onFailure((Event) any, (Exception) any);
+            result = true;
+        }};
+        abstractConnection.addEventSendFailureCallback(mockCallback);
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        abstractConnection.send(event);
+
+        assertThat(deliveryFuture.isDone(), is(false));
+        EventDeliveries.delivered(event);
+    }
+
+    @Test
+    public void testPayloadRejectedWhileTheCircuitIsOpenReportedAsDropped() throws Exception {
+        abstractConnection.setBaseWaitingTime(TimeUnit.HOURS.toMillis(1));
+        Event event = new EventBuilder().build();
+        new NonStrictExpectations(abstractConnection) {{
+            abstractConnection.doSendPayload((EventPayload) any);
+            result = new ConnectionException("Server down");
+        }};
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+        EventPayload payload = new EventPayload(event.getId(), new byte[0], null);
+
+        abstractConnection.sendPayload(payload);
+        abstractConnection.sendPayload(payload);
+
+        new Verifications() {{
+            abstractConnection.doSendPayload((EventPayload) any);
+            times = 1;
+        }};
+        assertThat(deliveryFuture.getDropReason(), is("Server down"));
+    }
+
+    @Test
+    public void testDeliveriesNotReportedWhenDisabled() throws Exception {
+        Event event = new EventBuilder().build();
+        abstractConnection.setReportingDeliveries(false);
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        abstractConnection.reportDelivery(event);
+
+        assertThat(deliveryFuture.isDone(), is(false));
+        EventDeliveries.delivered(event);
+    }
 }
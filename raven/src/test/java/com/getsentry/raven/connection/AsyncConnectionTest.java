@@ -4,12 +4,31 @@ import mockit.*;
 import com.getsentry.raven.Raven;
 import com.getsentry.raven.environment.RavenEnvironment;
 import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.marshaller.Marshaller;
+import com.getsentry.raven.spool.EventSpool;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
 public class AsyncConnectionTest {
     @Tested
     private AsyncConnection asyncConnection = null;
@@ -151,4 +170,218 @@ public class AsyncConnectionTest {
         // Ensure that the shutdown hooks for the used @Tested instance are removed
         asyncConnection.close();
     }
+
+    @Test
+    public void testFlushWaitsForTheQueuedEvents(@Injectable final Event mockEvent) throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        new NonStrictExpectations() {{
+            mockExecutorService.execute((Runnable) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                public void execute(Runnable command) {
+                    tasks.add(command);
+                }
+            };
+        }};
+        asyncConnection.send(mockEvent);
+
+        assertThat(asyncConnection.flush(10), is(false));
+        tasks.get(0).run();
+        assertThat(asyncConnection.flush(10), is(true));
+
+        // Ensure that the shutdown hooks for the used @Tested instance are removed
+        asyncConnection.close();
+    }
+
+    @Test
+    public void testDroppedEventsNotWaitedFor(@Injectable final Event mockEvent) throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        new NonStrictExpectations() {{
+            mockExecutorService.execute((Runnable) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                public void execute(Runnable command) {
+                    tasks.add(command);
+                }
+            };
+        }};
+        asyncConnection.send(mockEvent);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        new AsyncConnection.DiscardEventPolicy().rejectedExecution(tasks.get(0), executor);
+
+        assertThat(asyncConnection.flush(10), is(true));
+        executor.shutdown();
+
+        // Ensure that the shutdown hooks for the used @Tested instance are removed
+        asyncConnection.close();
+    }
+
+    @Test
+    public void testMarshalledEventQueuedAsAPayload(@Injectable final PayloadConnection mockPayloadConnection,
+                                                    @Injectable final Marshaller mockMarshaller) throws Exception {
+        // Ensure that the shutdown hooks for the unused @Tested instance are removed
+        asyncConnection.close();
+        final Event event = new EventBuilder().build();
+        new NonStrictExpectations() {{
+            mockExecutorService.execute((Runnable) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+        }};
+        AsyncConnection marshallingConnection = new AsyncConnection(mockPayloadConnection, mockExecutorService, false);
+        marshallingConnection.setMarshaller(mockMarshaller);
+
+        marshallingConnection.send(event);
+
+        new Verifications() {{
+            mockMarshaller.marshall(event, (OutputStream) any);
+            EventPayload payload;
+            mockPayloadConnection.send(payload = withCapture());
+            assertThat(payload.getEventId(), is(event.getId()));
+            mockPayloadConnection.send((Event) any);
+            times = 0;
+        }};
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMarshallerRejectedIfTheConnectionCantSendPayloads(@Injectable Marshaller mockMarshaller)
+            throws Exception {
+        try {
+            asyncConnection.setMarshaller(mockMarshaller);
+        } finally {
+            asyncConnection.close();
+        }
+    }
+
+    @Test
+    public void testQueuedEventsSentBySeverityOnClose() throws Exception {
+        // Ensure that the shutdown hooks for the unused @Tested instance are removed
+        asyncConnection.close();
+        RecordingConnection recordingConnection = new RecordingConnection();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        AsyncConnection connection = new AsyncConnection(recordingConnection, executor, false);
+        final CountDownLatch blockerStarted = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                blockerStarted.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        blockerStarted.await();
+        Event infoEvent = new EventBuilder().withLevel(Event.Level.INFO).build();
+        Event fatalEvent = new EventBuilder().withLevel(Event.Level.FATAL).build();
+        Event errorEvent = new EventBuilder().withLevel(Event.Level.ERROR).build();
+
+        connection.send(infoEvent);
+        connection.send(fatalEvent);
+        connection.send(errorEvent);
+        connection.close();
+
+        assertThat(recordingConnection.sentEvents, contains(fatalEvent.getId(), errorEvent.getId(),
+                infoEvent.getId()));
+    }
+
+    @Test
+    public void testEventsLeftSpilledAndSentByTheNextConnection() throws Exception {
+        // Ensure that the shutdown hooks for the unused @Tested instance are removed
+        asyncConnection.close();
+        File directory = Files.createTempDirectory("raven-spill").toFile();
+        try {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            AsyncConnection closedConnection = new AsyncConnection(new RecordingConnection(), executor, false);
+            closedConnection.setShutdownTimeout(10);
+            closedConnection.setSpill(new EventSpool(directory, 64 * 1024, 2, false));
+            final CountDownLatch blockerStarted = new CountDownLatch(1);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    blockerStarted.countDown();
+                    try {
+                        new CountDownLatch(1).await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            blockerStarted.await();
+            Event event = new EventBuilder().build();
+            DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+            closedConnection.send(event);
+            closedConnection.close();
+
+            assertThat(deliveryFuture.getDropReason(), is(AsyncConnection.SPILLED_MESSAGE));
+            RecordingConnection recordingConnection = new RecordingConnection();
+            AsyncConnection nextConnection = new AsyncConnection(recordingConnection, null, false);
+            nextConnection.setSpill(new EventSpool(directory, 64 * 1024, 2, false));
+            nextConnection.close();
+            assertThat(recordingConnection.sentEvents, contains(event.getId()));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testSpilledEventsSentByTheThreadsOfTheExecutor() throws Exception {
+        // Ensure that the shutdown hooks for the unused @Tested instance are removed
+        asyncConnection.close();
+        File directory = Files.createTempDirectory("raven-spill").toFile();
+        try {
+            Event event = new EventBuilder().build();
+            EventSpool previousSpill = new EventSpool(directory, 64 * 1024, 2, false);
+            previousSpill.append(event);
+            previousSpill.close();
+            RecordingConnection recordingConnection = new RecordingConnection();
+            AsyncConnection connection = new AsyncConnection(recordingConnection, null, false);
+
+            connection.setSpill(new EventSpool(directory, 64 * 1024, 2, false));
+            connection.close();
+
+            assertThat(recordingConnection.sentEvents, contains(event.getId()));
+            assertThat(recordingConnection.sendingThreads, not(hasItem(Thread.currentThread())));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Connection recording the events it sends.
+     */
+    private static final class RecordingConnection implements Connection {
+        private final List<UUID> sentEvents = new CopyOnWriteArrayList<>();
+        private final List<Thread> sendingThreads = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void send(Event event) {
+            sentEvents.add(event.getId());
+            sendingThreads.add(Thread.currentThread());
+        }
+
+
+        @Override
+        public void close() {
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import mockit.Injectable;
+import mockit.Verifications;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+public class BatchingConnectionTest {
+    private BatchingConnection batchingConnection = null;
+    @Injectable
+    private FlushableBatchConnection mockConnection = null;
+    @Injectable
+    private ScheduledExecutorService mockScheduler = null;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        batchingConnection = new BatchingConnection(mockConnection, 2, 1000, mockScheduler, false);
+    }
+
+    @Test
+    public void testEventWaitsForTheBatch(@Injectable final Event mockEvent) throws Exception {
+        batchingConnection.send(mockEvent);
+
+        new Verifications() {{
+            mockConnection.sendBatch((List<Event>) any);
+            times = 0;
+            mockScheduler.schedule((Runnable) any, 1000, TimeUnit.MILLISECONDS);
+            times = 1;
+        }};
+    }
+
+    @Test
+    public void testFullBatchIsSent(@Injectable final Event mockEvent1,
+                                    @Injectable final Event mockEvent2) throws Exception {
+        batchingConnection.send(mockEvent1);
+        batchingConnection.send(mockEvent2);
+
+        final List<List<Event>> batches = new ArrayList<>();
+        new Verifications() {{
+            mockConnection.sendBatch(withCapture(batches));
+        }};
+        assertThat(batches, contains(Arrays.asList(mockEvent1, mockEvent2)));
+    }
+
+    @Test
+    public void testCloseSendsTheCurrentBatch(@Injectable final Event mockEvent) throws Exception {
+        batchingConnection.send(mockEvent);
+
+        batchingConnection.close();
+
+        final List<List<Event>> batches = new ArrayList<>();
+        new Verifications() {{
+            mockConnection.sendBatch(withCapture(batches));
+            mockScheduler.shutdown();
+            mockConnection.close();
+        }};
+        assertThat(batches, contains(Collections.singletonList(mockEvent)));
+    }
+
+    @Test
+    public void testNoEventSentOnceClosed(@Injectable final Event mockEvent) throws Exception {
+        batchingConnection.close();
+
+        batchingConnection.send(mockEvent);
+
+        new Verifications() {{
+            mockConnection.sendBatch((List<Event>) any);
+            times = 0;
+        }};
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testEmptyBatchesAreRejected() throws Exception {
+        new BatchingConnection(mockConnection, 0, 1000, mockScheduler, false);
+    }
+
+    @Test
+    public void testFlushSendsTheCurrentBatch(@Injectable final Event mockEvent) throws Exception {
+        batchingConnection.send(mockEvent);
+
+        batchingConnection.flush(1000);
+
+        final List<List<Event>> batches = new ArrayList<>();
+        new Verifications() {{
+            mockConnection.sendBatch(withCapture(batches));
+            mockConnection.flush(anyLong);
+        }};
+        assertThat(batches, contains(Collections.singletonList(mockEvent)));
+    }
+
+    private interface FlushableBatchConnection extends BatchConnection, FlushableConnection {
+    }
+}
@@ -0,0 +1,103 @@
+package com.getsentry.raven.connection;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static mockit.Deencapsulation.getField;
+import static mockit.Deencapsulation.setField;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CircuitBreakerTest {
+    private static final long BASE_WAITING_TIME = 10;
+    private static final long MAX_WAITING_TIME = 30;
+    private CircuitBreaker circuitBreaker;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        circuitBreaker = new CircuitBreaker(BASE_WAITING_TIME, MAX_WAITING_TIME);
+    }
+
+    private void endWaitingTime() {
+        setField(circuitBreaker, "openUntil", 0L);
+    }
+
+    @Test
+    public void testFailureOpensTheCircuit() throws Exception {
+        circuitBreaker.recordFailure(CircuitBreaker.Permit.REQUEST);
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(circuitBreaker.allowRequest(), is(CircuitBreaker.Permit.REJECTED));
+    }
+
+    @Test
+    public void testSingleProbeAllowedOnceTheWaitingTimeIsOver() throws Exception {
+        circuitBreaker.recordFailure(CircuitBreaker.Permit.REQUEST);
+        endWaitingTime();
+
+        assertThat(circuitBreaker.allowRequest(), is(CircuitBreaker.Permit.PROBE));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat(circuitBreaker.allowRequest(), is(CircuitBreaker.Permit.REJECTED));
+    }
+
+    @Test
+    public void testSuccessfulProbeClosesTheCircuit() throws Exception {
+        circuitBreaker.recordFailure(CircuitBreaker.Permit.REQUEST);
+        endWaitingTime();
+        CircuitBreaker.Permit probe = circuitBreaker.allowRequest();
+
+        circuitBreaker.recordSuccess(probe);
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.allowRequest(), is(CircuitBreaker.Permit.REQUEST));
+        assertThat((Long) getField(circuitBreaker, "waitingTime"), is(BASE_WAITING_TIME));
+    }
+
+    @Test
+    public void testFailedProbeDoublesTheWaitingTimeUpToTheMaximum() throws Exception {
+        circuitBreaker.recordFailure(CircuitBreaker.Permit.REQUEST);
+        for (int i = 0; i < 3; i++) {
+            endWaitingTime();
+            circuitBreaker.recordFailure(circuitBreaker.allowRequest());
+        }
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat((Long) getField(circuitBreaker, "waitingTime"), is(MAX_WAITING_TIME));
+    }
+
+    @Test
+    public void testLateFailuresDontExtendTheWaitingTime() throws Exception {
+        circuitBreaker.recordFailure(CircuitBreaker.Permit.REQUEST);
+        long openUntil = getField(circuitBreaker, "openUntil");
+
+        circuitBreaker.recordFailure(CircuitBreaker.Permit.REQUEST);
+
+        assertThat((Long) getField(circuitBreaker, "openUntil"), is(openUntil));
+        assertThat((Long) getField(circuitBreaker, "waitingTime"), is(BASE_WAITING_TIME));
+    }
+
+    @Test
+    public void testProbeWithoutOutcomeLetsTheNextRequestProbe() throws Exception {
+        circuitBreaker.recordFailure(CircuitBreaker.Permit.REQUEST);
+        endWaitingTime();
+        CircuitBreaker.Permit probe = circuitBreaker.allowRequest();
+
+        circuitBreaker.recordUnknownOutcome(probe);
+
+        assertThat(circuitBreaker.allowRequest(), is(CircuitBreaker.Permit.PROBE));
+    }
+
+    @Test
+    public void testOutcomesOfOtherRequestsDontDecideTheProbe() throws Exception {
+        CircuitBreaker.Permit lateRequest = circuitBreaker.allowRequest();
+        circuitBreaker.recordFailure(CircuitBreaker.Permit.REQUEST);
+        endWaitingTime();
+        circuitBreaker.allowRequest();
+
+        circuitBreaker.recordFailure(lateRequest);
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        circuitBreaker.recordSuccess(lateRequest);
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat((Long) getField(circuitBreaker, "waitingTime"), is(BASE_WAITING_TIME));
+    }
+}
@@ -0,0 +1,97 @@
+package com.getsentry.raven.connection;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ConcurrencyLimitTest {
+    @Test
+    public void testFixedLimitMakesRequestsWait() throws Exception {
+        ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(1);
+        assertThat(concurrencyLimit.tryAcquire(0), is(true));
+
+        assertThat(concurrencyLimit.tryAcquire(10), is(false));
+        concurrencyLimit.release(10, true);
+
+        assertThat(concurrencyLimit.tryAcquire(0), is(true));
+        assertThat(concurrencyLimit.getLimit(), is(1));
+    }
+
+    @Test
+    public void testSheddingLimitRejectsRequestsRightAway() throws Exception {
+        ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(1);
+        concurrencyLimit.setShedding(true);
+        concurrencyLimit.tryAcquire(0);
+
+        long start = System.currentTimeMillis();
+        assertThat(concurrencyLimit.tryAcquire(10000), is(false));
+        assertThat(System.currentTimeMillis() - start, is(lessThan(1000L)));
+    }
+
+    @Test
+    public void testLimitGrowsWhileRequestsSucceed() throws Exception {
+        ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(2, 1, 10);
+
+        for (int i = 0; i < 20; i++) {
+            concurrencyLimit.tryAcquire(0);
+            concurrencyLimit.release(10, false);
+        }
+
+        assertThat(concurrencyLimit.getLimit(), is(greaterThan(2)));
+        assertThat(concurrencyLimit.getInFlight(), is(0));
+        assertThat(concurrencyLimit.getSmoothedRtt(), is(10L));
+    }
+
+    @Test
+    public void testLimitUnusedDoesntGrow() throws Exception {
+        ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(4, 1, 10);
+
+        for (int i = 0; i < 20; i++) {
+            concurrencyLimit.tryAcquire(0);
+            concurrencyLimit.release(10, false);
+        }
+
+        assertThat(concurrencyLimit.getLimit(), is(4));
+    }
+
+    @Test
+    public void testFailedRequestLowersTheLimit() throws Exception {
+        ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(10, 1, 20);
+
+        concurrencyLimit.tryAcquire(0);
+        concurrencyLimit.release(10, true);
+
+        assertThat(concurrencyLimit.getLimit(), is(9));
+    }
+
+    @Test
+    public void testGrowingLatencyLowersTheLimit() throws Exception {
+        ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(10, 1, 20);
+        concurrencyLimit.tryAcquire(0);
+        concurrencyLimit.release(10, false);
+
+        for (int i = 0; i < 10; i++) {
+            concurrencyLimit.tryAcquire(0);
+            concurrencyLimit.release(100, false);
+        }
+
+        assertThat(concurrencyLimit.getLimit(), is(lessThan(10)));
+        assertThat(concurrencyLimit.getBaselineRtt(), is(lessThan(concurrencyLimit.getSmoothedRtt())));
+    }
+
+    @Test
+    public void testLimitNeverGoesUnderTheMinimum() throws Exception {
+        ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(2, 2, 4);
+
+        concurrencyLimit.tryAcquire(0);
+        concurrencyLimit.release(10, true);
+
+        assertThat(concurrencyLimit.getLimit(), is(2));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInitialLimitMustBeWithinTheBounds() throws Exception {
+        new ConcurrencyLimit(5, 1, 4);
+    }
+}
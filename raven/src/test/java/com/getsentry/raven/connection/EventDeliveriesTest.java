@@ -0,0 +1,90 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import mockit.Injectable;
+import mockit.Verifications;
+import org.testng.annotations.Test;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class EventDeliveriesTest {
+    @Test
+    public void testDeliveredEventCompletesWithItsId() throws Exception {
+        Event event = new EventBuilder().build();
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        EventDeliveries.delivered(event);
+
+        assertThat(deliveryFuture.isDone(), is(true));
+        assertThat(deliveryFuture.isDelivered(), is(true));
+        assertThat(deliveryFuture.get(), is(event.getId()));
+    }
+
+    @Test
+    public void testDroppedEventCompletesWithTheReason() throws Exception {
+        Event event = new EventBuilder().build();
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        EventDeliveries.dropped(event, "Queue full");
+
+        assertThat(deliveryFuture.isDelivered(), is(false));
+        assertThat(deliveryFuture.getDropReason(), is("Queue full"));
+        try {
+            deliveryFuture.get();
+            assertThat("Should not exit normally for a dropped event", false);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(ConnectionException.class));
+        }
+    }
+
+    @Test
+    public void testOnlyTheFirstOutcomeIsKept() throws Exception {
+        Event event = new EventBuilder().build();
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        EventDeliveries.delivered(event);
+        EventDeliveries.dropped(event, "Too late");
+
+        assertThat(deliveryFuture.isDelivered(), is(true));
+        assertThat(deliveryFuture.getDropReason(), is(nullValue()));
+    }
+
+    @Test(expectedExceptions = TimeoutException.class)
+    public void testPendingDeliveryTimesOut() throws Exception {
+        Event event = new EventBuilder().build();
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+        try {
+            deliveryFuture.get(10, TimeUnit.MILLISECONDS);
+        } finally {
+            EventDeliveries.dropped(event, "Test over");
+        }
+    }
+
+    @Test
+    public void testListenersNotifiedOfTheOutcome(@Injectable final DeliveryListener mockListener1,
+                                                  @Injectable final DeliveryListener mockListener2)
+            throws Exception {
+        final Event event = new EventBuilder().build();
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+        deliveryFuture.addListener(mockListener1);
+
+        EventDeliveries.dropped(event, "Queue full");
+        deliveryFuture.addListener(mockListener2);
+
+        new Verifications() {{
+            mockListener1.onDropped(event.getId(), "Queue full");
+            mockListener2.onDropped(event.getId(), "Queue full");
+            mockListener1.onDelivered((UUID) any);
+            times = 0;
+        }};
+    }
+}
@@ -0,0 +1,97 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import mockit.Injectable;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class EventRingBufferTest {
+    @Test
+    public void testCapacityRoundedUpToAPowerOfTwo() throws Exception {
+        assertThat(new EventRingBuffer(1).capacity(), is(2));
+        assertThat(new EventRingBuffer(5).capacity(), is(8));
+        assertThat(new EventRingBuffer(8).capacity(), is(8));
+    }
+
+    @Test
+    public void testEventsPolledInOrder(@Injectable final Event mockEvent1,
+                                        @Injectable final Event mockEvent2) throws Exception {
+        EventRingBuffer ringBuffer = new EventRingBuffer(4);
+
+        ringBuffer.offer(mockEvent1);
+        ringBuffer.offer(mockEvent2);
+
+        assertThat(ringBuffer.size(), is(2));
+        assertThat(ringBuffer.poll(), is(sameInstance(mockEvent1)));
+        assertThat(ringBuffer.poll(), is(sameInstance(mockEvent2)));
+        assertThat(ringBuffer.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void testSlotsReusedOnceTheRingBufferIsFull(@Injectable final Event mockEvent) throws Exception {
+        EventRingBuffer ringBuffer = new EventRingBuffer(2);
+
+        for (int lap = 0; lap < 3; lap++) {
+            assertThat(ringBuffer.offer(mockEvent), is(true));
+            assertThat(ringBuffer.offer(mockEvent), is(true));
+            assertThat(ringBuffer.offer(mockEvent), is(false));
+            assertThat(ringBuffer.poll(), is(notNullValue()));
+            assertThat(ringBuffer.poll(), is(notNullValue()));
+        }
+        assertThat(ringBuffer.size(), is(0));
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final int producers = 4;
+        final int eventsPerProducer = 5000;
+        final EventRingBuffer ringBuffer = new EventRingBuffer(64);
+        final Set<Event> polledEvents = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<Event, Boolean>()));
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch producersDone = new CountDownLatch(producers);
+        Thread[] threads = new Thread[producers * 2];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < eventsPerProducer; j++) {
+                        Event event = new EventBuilder().withServerName("server").build();
+                        while (!ringBuffer.offer(event)) {
+                            Thread.yield();
+                        }
+                    }
+                    producersDone.countDown();
+                }
+            };
+            threads[producers + i] = new Thread() {
+                @Override
+                public void run() {
+                    while (producersDone.getCount() > 0 || ringBuffer.size() > 0) {
+                        Event event = ringBuffer.poll();
+                        if (event != null && !polledEvents.add(event))
+                            duplicates.incrementAndGet();
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(duplicates.get(), is(0));
+        assertThat(polledEvents.size(), is(producers * eventsPerProducer));
+    }
+}
@@ -0,0 +1,155 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class FailoverConnectionTest {
+    private FakeEndpoint firstEndpoint;
+    private FakeEndpoint secondEndpoint;
+    private FailoverConnection failoverConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        firstEndpoint = new FakeEndpoint("first");
+        secondEndpoint = new FakeEndpoint("second");
+        failoverConnection = new FailoverConnection("public", "secret",
+                Arrays.<HttpConnection>asList(firstEndpoint, secondEndpoint));
+    }
+
+    @Test
+    public void testEventsSpreadOverIdleEndpoints() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            failoverConnection.send(new EventBuilder().build());
+        }
+
+        assertThat(firstEndpoint.sentEvents, hasSize(2));
+        assertThat(secondEndpoint.sentEvents, hasSize(2));
+    }
+
+    @Test
+    public void testEventSentToAnotherEndpointOnFailure() throws Exception {
+        Event event = new EventBuilder().build();
+        firstEndpoint.failing = true;
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        failoverConnection.send(event);
+
+        assertThat(firstEndpoint.attempts, contains(event.getId()));
+        assertThat(secondEndpoint.sentEvents, contains(event.getId()));
+        assertThat(deliveryFuture.isDelivered(), is(true));
+    }
+
+    @Test
+    public void testFailingEndpointSkippedWhileItsCircuitIsOpen() throws Exception {
+        failoverConnection.setMaxWaitingTime(TimeUnit.HOURS.toMillis(1));
+        failoverConnection.setBaseWaitingTime(TimeUnit.HOURS.toMillis(1));
+        firstEndpoint.failing = true;
+        for (int i = 0; i < 4; i++) {
+            failoverConnection.send(new EventBuilder().build());
+        }
+
+        assertThat(firstEndpoint.attempts.size(), is(1));
+        assertThat(secondEndpoint.sentEvents, hasSize(4));
+    }
+
+    @Test
+    public void testEndpointBroughtBackByAProbe() throws Exception {
+        failoverConnection.setBaseWaitingTime(50);
+        firstEndpoint.failing = true;
+        for (int i = 0; i < 2; i++) {
+            failoverConnection.send(new EventBuilder().build());
+        }
+        firstEndpoint.failing = false;
+        Thread.sleep(100);
+
+        for (int i = 0; i < 4; i++) {
+            failoverConnection.send(new EventBuilder().build());
+        }
+
+        assertThat(firstEndpoint.sentEvents, hasSize(2));
+    }
+
+    @Test
+    public void testEventDroppedOnceEveryEndpointFailed() throws Exception {
+        Event event = new EventBuilder().build();
+        firstEndpoint.failing = true;
+        secondEndpoint.failing = true;
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        failoverConnection.send(event);
+
+        assertThat(firstEndpoint.attempts, contains(event.getId()));
+        assertThat(secondEndpoint.attempts, contains(event.getId()));
+        assertThat(deliveryFuture.getDropReason(), is("None of the sentry endpoints could take the event."));
+    }
+
+    @Test
+    public void testEveryEndpointWaitsWhenOneIsRateLimited() throws Exception {
+        Event event = new EventBuilder().build();
+        firstEndpoint.retryAfter = TimeUnit.HOURS.toMillis(1);
+        secondEndpoint.retryAfter = TimeUnit.HOURS.toMillis(1);
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        failoverConnection.send(event);
+        failoverConnection.send(new EventBuilder().build());
+
+        assertThat(firstEndpoint.attempts.size() + secondEndpoint.attempts.size(), is(1));
+        assertThat(deliveryFuture.getDropReason(), is("Rate limited"));
+        assertThat(firstEndpoint.getRateLimiter().tryAcquire(1), is(0));
+        assertThat(secondEndpoint.getRateLimiter().tryAcquire(1), is(0));
+    }
+
+    @Test
+    public void testOpenCircuitDoesntUseTheTokensOfTheEndpoint() throws Exception {
+        failoverConnection.setMaxWaitingTime(TimeUnit.HOURS.toMillis(1));
+        failoverConnection.setBaseWaitingTime(TimeUnit.HOURS.toMillis(1));
+        firstEndpoint.getRateLimiter().setRate(1, 2);
+        firstEndpoint.failing = true;
+        for (int i = 0; i < 4; i++) {
+            failoverConnection.send(new EventBuilder().build());
+        }
+
+        assertThat(firstEndpoint.attempts.size(), is(1));
+        assertThat(firstEndpoint.getRateLimiter().tryAcquire(1), is(1));
+    }
+
+    /**
+     * Endpoint recording the events instead of sending them.
+     */
+    private static final class FakeEndpoint extends HttpConnection {
+        private final List<UUID> attempts = new CopyOnWriteArrayList<>();
+        private final List<UUID> sentEvents = new CopyOnWriteArrayList<>();
+        private volatile boolean failing;
+        /**
+         * Time (in ms) to wait requested by the endpoint, 0 if it isn't rate limited.
+         */
+        private volatile long retryAfter;
+
+        private FakeEndpoint(String host) throws Exception {
+            super(new URL("http://" + host + "/api/1/store/"), "public", "secret");
+        }
+
+        @Override
+        protected void doSend(Event event) {
+            attempts.add(event.getId());
+            if (retryAfter > 0)
+                throw new TooManyRequestsException("Rate limited", null, retryAfter);
+            if (failing)
+                throw new ConnectionException("Endpoint down");
+            sentEvents.add(event.getId());
+            reportDelivery(event);
+        }
+    }
+}
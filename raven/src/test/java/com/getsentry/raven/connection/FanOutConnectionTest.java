@@ -0,0 +1,102 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.marshaller.Marshaller;
+import mockit.*;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class FanOutConnectionTest {
+    private FanOutConnection fanOutConnection = null;
+    @Injectable
+    private PayloadConnection mockMainConnection = null;
+    @Injectable
+    private PayloadConnection mockMirrorConnection = null;
+    @Injectable
+    private Marshaller mockMarshaller = null;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        fanOutConnection = new FanOutConnection(mockMarshaller,
+                Arrays.asList(mockMainConnection, mockMirrorConnection));
+    }
+
+    @Test
+    public void testEventMarshalledOnceForEveryDestination() throws Exception {
+        final Event event = new EventBuilder().build();
+        final List<EventPayload> payloads = new ArrayList<>();
+        new NonStrictExpectations() {{
+            mockMarshaller.marshall(event, (OutputStream) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void marshall(Event event, OutputStream destination) throws IOException {
+                    destination.write("payload".getBytes("UTF-8"));
+                }
+            };
+            mockMarshaller.getContentEncoding();
+            result = "gzip";
+        }};
+
+        fanOutConnection.send(event);
+
+        new Verifications() {{
+            mockMarshaller.marshall(event, (OutputStream) any);
+            times = 1;
+            EventPayload payload;
+            mockMainConnection.send(payload = withCapture());
+            payloads.add(payload);
+            mockMirrorConnection.send(payload = withCapture());
+            payloads.add(payload);
+        }};
+        assertThat(payloads.get(0), is(sameInstance(payloads.get(1))));
+        assertThat(payloads.get(0).getEventId(), is(event.getId()));
+        assertThat(payloads.get(0).getContentEncoding(), is("gzip"));
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        payloads.get(0).writeTo(content);
+        assertThat(content.toString("UTF-8"), is("payload"));
+    }
+
+    @Test
+    public void testFailingDestinationDoesntStopTheOthers(@Injectable final Event mockEvent) throws Exception {
+        new NonStrictExpectations() {{
+            mockMainConnection.send((EventPayload) any);
+            result = new IllegalStateException();
+        }};
+
+        fanOutConnection.send(mockEvent);
+
+        new Verifications() {{
+            mockMirrorConnection.send((EventPayload) any);
+        }};
+    }
+
+    @Test
+    public void testEveryDestinationClosed() throws Exception {
+        final IOException exception = new IOException();
+        new NonStrictExpectations() {{
+            mockMainConnection.close();
+            result = exception;
+        }};
+
+        try {
+            fanOutConnection.close();
+        } catch (IOException e) {
+            assertThat(e, is(sameInstance(exception)));
+        }
+
+        new Verifications() {{
+            mockMirrorConnection.close();
+        }};
+    }
+}
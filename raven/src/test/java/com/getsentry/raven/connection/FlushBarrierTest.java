@@ -0,0 +1,61 @@
+package com.getsentry.raven.connection;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class FlushBarrierTest {
+    @Test
+    public void testNothingToWaitFor() throws Exception {
+        FlushBarrier flushBarrier = new FlushBarrier();
+
+        assertThat(flushBarrier.await(0), is(true));
+    }
+
+    @Test
+    public void testPendingEventsWaitedFor() throws Exception {
+        FlushBarrier flushBarrier = new FlushBarrier();
+        FlushBarrier.Epoch epoch = flushBarrier.enter();
+
+        assertThat(flushBarrier.await(10), is(false));
+        flushBarrier.exit(epoch);
+        assertThat(flushBarrier.await(10), is(true));
+    }
+
+    @Test
+    public void testEventsEnteredAfterTheFlushNotWaitedFor() throws Exception {
+        final FlushBarrier flushBarrier = new FlushBarrier();
+        final FlushBarrier.Epoch firstEpoch = flushBarrier.enter();
+        Thread sender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                // Submitted while the flush is waiting
+                flushBarrier.enter();
+                flushBarrier.exit(firstEpoch);
+            }
+        };
+        sender.start();
+
+        assertThat(flushBarrier.await(5000), is(true));
+        sender.join();
+    }
+
+    @Test
+    public void testTimedOutFlushStillWaitedForByTheNextOne() throws Exception {
+        FlushBarrier flushBarrier = new FlushBarrier();
+        FlushBarrier.Epoch epoch = flushBarrier.enter();
+        assertThat(flushBarrier.await(0), is(false));
+        FlushBarrier.Epoch nextEpoch = flushBarrier.enter();
+        flushBarrier.exit(nextEpoch);
+
+        assertThat(flushBarrier.await(10), is(false));
+        flushBarrier.exit(epoch);
+        assertThat(flushBarrier.await(10), is(true));
+    }
+}
@@ -3,6 +3,8 @@ package com.getsentry.raven.connection;
 import mockit.*;
 import com.getsentry.raven.environment.RavenEnvironment;
 import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.marshaller.BatchMarshaller;
 import com.getsentry.raven.marshaller.Marshaller;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -10,17 +12,31 @@ import org.testng.annotations.Test;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.isEmptyOrNullString;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
 
 public class HttpConnectionTest {
     @Injectable
@@ -37,8 +53,6 @@ public class HttpConnectionTest {
     private URL mockUrl = null;
     @Injectable
     private OutputStream mockOutputStream = null;
-    @Injectable
-    private InputStream mockInputStream = null;
 
     @BeforeMethod
     public void setUp() throws Exception {
@@ -48,7 +62,7 @@ public class HttpConnectionTest {
             mockUrlConnection.getOutputStream();
             result = mockOutputStream;
             mockUrlConnection.getInputStream();
-            result = mockInputStream;
+            result = new ByteArrayInputStream(new byte[0]);
         }};
     }
 
@@ -121,6 +135,91 @@ public class HttpConnectionTest {
         }};
     }
 
+    @Test
+    public void testContentEncodingHeaderSent(@Injectable final Event mockEvent) throws Exception {
+        new NonStrictExpectations() {{
+            mockMarshaller.getContentEncoding();
+            result = "gzip";
+        }};
+
+        httpConnection.send(mockEvent);
+
+        new Verifications() {{
+            mockUrlConnection.setRequestProperty("Content-Encoding", "gzip");
+        }};
+    }
+
+    @Test
+    public void testPayloadSentAsIs() throws Exception {
+        final byte[] content = "payload".getBytes("UTF-8");
+
+        httpConnection.send(new EventPayload(UUID.randomUUID(), content, "deflate"));
+
+        new Verifications() {{
+            mockUrlConnection.setRequestProperty("Content-Encoding", "deflate");
+            mockOutputStream.write(content);
+            mockMarshaller.marshall((Event) any, (OutputStream) any);
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void testEventSentWithItsExactLength(@Injectable final Event mockEvent) throws Exception {
+        final byte[] content = "event".getBytes("UTF-8");
+        new NonStrictExpectations() {{
+            mockMarshaller.marshall(mockEvent, (OutputStream) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                public void marshall(Event event, OutputStream destination) throws IOException {
+                    destination.write(content);
+                    destination.close();
+                }
+            };
+        }};
+
+        httpConnection.send(mockEvent);
+
+        new VerificationsInOrder() {{
+            mockUrlConnection.setFixedLengthStreamingMode(content.length);
+            mockUrlConnection.getOutputStream();
+            mockOutputStream.write((byte[]) any, 0, content.length);
+            mockOutputStream.close();
+        }};
+        new Verifications() {{
+            mockUrlConnection.setChunkedStreamingMode(anyInt);
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void testLargeEventSentInChunks(@Injectable final Event mockEvent) throws Exception {
+        final byte[] content = new byte[300 * 1024];
+        new NonStrictExpectations() {{
+            mockMarshaller.marshall(mockEvent, (OutputStream) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                public void marshall(Event event, OutputStream destination) throws IOException {
+                    destination.write(content, 0, content.length / 2);
+                    destination.write(content, content.length / 2, content.length / 2);
+                }
+            };
+        }};
+
+        httpConnection.send(mockEvent);
+
+        new VerificationsInOrder() {{
+            mockUrlConnection.setChunkedStreamingMode(anyInt);
+            mockUrlConnection.getOutputStream();
+            mockOutputStream.write((byte[]) any, 0, content.length / 2);
+            mockOutputStream.write(content, content.length / 2, content.length / 2);
+            mockOutputStream.close();
+        }};
+        new Verifications() {{
+            mockUrlConnection.setFixedLengthStreamingMode(anyInt);
+            times = 0;
+        }};
+    }
+
     @Test(expectedExceptions = {ConnectionException.class})
     public void testHttpErrorThrowsAnException(@Injectable final Event mockEvent) throws Exception {
         final String httpErrorMessage = "93e3ddb1-c4f3-46c3-9900-529de83678b7";
@@ -163,4 +262,370 @@ public class HttpConnectionTest {
             assertThat(ce.getMessage(), not(isEmptyOrNullString()));
         }
     }
+
+    @Test
+    public void testResponseDrainedAndConnectionKeptAlive(@Injectable final Event mockEvent) throws Exception {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final InputStream responseStream = new ByteArrayInputStream(new byte[2000]) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        new NonStrictExpectations() {{
+            mockUrlConnection.getInputStream();
+            result = responseStream;
+        }};
+
+        httpConnection.send(mockEvent);
+
+        assertThat(responseStream.read(), is(-1));
+        assertThat(closed.get(), is(true));
+        new Verifications() {{
+            mockUrlConnection.disconnect();
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void testConnectionClosedWhenMarshallingFails(@Injectable final Event mockEvent) throws Exception {
+        new NonStrictExpectations() {{
+            mockMarshaller.marshall(mockEvent, (OutputStream) any);
+            result = new IllegalStateException();
+        }};
+
+        try {
+            httpConnection.doSend(mockEvent);
+            assertThat("Should not exit normally with a failing marshaller", false);
+        } catch (IllegalStateException e) {
+            new Verifications() {{
+                mockUrlConnection.disconnect();
+            }};
+        }
+    }
+
+    @Test(expectedExceptions = {ConnectionException.class})
+    public void testStalledRequestsTimeOutWaitingForAPermit(@Injectable final Event mockEvent) throws Exception {
+        httpConnection.setTimeout(1);
+        httpConnection.setReadTimeout(1);
+        httpConnection.setMaxConcurrentRequests(1);
+        final CountDownLatch requestStarted = new CountDownLatch(1);
+        final CountDownLatch serverResponded = new CountDownLatch(1);
+        new NonStrictExpectations() {{
+            mockUrlConnection.getInputStream();
+            result = new Delegate<InputStream>() {
+                @SuppressWarnings("unused")
+                public InputStream getInputStream() throws InterruptedException {
+                    requestStarted.countDown();
+                    serverResponded.await();
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+            };
+        }};
+        Thread stalledSender = new Thread() {
+            @Override
+            public void run() {
+                httpConnection.doSend(mockEvent);
+            }
+        };
+        stalledSender.start();
+
+        try {
+            requestStarted.await();
+            httpConnection.doSend(mockEvent);
+        } finally {
+            serverResponded.countDown();
+            stalledSender.join();
+        }
+    }
+
+    @Test
+    public void testStalledRequestClosedAtItsDeadline(@Injectable final Event mockEvent) throws Exception {
+        httpConnection.setDeadline(50);
+        final CountDownLatch socketClosed = new CountDownLatch(1);
+        new NonStrictExpectations() {{
+            mockUrlConnection.disconnect();
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                public void disconnect() {
+                    socketClosed.countDown();
+                }
+            };
+            mockUrlConnection.getInputStream();
+            result = new Delegate<InputStream>() {
+                @SuppressWarnings("unused")
+                public InputStream getInputStream() throws Exception {
+                    socketClosed.await();
+                    throw new SocketException("Socket closed");
+                }
+            };
+        }};
+
+        try {
+            httpConnection.doSend(mockEvent);
+            assertThat("Should not exit normally once the deadline passed", false);
+        } catch (DeadlineExceededException e) {
+            assertThat(e.getDeadline(), is(50L));
+        }
+        new Verifications() {{
+            mockUrlConnection.disconnect();
+            times = 1;
+        }};
+    }
+
+    @Test
+    public void testCompletedRequestNotClosedAtItsDeadline(@Injectable final Event mockEvent) throws Exception {
+        httpConnection.setDeadline(50);
+
+        httpConnection.doSend(mockEvent);
+        Thread.sleep(100);
+
+        new Verifications() {{
+            mockUrlConnection.disconnect();
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void testTimeoutsBoundedByTheDeadline(@Injectable final Event mockEvent) throws Exception {
+        httpConnection.setTimeout(0);
+        httpConnection.setReadTimeout(0);
+        httpConnection.setDeadline(1000);
+
+        httpConnection.send(mockEvent);
+
+        new Verifications() {{
+            int connectTimeout;
+            mockUrlConnection.setConnectTimeout(connectTimeout = withCapture());
+            assertThat(connectTimeout, is(both(greaterThan(0)).and(lessThanOrEqualTo(1000))));
+            int readTimeout;
+            mockUrlConnection.setReadTimeout(readTimeout = withCapture());
+            assertThat(readTimeout, is(both(greaterThan(0)).and(lessThanOrEqualTo(1000))));
+        }};
+    }
+
+    @Test
+    public void testConnectionClosedWithoutResponse(@Injectable final Event mockEvent) throws Exception {
+        new NonStrictExpectations() {{
+            mockUrlConnection.getOutputStream();
+            result = new IOException();
+            mockUrlConnection.getErrorStream();
+            result = null;
+        }};
+
+        try {
+            httpConnection.doSend(mockEvent);
+            assertThat("Should not exit normally with IOE", false);
+        } catch (ConnectionException ce) {
+            new Verifications() {{
+                mockUrlConnection.disconnect();
+            }};
+        }
+    }
+
+    @Test
+    public void testBatchSentInASingleRequest(@Injectable final Event mockEvent,
+                                              @Injectable final BatchMarshaller mockBatchMarshaller) throws Exception {
+        httpConnection.setMarshaller(mockBatchMarshaller);
+
+        new NonStrictExpectations() {{
+            mockBatchMarshaller.serialise(mockEvent);
+            result = new byte[10];
+        }};
+
+        httpConnection.sendBatch(Arrays.asList(mockEvent, mockEvent));
+
+        new Verifications() {{
+            mockBatchMarshaller.marshallSerialised((List<byte[]>) any, (OutputStream) any);
+            times = 1;
+            mockUrl.openConnection();
+            times = 1;
+            mockBatchMarshaller.marshall((Event) any, (OutputStream) any);
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void testBatchTooBigIsSplit(@Injectable final Event mockEvent,
+                                       @Injectable final BatchMarshaller mockBatchMarshaller) throws Exception {
+        httpConnection.setMarshaller(mockBatchMarshaller);
+        httpConnection.setMaxBatchBytes(25);
+        new NonStrictExpectations() {{
+            mockBatchMarshaller.serialise(mockEvent);
+            result = new byte[10];
+        }};
+
+        httpConnection.sendBatch(Arrays.asList(mockEvent, mockEvent, mockEvent));
+
+        final List<List<byte[]>> requests = new ArrayList<>();
+        new Verifications() {{
+            mockBatchMarshaller.serialise(mockEvent);
+            times = 3;
+            mockBatchMarshaller.marshallSerialised(withCapture(requests), (OutputStream) any);
+            times = 2;
+        }};
+        assertThat(requests.get(0).size(), is(2));
+        assertThat(requests.get(1).size(), is(1));
+    }
+
+    @Test
+    public void testFailedRequestOfABatchDoesntStopTheNextOnes(@Injectable final Event mockEvent,
+                                                              @Injectable final BatchMarshaller mockBatchMarshaller)
+            throws Exception {
+        httpConnection.setMarshaller(mockBatchMarshaller);
+        httpConnection.setMaxBatchBytes(10);
+        new NonStrictExpectations() {{
+            mockBatchMarshaller.serialise(mockEvent);
+            result = new byte[10];
+            mockUrlConnection.getOutputStream();
+            result = new IOException();
+            result = mockOutputStream;
+        }};
+
+        try {
+            httpConnection.doSendBatch(Arrays.asList(mockEvent, mockEvent));
+            assertThat("Should not exit normally with a failed request", false);
+        } catch (ConnectionException e) {
+            new Verifications() {{
+                mockBatchMarshaller.marshallSerialised((List<byte[]>) any, (OutputStream) any);
+                times = 2;
+                mockUrl.openConnection();
+                times = 2;
+            }};
+        }
+    }
+
+    @Test
+    public void testRequestOverASheddingLimitRejectedRightAway(@Injectable final Event mockEvent) throws Exception {
+        ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(1);
+        concurrencyLimit.setShedding(true);
+        httpConnection.setConcurrencyLimit(concurrencyLimit);
+        concurrencyLimit.tryAcquire(0);
+
+        try {
+            httpConnection.doSend(mockEvent);
+            assertThat("Should not exit normally over the concurrency limit", false);
+        } catch (TooManyRequestsException e) {
+            assertThat(e.getRetryAfter(), is(0L));
+        }
+        new Verifications() {{
+            mockUrl.openConnection();
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void testServerFailureLowersTheAdaptiveLimit(@Injectable final Event mockEvent) throws Exception {
+        ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(4, 1, 4);
+        httpConnection.setConcurrencyLimit(concurrencyLimit);
+        new NonStrictExpectations() {{
+            mockUrlConnection.getInputStream();
+            result = new IOException();
+            mockUrlConnection.getResponseCode();
+            result = 503;
+        }};
+
+        try {
+            httpConnection.doSend(mockEvent);
+            assertThat("Should not exit normally with a server error", false);
+        } catch (ConnectionException e) {
+            assertThat(concurrencyLimit.getLimit(), is(3));
+            assertThat(concurrencyLimit.getInFlight(), is(0));
+        }
+    }
+
+    @Test
+    public void testRejectedEventDoesntLowerTheAdaptiveLimit(@Injectable final Event mockEvent) throws Exception {
+        ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit(4, 1, 4);
+        httpConnection.setConcurrencyLimit(concurrencyLimit);
+        new NonStrictExpectations() {{
+            mockUrlConnection.getInputStream();
+            result = new IOException();
+            mockUrlConnection.getResponseCode();
+            result = 400;
+        }};
+
+        try {
+            httpConnection.doSend(mockEvent);
+            assertThat("Should not exit normally with a rejected event", false);
+        } catch (ConnectionException e) {
+            assertThat(concurrencyLimit.getLimit(), is(4));
+            assertThat(concurrencyLimit.getInFlight(), is(0));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMaxBatchBytesMustBePositive() throws Exception {
+        httpConnection.setMaxBatchBytes(0);
+    }
+
+    @Test
+    public void testTooManyRequestsGivesTheTimeToWait(@Injectable final Event mockEvent) throws Exception {
+        new NonStrictExpectations() {{
+            mockUrlConnection.getInputStream();
+            result = new IOException();
+            mockUrlConnection.getErrorStream();
+            result = new ByteArrayInputStream(new byte[0]);
+            mockUrlConnection.getResponseCode();
+            result = 429;
+            mockUrlConnection.getHeaderField("Retry-After");
+            result = "42";
+        }};
+
+        try {
+            httpConnection.doSend(mockEvent);
+            assertThat("Should not exit normally with a 429 response", false);
+        } catch (TooManyRequestsException e) {
+            assertThat(e.getRetryAfter(), is(42000L));
+        }
+    }
+
+    @Test
+    public void testSuccessfulRequestReportsTheDelivery() throws Exception {
+        Event event = new EventBuilder().build();
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        httpConnection.send(event);
+
+        assertThat(deliveryFuture.get(), is(event.getId()));
+    }
+
+    @Test
+    public void testDefaultSocketFactoryKept(@Injectable final Event mockEvent) throws Exception {
+        httpConnection.send(mockEvent);
+
+        new Verifications() {{
+            mockUrlConnection.setSSLSocketFactory((SSLSocketFactory) any);
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void testFailedWarmUpOnlyLogged() throws Exception {
+        try (final ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = new Thread() {
+                @Override
+                public void run() {
+                    try (Socket socket = serverSocket.accept()) {
+                        socket.getOutputStream().write("HTTP/1.1 400 Bad Request\r\n\r\n".getBytes("UTF-8"));
+                    } catch (IOException e) {
+                        // The warm-up gave up
+                    }
+                }
+            };
+            server.start();
+            new NonStrictExpectations() {{
+                mockUrl.getHost();
+                result = "localhost";
+                mockUrl.getProtocol();
+                result = "https";
+                mockUrl.getPort();
+                result = serverSocket.getLocalPort();
+            }};
+
+            httpConnection.warmUpNow();
+
+            server.join();
+        }
+    }
 }
@@ -0,0 +1,131 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import mockit.*;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class LevelAwareEventQueueTest {
+    @Injectable
+    private Connection mockConnection = null;
+    @Injectable
+    private ExecutorService mockExecutorService = null;
+    @SuppressWarnings("unused")
+    @Mocked("addShutdownHook")
+    private Runtime mockRuntime = null;
+    private AsyncConnection asyncConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        asyncConnection = new AsyncConnection(mockConnection, mockExecutorService, false);
+    }
+
+    @Test
+    public void testMostSevereEventsTakenFirst() throws Exception {
+        LevelAwareEventQueue queue = new LevelAwareEventQueue(10, 0, 0);
+        Runnable debug = submitter(Event.Level.DEBUG);
+        Runnable error = submitter(Event.Level.ERROR);
+        Runnable info = submitter(Event.Level.INFO);
+        Runnable fatal = submitter(Event.Level.FATAL);
+        queue.offer(debug);
+        queue.offer(error);
+        queue.offer(info);
+        queue.offer(fatal);
+
+        assertThat(drain(queue), contains(fatal, error, info, debug));
+    }
+
+    @Test
+    public void testLeastSevereEventDroppedWhenFull() throws Exception {
+        LevelAwareEventQueue queue = new LevelAwareEventQueue(3, 0, 0);
+        Runnable info = submitter(Event.Level.INFO);
+        Runnable debug1 = submitter(Event.Level.DEBUG);
+        Runnable debug2 = submitter(Event.Level.DEBUG);
+        Runnable warning = submitter(Event.Level.WARNING);
+        queue.offer(info);
+        queue.offer(debug1);
+        queue.offer(debug2);
+
+        assertThat(queue.offer(warning), is(true));
+
+        assertThat(drain(queue), contains(warning, info, debug2));
+    }
+
+    @Test
+    public void testLessSevereEventRejectedWhenFull() throws Exception {
+        LevelAwareEventQueue queue = new LevelAwareEventQueue(2, 0, 0);
+        queue.offer(submitter(Event.Level.ERROR));
+        queue.offer(submitter(Event.Level.WARNING));
+
+        assertThat(queue.offer(submitter(Event.Level.DEBUG)), is(false));
+        assertThat(queue.size(), is(2));
+    }
+
+    @Test
+    public void testReservedCapacityKeptForErrors() throws Exception {
+        LevelAwareEventQueue queue = new LevelAwareEventQueue(3, 1, 0);
+        Runnable info1 = submitter(Event.Level.INFO);
+        Runnable info2 = submitter(Event.Level.INFO);
+        Runnable info3 = submitter(Event.Level.INFO);
+        Runnable error = submitter(Event.Level.ERROR);
+        queue.offer(info1);
+        queue.offer(info2);
+        queue.offer(info3);
+
+        assertThat(queue.remainingCapacity(), is(1));
+        assertThat(queue.offer(error), is(true));
+        assertThat(drain(queue), contains(error, info2, info3));
+    }
+
+    @Test
+    public void testExpiredEventsDropped() throws Exception {
+        LevelAwareEventQueue queue = new LevelAwareEventQueue(10, 0, 50);
+        queue.offer(submitter(Event.Level.ERROR));
+        queue.offer(submitter(Event.Level.DEBUG));
+
+        Thread.sleep(100);
+        Runnable fresh = submitter(Event.Level.INFO);
+        queue.offer(fresh);
+
+        assertThat(queue.size(), is(1));
+        assertThat(queue.poll(), is(fresh));
+    }
+
+    @Test
+    public void testPollWaitsForAnEvent() throws Exception {
+        final LevelAwareEventQueue queue = new LevelAwareEventQueue(10, 0, 0);
+        final Runnable event = submitter(Event.Level.INFO);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                queue.offer(event);
+            }
+        };
+
+        assertThat(queue.poll(10, TimeUnit.MILLISECONDS), is(nullValue()));
+        producer.start();
+        assertThat(queue.poll(5, TimeUnit.SECONDS), is(event));
+        producer.join();
+    }
+
+    private Runnable submitter(Event.Level level) {
+        return asyncConnection.new EventSubmitter(new EventBuilder().withLevel(level).build());
+    }
+
+    private static List<Runnable> drain(LevelAwareEventQueue queue) {
+        List<Runnable> runnables = new ArrayList<>();
+        queue.drainTo(runnables);
+        return runnables;
+    }
+}
@@ -0,0 +1,142 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.marshaller.json.JsonMarshaller;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class NdjsonConnectionTest {
+    private static final long FLUSH_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private CountingOutputStream outputStream;
+    private NdjsonConnection ndjsonConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        outputStream = new CountingOutputStream();
+        ndjsonConnection = new NdjsonConnection(outputStream);
+        JsonMarshaller marshaller = new JsonMarshaller();
+        marshaller.setCompression(false);
+        ndjsonConnection.setMarshaller(marshaller);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        ndjsonConnection.close();
+    }
+
+    private String[] writtenLines() throws Exception {
+        return outputStream.toString("UTF-8").split("\n");
+    }
+
+    @Test
+    public void testOneJsonDocumentPerLine() throws Exception {
+        Event firstEvent = new EventBuilder().withMessage("first\nmessage").build();
+        Event secondEvent = new EventBuilder().withMessage("second").build();
+
+        ndjsonConnection.send(firstEvent);
+        ndjsonConnection.send(secondEvent);
+        ndjsonConnection.flush(FLUSH_TIMEOUT);
+
+        String[] lines = writtenLines();
+        assertThat(lines.length, is(2));
+        assertThat(lines[0], allOf(startsWith("{"), endsWith("}"),
+                containsString(firstEvent.getId().toString().replace("-", ""))));
+        assertThat(lines[1], containsString(secondEvent.getId().toString().replace("-", "")));
+    }
+
+    @Test
+    public void testConcurrentEventsWrittenTogether() throws Exception {
+        ndjsonConnection.setFlushInterval(TimeUnit.HOURS.toMillis(1));
+        final int eventCount = 100;
+        final CountDownLatch sent = new CountDownLatch(eventCount);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < eventCount / 4; j++) {
+                        ndjsonConnection.send(new EventBuilder().build());
+                        sent.countDown();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        sent.await(FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertThat(ndjsonConnection.flush(FLUSH_TIMEOUT), is(true));
+        assertThat(writtenLines().length, is(eventCount));
+        assertThat(outputStream.writes.get(), is(1));
+    }
+
+    @Test
+    public void testBufferWrittenOnceFull() throws Exception {
+        ndjsonConnection.setFlushInterval(TimeUnit.HOURS.toMillis(1));
+        ndjsonConnection.setBufferSize(1);
+
+        ndjsonConnection.send(new EventBuilder().build());
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+        while (outputStream.writes.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(writtenLines().length, is(1));
+    }
+
+    @Test
+    public void testEventWrittenAfterTheFlushInterval() throws Exception {
+        ndjsonConnection.setFlushInterval(10);
+        Event event = new EventBuilder().build();
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        ndjsonConnection.send(event);
+
+        assertThat(deliveryFuture.get(FLUSH_TIMEOUT, TimeUnit.MILLISECONDS), is(event.getId()));
+        assertThat(writtenLines().length, is(1));
+    }
+
+    @Test
+    public void testBufferedEventsWrittenOnClose() throws Exception {
+        ndjsonConnection.setFlushInterval(TimeUnit.HOURS.toMillis(1));
+        ndjsonConnection.send(new EventBuilder().build());
+
+        ndjsonConnection.close();
+
+        assertThat(writtenLines().length, is(1));
+        assertThat(outputStream.closed, is(true));
+    }
+
+    /**
+     * Stream counting the writes.
+     */
+    private static final class CountingOutputStream extends ByteArrayOutputStream {
+        private final AtomicInteger writes = new AtomicInteger();
+        private volatile boolean closed;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes.incrementAndGet();
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+    }
+}
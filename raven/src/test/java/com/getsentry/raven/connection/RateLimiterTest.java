@@ -0,0 +1,88 @@
+package com.getsentry.raven.connection;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static mockit.Deencapsulation.setField;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class RateLimiterTest {
+    private RateLimiter rateLimiter;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        rateLimiter = new RateLimiter();
+    }
+
+    @Test
+    public void testNoLimitByDefault() throws Exception {
+        assertThat(rateLimiter.tryAcquire(1000), is(1000));
+    }
+
+    @Test
+    public void testBurstLimitsTheEventsSentAtOnce() throws Exception {
+        rateLimiter.setRate(1, 5);
+
+        assertThat(rateLimiter.tryAcquire(3), is(3));
+        assertThat(rateLimiter.tryAcquire(3), is(2));
+        assertThat(rateLimiter.tryAcquire(1), is(0));
+    }
+
+    @Test
+    public void testBucketRefilledOverTime() throws Exception {
+        rateLimiter.setRate(10, 10);
+        rateLimiter.tryAcquire(10);
+        setField(rateLimiter, "lastRefill", System.currentTimeMillis() - TimeUnit.MILLISECONDS.toMillis(500));
+
+        assertThat(rateLimiter.tryAcquire(10), is(5));
+    }
+
+    @Test
+    public void testEverythingRejectedWhileSentryAsksToWait() throws Exception {
+        rateLimiter.limitFor(TimeUnit.HOURS.toMillis(1));
+
+        assertThat(rateLimiter.tryAcquire(1), is(0));
+    }
+
+    @Test
+    public void testRetryAfterInSeconds() throws Exception {
+        assertThat(RateLimiter.parseRetryAfter("42", null), is(42000L));
+    }
+
+    @Test
+    public void testRetryAfterAsAnHttpDate() throws Exception {
+        SimpleDateFormat httpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        String inOneHour = httpDateFormat.format(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+
+        long retryAfter = RateLimiter.parseRetryAfter(inOneHour, null);
+
+        assertThat(retryAfter, is(both(greaterThan(TimeUnit.MINUTES.toMillis(58)))
+                .and(lessThanOrEqualTo(TimeUnit.HOURS.toMillis(1)))));
+    }
+
+    @Test
+    public void testSentryRateLimitsForErrorsTakePrecedence() throws Exception {
+        long retryAfter = RateLimiter.parseRetryAfter("10", "3600:transaction:key, 60:error;default:organization");
+
+        assertThat(retryAfter, is(60000L));
+    }
+
+    @Test
+    public void testSentryRateLimitsWithoutCategoryApplyToEverything() throws Exception {
+        assertThat(RateLimiter.parseRetryAfter(null, "120::organization"), is(120000L));
+    }
+
+    @Test
+    public void testDefaultRetryAfterWithoutHeaders() throws Exception {
+        assertThat(RateLimiter.parseRetryAfter(null, null), is(RateLimiter.DEFAULT_RETRY_AFTER));
+        assertThat(RateLimiter.parseRetryAfter("soon", null), is(RateLimiter.DEFAULT_RETRY_AFTER));
+    }
+}
@@ -0,0 +1,173 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class RetryingConnectionTest {
+    private static final long RETRY_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private FlakyConnection actualConnection;
+    private RetryingConnection retryingConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        actualConnection = new FlakyConnection();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (retryingConnection != null)
+            retryingConnection.close();
+    }
+
+    private static Event createEvent() {
+        return new EventBuilder().withServerName("server").build();
+    }
+
+    private void waitForAttempts(int count) throws Exception {
+        long deadline = System.currentTimeMillis() + RETRY_TIMEOUT;
+        while (actualConnection.attempts.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testFailedEventSentAgain() throws Exception {
+        Event event = createEvent();
+        retryingConnection = new RetryingConnection(actualConnection, 3, 0, 10, 10, Long.MAX_VALUE);
+        actualConnection.failuresLeft.set(2);
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        retryingConnection.send(event);
+
+        assertThat(deliveryFuture.get(RETRY_TIMEOUT, TimeUnit.MILLISECONDS), is(event.getId()));
+        assertThat(actualConnection.sentEvents, contains(event.getId()));
+        assertThat(actualConnection.attempts.get(), is(3));
+    }
+
+    @Test
+    public void testEventDroppedOnceOutOfRetries() throws Exception {
+        Event event = createEvent();
+        retryingConnection = new RetryingConnection(actualConnection, 2, 0, 10, 10, Long.MAX_VALUE);
+        actualConnection.failuresLeft.set(Integer.MAX_VALUE);
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        retryingConnection.send(event);
+        waitForAttempts(3);
+        Thread.sleep(50);
+
+        assertThat(deliveryFuture.getDropReason(), is("Sentry is down"));
+        assertThat(actualConnection.attempts.get(), is(3));
+    }
+
+    @Test
+    public void testRetryFailingOnAnotherThreadCountedAsARetry() throws Exception {
+        Event event = createEvent();
+        actualConnection.asynchronous = true;
+        retryingConnection = new RetryingConnection(actualConnection, 2, 0, 10, 10, Long.MAX_VALUE);
+        actualConnection.failuresLeft.set(Integer.MAX_VALUE);
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        retryingConnection.send(event);
+        waitForAttempts(3);
+        Thread.sleep(50);
+
+        assertThat(deliveryFuture.getDropReason(), is("Sentry is down"));
+        assertThat(actualConnection.attempts.get(), is(3));
+    }
+
+    @Test
+    public void testFreshEventsNotDelayedByRetries() throws Exception {
+        Event failedEvent = createEvent();
+        Event freshEvent = createEvent();
+        retryingConnection = new RetryingConnection(actualConnection, 1, TimeUnit.HOURS.toMillis(1),
+                TimeUnit.HOURS.toMillis(1), 10, Long.MAX_VALUE);
+        actualConnection.failuresLeft.set(1);
+
+        retryingConnection.send(failedEvent);
+        retryingConnection.send(freshEvent);
+
+        assertThat(actualConnection.sentEvents, contains(freshEvent.getId()));
+    }
+
+    @Test
+    public void testEventDroppedWhenTheRetryQueueIsFull() throws Exception {
+        Event queuedEvent = createEvent();
+        Event droppedEvent = createEvent();
+        retryingConnection = new RetryingConnection(actualConnection, 1, TimeUnit.HOURS.toMillis(1),
+                TimeUnit.HOURS.toMillis(1), 1, Long.MAX_VALUE);
+        actualConnection.failuresLeft.set(2);
+        DeliveryFuture queuedDelivery = EventDeliveries.track(queuedEvent);
+        DeliveryFuture droppedDelivery = EventDeliveries.track(droppedEvent);
+
+        retryingConnection.send(queuedEvent);
+        retryingConnection.send(droppedEvent);
+
+        assertThat(queuedDelivery.isDone(), is(false));
+        assertThat(droppedDelivery.isDone(), is(true));
+        retryingConnection.close();
+        retryingConnection = null;
+        assertThat(queuedDelivery.isDone(), is(true));
+    }
+
+    @Test
+    public void testEventsOverTheByteCapNotQueued() throws Exception {
+        Event event = createEvent();
+        retryingConnection = new RetryingConnection(actualConnection, 1, 0, 10, 10, 1);
+        actualConnection.failuresLeft.set(1);
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        retryingConnection.send(event);
+
+        assertThat(deliveryFuture.getDropReason(), is("Sentry is down"));
+    }
+
+    /**
+     * Connection failing {@link #failuresLeft} times, without lockdown, reporting the failures from another thread
+     * when {@link #asynchronous}.
+     */
+    private static final class FlakyConnection extends AbstractConnection {
+        private final List<UUID> sentEvents = new CopyOnWriteArrayList<>();
+        private final AtomicInteger failuresLeft = new AtomicInteger();
+        private final AtomicInteger attempts = new AtomicInteger();
+        private volatile boolean asynchronous;
+
+        private FlakyConnection() {
+            super("public", "secret");
+            setBaseWaitingTime(0);
+        }
+
+        @Override
+        protected void doSend(final Event event) throws ConnectionException {
+            attempts.incrementAndGet();
+            if (failuresLeft.getAndDecrement() > 0) {
+                if (!asynchronous)
+                    throw new ConnectionException("Sentry is down");
+                new Thread() {
+                    @Override
+                    public void run() {
+                        reportFailure(event, new ConnectionException("Sentry is down"));
+                    }
+                }.start();
+                return;
+            }
+            sentEvents.add(event.getId());
+            reportDelivery(event);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.spool.EventSpool;
+import mockit.*;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class RingBufferAsyncConnectionTest {
+    @Injectable
+    private FlushableConnection mockConnection = null;
+    @SuppressWarnings("unused")
+    @Mocked("addShutdownHook")
+    private Runtime mockRuntime = null;
+    private final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+
+    @Test
+    public void testEventsSentByTheActualConnection(@Injectable final Event mockEvent) throws Exception {
+        final CountDownLatch sent = new CountDownLatch(3);
+        new NonStrictExpectations() {{
+            mockConnection.send(mockEvent);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                public void send(Event event) {
+                    sent.countDown();
+                }
+            };
+        }};
+        RingBufferAsyncConnection connection = new RingBufferAsyncConnection(mockConnection, 16, 2,
+                WaitStrategy.PARK, threadFactory, false);
+
+        for (int i = 0; i < 3; i++) {
+            connection.send(mockEvent);
+        }
+
+        assertThat(sent.await(5, TimeUnit.SECONDS), is(true));
+        connection.close();
+    }
+
+    @Test
+    public void testOldestEventDroppedWhenFull(@Injectable final Event mockEvent1,
+                                               @Injectable final Event mockEvent2,
+                                               @Injectable final Event mockEvent3,
+                                               @Injectable final Event mockEvent4) throws Exception {
+        final CountDownLatch sendingFirstEvent = new CountDownLatch(1);
+        final CountDownLatch blockedSend = new CountDownLatch(1);
+        final List<Event> sentEvents = new CopyOnWriteArrayList<>();
+        Connection blockingConnection = new Connection() {
+            @Override
+            public void send(Event event) {
+                sentEvents.add(event);
+                sendingFirstEvent.countDown();
+                try {
+                    blockedSend.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+
+            @Override
+            public void close() {
+            }
+        };
+        RingBufferAsyncConnection connection = new RingBufferAsyncConnection(blockingConnection, 2, 1,
+                WaitStrategy.YIELD, threadFactory, false);
+        connection.send(mockEvent1);
+        sendingFirstEvent.await();
+
+        connection.send(mockEvent2);
+        connection.send(mockEvent3);
+        connection.send(mockEvent4);
+        blockedSend.countDown();
+        connection.close();
+
+        assertThat(sentEvents, contains(mockEvent1, mockEvent3, mockEvent4));
+    }
+
+    @Test
+    public void testEventsLeftSentOnClose(@Injectable final Event mockEvent) throws Exception {
+        RingBufferAsyncConnection connection = new RingBufferAsyncConnection(mockConnection, 16, 1,
+                WaitStrategy.PARK, threadFactory, false);
+        for (int i = 0; i < 10; i++) {
+            connection.send(mockEvent);
+        }
+
+        connection.close();
+
+        new VerificationsInOrder() {{
+            mockConnection.send(mockEvent);
+            times = 10;
+            mockConnection.close();
+        }};
+    }
+
+    @Test
+    public void testSpilledEventsSentByTheThreadsOfTheConnection() throws Exception {
+        File directory = Files.createTempDirectory("raven-spill").toFile();
+        try {
+            Event event = new EventBuilder().build();
+            EventSpool previousSpill = new EventSpool(directory, 64 * 1024, 2, false);
+            previousSpill.append(event);
+            previousSpill.close();
+            final List<Thread> sendingThreads = new CopyOnWriteArrayList<>();
+            final CountDownLatch sent = new CountDownLatch(1);
+            Connection recordingConnection = new Connection() {
+                @Override
+                public void send(Event event) {
+                    sendingThreads.add(Thread.currentThread());
+                    sent.countDown();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            RingBufferAsyncConnection connection = new RingBufferAsyncConnection(recordingConnection, 16, 1,
+                    WaitStrategy.PARK, threadFactory, false);
+
+            connection.setSpill(new EventSpool(directory, 64 * 1024, 2, false));
+
+            assertThat(sent.await(5, TimeUnit.SECONDS), is(true));
+            connection.close();
+            assertThat(sendingThreads, not(hasItem(Thread.currentThread())));
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testEventsRejectedOnceClosed(@Injectable final Event mockEvent) throws Exception {
+        RingBufferAsyncConnection connection = new RingBufferAsyncConnection(mockConnection, 16, 1,
+                WaitStrategy.SPIN, threadFactory, false);
+        connection.close();
+
+        connection.send(mockEvent);
+
+        new Verifications() {{
+            mockConnection.send((Event) any);
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void testShutdownHookAddedWhenGraceful() throws Exception {
+        RingBufferAsyncConnection connection = new RingBufferAsyncConnection(mockConnection, 16, 1,
+                WaitStrategy.PARK, threadFactory, true);
+        connection.close();
+
+        new Verifications() {{
+            mockRuntime.addShutdownHook((Thread) any);
+        }};
+    }
+
+    @Test
+    public void testFlushWaitsForTheEventsBeingSent(@Injectable final Event mockEvent) throws Exception {
+        final CountDownLatch sendingEvent = new CountDownLatch(1);
+        final CountDownLatch blockedSend = new CountDownLatch(1);
+        new NonStrictExpectations() {{
+            mockConnection.send(mockEvent);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                public void send(Event event) throws InterruptedException {
+                    sendingEvent.countDown();
+                    blockedSend.await();
+                }
+            };
+            mockConnection.flush(anyLong);
+            result = true;
+        }};
+        RingBufferAsyncConnection connection = new RingBufferAsyncConnection(mockConnection, 16, 1,
+                WaitStrategy.PARK, threadFactory, false);
+        connection.send(mockEvent);
+        sendingEvent.await();
+
+        assertThat(connection.flush(10), is(false));
+        blockedSend.countDown();
+        assertThat(connection.flush(5000), is(true));
+        connection.close();
+    }
+}
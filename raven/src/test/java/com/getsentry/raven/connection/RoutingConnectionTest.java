@@ -0,0 +1,106 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import mockit.Injectable;
+import mockit.Verifications;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class RoutingConnectionTest {
+    private RoutingConnection routingConnection = null;
+    @Injectable
+    private Connection mockDefaultConnection = null;
+    @Injectable
+    private Connection mockFirstConnection = null;
+    @Injectable
+    private Connection mockSecondConnection = null;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        routingConnection = new RoutingConnection(mockDefaultConnection);
+    }
+
+    @Test
+    public void testEventRoutedByTag() throws Exception {
+        routingConnection.addTagRoute("tenant", "acme", mockFirstConnection);
+        routingConnection.addTagRoute("tenant", "globex", mockSecondConnection);
+
+        assertThat(routingConnection.route(new EventBuilder().withTag("tenant", "globex").build()),
+                is(sameInstance(mockSecondConnection)));
+        assertThat(routingConnection.route(new EventBuilder().withTag("tenant", "initech").build()),
+                is(sameInstance(mockDefaultConnection)));
+    }
+
+    @Test
+    public void testEventRoutedByTheLongestLoggerPrefix() throws Exception {
+        routingConnection.addLoggerRoute("com.acme", mockFirstConnection);
+        routingConnection.addLoggerRoute("com.acme.billing", mockSecondConnection);
+
+        assertThat(routingConnection.route(new EventBuilder().withLogger("com.acme.billing.Invoice").build()),
+                is(sameInstance(mockSecondConnection)));
+        assertThat(routingConnection.route(new EventBuilder().withLogger("com.acme.web.Controller").build()),
+                is(sameInstance(mockFirstConnection)));
+        assertThat(routingConnection.route(new EventBuilder().withLogger("com.acme").build()),
+                is(sameInstance(mockFirstConnection)));
+        assertThat(routingConnection.route(new EventBuilder().withLogger("com.acmex.Foo").build()),
+                is(sameInstance(mockDefaultConnection)));
+    }
+
+    @Test
+    public void testEventRoutedByTheHighestThresholdReached() throws Exception {
+        routingConnection.addLevelRoute(Event.Level.WARNING, mockSecondConnection);
+        routingConnection.addLevelRoute(Event.Level.ERROR, mockFirstConnection);
+
+        assertThat(routingConnection.route(new EventBuilder().withLevel(Event.Level.FATAL).build()),
+                is(sameInstance(mockFirstConnection)));
+        assertThat(routingConnection.route(new EventBuilder().withLevel(Event.Level.WARNING).build()),
+                is(sameInstance(mockSecondConnection)));
+        assertThat(routingConnection.route(new EventBuilder().withLevel(Event.Level.INFO).build()),
+                is(sameInstance(mockDefaultConnection)));
+    }
+
+    @Test
+    public void testTagRulesCheckedBeforeLoggerAndLevelRules() throws Exception {
+        routingConnection.addLevelRoute(Event.Level.DEBUG, mockSecondConnection);
+        routingConnection.addLoggerRoute("com.acme", mockSecondConnection);
+        routingConnection.addTagRoute("tenant", "acme", mockFirstConnection);
+
+        Event event = new EventBuilder().withTag("tenant", "acme").withLogger("com.acme.Foo")
+                .withLevel(Event.Level.ERROR).build();
+
+        assertThat(routingConnection.route(event), is(sameInstance(mockFirstConnection)));
+    }
+
+    @Test
+    public void testEventSentToItsDestination() throws Exception {
+        routingConnection.addTagRoute("tenant", "acme", mockFirstConnection);
+        final Event event = new EventBuilder().withTag("tenant", "acme").build();
+
+        routingConnection.send(event);
+
+        new Verifications() {{
+            mockFirstConnection.send(event);
+            mockDefaultConnection.send((Event) any);
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void testDestinationSharedByRoutesClosedOnce() throws Exception {
+        routingConnection.addTagRoute("tenant", "acme", mockFirstConnection);
+        routingConnection.addLoggerRoute("com.acme", mockFirstConnection);
+
+        routingConnection.close();
+
+        new Verifications() {{
+            mockFirstConnection.close();
+            times = 1;
+            mockDefaultConnection.close();
+            times = 1;
+        }};
+    }
+}
@@ -0,0 +1,176 @@
+package com.getsentry.raven.connection;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SharedSenderPoolTest {
+    private SharedSenderPool senderPool;
+    private final List<String> executedTasks = new CopyOnWriteArrayList<>();
+    private CountDownLatch blockerReleased;
+    private CountDownLatch blockerStarted;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        executedTasks.clear();
+        blockerReleased = new CountDownLatch(1);
+        blockerStarted = new CountDownLatch(1);
+        senderPool = new SharedSenderPool(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Test
+    public void testLanesServedInTurns() throws Exception {
+        SharedSenderPool.Lane noisyLane = senderPool.newLane(Integer.MAX_VALUE);
+        SharedSenderPool.Lane quietLane = senderPool.newLane(Integer.MAX_VALUE);
+        blockTheThread(noisyLane);
+        for (int i = 0; i < 5; i++) {
+            noisyLane.execute(new RecordingTask("noisy"));
+        }
+        quietLane.execute(new RecordingTask("quiet"));
+
+        blockerReleased.countDown();
+        noisyLane.shutdown();
+        quietLane.shutdown();
+        noisyLane.awaitTermination(1, TimeUnit.SECONDS);
+        quietLane.awaitTermination(1, TimeUnit.SECONDS);
+
+        assertThat(executedTasks, hasSize(6));
+        // The noisy lane was using its share of the only thread when the quiet task came
+        assertThat(executedTasks.indexOf("quiet"), is(0));
+    }
+
+    @Test
+    public void testLaneWithHangingTasksLimitedToItsShareOfTheThreads() throws Exception {
+        SharedSenderPool pool = new SharedSenderPool(4, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        SharedSenderPool.Lane hangingLane = pool.newLane(Integer.MAX_VALUE);
+        SharedSenderPool.Lane otherLane = pool.newLane(Integer.MAX_VALUE);
+        blockTheThread(otherLane);
+        final CountDownLatch hangingTasksReleased = new CountDownLatch(1);
+        final AtomicInteger startedHangingTasks = new AtomicInteger();
+        for (int i = 0; i < 4; i++) {
+            hangingLane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    startedHangingTasks.incrementAndGet();
+                    try {
+                        hangingTasksReleased.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        final CountDownLatch otherTaskRun = new CountDownLatch(1);
+        otherLane.execute(new Runnable() {
+            @Override
+            public void run() {
+                otherTaskRun.countDown();
+            }
+        });
+
+        assertThat(otherTaskRun.await(1, TimeUnit.SECONDS), is(true));
+        Thread.sleep(50);
+        assertThat(startedHangingTasks.get(), is(2));
+        hangingTasksReleased.countDown();
+        blockerReleased.countDown();
+        hangingLane.shutdown();
+        otherLane.shutdown();
+        assertThat(hangingLane.awaitTermination(1, TimeUnit.SECONDS), is(true));
+        assertThat(otherLane.awaitTermination(1, TimeUnit.SECONDS), is(true));
+        assertThat(startedHangingTasks.get(), is(4));
+    }
+
+    @Test
+    public void testOldestTaskDroppedWhenTheLaneIsFull() throws Exception {
+        SharedSenderPool.Lane lane = senderPool.newLane(1);
+        blockTheThread(senderPool.newLane(1));
+
+        lane.execute(new RecordingTask("oldest"));
+        lane.execute(new RecordingTask("newest"));
+        blockerReleased.countDown();
+        lane.shutdown();
+
+        assertThat(lane.awaitTermination(1, TimeUnit.SECONDS), is(true));
+        assertThat(executedTasks, contains("newest"));
+    }
+
+    @Test
+    public void testTerminationAwaitsTheRunningTasks() throws Exception {
+        SharedSenderPool.Lane lane = senderPool.newLane(Integer.MAX_VALUE);
+        blockTheThread(lane);
+
+        lane.shutdown();
+
+        assertThat(lane.isShutdown(), is(true));
+        assertThat(lane.awaitTermination(10, TimeUnit.MILLISECONDS), is(false));
+        blockerReleased.countDown();
+        assertThat(lane.awaitTermination(1, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void testShutdownNowReturnsTheWaitingTasks() throws Exception {
+        SharedSenderPool.Lane lane = senderPool.newLane(Integer.MAX_VALUE);
+        blockTheThread(lane);
+        RecordingTask waitingTask = new RecordingTask("waiting");
+        lane.execute(waitingTask);
+
+        List<Runnable> waitingTasks = lane.shutdownNow();
+        blockerReleased.countDown();
+        lane.execute(new RecordingTask("rejected"));
+
+        assertThat(waitingTasks, contains((Runnable) waitingTask));
+        assertThat(lane.awaitTermination(1, TimeUnit.SECONDS), is(true));
+        assertThat(executedTasks, is(empty()));
+    }
+
+    private void blockTheThread(SharedSenderPool.Lane lane) throws InterruptedException {
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                blockerStarted.countDown();
+                try {
+                    blockerReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        blockerStarted.await();
+    }
+
+    private final class RecordingTask implements Runnable {
+        private final String name;
+
+        private RecordingTask(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            executedTasks.add(name);
+        }
+    }
+}
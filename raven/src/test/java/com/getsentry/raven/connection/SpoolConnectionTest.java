@@ -0,0 +1,137 @@
+package com.getsentry.raven.connection;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.spool.EventSpool;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SpoolConnectionTest {
+    private static final long REPLAY_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private File directory;
+    private FlakyConnection actualConnection;
+    private SpoolConnection spoolConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("raven-spool").toFile();
+        actualConnection = new FlakyConnection();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (spoolConnection != null)
+            spoolConnection.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private SpoolConnection createSpoolConnection(boolean writeAhead) throws Exception {
+        spoolConnection = new SpoolConnection(actualConnection,
+                new EventSpool(directory, 64 * 1024, 2, writeAhead), writeAhead);
+        return spoolConnection;
+    }
+
+    private static Event createEvent() {
+        return new EventBuilder().withServerName("server").build();
+    }
+
+    private void waitForEvents(int count) throws Exception {
+        long deadline = System.currentTimeMillis() + REPLAY_TIMEOUT;
+        while (actualConnection.sentEvents.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testEventsSentDirectlyWhileTheConnectionWorks() throws Exception {
+        Event event = createEvent();
+        createSpoolConnection(false).send(event);
+
+        assertThat(actualConnection.sentEvents, contains(event.getId()));
+        assertThat(directory.list(), hasItemInArray(endsWith(".segment")));
+    }
+
+    @Test
+    public void testFailedEventsReplayedInOrder() throws Exception {
+        Event event1 = createEvent();
+        Event event2 = createEvent();
+        Event event3 = createEvent();
+        SpoolConnection connection = createSpoolConnection(false);
+        actualConnection.failing = true;
+
+        connection.send(event1);
+        connection.sendBatch(Arrays.asList(event2, event3));
+        assertThat(actualConnection.sentEvents, is(empty()));
+
+        actualConnection.failing = false;
+        waitForEvents(3);
+
+        assertThat(actualConnection.sentEvents, contains(event1.getId(), event2.getId(), event3.getId()));
+    }
+
+    @Test
+    public void testWriteAheadEventsSentThroughTheSpool() throws Exception {
+        Event event = createEvent();
+        createSpoolConnection(true).send(event);
+
+        waitForEvents(1);
+
+        assertThat(actualConnection.sentEvents, contains(event.getId()));
+    }
+
+    @Test
+    public void testSpooledEventsSentByTheNextConnection() throws Exception {
+        Event event = createEvent();
+        actualConnection.failing = true;
+        createSpoolConnection(false).send(event);
+        spoolConnection.close();
+
+        actualConnection = new FlakyConnection();
+        createSpoolConnection(false);
+        waitForEvents(1);
+
+        assertThat(actualConnection.sentEvents, contains(event.getId()));
+    }
+
+    /**
+     * Connection failing while {@link #failing} is set, without lockdown.
+     */
+    private static final class FlakyConnection extends AbstractConnection {
+        private final List<UUID> sentEvents = new CopyOnWriteArrayList<>();
+        private volatile boolean failing;
+
+        private FlakyConnection() {
+            super("public", "secret");
+            setBaseWaitingTime(0);
+        }
+
+        @Override
+        protected void doSend(Event event) throws ConnectionException {
+            if (failing)
+                throw new ConnectionException("Sentry is down");
+            sentEvents.add(event.getId());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
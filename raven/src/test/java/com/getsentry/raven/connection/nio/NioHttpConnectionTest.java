@@ -0,0 +1,320 @@
+package com.getsentry.raven.connection.nio;
+
+import com.getsentry.raven.connection.DeliveryFuture;
+import com.getsentry.raven.connection.EventDeliveries;
+import com.getsentry.raven.connection.EventSendFailureCallback;
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.marshaller.BatchMarshaller;
+import com.getsentry.raven.marshaller.Marshaller;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class NioHttpConnectionTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String OK_RESPONSE = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nOK";
+    private BlockingQueue<String> receivedRequests;
+    private volatile String response;
+    private AtomicInteger acceptedSockets;
+    private List<Socket> sockets;
+    private ServerSocket serverSocket;
+    private NioHttpConnection nioHttpConnection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        receivedRequests = new LinkedBlockingQueue<>();
+        response = OK_RESPONSE;
+        acceptedSockets = new AtomicInteger();
+        sockets = new ArrayList<>();
+        serverSocket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+        Thread server = new Thread() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        };
+        server.setDaemon(true);
+        server.start();
+
+        URL sentryUrl = new URL("http://localhost:" + serverSocket.getLocalPort() + "/api/1/store/");
+        nioHttpConnection = new NioHttpConnection(sentryUrl, "public", "secret");
+        nioHttpConnection.setMarshaller(new Marshaller() {
+            @Override
+            public void marshall(Event event, OutputStream destination) {
+                try {
+                    destination.write(event.getMessage().getBytes(UTF_8));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public String getContentEncoding() {
+                return null;
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        nioHttpConnection.close();
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private void acceptConnections() {
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                acceptedSockets.incrementAndGet();
+                synchronized (sockets) {
+                    sockets.add(socket);
+                }
+                Thread handler = new Thread() {
+                    @Override
+                    public void run() {
+                        answerRequests(socket);
+                    }
+                };
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (IOException e) {
+            // The server socket has been closed
+        }
+    }
+
+    private void answerRequests(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+            OutputStream outputStream = socket.getOutputStream();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                StringBuilder request = new StringBuilder(line).append('\n');
+                int contentLength = 0;
+                while (!(line = reader.readLine()).isEmpty()) {
+                    request.append(line).append('\n');
+                    if (line.startsWith("Content-Length: "))
+                        contentLength = Integer.parseInt(line.substring("Content-Length: ".length()));
+                }
+                char[] body = new char[contentLength];
+                int read = 0;
+                while (read < contentLength) {
+                    read += reader.read(body, read, contentLength - read);
+                }
+                receivedRequests.add(request.append('\n').append(body).toString());
+                outputStream.write(response.getBytes(UTF_8));
+                outputStream.flush();
+            }
+        } catch (IOException e) {
+            // The socket has been closed
+        }
+    }
+
+    private static Event eventWithMessage(String message) {
+        return new com.getsentry.raven.event.EventBuilder().withMessage(message).build();
+    }
+
+    @Test
+    public void testEventSentOverHttp() throws Exception {
+        nioHttpConnection.send(eventWithMessage("Hello"));
+
+        String request = receivedRequests.poll(5, TimeUnit.SECONDS);
+        assertThat(request, startsWith("POST /api/1/store/ HTTP/1.1\n"));
+        assertThat(request, containsString("\nHost: localhost:" + serverSocket.getLocalPort() + "\n"));
+        assertThat(request, containsString("\nX-Sentry-Auth: Sentry sentry_version="));
+        assertThat(request, containsString("sentry_key=public,sentry_secret=secret\n"));
+        assertThat(request, endsWith("\nContent-Length: 5\n\nHello"));
+    }
+
+    @Test
+    public void testDeliveryReportedOnceSentryAnswered() throws Exception {
+        Event event = eventWithMessage("Hello");
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        nioHttpConnection.send(event);
+
+        assertThat(deliveryFuture.get(5, TimeUnit.SECONDS), is(event.getId()));
+    }
+
+    @Test
+    public void testSocketKeptAliveBetweenEvents() throws Exception {
+        nioHttpConnection.send(eventWithMessage("first"));
+        assertThat(receivedRequests.poll(5, TimeUnit.SECONDS), endsWith("first"));
+        // Leave the time to read the response, so the socket is idle again
+        Thread.sleep(100);
+        nioHttpConnection.send(eventWithMessage("second"));
+        assertThat(receivedRequests.poll(5, TimeUnit.SECONDS), endsWith("second"));
+
+        assertThat(acceptedSockets.get(), is(1));
+    }
+
+    @Test
+    public void testConcurrentSubmissionsBoundedByMaxConnections() throws Exception {
+        nioHttpConnection.setMaxConnections(2);
+
+        for (int i = 0; i < 20; i++) {
+            nioHttpConnection.send(eventWithMessage("event" + i));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertThat(receivedRequests.poll(5, TimeUnit.SECONDS), is(notNullValue()));
+        }
+
+        assertThat(acceptedSockets.get(), is(lessThanOrEqualTo(2)));
+    }
+
+    @Test
+    public void testBigEventOutgrowsPooledBuffer() throws Exception {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            message.append((char) ('a' + i % 26));
+        }
+
+        nioHttpConnection.send(eventWithMessage(message.toString()));
+
+        assertThat(receivedRequests.poll(5, TimeUnit.SECONDS), endsWith("\n\n" + message));
+    }
+
+    @Test
+    public void testContentEncodingHeaderSent() throws Exception {
+        nioHttpConnection.setMarshaller(new Marshaller() {
+            @Override
+            public void marshall(Event event, OutputStream destination) {
+                try {
+                    destination.write(event.getMessage().getBytes(UTF_8));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public String getContentEncoding() {
+                return "deflate";
+            }
+        });
+
+        nioHttpConnection.send(eventWithMessage("message"));
+
+        assertThat(receivedRequests.poll(5, TimeUnit.SECONDS), containsString("\nContent-Encoding: deflate\n"));
+    }
+
+    @Test
+    public void testBatchSplitOnTheSizeOfTheSerialisedEvents() throws Exception {
+        nioHttpConnection.setMarshaller(new BatchMarshaller() {
+            @Override
+            public void marshall(Event event, OutputStream destination) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void marshall(List<Event> events, OutputStream destination) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public byte[] serialise(Event event) {
+                return event.getMessage().getBytes(UTF_8);
+            }
+
+            @Override
+            public void marshallSerialised(List<byte[]> serialisedEvents, OutputStream destination) {
+                try {
+                    for (byte[] serialisedEvent : serialisedEvents) {
+                        destination.write(serialisedEvent);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public String getContentEncoding() {
+                return null;
+            }
+        });
+        nioHttpConnection.setMaxBatchBytes(10);
+
+        nioHttpConnection.sendBatch(Arrays.asList(eventWithMessage("aaaaa"), eventWithMessage("bbbbb"),
+                eventWithMessage("ccccc")));
+
+        List<String> bodies = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            String request = receivedRequests.poll(5, TimeUnit.SECONDS);
+            bodies.add(request.substring(request.indexOf("\n\n") + 2));
+        }
+        assertThat(bodies, containsInAnyOrder("aaaaabbbbb", "ccccc"));
+    }
+
+    @Test
+    public void testEventsRejectedWhenSentryAsksToWait() throws Exception {
+        response = "HTTP/1.1 429 Too Many Requests\r\nRetry-After: 60\r\nContent-Length: 0\r\n\r\n";
+        nioHttpConnection.send(eventWithMessage("Rejected"));
+        assertThat(receivedRequests.poll(5, TimeUnit.SECONDS), is(notNullValue()));
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (nioHttpConnection.getRateLimiter().tryAcquire(1) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        nioHttpConnection.send(eventWithMessage("Not sent"));
+
+        assertThat(receivedRequests.poll(200, TimeUnit.MILLISECONDS), is(nullValue()));
+    }
+
+    @Test
+    public void testFailedSubmissionReportedToTheCallbacksAndOpensTheCircuit() throws Exception {
+        response = "HTTP/1.1 500 Internal Server Error\r\nContent-Length: 0\r\n\r\n";
+        nioHttpConnection.setBaseWaitingTime(TimeUnit.MINUTES.toMillis(1));
+        final BlockingQueue<Event> failedEvents = new LinkedBlockingQueue<>();
+        nioHttpConnection.addEventSendFailureCallback(new EventSendFailureCallback() {
+            @Override
+            public boolean onFailure(Event event, Exception exception) {
+                failedEvents.add(event);
+                return true;
+            }
+        });
+        Event event = eventWithMessage("Failing");
+
+        nioHttpConnection.send(event);
+
+        assertThat(failedEvents.poll(5, TimeUnit.SECONDS), is(sameInstance(event)));
+        Event rejectedEvent = eventWithMessage("Rejected");
+        nioHttpConnection.send(rejectedEvent);
+        assertThat(failedEvents.poll(5, TimeUnit.SECONDS), is(sameInstance(rejectedEvent)));
+        assertThat(receivedRequests.size(), is(1));
+    }
+
+    @Test
+    public void testFlushWaitsForTheSubmissions() throws Exception {
+        Event event = eventWithMessage("Hello");
+        DeliveryFuture deliveryFuture = EventDeliveries.track(event);
+
+        nioHttpConnection.send(event);
+
+        assertThat(nioHttpConnection.flush(TimeUnit.SECONDS.toMillis(5)), is(true));
+        assertThat(deliveryFuture.isDone(), is(true));
+    }
+}
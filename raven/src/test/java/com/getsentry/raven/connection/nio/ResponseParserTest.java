@@ -0,0 +1,78 @@
+package com.getsentry.raven.connection.nio;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ResponseParserTest {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static ByteBuffer bytes(String content) {
+        return ByteBuffer.wrap(content.getBytes(ISO_8859_1));
+    }
+
+    @Test
+    public void testFixedLengthResponseSplitInSeveralParts() throws Exception {
+        ResponseParser parser = new ResponseParser();
+
+        assertThat(parser.feed(bytes("HTTP/1.1 200 OK\r\nContent-Le")), is(false));
+        assertThat(parser.feed(bytes("ngth: 5\r\n\r\nab")), is(false));
+        assertThat(parser.feed(bytes("cde")), is(true));
+
+        assertThat(parser.getStatusCode(), is(200));
+        assertThat(parser.isKeepAlive(), is(true));
+        assertThat(parser.getBody(), is("abcde"));
+    }
+
+    @Test
+    public void testChunkedResponse() throws Exception {
+        ResponseParser parser = new ResponseParser();
+
+        boolean complete = parser.feed(bytes("HTTP/1.1 403 Forbidden\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "4\r\nInva\r\na;ext=1\r\nlid secret\r\n0\r\nX-Trailer: 1\r\n\r\n"));
+
+        assertThat(complete, is(true));
+        assertThat(parser.getStatusCode(), is(403));
+        assertThat(parser.getBody(), is("Invalid secret"));
+    }
+
+    @Test
+    public void testResponseDelimitedByTheEndOfTheConnection() throws Exception {
+        ResponseParser parser = new ResponseParser();
+
+        assertThat(parser.feed(bytes("HTTP/1.0 500 Internal Server Error\r\n\r\nOops")), is(false));
+
+        assertThat(parser.endOfStream(), is(true));
+        assertThat(parser.isKeepAlive(), is(false));
+        assertThat(parser.getBody(), is("Oops"));
+    }
+
+    @Test
+    public void testConnectionClosedByTheServer() throws Exception {
+        ResponseParser parser = new ResponseParser();
+
+        boolean complete = parser.feed(bytes("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 0\r\n\r\n"));
+
+        assertThat(complete, is(true));
+        assertThat(parser.isKeepAlive(), is(false));
+    }
+
+    @Test
+    public void testInformationalResponseIgnored() throws Exception {
+        ResponseParser parser = new ResponseParser();
+
+        boolean complete = parser.feed(bytes("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 204 No Content\r\n\r\n"));
+
+        assertThat(complete, is(true));
+        assertThat(parser.getStatusCode(), is(204));
+    }
+
+    @Test(expectedExceptions = java.net.ProtocolException.class)
+    public void testInvalidStatusLineFails() throws Exception {
+        new ResponseParser().feed(bytes("SMTP ready\r\n\r\n"));
+    }
+}
@@ -1,6 +1,8 @@
 package com.getsentry.raven.marshaller.json;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import mockit.*;
 import com.getsentry.raven.event.Event;
 import com.getsentry.raven.event.interfaces.SentryInterface;
@@ -8,16 +10,21 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import static com.getsentry.raven.marshaller.json.JsonComparisonUtil.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 
 public class JsonMarshallerTest {
     @Tested
@@ -302,4 +309,114 @@ public class JsonMarshallerTest {
                 + "Swb5xkVhHNwYFt+0GlGQlmTOmMSzEhDqQXlXwa/YP"
                 + "8k9tv9b9DbsbRo8="));
     }
+
+    @Test
+    public void testCompressedDataIsIdenticalWithPooledDeflaters() throws Exception {
+        jsonMarshaller.setCompression(true);
+        ByteArrayOutputStream firstOutputStream = new ByteArrayOutputStream();
+        ByteArrayOutputStream secondOutputStream = new ByteArrayOutputStream();
+
+        jsonMarshaller.marshall(mockEvent, firstOutputStream);
+        jsonMarshaller.marshall(mockEvent, secondOutputStream);
+
+        assertThat(secondOutputStream.toByteArray(), is(firstOutputStream.toByteArray()));
+    }
+
+    @Test
+    public void testContentUnderTheThresholdNotCompressed() throws Exception {
+        final JsonOutputStreamParser jsonOutputStreamParser = newJsonOutputStream();
+        jsonMarshaller.setCompression(true);
+        jsonMarshaller.setCompressionThreshold(100000);
+
+        jsonMarshaller.marshall(mockEvent, jsonOutputStreamParser.outputStream());
+
+        assertThat(jsonOutputStreamParser.value().get("event_id").asText(), is("00000000000000000000000000000000"));
+    }
+
+    @Test
+    public void testContentOverTheThresholdCompressed() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        jsonMarshaller.setCompression(true);
+        jsonMarshaller.setCompressionThreshold(10);
+
+        jsonMarshaller.marshall(mockEvent, outputStream);
+
+        assertThat(new String(outputStream.toByteArray(), "UTF-8").startsWith("eJ"), is(true));
+    }
+
+    @Test
+    public void testCompressionLevelApplied() throws Exception {
+        ByteArrayOutputStream defaultOutputStream = new ByteArrayOutputStream();
+        ByteArrayOutputStream storedOutputStream = new ByteArrayOutputStream();
+        jsonMarshaller.setCompression(true);
+        jsonMarshaller.marshall(mockEvent, defaultOutputStream);
+
+        jsonMarshaller.setCompressionLevel(0);
+        jsonMarshaller.marshall(mockEvent, storedOutputStream);
+
+        assertThat(storedOutputStream.size() > defaultOutputStream.size(), is(true));
+    }
+
+    @Test
+    public void testGzipCompressedDataIsWorking() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        jsonMarshaller.setCompression(true);
+        jsonMarshaller.setCompressionEncoding(JsonMarshaller.CompressionEncoding.GZIP);
+
+        jsonMarshaller.marshall(mockEvent, outputStream);
+
+        InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertThat(new ObjectMapper().readTree(inputStream).get("event_id").asText(),
+                is("00000000000000000000000000000000"));
+        assertThat(jsonMarshaller.getContentEncoding(), is("gzip"));
+    }
+
+    @Test
+    public void testDeflateCompressedDataIsWorking() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        jsonMarshaller.setCompression(true);
+        jsonMarshaller.setCompressionEncoding(JsonMarshaller.CompressionEncoding.DEFLATE);
+
+        jsonMarshaller.marshall(mockEvent, outputStream);
+
+        InputStream inputStream = new InflaterInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertThat(new ObjectMapper().readTree(inputStream).get("event_id").asText(),
+                is("00000000000000000000000000000000"));
+        assertThat(jsonMarshaller.getContentEncoding(), is("deflate"));
+    }
+
+    @Test
+    public void testNoContentEncodingWithoutBinaryCompression() throws Exception {
+        jsonMarshaller.setCompressionEncoding(JsonMarshaller.CompressionEncoding.GZIP);
+        assertThat(jsonMarshaller.getContentEncoding(), is(nullValue()));
+
+        jsonMarshaller.setCompression(true);
+        jsonMarshaller.setCompressionEncoding(JsonMarshaller.CompressionEncoding.BASE64);
+        assertThat(jsonMarshaller.getContentEncoding(), is(nullValue()));
+    }
+
+    @Test
+    public void testBatchWrittenAsArray() throws Exception {
+        final JsonOutputStreamParser jsonOutputStreamParser = newJsonOutputStream();
+
+        jsonMarshaller.marshall(Arrays.asList(mockEvent, mockEvent), jsonOutputStreamParser.outputStream());
+
+        JsonNode batch = jsonOutputStreamParser.value();
+        assertThat(batch.isArray(), is(true));
+        assertThat(batch.size(), is(2));
+        assertThat(batch.get(0).get("event_id").asText(), is("00000000000000000000000000000000"));
+    }
+
+    @Test
+    public void testSerialisedBatchMatchesTheMarshalledBatch() throws Exception {
+        jsonMarshaller.setCompression(true);
+        ByteArrayOutputStream marshalledBatch = new ByteArrayOutputStream();
+        ByteArrayOutputStream serialisedBatch = new ByteArrayOutputStream();
+
+        jsonMarshaller.marshall(Arrays.asList(mockEvent, mockEvent), marshalledBatch);
+        byte[] serialisedEvent = jsonMarshaller.serialise(mockEvent);
+        jsonMarshaller.marshallSerialised(Arrays.asList(serialisedEvent, serialisedEvent), serialisedBatch);
+
+        assertThat(serialisedBatch.toByteArray(), is(marshalledBatch.toByteArray()));
+    }
 }
@@ -0,0 +1,207 @@
+package com.getsentry.raven.spool;
+
+import com.getsentry.raven.event.Event;
+import com.getsentry.raven.event.EventBuilder;
+import com.getsentry.raven.event.interfaces.ExceptionInterface;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.file.Files;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class EventSpoolTest {
+    private static final int SEGMENT_SIZE = 4096;
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("raven-spool").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static Event createEvent(String message) {
+        return new EventBuilder().withMessage(message).withServerName("server").build();
+    }
+
+    @Test
+    public void testEventsReadInOrder() throws Exception {
+        Event event1 = createEvent("1");
+        Event event2 = createEvent("2");
+        try (EventSpool spool = new EventSpool(directory, SEGMENT_SIZE, 2, false)) {
+            assertThat(spool.isEmpty(), is(true));
+            spool.append(event1);
+            spool.append(event2);
+
+            assertThat(spool.peek().getId(), is(event1.getId()));
+            assertThat(spool.peek().getId(), is(event1.getId()));
+            spool.remove();
+            assertThat(spool.peek().getId(), is(event2.getId()));
+            spool.remove();
+            assertThat(spool.peek(), is(nullValue()));
+            assertThat(spool.isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void testSpoolResumedAfterReopening() throws Exception {
+        Event event1 = createEvent("1");
+        Event event2 = createEvent("2");
+        try (EventSpool spool = new EventSpool(directory, SEGMENT_SIZE, 2, true)) {
+            spool.append(event1);
+            spool.append(event2);
+            spool.peek();
+            spool.remove();
+        }
+
+        try (EventSpool spool = new EventSpool(directory, SEGMENT_SIZE, 2, true)) {
+            assertThat(spool.peek().getId(), is(event2.getId()));
+            spool.remove();
+            assertThat(spool.isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void testEventsSpreadOverSeveralSegments() throws Exception {
+        try (EventSpool spool = new EventSpool(directory, SEGMENT_SIZE, 10, false)) {
+            for (int i = 0; i < 20; i++) {
+                assertThat(spool.append(createEvent(String.valueOf(i))), is(true));
+            }
+            assertThat(directory.list().length, is(greaterThan(2)));
+
+            for (int i = 0; i < 20; i++) {
+                assertThat(spool.peek().getMessage(), is(String.valueOf(i)));
+                spool.remove();
+            }
+            assertThat(spool.isEmpty(), is(true));
+            // The cursor and the segment being written
+            assertThat(directory.list().length, is(2));
+        }
+    }
+
+    @Test
+    public void testOldestEventsDroppedWhenTheSpoolIsFull() throws Exception {
+        try (EventSpool spool = new EventSpool(directory, SEGMENT_SIZE, 2, false)) {
+            for (int i = 0; i < 20; i++) {
+                spool.append(createEvent(String.valueOf(i)));
+            }
+
+            assertThat(spool.peek().getMessage(), is(not("0")));
+            String last = null;
+            while (spool.peek() != null) {
+                last = spool.peek().getMessage();
+                spool.remove();
+            }
+            assertThat(last, is("19"));
+        }
+    }
+
+    @Test
+    public void testEventTooBigIsRejected() throws Exception {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < SEGMENT_SIZE; i++) {
+            message.append('a');
+        }
+        try (EventSpool spool = new EventSpool(directory, SEGMENT_SIZE, 2, false)) {
+            assertThat(spool.append(createEvent(message.toString())), is(false));
+            assertThat(spool.isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void testCorruptedRecordsAreIgnored() throws Exception {
+        Event event = createEvent("1");
+        try (EventSpool spool = new EventSpool(directory, SEGMENT_SIZE, 2, false)) {
+            spool.append(event);
+            spool.append(createEvent("2"));
+        }
+        File segment = new File(directory, String.format("%020d.segment", 0));
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(segment, "rw")) {
+            // Corrupts the content of the second record
+            int firstLength = randomAccessFile.readInt();
+            randomAccessFile.seek(SpoolSegment.RECORD_HEADER_SIZE * 2 + firstLength + 10);
+            randomAccessFile.write(~randomAccessFile.read());
+        }
+
+        try (EventSpool spool = new EventSpool(directory, SEGMENT_SIZE, 2, false)) {
+            assertThat(spool.peek().getId(), is(event.getId()));
+            spool.remove();
+            assertThat(spool.isEmpty(), is(true));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testDirectoryUsedByASingleSpool() throws Exception {
+        try (EventSpool spool = new EventSpool(directory, SEGMENT_SIZE, 2, false)) {
+            new EventSpool(directory, SEGMENT_SIZE, 2, false);
+        }
+    }
+
+    @Test
+    public void testEventReadBackWithItsInterfacesAndItsExtrasAsValues() throws Exception {
+        Event event = new EventBuilder().withMessage("message")
+                .withSentryInterface(new ExceptionInterface(new IllegalStateException("failure")))
+                .withExtra("count", 3)
+                .withExtra("custom", new CustomExtra())
+                .build();
+
+        Event readEvent = EventSpool.deserialise(EventSpool.serialise(event));
+
+        assertThat(readEvent.getSentryInterfaces().get(ExceptionInterface.EXCEPTION_INTERFACE),
+                is(instanceOf(ExceptionInterface.class)));
+        assertThat(readEvent.getExtra().get("count"), is((Object) 3));
+        assertThat(readEvent.getExtra().get("custom"), is((Object) "custom extra"));
+    }
+
+    @Test
+    public void testRecordWithAClassNotAllowedIsRejectedBeforeRunningItsCode() throws Exception {
+        Event event = new EventBuilder().withExtra("custom", new CustomExtra()).build();
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(record)) {
+            objectOutputStream.writeObject(event);
+        }
+        CustomExtra.deserialised = false;
+
+        try {
+            EventSpool.deserialise(record.toByteArray());
+            throw new AssertionError("The record should have been rejected.");
+        } catch (InvalidClassException e) {
+            assertThat(e.classname, is(CustomExtra.class.getName()));
+        }
+        assertThat(CustomExtra.deserialised, is(false));
+    }
+
+    private static final class CustomExtra implements Serializable {
+        private static volatile boolean deserialised;
+
+        private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+            stream.defaultReadObject();
+            deserialised = true;
+        }
+
+        @Override
+        public String toString() {
+            return "custom extra";
+        }
+    }
+}
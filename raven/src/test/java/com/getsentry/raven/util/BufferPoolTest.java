@@ -0,0 +1,47 @@
+package com.getsentry.raven.util;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BufferPoolTest {
+    @Test
+    public void testReleasedBufferReusedEmpty() throws Exception {
+        BufferPool bufferPool = new BufferPool(16, 64, 1);
+        ByteArrayOutputStream buffer = bufferPool.acquire();
+        buffer.write(new byte[32]);
+
+        bufferPool.release(buffer);
+
+        ByteArrayOutputStream reusedBuffer = bufferPool.acquire();
+        assertThat(reusedBuffer, is(sameInstance(buffer)));
+        assertThat(reusedBuffer.size(), is(0));
+    }
+
+    @Test
+    public void testBufferOverTheMaximumSizeNotReused() throws Exception {
+        BufferPool bufferPool = new BufferPool(16, 64, 1);
+        ByteArrayOutputStream buffer = bufferPool.acquire();
+        buffer.write(new byte[65]);
+
+        bufferPool.release(buffer);
+
+        assertThat(bufferPool.acquire(), is(not(sameInstance(buffer))));
+    }
+
+    @Test
+    public void testBufferReleasedWhileThePoolIsFullNotReused() throws Exception {
+        BufferPool bufferPool = new BufferPool(16, 64, 1);
+        ByteArrayOutputStream firstBuffer = bufferPool.acquire();
+        ByteArrayOutputStream secondBuffer = bufferPool.acquire();
+
+        bufferPool.release(firstBuffer);
+        bufferPool.release(secondBuffer);
+
+        assertThat(bufferPool.acquire(), is(sameInstance(firstBuffer)));
+        assertThat(bufferPool.acquire(), is(not(sameInstance(secondBuffer))));
+    }
+}
@@ -0,0 +1,38 @@
+package com.getsentry.raven.util;
+
+import org.testng.annotations.Test;
+
+import java.util.zip.Deflater;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DeflaterPoolTest {
+    @Test
+    public void testReleasedDeflaterReused() throws Exception {
+        DeflaterPool deflaterPool = new DeflaterPool(Deflater.BEST_SPEED, 1);
+        Deflater deflater = deflaterPool.acquire();
+
+        deflaterPool.release(deflater);
+
+        assertThat(deflaterPool.acquire(), is(sameInstance(deflater)));
+    }
+
+    @Test
+    public void testDeflaterReleasedWhileThePoolIsFullNotReused() throws Exception {
+        DeflaterPool deflaterPool = new DeflaterPool(Deflater.BEST_SPEED, 1);
+        Deflater firstDeflater = deflaterPool.acquire();
+        Deflater secondDeflater = deflaterPool.acquire();
+
+        deflaterPool.release(firstDeflater);
+        deflaterPool.release(secondDeflater);
+
+        assertThat(deflaterPool.acquire(), is(sameInstance(firstDeflater)));
+        assertThat(deflaterPool.acquire(), is(not(sameInstance(secondDeflater))));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidLevelRejected() throws Exception {
+        new DeflaterPool(10, 1);
+    }
+}
@@ -0,0 +1,77 @@
+package com.getsentry.raven.util;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class RotatingFileOutputStreamTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private File directory;
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("raven-rotating").toFile();
+        file = new File(directory, "events.ndjson");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File writtenFile : files) {
+                writtenFile.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), UTF_8);
+    }
+
+    @Test
+    public void testFileRotatedBeforeGoingOverTheMaximumSize() throws Exception {
+        try (RotatingFileOutputStream outputStream = new RotatingFileOutputStream(file, 10, 2)) {
+            outputStream.write("line1\n".getBytes(UTF_8));
+            outputStream.write("line2\n".getBytes(UTF_8));
+            outputStream.write("line3\n".getBytes(UTF_8));
+        }
+
+        assertThat(read(file), is("line3\n"));
+        assertThat(read(new File(directory, "events.ndjson.1")), is("line2\n"));
+        assertThat(read(new File(directory, "events.ndjson.2")), is("line1\n"));
+    }
+
+    @Test
+    public void testOldestFileDeleted() throws Exception {
+        try (RotatingFileOutputStream outputStream = new RotatingFileOutputStream(file, 1, 1)) {
+            for (int i = 0; i < 4; i++) {
+                outputStream.write(("line" + i + "\n").getBytes(UTF_8));
+            }
+        }
+
+        assertThat(read(file), is("line3\n"));
+        assertThat(read(new File(directory, "events.ndjson.1")), is("line2\n"));
+        assertThat(new File(directory, "events.ndjson.2").exists(), is(false));
+    }
+
+    @Test
+    public void testExistingFileAppended() throws Exception {
+        try (RotatingFileOutputStream outputStream = new RotatingFileOutputStream(file, 100, 1)) {
+            outputStream.write("line1\n".getBytes(UTF_8));
+        }
+        try (RotatingFileOutputStream outputStream = new RotatingFileOutputStream(file, 100, 1)) {
+            outputStream.write("line2\n".getBytes(UTF_8));
+        }
+
+        assertThat(read(file), is("line1\nline2\n"));
+    }
+}
@@ -15,7 +15,9 @@ public class SentryHttpServlet extends HttpServlet {
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        Event event = sentryStub.parseEvent(req.getInputStream());
-        sentryStub.addEvent(event);
+        // The body contains either a single event or a batch of events
+        for (Event event : sentryStub.parseEvents(req.getInputStream())) {
+            sentryStub.addEvent(event);
+        }
     }
 }
@@ -9,6 +9,7 @@ import java.io.InputStream;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 public final class SentryStub {
@@ -37,6 +38,10 @@ public final class SentryStub {
         return unmarshaller.unmarshall(source);
     }
 
+    public List<Event> parseEvents(InputStream source) {
+        return unmarshaller.unmarshallAll(source);
+    }
+
     public Collection<Event> getEvents() {
         return Collections.unmodifiableCollection(events);
     }
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 
 /**
@@ -20,6 +21,8 @@ import java.util.zip.InflaterInputStream;
  * <li>JSON Stream (nothing to do)
  * <li>Base 64'd JSON streams (base64 decoded)
  * <li>Base 64'd and deflated JSON streams (base64 decoded and inflated)
+ * <li>Gzipped JSON streams, sent with {@code Content-Encoding: gzip} (gunzipped)
+ * <li>Deflated JSON streams, sent with {@code Content-Encoding: deflate} (inflated)
  * </ul>
  */
 public class JsonDecoder {
@@ -40,34 +43,28 @@ public class JsonDecoder {
         //Make it uncloseable to avoid issues with the InflaterInputStream.
         originalStream = new Uncloseable(new BufferedInputStream(originalStream));
         originalStream.mark(messageSize);
-        InputStream inputStream = originalStream;
-        if (!isJson(originalStream)) {
-            inputStream = new Base64InputStream(inputStream, Base64.NO_WRAP);
+        for (Format format : Format.values()) {
             originalStream.reset();
-            if (!isJson(new Base64InputStream(originalStream, Base64.NO_WRAP))) {
-                inputStream = new InflaterInputStream(inputStream);
+            if (isJson(format, originalStream)) {
                 originalStream.reset();
-                if (!isJson(new InflaterInputStream(new Base64InputStream(originalStream, Base64.NO_WRAP)))) {
-                    throw new IllegalArgumentException("The given Stream is neither JSON, Base64'd JSON "
-                            + "nor Base64'd deflated JSON.");
-                }
+                return format.decode(originalStream);
             }
         }
-
-        originalStream.reset();
-        return inputStream;
+        throw new IllegalArgumentException("The given Stream is neither JSON, Base64'd JSON, "
+                + "Base64'd deflated JSON, gzipped JSON nor deflated JSON.");
     }
 
     /**
-     * Checks that the parsed content is JSON content.
+     * Checks that the content, once decoded from the given format, is JSON content.
      *
+     * @param format      format in which the content is attempted to be decoded.
      * @param inputStream data source.
      * @return true if the content is in JSON, false otherwise.
      */
-    private boolean isJson(InputStream inputStream) {
+    private boolean isJson(Format format, InputStream inputStream) {
         boolean valid = false;
         try {
-            final JsonParser parser = new JsonFactory().createParser(inputStream);
+            final JsonParser parser = new JsonFactory().createParser(format.decode(inputStream));
             do {
                 parser.nextToken();
             } while (parser.hasCurrentToken());
@@ -79,6 +76,44 @@ public class JsonDecoder {
         return valid;
     }
 
+    /**
+     * Formats in which the JSON content can be sent, in the order in which they're attempted.
+     */
+    private enum Format {
+        JSON {
+            @Override
+            InputStream decode(InputStream inputStream) {
+                return inputStream;
+            }
+        },
+        BASE64 {
+            @Override
+            InputStream decode(InputStream inputStream) {
+                return new Base64InputStream(inputStream, Base64.NO_WRAP);
+            }
+        },
+        BASE64_DEFLATE {
+            @Override
+            InputStream decode(InputStream inputStream) {
+                return new InflaterInputStream(new Base64InputStream(inputStream, Base64.NO_WRAP));
+            }
+        },
+        GZIP {
+            @Override
+            InputStream decode(InputStream inputStream) throws IOException {
+                return new GZIPInputStream(inputStream);
+            }
+        },
+        DEFLATE {
+            @Override
+            InputStream decode(InputStream inputStream) {
+                return new InflaterInputStream(inputStream);
+            }
+        };
+
+        abstract InputStream decode(InputStream inputStream) throws IOException;
+    }
+
     /**
      * InputStream that delegates everything but the {@link #close()} method.
      */
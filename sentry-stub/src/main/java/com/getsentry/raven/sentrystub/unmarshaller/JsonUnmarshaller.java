@@ -1,10 +1,14 @@
 package com.getsentry.raven.sentrystub.unmarshaller;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.getsentry.raven.sentrystub.event.Event;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,4 +28,30 @@ public class JsonUnmarshaller implements Unmarshaller {
         }
         return event;
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A batch of events is a JSON array of events.
+     */
+    @Override
+    public List<Event> unmarshallAll(InputStream source) {
+        List<Event> events = new ArrayList<>();
+        try {
+            InputStream jsonStream = jsonDecoder.decapsulateContent(source);
+            JsonNode content = om.readTree(jsonStream);
+            if (content.isArray()) {
+                for (JsonNode eventNode : content) {
+                    events.add(om.treeToValue(eventNode, Event.class));
+                }
+            } else {
+                events.add(om.treeToValue(content, Event.class));
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Couldn't parse some JSON content.", e);
+            // Keep track of the submission even if it couldn't be parsed, as with a single event
+            return Collections.singletonList(null);
+        }
+        return events;
+    }
 }
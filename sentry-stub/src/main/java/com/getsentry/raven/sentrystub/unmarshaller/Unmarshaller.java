@@ -3,7 +3,16 @@ package com.getsentry.raven.sentrystub.unmarshaller;
 import com.getsentry.raven.sentrystub.event.Event;
 
 import java.io.InputStream;
+import java.util.List;
 
 public interface Unmarshaller {
     Event unmarshall(InputStream source);
+
+    /**
+     * Reads every event from the source, which contains either a single event or a batch of events.
+     *
+     * @param source stream containing the events.
+     * @return the events read from the source.
+     */
+    List<Event> unmarshallAll(InputStream source);
 }